@@ -1,28 +1,34 @@
 package convert;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
 
+import org.apache.mahout.cf.taste.impl.model.file.RatingsConverter;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+
 
 public class MovieDataConvert
 {
   /**
-   * cat u.data | cut -f1,2,3 | tr "\\t" ","
+   * Converts MovieLens rating files (ml-100k u.data, ml-1M/10M ratings.dat or CSV) to CSV, or to
+   * the binary ratings format if the output ends in .ratings.
+   * <p>
+   * Arguments: [input [output [TAB|DOUBLE_COLON|CSV [timestamps]]]]; by default data/u.data is
+   * converted to data/movies.csv, and the layout is detected from the first line.
    */
   public static void main(String[] args) throws IOException
   {
-    BufferedReader br = new BufferedReader(new FileReader("data/u.data"));
-    BufferedWriter bw = new BufferedWriter(new FileWriter("data/movies.csv"));
-    String line;
-    while ((line = br.readLine()) != null) {
-      String[] values = line.split("\\t", -1);
-      bw.write(values[0] + "," + values[1] + "," + values[2] + "\n");
-    }
-    br.close();
-    bw.close();
+    File input = new File(args.length > 0 ? args[0] : "data/u.data");
+    File output = new File(args.length > 1 ? args[1] : "data/movies.csv");
+    RatingsConverter.Format format = args.length > 2 
+        ? RatingsConverter.Format.valueOf(args[2]) : null;
+    boolean keepTimestamps = args.length > 3 && "timestamps".equals(args[3]);
+    
+    long start = System.nanoTime();
+    long count = new RatingsConverter(format, keepTimestamps, 0).convert(input, output);
+    System.out.println("Converted " + count + " lines to " + output + " in " 
+        + (System.nanoTime() - start) / 1000000 + " ms" 
+        + (output.getName().endsWith(RatingsFile.EXTENSION) ? " (binary)" : ""));
   }
 
 }
@@ -6,27 +6,39 @@ import java.util.List;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+import org.apache.mahout.cf.taste.impl.recommender.AllSimilarItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
 import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.file.TopKItemSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 
 
 public class ItemRecommend
 {
+  /** Number of most similar items that are precomputed per item. */
+  static final int TOP_K = 20;
+
   public static void main(String[] args)
   {
     try 
     {
-      DataModel dm = new FileDataModel(new File("data/movies100k.csv"));
+      File dataFile = new File("data/movies100k.csv");
+      DataModel dm = RatingsFile.load(dataFile);
 
       // ItemSimilarity sim = new LogLikelihoodSimilarity(dm);
-      TanimotoCoefficientSimilarity sim = new TanimotoCoefficientSimilarity(dm);
-
-      GenericItemBasedRecommender recommender = new GenericItemBasedRecommender(dm, sim);
-
-      int x = 1;
+      // the most similar items of every item are computed once, in parallel, and kept in a file 
+      // next to the data, so that mostSimilarItems only has to look them up; it is built again 
+      // when the data file changes
+      TopKItemSimilarity sim = TopKItemSimilarity.mapOrBuild(
+          TopKItemSimilarity.fileFor(dataFile, "tanimoto", TOP_K), dataFile, dm, 
+          new TanimotoCoefficientSimilarity(dm), TOP_K);
+      AllSimilarItemsCandidateItemsStrategy candidates = 
+          new AllSimilarItemsCandidateItemsStrategy(sim);
+
+      GenericItemBasedRecommender recommender = 
+          new GenericItemBasedRecommender(dm, sim, candidates, candidates);
 
       for (LongPrimitiveIterator items = dm.getItemIDs(); items.hasNext();) {
         long itemId = items.nextLong();
@@ -36,8 +48,6 @@ public class ItemRecommend
           System.out.println(itemId + "," + recommendation.getItemID() + ","
               + recommendation.getValue());
         }
-        x++;
-        if (x > 10) System.exit(1);
       }
     } catch (IOException e) {
       e.printStackTrace();
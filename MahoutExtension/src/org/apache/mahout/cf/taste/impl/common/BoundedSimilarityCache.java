@@ -0,0 +1,499 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A cache of similarities by pair of IDs that stays within a byte budget. Keys are two longs,
+ * values doubles, and all of them are kept in primitive arrays, so an entry takes some
+ * {@value #BYTES_PER_ENTRY} bytes and no objects are created per lookup.
+ * </p><p>
+ * Which pairs stay is decided by W-TinyLFU (Einziger, Friedman and Manes, 2017): new pairs enter a
+ * small LRU window of 1% of the entries. A pair that falls out of the window only replaces the
+ * least recently used pair of the main part if it was asked for more often, according to a
+ * count-min sketch of 4-bit counters that are halved every 10 capacity accesses. The main part is
+ * a segmented LRU, with pairs that were hit in the probation segment promoted to the protected
+ * segment (80%). A scan over many pairs that are asked for once therefore does not push out the
+ * pairs that are asked for again and again, which is what an LRU cache of user pairs does during
+ * an evaluation.
+ * </p><p>
+ * The cache is split into segments by hash, each with its own lock, budget and policy. Values are
+ * computed by a {@link Loader} outside the lock, so the same pair may be computed twice at the
+ * same time; the first value to arrive is kept. A value is not kept if its segment was cleared or
+ * had pairs removed while it was computed, as it may have been computed from the data that
+ * changed.
+ * </p>
+ */
+public final class BoundedSimilarityCache {
+
+  /** Computes the value of a pair that is not in the cache. */
+  public interface Loader {
+    double load(long id1, long id2) throws TasteException;
+  }
+
+  /** Approximate bytes per entry: keys, value, links and region, hash table and sketch. */
+  public static final int BYTES_PER_ENTRY = 49;
+
+  static final int MIN_SEGMENT_CAPACITY = 64;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+
+  /**
+   * @param maxBytes budget of the whole cache; the cache holds at least
+   *  {@value #MIN_SEGMENT_CAPACITY} entries, whatever the budget
+   */
+  public BoundedSimilarityCache(long maxBytes) {
+    this(maxBytes, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param concurrency expected number of threads that use the cache at the same time
+   */
+  public BoundedSimilarityCache(long maxBytes, int concurrency) {
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+    // a power of two, at least twice the concurrency, as long as segments do not get too small
+    int numSegments = Integer.highestOneBit(2 * Math.max(1, concurrency) - 1) << 1;
+    while (numSegments > 1 && maxBytes / numSegments < Segment.sizeInBytes(MIN_SEGMENT_CAPACITY)) {
+      numSegments >>>= 1;
+    }
+    segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment(Segment.capacityFor(maxBytes / numSegments));
+    }
+    segmentMask = numSegments - 1;
+  }
+
+  /**
+   * The value of the pair, from the cache or else from the loader. The pair (id1, id2) is
+   * different from (id2, id1).
+   */
+  public double get(long id1, long id2, Loader loader) throws TasteException {
+    long hash = hash(id1, id2);
+    Segment segment = segments[(int) (hash >>> 32) & segmentMask];
+    int invalidations;
+    synchronized (segment) {
+      int entry = segment.find(id1, id2, hash);
+      segment.recordAccess(hash);
+      if (entry >= 0) {
+        segment.hits++;
+        segment.onHit(entry);
+        return segment.values[entry];
+      }
+      segment.misses++;
+      invalidations = segment.invalidations;
+    }
+    double value = loader.load(id1, id2);
+    synchronized (segment) {
+      if (segment.invalidations == invalidations && segment.find(id1, id2, hash) < 0) {
+        segment.insert(id1, id2, hash, value);
+      }
+    }
+    return value;
+  }
+
+  /** Removes every pair of which one of the IDs is the given ID. */
+  public void removeKeysMatching(long id) {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.removeMatching(id);
+      }
+    }
+  }
+
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  public long getHits() {
+    long hits = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        hits += segment.hits;
+      }
+    }
+    return hits;
+  }
+
+  public long getMisses() {
+    long misses = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        misses += segment.misses;
+      }
+    }
+    return misses;
+  }
+
+  /** Number of pairs that were dropped, or not let in, to stay within the budget. */
+  public long getEvictions() {
+    long evictions = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        evictions += segment.evictions;
+      }
+    }
+    return evictions;
+  }
+
+  /** Hits divided by hits plus misses, NaN before the first lookup. */
+  public double getHitRate() {
+    long hits = getHits();
+    long lookups = hits + getMisses();
+    return lookups == 0 ? Double.NaN : (double) hits / lookups;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public int getCapacity() {
+    int capacity = 0;
+    for (Segment segment : segments) {
+      capacity += segment.capacity;
+    }
+    return capacity;
+  }
+
+  /** Bytes taken by the arrays of the cache, which are allocated in full up front. */
+  public long getSizeInBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += Segment.sizeInBytes(segment.capacity);
+    }
+    return bytes;
+  }
+
+  static long hash(long id1, long id2) {
+    return mix(id1 * 0x9E3779B97F4A7C15L + id2);
+  }
+
+  /** SplitMix64 finalizer. */
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  @Override
+  public String toString() {
+    return "BoundedSimilarityCache[size:" + size() + ", capacity:" + getCapacity() + ", hits:"
+        + getHits() + ", misses:" + getMisses() + ", evictions:" + getEvictions() + ']';
+  }
+
+  /**
+   * One W-TinyLFU cache. Entries are numbers into parallel arrays and are linked into one of three
+   * LRU lists, from least (head) to most (tail) recently used; a linear probing hash table maps a
+   * pair to its entry.
+   */
+  private static final class Segment {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int NONE = -1;
+
+    private static final long[] SKETCH_SEEDS = {
+      0x97CB3127D5A1B0F1L, 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL
+    };
+
+    final int capacity;
+    private final int windowMax;
+    private final int mainMax;
+    private final int protectedMax;
+    private final long[] keys1;
+    private final long[] keys2;
+    final double[] values;
+    private final int[] previous;
+    private final int[] next;
+    private final byte[] regions;
+    // entry + 1 per slot, 0 for an empty slot
+    private final int[] table;
+    private final int tableMask;
+    private final long[] sketch;
+    private final int sketchMask;
+    private final int sampleLimit;
+    private int samples;
+    private final int[] heads = new int[3];
+    private final int[] tails = new int[3];
+    private final int[] sizes = new int[3];
+    private int free;
+    long hits;
+    long misses;
+    long evictions;
+    // counts clears and removals, so that a value loaded meanwhile is not inserted
+    int invalidations;
+
+    Segment(int capacity) {
+      this.capacity = capacity;
+      windowMax = Math.max(1, capacity / 100);
+      mainMax = capacity - windowMax;
+      protectedMax = mainMax * 4 / 5;
+      // one spare entry, for the new pair while the policy decides which one goes
+      keys1 = new long[capacity + 1];
+      keys2 = new long[capacity + 1];
+      values = new double[capacity + 1];
+      previous = new int[capacity + 1];
+      next = new int[capacity + 1];
+      regions = new byte[capacity + 1];
+      table = new int[tableSize(capacity)];
+      tableMask = table.length - 1;
+      sketch = new long[sketchSize(capacity)];
+      sketchMask = sketch.length - 1;
+      sampleLimit = 10 * capacity;
+      clear();
+    }
+
+    private static int tableSize(int capacity) {
+      // load factor at most one half
+      return Integer.highestOneBit(2 * capacity + 1) << 1;
+    }
+
+    private static int sketchSize(int capacity) {
+      // 16 counters per word, at least 8 per entry
+      return Integer.highestOneBit(Math.max(1, capacity / 2));
+    }
+
+    static long sizeInBytes(int capacity) {
+      return (capacity + 1L) * (8 + 8 + 8 + 4 + 4 + 1) + 4L * tableSize(capacity)
+          + 8L * sketchSize(capacity);
+    }
+
+    /** The largest capacity within the budget, but at least the minimum capacity. */
+    static int capacityFor(long maxBytes) {
+      int low = MIN_SEGMENT_CAPACITY;
+      int high = (int) Math.min(Integer.MAX_VALUE / 8, Math.max(low, maxBytes / 33));
+      while (low < high) {
+        int middle = (int) (((long) low + high + 1) >>> 1);
+        if (sizeInBytes(middle) <= maxBytes) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return low;
+    }
+
+    int size() {
+      return sizes[WINDOW] + sizes[PROBATION] + sizes[PROTECTED];
+    }
+
+    void clear() {
+      invalidations++;
+      Arrays.fill(table, 0);
+      Arrays.fill(sketch, 0L);
+      samples = 0;
+      Arrays.fill(heads, NONE);
+      Arrays.fill(tails, NONE);
+      Arrays.fill(sizes, 0);
+      for (int entry = 0; entry < capacity; entry++) {
+        next[entry] = entry + 1;
+      }
+      next[capacity] = NONE;
+      free = 0;
+    }
+
+    int find(long id1, long id2, long hash) {
+      int slot = (int) hash & tableMask;
+      while (true) {
+        int entry = table[slot] - 1;
+        if (entry < 0) {
+          return NONE;
+        }
+        if (keys1[entry] == id1 && keys2[entry] == id2) {
+          return entry;
+        }
+        slot = (slot + 1) & tableMask;
+      }
+    }
+
+    void onHit(int entry) {
+      switch (regions[entry]) {
+        case WINDOW:
+        case PROTECTED:
+          unlink(entry);
+          append(regions[entry], entry);
+          break;
+        default:
+          unlink(entry);
+          append(PROTECTED, entry);
+          if (sizes[PROTECTED] > protectedMax) {
+            int demoted = heads[PROTECTED];
+            unlink(demoted);
+            append(PROBATION, demoted);
+          }
+          break;
+      }
+    }
+
+    void insert(long id1, long id2, long hash, double value) {
+      int entry = free;
+      free = next[entry];
+      keys1[entry] = id1;
+      keys2[entry] = id2;
+      values[entry] = value;
+      int slot = (int) hash & tableMask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & tableMask;
+      }
+      table[slot] = entry + 1;
+      append(WINDOW, entry);
+      if (sizes[WINDOW] <= windowMax) {
+        return;
+      }
+      int candidate = heads[WINDOW];
+      unlink(candidate);
+      if (sizes[PROBATION] + sizes[PROTECTED] < mainMax) {
+        append(PROBATION, candidate);
+        return;
+      }
+      int victim = heads[PROBATION] != NONE ? heads[PROBATION] : heads[PROTECTED];
+      if (victim != NONE && frequency(hashOf(candidate)) > frequency(hashOf(victim))) {
+        append(PROBATION, candidate);
+        unlink(victim);
+        remove(victim);
+      } else {
+        remove(candidate);
+      }
+      evictions++;
+    }
+
+    void removeMatching(long id) {
+      invalidations++;
+      for (int region = WINDOW; region <= PROTECTED; region++) {
+        int entry = heads[region];
+        while (entry != NONE) {
+          int following = next[entry];
+          if (keys1[entry] == id || keys2[entry] == id) {
+            unlink(entry);
+            remove(entry);
+          }
+          entry = following;
+        }
+      }
+    }
+
+    private long hashOf(int entry) {
+      return hash(keys1[entry], keys2[entry]);
+    }
+
+    /** Takes an entry that is in no list out of the hash table and puts it on the free list. */
+    private void remove(int entry) {
+      int slot = (int) hashOf(entry) & tableMask;
+      while (table[slot] != entry + 1) {
+        slot = (slot + 1) & tableMask;
+      }
+      // move back later entries of the same probe sequence, so that they can still be found
+      int hole = slot;
+      int other = slot;
+      while (true) {
+        other = (other + 1) & tableMask;
+        if (table[other] == 0) {
+          break;
+        }
+        int home = (int) hashOf(table[other] - 1) & tableMask;
+        if (((other - home) & tableMask) >= ((other - hole) & tableMask)) {
+          table[hole] = table[other];
+          hole = other;
+        }
+      }
+      table[hole] = 0;
+      next[entry] = free;
+      free = entry;
+    }
+
+    private void unlink(int entry) {
+      int region = regions[entry];
+      int before = previous[entry];
+      int after = next[entry];
+      if (before == NONE) {
+        heads[region] = after;
+      } else {
+        next[before] = after;
+      }
+      if (after == NONE) {
+        tails[region] = before;
+      } else {
+        previous[after] = before;
+      }
+      sizes[region]--;
+    }
+
+    private void append(int region, int entry) {
+      regions[entry] = (byte) region;
+      previous[entry] = tails[region];
+      next[entry] = NONE;
+      if (tails[region] == NONE) {
+        heads[region] = entry;
+      } else {
+        next[tails[region]] = entry;
+      }
+      tails[region] = entry;
+      sizes[region]++;
+    }
+
+    void recordAccess(long hash) {
+      boolean added = false;
+      for (long seed : SKETCH_SEEDS) {
+        long h = mix(hash + seed);
+        int word = (int) (h >>> 32) & sketchMask;
+        int shift = ((int) h & 15) << 2;
+        if (((sketch[word] >>> shift) & 15L) < 15L) {
+          sketch[word] += 1L << shift;
+          added = true;
+        }
+      }
+      if (added && ++samples >= sampleLimit) {
+        for (int i = 0; i < sketch.length; i++) {
+          sketch[i] = (sketch[i] >>> 1) & 0x7777777777777777L;
+        }
+        samples >>>= 1;
+      }
+    }
+
+    private int frequency(long hash) {
+      long frequency = 15L;
+      for (long seed : SKETCH_SEEDS) {
+        long h = mix(hash + seed);
+        int word = (int) (h >>> 32) & sketchMask;
+        int shift = ((int) h & 15) << 2;
+        frequency = Math.min(frequency, (sketch[word] >>> shift) & 15L);
+      }
+      return (int) frequency;
+    }
+
+  }
+
+}
@@ -0,0 +1,113 @@
+package org.apache.mahout.cf.taste.impl.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BoundedSimilarityCacheTest
+{
+
+  /** Similarity that is easy to check, and counts how often it is asked. */
+  private static final class CountingLoader implements BoundedSimilarityCache.Loader
+  {
+    int loads;
+
+    @Override
+    public double load(long id1, long id2)
+    {
+      loads++;
+      return id1 * 1000.0 + id2;
+    }
+  }
+
+  @Test
+  public void testStaysWithinBudget() throws Exception
+  {
+    long maxBytes = 200 * 1024;
+    BoundedSimilarityCache cache = new BoundedSimilarityCache(maxBytes, 4);
+    assertTrue(cache.getSizeInBytes() <= maxBytes);
+    assertTrue(cache.getCapacity() >= maxBytes / BoundedSimilarityCache.BYTES_PER_ENTRY / 2);
+    CountingLoader loader = new CountingLoader();
+    Random random = new Random(1);
+    for (int n = 0; n < 100000; n++) {
+      long id1 = random.nextInt(500);
+      long id2 = random.nextInt(500);
+      assertEquals(id1 * 1000.0 + id2, cache.get(id1, id2, loader), 0.0);
+    }
+    assertTrue(cache.size() <= cache.getCapacity());
+    assertEquals(100000, cache.getHits() + cache.getMisses());
+    assertEquals(loader.loads, cache.getMisses());
+    assertEquals(cache.getMisses() - cache.size(), cache.getEvictions());
+  }
+
+  @Test
+  public void testFrequentPairsSurviveScan() throws Exception
+  {
+    BoundedSimilarityCache cache = new BoundedSimilarityCache(64 * 1024, 1);
+    int hot = cache.getCapacity() / 2;
+    CountingLoader loader = new CountingLoader();
+    for (int round = 0; round < 5; round++) {
+      for (long id = 0; id < hot; id++) {
+        cache.get(id, id, loader);
+      }
+    }
+    // many pairs that are asked for once, ten times the capacity
+    for (long id = 0; id < 10L * cache.getCapacity(); id++) {
+      cache.get(-1, id, loader);
+    }
+    loader.loads = 0;
+    for (long id = 0; id < hot; id++) {
+      cache.get(id, id, loader);
+    }
+    // an LRU cache would have lost them all
+    assertTrue(loader.loads < hot / 10);
+  }
+
+  @Test
+  public void testRemoveKeysMatching() throws Exception
+  {
+    BoundedSimilarityCache cache = new BoundedSimilarityCache(1024 * 1024);
+    CountingLoader loader = new CountingLoader();
+    for (long id1 = 0; id1 < 100; id1++) {
+      for (long id2 = id1; id2 < 100; id2++) {
+        cache.get(id1, id2, loader);
+      }
+    }
+    assertEquals(5050, cache.size());
+    cache.removeKeysMatching(7);
+    assertEquals(5050 - 100, cache.size());
+    loader.loads = 0;
+    cache.get(3, 7, loader);
+    cache.get(7, 50, loader);
+    cache.get(3, 8, loader);
+    assertEquals(2, loader.loads);
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testRemovalDuringLoadIsNotUndone() throws Exception
+  {
+    final BoundedSimilarityCache cache = new BoundedSimilarityCache(1024 * 1024);
+    // the data of user 7 changes while the similarity is computed from the old data
+    BoundedSimilarityCache.Loader stale = new BoundedSimilarityCache.Loader() {
+      @Override
+      public double load(long id1, long id2)
+      {
+        cache.removeKeysMatching(7);
+        return -1.0;
+      }
+    };
+    assertEquals(-1.0, cache.get(3, 7, stale), 0.0);
+    assertEquals(0, cache.size());
+    CountingLoader loader = new CountingLoader();
+    assertEquals(3007.0, cache.get(3, 7, loader), 0.0);
+    assertEquals(1, loader.loads);
+    assertEquals(3007.0, cache.get(3, 7, loader), 0.0);
+    assertEquals(1, loader.loads);
+  }
+
+}
@@ -0,0 +1,251 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An immutable set of non-negative ints, compressed the way Roaring bitmaps are: the values are
+ * grouped by their upper 16 bits, and every group is stored in whichever of two containers is
+ * smaller. Up to {@link #MAX_ARRAY_SIZE} values go in a sorted array of their lower 16 bits, two
+ * bytes per value; more go in a bitmap of 2<sup>16</sup> bits, which takes 8 KB however many of
+ * them are set.
+ * </p><p>
+ * Sparse sets therefore take about two bytes per value, dense sets about one bit, and
+ * {@link #intersectionSize(CompressedBitmap)} runs per pair of containers: a merge of two arrays,
+ * a lookup of array values in a bitmap, or a popcount over the AND of two bitmaps.
+ * </p>
+ */
+public final class CompressedBitmap implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Largest number of values of a group that is stored as an array. */
+  public static final int MAX_ARRAY_SIZE = 4096;
+
+  private static final int BITMAP_WORDS = 1 << 10;
+
+  public static final CompressedBitmap EMPTY = new CompressedBitmap(new char[0], new char[0][],
+      new long[0][], 0);
+
+  // upper 16 bits of the values of each group, ascending
+  private final char[] keys;
+  // per group either the sorted lower 16 bits, or null if the group is a bitmap
+  private final char[][] arrays;
+  // per group either a bitmap of the lower 16 bits, or null if the group is an array
+  private final long[][] bitmaps;
+  private final int cardinality;
+
+  private CompressedBitmap(char[] keys, char[][] arrays, long[][] bitmaps, int cardinality) {
+    this.keys = keys;
+    this.arrays = arrays;
+    this.bitmaps = bitmaps;
+    this.cardinality = cardinality;
+  }
+
+  /**
+   * @param values ascending, distinct, non-negative values
+   */
+  public static CompressedBitmap of(int[] values) {
+    return of(values, 0, values.length);
+  }
+
+  /**
+   * @param values ascending, distinct, non-negative values in {@code values[from]} up to but not
+   *  including {@code values[to]}
+   */
+  public static CompressedBitmap of(int[] values, int from, int to) {
+    if (from == to) {
+      return EMPTY;
+    }
+    Preconditions.checkArgument(values[from] >= 0, "Negative value: " + values[from]);
+    int numGroups = 1;
+    for (int i = from + 1; i < to; i++) {
+      Preconditions.checkArgument(values[i] > values[i - 1], "Values not ascending at " + i);
+      if (values[i] >>> 16 != values[i - 1] >>> 16) {
+        numGroups++;
+      }
+    }
+    char[] keys = new char[numGroups];
+    char[][] arrays = new char[numGroups][];
+    long[][] bitmaps = new long[numGroups][];
+    int group = 0;
+    int start = from;
+    while (start < to) {
+      int key = values[start] >>> 16;
+      int end = start + 1;
+      while (end < to && values[end] >>> 16 == key) {
+        end++;
+      }
+      keys[group] = (char) key;
+      if (end - start <= MAX_ARRAY_SIZE) {
+        char[] array = new char[end - start];
+        for (int i = start; i < end; i++) {
+          array[i - start] = (char) values[i];
+        }
+        arrays[group] = array;
+      } else {
+        long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = start; i < end; i++) {
+          bitmap[(values[i] >>> 6) & (BITMAP_WORDS - 1)] |= 1L << values[i];
+        }
+        bitmaps[group] = bitmap;
+      }
+      group++;
+      start = end;
+    }
+    return new CompressedBitmap(keys, arrays, bitmaps, to - from);
+  }
+
+  public int cardinality() {
+    return cardinality;
+  }
+
+  public boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  public boolean contains(int value) {
+    if (value < 0) {
+      return false;
+    }
+    int group = Arrays.binarySearch(keys, (char) (value >>> 16));
+    if (group < 0) {
+      return false;
+    }
+    char low = (char) value;
+    char[] array = arrays[group];
+    if (array != null) {
+      return Arrays.binarySearch(array, low) >= 0;
+    }
+    return (bitmaps[group][low >>> 6] & (1L << low)) != 0;
+  }
+
+  /**
+   * Number of values in both this set and the other, without building the intersection.
+   */
+  public int intersectionSize(CompressedBitmap other) {
+    int count = 0;
+    int g1 = 0;
+    int g2 = 0;
+    while (g1 < keys.length && g2 < other.keys.length) {
+      char key1 = keys[g1];
+      char key2 = other.keys[g2];
+      if (key1 < key2) {
+        g1++;
+      } else if (key1 > key2) {
+        g2++;
+      } else {
+        char[] array1 = arrays[g1];
+        char[] array2 = other.arrays[g2];
+        if (array1 != null && array2 != null) {
+          count += intersectionSize(array1, array2);
+        } else if (array1 != null) {
+          count += intersectionSize(array1, other.bitmaps[g2]);
+        } else if (array2 != null) {
+          count += intersectionSize(array2, bitmaps[g1]);
+        } else {
+          count += intersectionSize(bitmaps[g1], other.bitmaps[g2]);
+        }
+        g1++;
+        g2++;
+      }
+    }
+    return count;
+  }
+
+  private static int intersectionSize(char[] array1, char[] array2) {
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < array1.length && j < array2.length) {
+      char a = array1[i];
+      char b = array2[j];
+      if (a < b) {
+        i++;
+      } else if (a > b) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  private static int intersectionSize(char[] array, long[] bitmap) {
+    int count = 0;
+    for (char value : array) {
+      count += (int) (bitmap[value >>> 6] >>> value) & 1;
+    }
+    return count;
+  }
+
+  private static int intersectionSize(long[] bitmap1, long[] bitmap2) {
+    int count = 0;
+    for (int w = 0; w < BITMAP_WORDS; w++) {
+      count += Long.bitCount(bitmap1[w] & bitmap2[w]);
+    }
+    return count;
+  }
+
+  /** The values of this set, ascending. */
+  public int[] toArray() {
+    int[] values = new int[cardinality];
+    int n = 0;
+    for (int group = 0; group < keys.length; group++) {
+      int high = keys[group] << 16;
+      char[] array = arrays[group];
+      if (array != null) {
+        for (char low : array) {
+          values[n++] = high | low;
+        }
+      } else {
+        long[] bitmap = bitmaps[group];
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+          long word = bitmap[w];
+          while (word != 0) {
+            values[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+          }
+        }
+      }
+    }
+    return values;
+  }
+
+  /** Approximate number of bytes this set takes on the heap. */
+  public long sizeInBytes() {
+    long size = 16 + 3 * 16 + 2 * keys.length + 8 * (arrays.length + bitmaps.length);
+    for (int group = 0; group < keys.length; group++) {
+      size += arrays[group] != null ? 16 + 2 * arrays[group].length : 16 + 8 * BITMAP_WORDS;
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "CompressedBitmap[cardinality:" + cardinality + ", groups:" + keys.length + ']';
+  }
+
+}
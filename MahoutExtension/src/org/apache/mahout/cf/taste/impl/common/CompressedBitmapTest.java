@@ -0,0 +1,98 @@
+package org.apache.mahout.cf.taste.impl.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressedBitmapTest
+{
+
+  /** Random set over three groups: one sparse, one dense, one in between. */
+  private static BitSet randomSet(Random random)
+  {
+    BitSet set = new BitSet();
+    double[] densities = { 0.001, 0.5, random.nextDouble() * 0.15 };
+    for (int group = 0; group < densities.length; group++) {
+      for (int low = 0; low < 1 << 16; low++) {
+        if (random.nextDouble() < densities[group]) {
+          set.set((group * 3 << 16) | low);
+        }
+      }
+    }
+    return set;
+  }
+
+  private static int[] toArray(BitSet set)
+  {
+    int[] values = new int[set.cardinality()];
+    int n = 0;
+    for (int v = set.nextSetBit(0); v >= 0; v = set.nextSetBit(v + 1)) {
+      values[n++] = v;
+    }
+    return values;
+  }
+
+  @Test
+  public void testSameAsBitSet()
+  {
+    Random random = new Random(17);
+    for (int run = 0; run < 10; run++) {
+      BitSet set1 = randomSet(random);
+      BitSet set2 = randomSet(random);
+      CompressedBitmap bitmap1 = CompressedBitmap.of(toArray(set1));
+      CompressedBitmap bitmap2 = CompressedBitmap.of(toArray(set2));
+
+      assertEquals(set1.cardinality(), bitmap1.cardinality());
+      assertArrayEquals(toArray(set1), bitmap1.toArray());
+      BitSet intersection = (BitSet) set1.clone();
+      intersection.and(set2);
+      assertEquals(intersection.cardinality(), bitmap1.intersectionSize(bitmap2));
+      assertEquals(intersection.cardinality(), bitmap2.intersectionSize(bitmap1));
+      for (int i = 0; i < 1000; i++) {
+        int value = random.nextInt(10 << 16);
+        assertEquals(set1.get(value), bitmap1.contains(value));
+      }
+    }
+  }
+
+  @Test
+  public void testEmpty()
+  {
+    CompressedBitmap bitmap = CompressedBitmap.of(new int[] { 5, 70000 });
+    assertTrue(CompressedBitmap.of(new int[0]).isEmpty());
+    assertEquals(0, bitmap.intersectionSize(CompressedBitmap.EMPTY));
+    assertFalse(bitmap.contains(-5));
+    assertTrue(bitmap.contains(70000));
+  }
+
+  @Test
+  public void testSerialization() throws Exception
+  {
+    CompressedBitmap bitmap = CompressedBitmap.of(toArray(randomSet(new Random(3))));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(bitmap);
+    out.close();
+    CompressedBitmap copy = (CompressedBitmap) new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertArrayEquals(bitmap.toArray(), copy.toArray());
+    assertEquals(bitmap.cardinality(), copy.intersectionSize(bitmap));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsorted()
+  {
+    CompressedBitmap.of(new int[] { 3, 2 });
+  }
+
+}
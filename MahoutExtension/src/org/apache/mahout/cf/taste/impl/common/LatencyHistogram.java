@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A histogram of latencies in nanoseconds that many threads can record into at once without
+ * locking. Unlike {@link RunningAverageAndStdDev} it answers percentile queries, which is what
+ * tail latency targets are stated in.
+ * </p><p>
+ * The buckets are laid out like those of an HDR histogram: values below 128 ns each have their own
+ * bucket, and every further power of two is divided into 128 buckets of equal width. A reported
+ * percentile is therefore at most 1/128 (under 0.8%) above the real value, over the whole range of
+ * a long, with a fixed footprint of about 58 kB.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+    record(nanos, 1);
+  }
+
+  /**
+   * Records {@code count} occurrences of the same latency, for instance the average latency of the
+   * estimates of one batch.
+   */
+  public void record(long nanos, long count) {
+    Preconditions.checkArgument(count >= 0, "count must not be negative");
+    if (count == 0) {
+      return;
+    }
+    long value = nanos < 0 ? 0 : nanos;
+    counts.addAndGet(bucket(value), count);
+    totalCount.addAndGet(count);
+    totalNanos.addAndGet(value * count);
+    long max = maxNanos.get();
+    while (value > max && !maxNanos.compareAndSet(max, value)) {
+      max = maxNanos.get();
+    }
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & SUB_BUCKET_MASK);
+  }
+
+  /** The largest value that falls into the bucket. */
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long lowest = (long) (SUB_BUCKET_COUNT + (bucket & SUB_BUCKET_MASK)) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  public double getMeanNanos() {
+    long count = totalCount.get();
+    return count == 0 ? Double.NaN : (double) totalNanos.get() / count;
+  }
+
+  /**
+   * @param percentile between 0 and 100, for instance 99.9
+   * @return a latency in nanoseconds that at least {@code percentile} percent of the recorded
+   *  latencies do not exceed, or 0 if nothing was recorded. Meant to be called after recording is
+   *  done; while other threads are still recording the result is approximate.
+   */
+  public long getValueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0,
+        "Invalid percentile: " + percentile);
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+    long max = maxNanos.get();
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValue(i), max);
+      }
+    }
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram[count:" + getCount() + ", p50:" + getValueAtPercentile(50.0) 
+        + "ns, p99:" + getValueAtPercentile(99.0) + "ns, max:" + getMaxNanos() + "ns]";
+  }
+
+}
@@ -0,0 +1,67 @@
+package org.apache.mahout.cf.taste.impl.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+
+  @Test
+  public void testBucketsCoverValues()
+  {
+    Random random = new Random(3);
+    for (int i = 0; i < 100000; i++) {
+      long value = random.nextLong() >>> (1 + random.nextInt(63));
+      int bucket = LatencyHistogram.bucket(value);
+      assertTrue(value <= LatencyHistogram.highestValue(bucket));
+      assertTrue(bucket == 0 || value > LatencyHistogram.highestValue(bucket - 1));
+    }
+    assertEquals(Long.MAX_VALUE,
+        LatencyHistogram.highestValue(LatencyHistogram.bucket(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPercentilesWithinPrecision() throws InterruptedException
+  {
+    final long[] values = new long[40000];
+    Random random = new Random(5);
+    for (int i = 0; i < values.length; i++) {
+      // log-normal, like real latencies
+      values[i] = (long) Math.exp(10 + 2 * random.nextGaussian());
+    }
+    final LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run()
+        {
+          for (int i = offset; i < values.length; i += 4) {
+            histogram.record(values[i]);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Arrays.sort(values);
+    assertEquals(values.length, histogram.getCount());
+    assertEquals(values[values.length - 1], histogram.getMaxNanos());
+    for (double percentile : new double[] { 50.0, 90.0, 99.0, 99.9 }) {
+      long exact = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+      long reported = histogram.getValueAtPercentile(percentile);
+      assertTrue(reported >= exact);
+      assertTrue(reported <= exact + exact / 128);
+    }
+  }
+
+}
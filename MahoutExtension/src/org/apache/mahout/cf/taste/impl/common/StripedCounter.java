@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A counter for many threads that increment often and read rarely, along the lines of Java 8's
+ * {@code LongAdder}. The count is spread over a number of stripes, each on its own cache line; a
+ * thread always adds to the stripe its ID hashes to, so threads seldom contend for one line.
+ * {@link #get()} adds up the stripes, and is exact once the incrementing threads are done.
+ * </p>
+ */
+public final class StripedCounter {
+
+  // 8 longs = 64 bytes, so that two stripes never share a cache line
+  private static final int PADDING = 8;
+
+  private final AtomicLongArray cells;
+  private final int mask;
+
+  public StripedCounter() {
+    // a power of two, at least twice the number of processors
+    int processors = Math.max(1, Runtime.getRuntime().availableProcessors());
+    int stripes = Integer.highestOneBit(2 * processors - 1) << 1;
+    cells = new AtomicLongArray(stripes * PADDING);
+    mask = stripes - 1;
+  }
+
+  public void increment() {
+    add(1L);
+  }
+
+  public void add(long delta) {
+    cells.addAndGet(stripe() * PADDING, delta);
+  }
+
+  private int stripe() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  public long get() {
+    long sum = 0;
+    for (int i = 0; i < cells.length(); i += PADDING) {
+      sum += cells.get(i);
+    }
+    return sum;
+  }
+
+  /** Sets the count to 0; increments that happen at the same time may or may not be lost. */
+  public void reset() {
+    for (int i = 0; i < cells.length(); i += PADDING) {
+      cells.set(i, 0L);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.valueOf(get());
+  }
+
+}
@@ -0,0 +1,36 @@
+package org.apache.mahout.cf.taste.impl.common;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class StripedCounterTest
+{
+
+  @Test
+  public void testConcurrentIncrements() throws InterruptedException
+  {
+    final StripedCounter counter = new StripedCounter();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < 100000; i++) {
+            counter.increment();
+          }
+          counter.add(5);
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(8 * 100005L, counter.get());
+    counter.reset();
+    assertEquals(0L, counter.get());
+  }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+/**
+ * <p>
+ * The average absolute difference between estimated and real preferences, over all test
+ * preferences, like {@link AverageAbsoluteDifferenceRecommenderEvaluator}. This version runs on the
+ * evaluation framework of {@link AbstractRankBasedRecommenderEvaluator}, so it can share a split
+ * and a trained recommender with other metrics through an {@link EvaluationSession}, and it uses
+ * batched estimation where the recommender supports it.
+ * </p>
+ */
+public final class AbsoluteDifferenceRecommenderEvaluator 
+    extends AbstractRankBasedRecommenderEvaluator {
+
+  @Override
+  protected void reset() {
+  }
+
+  /**
+   * Returns the sum, not the average, of the user's absolute differences, so the final result
+   * weighs every preference equally; the number of estimates is the user's weight.
+   */
+  @Override
+  protected double processOneUser(long userId, PreferenceRankBuffer prefs) {
+    int n = prefs.size();
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += Math.abs(prefs.getEstimatedPref(i) - prefs.getRealPref(i));
+    }
+    return sum;
+  }
+
+  @Override
+  protected double userWeight(long userId, PreferenceRankBuffer prefs) {
+    return prefs.size();
+  }
+
+  @Override
+  protected double computeFinalEvaluation(double[] userScores) {
+    throw new UnsupportedOperationException("Needs the number of estimates of every user");
+  }
+
+  @Override
+  protected double computeFinalEvaluation(double[] userScores, double[] userWeights) {
+    double sum = 0;
+    double count = 0;
+    for (int i = 0; i < userScores.length; i++) {
+      sum += userScores[i];
+      count += userWeights[i];
+    }
+    return count == 0 ? Double.NaN : sum / count;
+  }
+
+  @Override
+  public String toString() {
+    return "AbsoluteDifferenceRecommenderEvaluator";
+  }
+
+}
@@ -19,7 +19,6 @@ package org.apache.mahout.cf.taste.impl.eval;
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
@@ -27,15 +26,13 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
+import org.apache.mahout.cf.taste.impl.eval.EvaluationDiagnostics.Outcome;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
-import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.LatencyHistogram;
 import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
-import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
-import org.apache.mahout.cf.taste.impl.model.GenericPreference;
-import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.BatchPreferenceEstimator;
 import org.apache.mahout.cf.taste.model.DataModel;
-import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.common.RandomUtils;
@@ -52,14 +49,30 @@ public abstract class AbstractRankBasedRecommenderEvaluator implements Recommend
   
   private static final Logger log = LoggerFactory.getLogger(AbstractDifferenceRecommenderEvaluator.class);
   
-  private final Random random;
+  static final int PROGRESSIVE_BLOCK_SIZE = 256;
+  
+  /** Seed of the split that the plain evaluate method makes, unless {@link #setSeed} is called. */
+  public static final long DEFAULT_SEED = 42L;
+  
+  private long seed;
   private float maxPreference;
   private float minPreference;
+  private volatile LatencyHistogram estimateLatency = new LatencyHistogram();
+  private final EvaluationDiagnostics diagnostics = new EvaluationDiagnostics();
+  private int numThreads;
+  // reused by all users a worker thread evaluates
+  private final ThreadLocal<PreferenceRankBuffer> rankBuffers = new ThreadLocal<PreferenceRankBuffer>() {
+    @Override
+    protected PreferenceRankBuffer initialValue() {
+      return new PreferenceRankBuffer();
+    }
+  };
   
   protected AbstractRankBasedRecommenderEvaluator() {
-    random = RandomUtils.getRandom();
+    seed = DEFAULT_SEED;
     maxPreference = Float.NaN;
     minPreference = Float.NaN;
+    numThreads = Runtime.getRuntime().availableProcessors();
   }
   
   @Override
@@ -82,6 +95,46 @@ public abstract class AbstractRankBasedRecommenderEvaluator implements Recommend
     this.minPreference = minPreference;
   }
   
+  /**
+   * Latencies of the estimates of the last evaluation. For recommenders that estimate a user's
+   * test items in one batch, every estimate of the batch counts for the batch's average.
+   */
+  public final LatencyHistogram getEstimateLatency() {
+    return estimateLatency;
+  }
+  
+  /**
+   * Outcome counts of the estimates of the last (or the running) evaluation.
+   */
+  public final EvaluationDiagnostics getDiagnostics() {
+    return diagnostics;
+  }
+  
+  public final long getSeed() {
+    return seed;
+  }
+  
+  /**
+   * Sets the seed of the split that {@link #evaluate(RecommenderBuilder, DataModelBuilder,
+   * DataModel, double, double)} makes. With the same seed and data model, every evaluation uses the
+   * same split, so results are reproducible and different recommenders are compared on equal terms.
+   */
+  public final void setSeed(long seed) {
+    this.seed = seed;
+  }
+  
+  public final int getNumThreads() {
+    return numThreads;
+  }
+  
+  /**
+   * Sets the number of worker threads used to evaluate the test users. The result does not depend
+   * on this number; a value smaller than 1 means: one thread per available processor.
+   */
+  public final void setNumThreads(int numThreads) {
+    this.numThreads = numThreads < 1 ? Runtime.getRuntime().availableProcessors() : numThreads;
+  }
+  
   @Override
   public double evaluate(RecommenderBuilder recommenderBuilder,
                          DataModelBuilder dataModelBuilder,
@@ -97,66 +150,128 @@ public abstract class AbstractRankBasedRecommenderEvaluator implements Recommend
 
     log.info("Beginning evaluation using {} of {}", trainingPercentage, dataModel);
     
-    int numUsers = dataModel.getNumUsers();
-    FastByIDMap<PreferenceArray> trainingPrefs = new FastByIDMap<PreferenceArray>(
-        1 + (int) (evaluationPercentage * numUsers));
-    FastByIDMap<PreferenceArray> testPrefs = new FastByIDMap<PreferenceArray>(
-        1 + (int) (evaluationPercentage * numUsers));
+    // the split is a view on dataModel; it does not copy the preferences
+    TrainingTestSplit split = new TrainingTestSplit(dataModel, trainingPercentage, 
+        evaluationPercentage, seed);
     
-    LongPrimitiveIterator it = dataModel.getUserIDs();
-    while (it.hasNext()) {
-      long userID = it.nextLong();
-      if (random.nextDouble() < evaluationPercentage) {
-        splitOneUsersPrefs(trainingPercentage, trainingPrefs, testPrefs, userID, dataModel);
-      }
-    }
-    
-    DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingPrefs)
-        : dataModelBuilder.buildDataModel(trainingPrefs);
+    DataModel trainingModel = dataModelBuilder == null ? split.getTrainingModel()
+        : dataModelBuilder.buildDataModel(split.getTrainingPrefs());
     
     Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
     
-    double result = getEvaluation(testPrefs, recommender);
+    double result = getEvaluation(split.getTestPrefs(), recommender);
     log.info("Evaluation result: {}", result);
     return result;
   }
   
-  private void splitOneUsersPrefs(double trainingPercentage,
-                                  FastByIDMap<PreferenceArray> trainingPrefs,
-                                  FastByIDMap<PreferenceArray> testPrefs,
-                                  long userID,
-                                  DataModel dataModel) throws TasteException {
-    List<Preference> oneUserTrainingPrefs = null;
-    List<Preference> oneUserTestPrefs = null;
-    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
-    int size = prefs.length();
-    for (int i = 0; i < size; i++) {
-      Preference newPref = new GenericPreference(userID, prefs.getItemID(i), prefs.getValue(i));
-      if (random.nextDouble() < trainingPercentage) {
-        if (oneUserTrainingPrefs == null) {
-          oneUserTrainingPrefs = Lists.newArrayListWithCapacity(3);
+  /**
+   * Evaluates the recommender of the session on the test set of its split, without splitting or
+   * training again.
+   */
+  public double evaluate(EvaluationSession session) throws TasteException {
+    Preconditions.checkNotNull(session);
+    log.info("Beginning evaluation of {} on a shared split", this);
+    double result = getEvaluation(session.getSplit().getTestPrefs(), session.getRecommender());
+    log.info("Evaluation result: {}", result);
+    return result;
+  }
+
+  /**
+   * <p>
+   * Evaluates the recommender of the session on its test users in random order, in blocks of
+   * {@value #PROGRESSIVE_BLOCK_SIZE} users, and stops as soon as the 95% confidence interval of the
+   * evaluation is at most {@code maxIntervalWidth} wide or {@code timeBudgetMillis} have passed.
+   * Both are checked after every block; a {@code maxIntervalWidth} of 0 and a
+   * {@code timeBudgetMillis} of 0 evaluate all test users. The order only depends on the seed of
+   * the split, so with the same split and no time limit the result is reproducible. All blocks are
+   * evaluated by one pool of worker threads.
+   * </p>
+   */
+  public ProgressiveEvaluation evaluateProgressively(EvaluationSession session,
+                                                     double maxIntervalWidth,
+                                                     long timeBudgetMillis) throws TasteException {
+    Preconditions.checkNotNull(session);
+    Preconditions.checkArgument(maxIntervalWidth >= 0.0, "Invalid maxIntervalWidth");
+    Preconditions.checkArgument(timeBudgetMillis >= 0, "Invalid timeBudgetMillis");
+    FastByIDMap<PreferenceArray> testPrefs = session.getSplit().getTestPrefs();
+    Recommender recommender = session.getRecommender();
+    long start = System.nanoTime();
+    
+    int numUsers = testPrefs.size();
+    long[] userIDs = new long[numUsers];
+    PreferenceArray[] userPrefs = new PreferenceArray[numUsers];
+    int index = 0;
+    for (Map.Entry<Long,PreferenceArray> entry : testPrefs.entrySet()) 
+    {
+      userIDs[index] = entry.getKey();
+      userPrefs[index++] = entry.getValue();
+    }
+    // random order, fixed by the seed of the split
+    Random shuffler = RandomUtils.getRandom(session.getSplit().getSeed());
+    for (int i = numUsers - 1; i > 0; i--) 
+    {
+      int j = shuffler.nextInt(i + 1);
+      long userID = userIDs[i];
+      userIDs[i] = userIDs[j];
+      userIDs[j] = userID;
+      PreferenceArray prefs = userPrefs[i];
+      userPrefs[i] = userPrefs[j];
+      userPrefs[j] = prefs;
+    }
+    
+    reset();
+    estimateLatency = new LatencyHistogram();
+    diagnostics.reset();
+    RunningAverageAndStdDev timing = new FullRunningAverageAndStdDev();
+    // slots by position in the random order
+    double[] userScores = new double[numUsers];
+    double[] userWeights = new double[numUsers];
+    int done = 0;
+    double halfWidth = Double.POSITIVE_INFINITY;
+    ExecutorService executor = newExecutor(Math.min(numUsers, PROGRESSIVE_BLOCK_SIZE));
+    try 
+    {
+      while (done < numUsers) 
+      {
+        int end = Math.min(numUsers, done + PROGRESSIVE_BLOCK_SIZE);
+        Collection<Callable<Void>> estimateCallables = Lists.newArrayList();
+        for (int i = done; i < end; i++) 
+        {
+          estimateCallables.add(new PreferenceEstimateCallable(recommender, userIDs[i], 
+              userPrefs[i], userScores, userWeights, i));
         }
-        oneUserTrainingPrefs.add(newPref);
-      } else {
-        if (oneUserTestPrefs == null) {
-          oneUserTestPrefs = Lists.newArrayListWithCapacity(3);
+        execute(executor, estimateCallables, timing);
+        done = end;
+        halfWidth = ProgressiveEvaluation.halfWidth(userScores, userWeights, done, numUsers);
+        log.info("Evaluated {} of {} users, 95% interval half width {}", 
+            new Object[] {done, numUsers, halfWidth});
+        if (maxIntervalWidth > 0.0 && 2.0 * halfWidth <= maxIntervalWidth 
+            || timeBudgetMillis > 0 && System.nanoTime() - start >= timeBudgetMillis * 1000000L) 
+        {
+          break;
         }
-        oneUserTestPrefs.add(newPref);
-      }
-    }
-    if (oneUserTrainingPrefs != null) {
-      trainingPrefs.put(userID, new GenericUserPreferenceArray(oneUserTrainingPrefs));
-      if (oneUserTestPrefs != null) {
-        testPrefs.put(userID, new GenericUserPreferenceArray(oneUserTestPrefs));
       }
+    } 
+    finally 
+    {
+      executor.shutdown();
     }
+    
+    diagnostics.logSummary();
+    ProgressiveEvaluation result = new ProgressiveEvaluation(
+        computeFinalEvaluation(Arrays.copyOf(userScores, done), Arrays.copyOf(userWeights, done)),
+        halfWidth, done, numUsers);
+    log.info("Evaluation result: {}", result);
+    return result;
   }
 
   private float capEstimatedPreference(float estimate) {
     if (estimate > maxPreference) {
+      diagnostics.record(Outcome.CAPPED_AT_MAX);
       return maxPreference;
     }
     if (estimate < minPreference) {
+      diagnostics.record(Outcome.CAPPED_AT_MIN);
       return minPreference;
     }
     return estimate;
@@ -166,32 +281,56 @@ public abstract class AbstractRankBasedRecommenderEvaluator implements Recommend
     throws TasteException 
   {
     reset();
+    diagnostics.reset();
     Collection<Callable<Void>> estimateCallables = Lists.newArrayList();
-    AtomicInteger noEstimateCounter = new AtomicInteger();
+    // every callable writes only its own slot, so the workers need no shared accumulator
+    double[] userScores = new double[testPrefs.size()];
+    double[] userWeights = new double[testPrefs.size()];
     
+    int index = 0;
     for (Map.Entry<Long,PreferenceArray> entry : testPrefs.entrySet()) 
     {
-      estimateCallables.add(
-          new PreferenceEstimateCallable(recommender, entry.getKey(), entry.getValue(), noEstimateCounter));
+      estimateCallables.add(new PreferenceEstimateCallable(recommender, entry.getKey(), 
+          entry.getValue(), userScores, userWeights, index++));
     }
     
     log.info("Beginning evaluation of {} users", estimateCallables.size());
     RunningAverageAndStdDev timing = new FullRunningAverageAndStdDev();
+    estimateLatency = new LatencyHistogram();
     
-    execute(estimateCallables, noEstimateCounter, timing);
+    execute(estimateCallables, timing);
+    diagnostics.logSummary();
+    log.info("Time per user: average {} ms, standard deviation {} ms", timing.getAverage(), 
+        timing.getStandardDeviation());
+    log.info("Time per estimate: {}", estimateLatency);
     
-    return computeFinalEvaluation();
+    // merge in test user order, which makes the result independent of the number of threads
+    return computeFinalEvaluation(userScores, userWeights);
   }
   
-  protected static void execute(Collection<Callable<Void>> callables,
-                                AtomicInteger noEstimateCounter,
-                                RunningAverageAndStdDev timing) throws TasteException 
+  protected void execute(Collection<Callable<Void>> callables,
+                         RunningAverageAndStdDev timing) throws TasteException 
+  {
+    ExecutorService executor = newExecutor(callables.size());
+    try {
+      execute(executor, callables, timing);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** A pool of at most {@link #getNumThreads()} threads for the given number of tasks. */
+  private ExecutorService newExecutor(int numTasks) {
+    int numProcessors = Math.min(numThreads, Math.max(1, numTasks));
+    log.info("Starting {} threads", numProcessors);
+    return Executors.newFixedThreadPool(numProcessors);
+  }
+
+  private static void execute(ExecutorService executor,
+                              Collection<Callable<Void>> callables,
+                              RunningAverageAndStdDev timing) throws TasteException 
   {
-    Collection<Callable<Void>> wrappedCallables = wrapWithStatsCallables(callables, noEstimateCounter, timing);
-    int numProcessors = Runtime.getRuntime().availableProcessors();
-    numProcessors = 1;
-    ExecutorService executor = Executors.newFixedThreadPool(numProcessors);
-    log.info("Starting timing of {} tasks in {} threads", wrappedCallables.size(), numProcessors);
+    Collection<Callable<Void>> wrappedCallables = wrapWithTiming(callables, timing);
     try {
       List<Future<Void>> futures = executor.invokeAll(wrappedCallables);
       // Go look for exceptions here, really
@@ -203,81 +342,190 @@ public abstract class AbstractRankBasedRecommenderEvaluator implements Recommend
     } catch (ExecutionException ee) {
       throw new TasteException(ee.getCause());
     }
-    executor.shutdown();
   }
   
-  private static Collection<Callable<Void>> wrapWithStatsCallables(Iterable<Callable<Void>> callables,
-                                                                   AtomicInteger noEstimateCounter,
-                                                                   RunningAverageAndStdDev timing) {
+  private static Collection<Callable<Void>> wrapWithTiming(Iterable<Callable<Void>> callables,
+                                                           final RunningAverageAndStdDev timing) {
     Collection<Callable<Void>> wrapped = Lists.newArrayList();
-    int count = 0;
-    for (Callable<Void> callable : callables) {
-      boolean logStats = count++ % 1000 == 0; // log every 1000 or so iterations
-      wrapped.add(new StatsCallable(callable, logStats, timing, noEstimateCounter));
+    // only times the users; the periodic summaries come from the diagnostics
+    for (final Callable<Void> callable : callables) {
+      wrapped.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          long start = System.nanoTime();
+          callable.call();
+          double millis = (System.nanoTime() - start) / 1000000.0;
+          synchronized (timing) {
+            timing.addDatum(millis);
+          }
+          return null;
+        }
+      });
     }
     return wrapped;
   }
   
   protected abstract void reset();
-  
-  protected abstract void processOneEstimate(float estimatedPreference, Preference realPref);
 
-  protected abstract void processOneUser(long userId, ArrayList<Object[]> allPrefs);
+  /**
+   * Computes the score of one test user. Called concurrently from the worker threads, so 
+   * implementations must not modify shared state. Returns NaN if the user cannot be scored.
+   */
+  protected abstract double processOneUser(long userId, PreferenceRankBuffer prefs);
   
-  protected abstract double computeFinalEvaluation();
+  /**
+   * The weight of a user's score in the evaluation, for the confidence interval of
+   * {@link #evaluateProgressively}: the evaluation must be the sum of the user scores divided by
+   * the sum of their weights. The default, 1, fits evaluators that average the user scores.
+   */
+  protected double userWeight(long userId, PreferenceRankBuffer prefs) {
+    return 1.0;
+  }
+  
+  /**
+   * Combines the per-user scores, in test user order, into the final evaluation.
+   */
+  protected abstract double computeFinalEvaluation(double[] userScores);
+
+  /**
+   * As {@link #computeFinalEvaluation(double[])}, with the {@link #userWeight} of every user at
+   * the same index, for evaluations that divide by the total weight.
+   */
+  protected double computeFinalEvaluation(double[] userScores, double[] userWeights) {
+    return computeFinalEvaluation(userScores);
+  }
 
   public final class PreferenceEstimateCallable implements Callable<Void> {
 
     private final Recommender recommender;
     private final long testUserID;
     private final PreferenceArray realPrefs;
-    // allPrefs = [[itemId, realPref, realRank, estPref, estRank]]
-    ArrayList<Object[]> allPrefs;
-    private final AtomicInteger noEstimateCounter;
+    private final double[] userScores;
+    private final double[] userWeights;
+    private final int index;
 
     public PreferenceEstimateCallable(Recommender recommender,
                                       long testUserID,
                                       PreferenceArray prefs,
-                                      AtomicInteger noEstimateCounter) {
+                                      double[] userScores,
+                                      int index) {
+      this(recommender, testUserID, prefs, userScores, null, index);
+    }
+
+    /**
+     * @param userWeights if not null, receives the user's {@link #userWeight} at {@code index}
+     */
+    public PreferenceEstimateCallable(Recommender recommender,
+                                      long testUserID,
+                                      PreferenceArray prefs,
+                                      double[] userScores,
+                                      double[] userWeights,
+                                      int index) {
       this.recommender = recommender;
       this.testUserID = testUserID;
       this.realPrefs = prefs;
-      allPrefs = new ArrayList<Object[]>();
-      this.noEstimateCounter = noEstimateCounter;
+      this.userScores = userScores;
+      this.userWeights = userWeights;
+      this.index = index;
     }
 
     @Override
     public Void call() throws TasteException 
     {
-      for (Preference realPref : realPrefs) 
+      PreferenceRankBuffer buffer = rankBuffers.get();
+      buffer.clear();
+      int size = realPrefs.length();
+      if (recommender instanceof BatchPreferenceEstimator) 
       {
-        float estimatedPreference = Float.NaN;
+        float[] estimates = buffer.scratchEstimates(size);
+        long start = System.nanoTime();
+        boolean knownUser = true;
         try 
         {
-          estimatedPreference = recommender.estimatePreference(testUserID, realPref.getItemID());
+          ((BatchPreferenceEstimator) recommender).estimatePreferences(testUserID, 
+              realPrefs.getIDs(), size, estimates);
         } 
         catch (NoSuchUserException nsue) {
-          // It's possible that an item exists in the test data but not training data in which case
-          // NSEE will be thrown. Just ignore it and move on.
-          log.info("User exists in test data but not training data: {}", testUserID);
-        } catch (NoSuchItemException nsie) {
-          log.info("Item exists in test data but not training data: {}", realPref.getItemID());
+          diagnostics.record(Outcome.NO_USER, size);
+          knownUser = false;
+        }
+        if (size > 0) {
+          estimateLatency.record((System.nanoTime() - start) / size, size);
         }
-        if (Float.isNaN(estimatedPreference)) 
+        for (int i = 0; knownUser && i < size; i++) 
         {
-          noEstimateCounter.incrementAndGet();
-        } 
-        else 
+          long itemID = realPrefs.getItemID(i);
+          // a batch returns NaN for unknown items; the training data tells them apart
+          if (Float.isNaN(estimates[i]) && !hasItem(recommender.getDataModel(), itemID)) 
+          {
+            diagnostics.record(Outcome.NO_ITEM);
+          } 
+          else 
+          {
+            addEstimate(buffer, itemID, realPrefs.getValue(i), estimates[i]);
+          }
+        }
+      }
+      else 
+      {
+        for (int i = 0; i < size; i++) 
         {
-          estimatedPreference = capEstimatedPreference(estimatedPreference);
-          allPrefs.add(new Object[] { realPref.getItemID(), realPref.getValue(), -1, 
-                                      estimatedPreference, -1 } ); 
+          long itemID = realPrefs.getItemID(i);
+          float estimatedPreference = Float.NaN;
+          long start = System.nanoTime();
+          try 
+          {
+            estimatedPreference = recommender.estimatePreference(testUserID, itemID);
+          } 
+          catch (NoSuchUserException nsue) {
+            // It's possible that an item exists in the test data but not training data in which 
+            // case NSEE will be thrown. Just count it and move on.
+            estimateLatency.record(System.nanoTime() - start);
+            diagnostics.record(Outcome.NO_USER);
+            continue;
+          } catch (NoSuchItemException nsie) {
+            estimateLatency.record(System.nanoTime() - start);
+            diagnostics.record(Outcome.NO_ITEM);
+            continue;
+          }
+          estimateLatency.record(System.nanoTime() - start);
+          addEstimate(buffer, itemID, realPrefs.getValue(i), estimatedPreference);
         }
       }
-      processOneUser(testUserID, allPrefs);
+      userScores[index] = processOneUser(testUserID, buffer);
+      if (userWeights != null) 
+      {
+        userWeights[index] = userWeight(testUserID, buffer);
+      }
+      diagnostics.maybeLogSummary();
       return null;
     }
 
+    private boolean hasItem(DataModel dataModel, long itemID) throws TasteException 
+    {
+      try 
+      {
+        return dataModel.getPreferencesForItem(itemID).length() > 0;
+      } 
+      catch (NoSuchItemException nsie) {
+        return false;
+      }
+    }
+
+    private void addEstimate(PreferenceRankBuffer buffer, long itemID, float realPref, 
+                             float estimatedPreference) 
+    {
+      if (Float.isNaN(estimatedPreference)) 
+      {
+        diagnostics.record(Outcome.NAN);
+      } 
+      else 
+      {
+        diagnostics.record(Outcome.ESTIMATED);
+        buffer.add(itemID, realPref, capEstimatedPreference(estimatedPreference));
+      }
+    }
+
   }
 
 }
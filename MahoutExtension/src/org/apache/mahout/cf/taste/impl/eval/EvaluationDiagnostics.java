@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.mahout.cf.taste.impl.common.StripedCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Counts what happens to the estimates of an evaluation: how many were made, how many came back
+ * NaN, how many failed because the user or item is not in the training data, and how many were
+ * capped to the minimum or maximum preference. The counters are striped, so worker threads do not
+ * contend for them, and nothing is logged per estimate; instead a summary is logged at most every
+ * {@link #SUMMARY_INTERVAL_SECONDS} seconds, and once at the end of an evaluation.
+ * </p><p>
+ * The counts can be watched while an evaluation runs via JMX, see {@link #registerMBean(String)}.
+ * </p>
+ */
+public final class EvaluationDiagnostics implements EvaluationDiagnosticsMBean {
+
+  private static final Logger log = LoggerFactory.getLogger(EvaluationDiagnostics.class);
+
+  public static final long SUMMARY_INTERVAL_SECONDS = 10;
+
+  public enum Outcome {
+    /** the recommender returned an estimate; capped estimates count here too */
+    ESTIMATED,
+    /** the recommender returned NaN */
+    NAN,
+    /** the user is not in the training data */
+    NO_USER,
+    /** the item is not in the training data */
+    NO_ITEM,
+    /** the estimate was below the minimum preference and was raised to it */
+    CAPPED_AT_MIN,
+    /** the estimate was above the maximum preference and was lowered to it */
+    CAPPED_AT_MAX
+  }
+
+  private final StripedCounter[] counters = new StripedCounter[Outcome.values().length];
+  private final AtomicLong nextSummary = new AtomicLong();
+  private ObjectName objectName;
+
+  public EvaluationDiagnostics() {
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = new StripedCounter();
+    }
+    reset();
+  }
+
+  public void record(Outcome outcome) {
+    counters[outcome.ordinal()].increment();
+  }
+
+  public void record(Outcome outcome, long count) {
+    counters[outcome.ordinal()].add(count);
+  }
+
+  public long getCount(Outcome outcome) {
+    return counters[outcome.ordinal()].get();
+  }
+
+  public void reset() {
+    for (StripedCounter counter : counters) {
+      counter.reset();
+    }
+    nextSummary.set(System.nanoTime() + TimeUnit.SECONDS.toNanos(SUMMARY_INTERVAL_SECONDS));
+  }
+
+  /**
+   * Logs a summary if the last one is more than {@link #SUMMARY_INTERVAL_SECONDS} ago. Cheap
+   * enough to call after every user; of the threads that call it at the same time, only one logs.
+   */
+  public void maybeLogSummary() {
+    long next = nextSummary.get();
+    long now = System.nanoTime();
+    if (now >= next && nextSummary.compareAndSet(next,
+        now + TimeUnit.SECONDS.toNanos(SUMMARY_INTERVAL_SECONDS))) {
+      logSummary();
+    }
+  }
+
+  public void logSummary() {
+    log.info("Estimates: {}", this);
+  }
+
+  @Override
+  public long getEstimated() {
+    return getCount(Outcome.ESTIMATED);
+  }
+
+  @Override
+  public long getNaN() {
+    return getCount(Outcome.NAN);
+  }
+
+  @Override
+  public long getNoUser() {
+    return getCount(Outcome.NO_USER);
+  }
+
+  @Override
+  public long getNoItem() {
+    return getCount(Outcome.NO_ITEM);
+  }
+
+  @Override
+  public long getCappedAtMin() {
+    return getCount(Outcome.CAPPED_AT_MIN);
+  }
+
+  @Override
+  public long getCappedAtMax() {
+    return getCount(Outcome.CAPPED_AT_MAX);
+  }
+
+  /**
+   * Registers these diagnostics with the platform MBean server as
+   * {@code org.apache.mahout.cf.taste.impl.eval:type=EvaluationDiagnostics,name=<name>}.
+   */
+  public synchronized void registerMBean(String name) throws JMException {
+    unregisterMBean();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName newName = new ObjectName(EvaluationDiagnostics.class.getPackage().getName()
+        + ":type=EvaluationDiagnostics,name=" + ObjectName.quote(name));
+    server.registerMBean(this, newName);
+    objectName = newName;
+  }
+
+  public synchronized void unregisterMBean() throws JMException {
+    if (objectName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      objectName = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("EvaluationDiagnostics[");
+    for (Outcome outcome : Outcome.values()) {
+      if (outcome.ordinal() > 0) {
+        result.append(", ");
+      }
+      result.append(outcome.name().toLowerCase()).append(':').append(getCount(outcome));
+    }
+    return result.append(']').toString();
+  }
+
+}
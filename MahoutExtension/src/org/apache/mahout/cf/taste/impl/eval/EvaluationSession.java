@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.DataModelBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * One training / test split and one recommender trained on it, shared by several metrics. Mahout's
+ * evaluators each split the data and build the recommender again; with a session that happens once,
+ * which matters for recommenders with an expensive training phase (SVD, item-based with
+ * precomputation).
+ * </p><p>
+ * Metrics that work on a session: {@link AbstractRankBasedRecommenderEvaluator#evaluate(EvaluationSession)}
+ * (rank score, NDPM, absolute difference) and {@link HoldoutIRStatsEvaluator}.
+ * </p>
+ */
+public final class EvaluationSession {
+
+  private static final Logger log = LoggerFactory.getLogger(EvaluationSession.class);
+
+  private final TrainingTestSplit split;
+  private final Recommender recommender;
+  private final long trainingTimeMillis;
+
+  public EvaluationSession(RecommenderBuilder recommenderBuilder,
+                           DataModelBuilder dataModelBuilder,
+                           DataModel dataModel,
+                           double trainingPercentage,
+                           double evaluationPercentage,
+                           long seed) throws TasteException {
+    this(recommenderBuilder, dataModelBuilder, 
+        new TrainingTestSplit(dataModel, trainingPercentage, evaluationPercentage, seed));
+  }
+
+  public EvaluationSession(RecommenderBuilder recommenderBuilder,
+                           DataModelBuilder dataModelBuilder,
+                           TrainingTestSplit split) throws TasteException {
+    Preconditions.checkNotNull(recommenderBuilder);
+    this.split = Preconditions.checkNotNull(split);
+    log.info("Building recommender on {} training users", split.getTrainingModel().getNumUsers());
+    long start = System.nanoTime();
+    DataModel trainingModel = dataModelBuilder == null ? split.getTrainingModel()
+        : dataModelBuilder.buildDataModel(split.getTrainingPrefs());
+    recommender = recommenderBuilder.buildRecommender(trainingModel);
+    trainingTimeMillis = (System.nanoTime() - start) / 1000000;
+    log.info("Recommender built in {} ms", trainingTimeMillis);
+  }
+
+  public TrainingTestSplit getSplit() {
+    return split;
+  }
+
+  /** The recommender, trained on the training set of the split. */
+  public Recommender getRecommender() {
+    return recommender;
+  }
+
+  /** Time it took to build the recommender, including the data model if a builder was given. */
+  public long getTrainingTimeMillis() {
+    return trainingTimeMillis;
+  }
+
+}
@@ -0,0 +1,173 @@
+package org.apache.mahout.cf.taste.impl.eval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.IRStatistics;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.recommender.BatchItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.ItemAverageRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.junit.Test;
+
+public class EvaluationSessionTest
+{
+
+  private static final double EPSILON = 1e-9;
+
+  @Test
+  public void testMetricsShareOneRecommender() throws TasteException
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 200, 50, 20, 20);
+    final int[] builds = new int[1];
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel model) throws TasteException
+      {
+        builds[0]++;
+        return new ItemAverageRecommender(model);
+      }
+    };
+    EvaluationSession session = new EvaluationSession(builder, null, dataModel, 0.7, 1.0, 3L);
+
+    // absolute difference over the test set, computed directly
+    Recommender recommender = session.getRecommender();
+    double sum = 0;
+    int count = 0;
+    LongPrimitiveIterator it = session.getSplit().getTestPrefs().keySetIterator();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      PreferenceArray prefs = session.getSplit().getTestPrefs().get(userID);
+      for (int i = 0; i < prefs.length(); i++) {
+        float estimate = recommender.estimatePreference(userID, prefs.getItemID(i));
+        if (!Float.isNaN(estimate)) {
+          sum += Math.abs(estimate - prefs.getValue(i));
+          count++;
+        }
+      }
+    }
+    AbsoluteDifferenceRecommenderEvaluator absoluteDifference =
+        new AbsoluteDifferenceRecommenderEvaluator();
+    assertEquals(sum / count, absoluteDifference.evaluate(session), EPSILON);
+    assertEquals(count, absoluteDifference.getDiagnostics().getEstimated());
+
+    new RankBasedRecommenderEvaluator().evaluate(session);
+    IRStatistics stats = new HoldoutIRStatsEvaluator().evaluate(session, null, 3, 
+        GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD);
+    assertTrue(stats.getPrecision() >= 0 && stats.getPrecision() <= 1);
+    assertTrue(stats.getRecall() >= 0 && stats.getRecall() <= 1);
+
+    assertEquals(1, builds[0]);
+    assertSame(recommender, session.getRecommender());
+  }
+
+  @Test
+  public void testBatchCountsUnknownItems() throws TasteException
+  {
+    // many items with few users, so that some test items are not in the training data
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 100, 2000, 5, 5);
+    EvaluationDiagnostics single = evaluateItemBased(dataModel, false);
+    EvaluationDiagnostics batch = evaluateItemBased(dataModel, true);
+    assertTrue(single.getNoItem() > 0);
+    assertEquals(single.getNoItem(), batch.getNoItem());
+    assertEquals(single.getNoUser(), batch.getNoUser());
+    assertEquals(single.getEstimated(), batch.getEstimated());
+  }
+
+  private static EvaluationDiagnostics evaluateItemBased(DataModel dataModel, final boolean batch)
+      throws TasteException
+  {
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel model) throws TasteException
+      {
+        ItemSimilarity similarity = new PearsonCorrelationSimilarity(model);
+        return batch ? new BatchItemBasedRecommender(model, similarity)
+            : new GenericItemBasedRecommender(model, similarity);
+      }
+    };
+    EvaluationSession session = new EvaluationSession(builder, null, dataModel, 0.7, 1.0, 9L);
+    AbsoluteDifferenceRecommenderEvaluator evaluator = new AbsoluteDifferenceRecommenderEvaluator();
+    evaluator.evaluate(session);
+    return evaluator.getDiagnostics();
+  }
+
+  @Test
+  public void testProgressiveEvaluation() throws TasteException
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 1000, 50, 20, 20);
+    EvaluationSession session =
+        new EvaluationSession(itemAverageBuilder(), null, dataModel, 0.7, 1.0, 5L);
+    int numUsers = session.getSplit().getTestPrefs().size();
+    assertTrue(numUsers > AbstractRankBasedRecommenderEvaluator.PROGRESSIVE_BLOCK_SIZE);
+
+    // a wide interval is reached after the first block
+    ProgressiveEvaluation partial = new AbsoluteDifferenceRecommenderEvaluator()
+        .evaluateProgressively(session, 10.0, 60000L);
+    assertEquals(AbstractRankBasedRecommenderEvaluator.PROGRESSIVE_BLOCK_SIZE,
+        partial.getNumUsersEvaluated());
+    assertTrue(partial.getLowerBound() < partial.getEstimate());
+    assertTrue(partial.getUpperBound() > partial.getEstimate());
+
+    // an unreachable width evaluates everyone, with the same result as a full evaluation
+    double full = new AbsoluteDifferenceRecommenderEvaluator().evaluate(session);
+    ProgressiveEvaluation complete = new AbsoluteDifferenceRecommenderEvaluator()
+        .evaluateProgressively(session, 0.0, 60000L);
+    assertEquals(numUsers, complete.getNumUsersEvaluated());
+    assertEquals(full, complete.getEstimate(), EPSILON);
+    assertEquals(full, complete.getLowerBound(), EPSILON);
+    // no width and no time budget: a full evaluation
+    assertEquals(full, new AbsoluteDifferenceRecommenderEvaluator()
+        .evaluateProgressively(session, 0.0, 0L).getEstimate(), EPSILON);
+    assertTrue(partial.getLowerBound() <= full && full <= partial.getUpperBound());
+  }
+
+  @Test
+  public void testProgressiveEvaluationWithConstantScores() throws TasteException
+  {
+    // every rating is 3, so the item averages are exact and every user has the same score
+    Random random = new Random(42);
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0; userID < 1000; userID++) {
+      PreferenceArray prefs = RandomDataModels.randomPreferences(random, userID, 50, 20, 1.0);
+      for (int i = 0; i < prefs.length(); i++) {
+        prefs.setValue(i, 3f);
+      }
+      userData.put(userID, prefs);
+    }
+    EvaluationSession session = new EvaluationSession(itemAverageBuilder(), null,
+        new GenericDataModel(userData), 0.7, 1.0, 5L);
+    int numUsers = session.getSplit().getTestPrefs().size();
+
+    // the interval has no width after the first block, but a width of 0 still means everyone
+    ProgressiveEvaluation result = new AbsoluteDifferenceRecommenderEvaluator()
+        .evaluateProgressively(session, 0.0, 0L);
+    assertEquals(numUsers, result.getNumUsersEvaluated());
+    assertEquals(0.0, result.getEstimate(), EPSILON);
+  }
+
+  private static RecommenderBuilder itemAverageBuilder()
+  {
+    return new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel model) throws TasteException
+      {
+        return new ItemAverageRecommender(model);
+      }
+    };
+  }
+
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.IRStatistics;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Precision, recall, fall-out, nDCG and reach at N for the recommender of an
+ * {@link EvaluationSession}, with the same definitions as {@link GenericRecommenderIRStatsEvaluator}.
+ * </p><p>
+ * The difference is where the relevant items come from. Mahout's evaluator takes them out of the
+ * data of one user at a time and builds a new recommender for every user. This evaluator takes
+ * the relevant items from the user's test preferences, which the shared recommender has never
+ * seen, so it needs no training at all. The numbers are therefore comparable between
+ * recommenders, but not with the ones of {@link GenericRecommenderIRStatsEvaluator}.
+ * </p>
+ */
+public final class HoldoutIRStatsEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(HoldoutIRStatsEvaluator.class);
+
+  private static final double LOG2 = Math.log(2.0);
+
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  /**
+   * Sets the number of worker threads; a value smaller than 1 means: one per available processor.
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads < 1 ? Runtime.getRuntime().availableProcessors() : numThreads;
+  }
+
+  /**
+   * @param session split and recommender to evaluate
+   * @param rescorer rescorer to pass to the recommender, may be null
+   * @param at number of recommendations per user
+   * @param relevanceThreshold test preferences with at least this value are relevant; 
+   *  {@link GenericRecommenderIRStatsEvaluator#CHOOSE_THRESHOLD} means: the user's average plus
+   *  one standard deviation
+   */
+  public IRStatistics evaluate(EvaluationSession session,
+                               IDRescorer rescorer,
+                               int at,
+                               double relevanceThreshold) throws TasteException {
+    Preconditions.checkNotNull(session);
+    Preconditions.checkArgument(at >= 1, "at must be at least 1");
+
+    DataModel source = session.getSplit().getSource();
+    DataModel trainingModel = session.getSplit().getTrainingModel();
+    Recommender recommender = session.getRecommender();
+    int numItems = trainingModel.getNumItems();
+
+    Collection<UserIRCallable> callables = Lists.newArrayList();
+    for (Map.Entry<Long,PreferenceArray> entry : session.getSplit().getTestPrefs().entrySet()) {
+      callables.add(new UserIRCallable(source, trainingModel, recommender, rescorer, at, 
+          relevanceThreshold, numItems, entry.getKey(), entry.getValue()));
+    }
+
+    log.info("Beginning IR evaluation of {} users", callables.size());
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(numThreads, Math.max(1, callables.size())));
+    try {
+      List<Future<Void>> futures = executor.invokeAll(callables);
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdown();
+    }
+
+    // merge in test user order, which makes the result independent of the number of threads
+    RunningAverage precision = new FullRunningAverage();
+    RunningAverage recall = new FullRunningAverage();
+    RunningAverage fallOut = new FullRunningAverage();
+    RunningAverage nDCG = new FullRunningAverage();
+    int numUsersRecommendedFor = 0;
+    int numUsersWithRecommendations = 0;
+    for (UserIRCallable callable : callables) {
+      if (!callable.evaluated) {
+        continue;
+      }
+      addIfDefined(precision, callable.precision);
+      addIfDefined(recall, callable.recall);
+      addIfDefined(fallOut, callable.fallOut);
+      addIfDefined(nDCG, callable.nDCG);
+      numUsersRecommendedFor++;
+      if (callable.numRecommended > 0) {
+        numUsersWithRecommendations++;
+      }
+    }
+    IRStatistics result = new IRStatisticsImpl(precision.getAverage(), recall.getAverage(), 
+        fallOut.getAverage(), nDCG.getAverage(), 
+        (double) numUsersWithRecommendations / (double) numUsersRecommendedFor);
+    log.info("IR evaluation of {} users: {}", numUsersRecommendedFor, result);
+    return result;
+  }
+
+  private static void addIfDefined(RunningAverage average, double datum) {
+    if (!Double.isNaN(datum)) {
+      average.addDatum(datum);
+    }
+  }
+
+  private static double computeThreshold(PreferenceArray prefs) {
+    if (prefs.length() < 2) {
+      // Not enough data points -- return a threshold that allows everything
+      return Double.NEGATIVE_INFINITY;
+    }
+    RunningAverageAndStdDev stdDev = new FullRunningAverageAndStdDev();
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      stdDev.addDatum(prefs.getValue(i));
+    }
+    return stdDev.getAverage() + stdDev.getStandardDeviation();
+  }
+
+  private static double log2(double value) {
+    return Math.log(value) / LOG2;
+  }
+
+  /**
+   * Evaluates one test user; the results stay in the fields until they are merged.
+   */
+  private static final class UserIRCallable implements Callable<Void> {
+
+    private final DataModel source;
+    private final DataModel trainingModel;
+    private final Recommender recommender;
+    private final IDRescorer rescorer;
+    private final int at;
+    private final double relevanceThreshold;
+    private final int numItems;
+    private final long userID;
+    private final PreferenceArray testPrefs;
+
+    boolean evaluated;
+    int numRecommended;
+    double precision = Double.NaN;
+    double recall = Double.NaN;
+    double fallOut = Double.NaN;
+    double nDCG = Double.NaN;
+
+    UserIRCallable(DataModel source, DataModel trainingModel, Recommender recommender, 
+        IDRescorer rescorer, int at, double relevanceThreshold, int numItems, long userID, 
+        PreferenceArray testPrefs) {
+      this.source = source;
+      this.trainingModel = trainingModel;
+      this.recommender = recommender;
+      this.rescorer = rescorer;
+      this.at = at;
+      this.relevanceThreshold = relevanceThreshold;
+      this.numItems = numItems;
+      this.userID = userID;
+      this.testPrefs = testPrefs;
+    }
+
+    @Override
+    public Void call() throws TasteException {
+      double threshold = Double.isNaN(relevanceThreshold)
+          ? computeThreshold(source.getPreferencesFromUser(userID)) : relevanceThreshold;
+
+      // the (at most) at highest rated relevant test items
+      PreferenceArray sorted = testPrefs.clone();
+      sorted.sortByValueReversed();
+      FastIDSet relevantItemIDs = new FastIDSet(at);
+      for (int i = 0; i < sorted.length() && relevantItemIDs.size() < at; i++) {
+        if (sorted.getValue(i) >= threshold) {
+          relevantItemIDs.add(sorted.getItemID(i));
+        }
+      }
+      int numRelevantItems = relevantItemIDs.size();
+      if (numRelevantItems <= 0) {
+        return null;
+      }
+      int size;
+      try {
+        size = numRelevantItems + trainingModel.getPreferencesFromUser(userID).length();
+      } catch (NoSuchUserException nsue) {
+        return null;
+      }
+      if (size < 2 * at) {
+        // Really not enough prefs to meaningfully evaluate this user
+        return null;
+      }
+
+      List<RecommendedItem> recommendedItems = recommender.recommend(userID, at, rescorer);
+      int intersectionSize = 0;
+      for (RecommendedItem recommendedItem : recommendedItems) {
+        if (relevantItemIDs.contains(recommendedItem.getItemID())) {
+          intersectionSize++;
+        }
+      }
+      numRecommended = recommendedItems.size();
+      evaluated = true;
+
+      // Precision
+      if (numRecommended > 0) {
+        precision = (double) intersectionSize / (double) numRecommended;
+      }
+      // Recall
+      recall = (double) intersectionSize / (double) numRelevantItems;
+      // Fall-out
+      if (numRelevantItems < size) {
+        fallOut = (double) (numRecommended - intersectionSize) 
+            / (double) (numItems - numRelevantItems);
+      }
+      // nDCG
+      // In computing, assume relevant IDs have relevance 1 and others 0
+      double cumulativeGain = 0.0;
+      double idealizedGain = 0.0;
+      for (int i = 0; i < numRecommended; i++) {
+        double discount = 1.0 / log2(i + 2.0);
+        if (relevantItemIDs.contains(recommendedItems.get(i).getItemID())) {
+          cumulativeGain += discount;
+        }
+        // otherwise we're multiplying discount by relevance 0 so it doesn't do anything
+
+        // Ideally results would be ordered with all relevant ones first, so this theoretical
+        // ideal list starts with number of relevant items equal to the total number of relevant 
+        // items
+        if (i < numRelevantItems) {
+          idealizedGain += discount;
+        }
+      }
+      if (idealizedGain > 0.0) {
+        nDCG = cumulativeGain / idealizedGain;
+      }
+      return null;
+    }
+
+  }
+
+}
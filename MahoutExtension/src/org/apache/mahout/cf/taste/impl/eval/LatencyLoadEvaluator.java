@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LatencyHistogram;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Simple helper class for running load on a Recommender, like {@link LoadEvaluator}, but which
+ * records the latency of every {@code recommend} call in a {@link LatencyHistogram} instead of
+ * only their average.
+ * </p>
+ */
+public final class LatencyLoadEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(LatencyLoadEvaluator.class);
+
+  private LatencyLoadEvaluator() {
+  }
+
+  public static LatencyHistogram runLoad(Recommender recommender) throws TasteException {
+    return runLoad(recommender, 10);
+  }
+
+  /**
+   * Asks for recommendations for about 1000 sampled users, from one thread per processor.
+   */
+  public static LatencyHistogram runLoad(Recommender recommender, int howMany)
+      throws TasteException {
+    DataModel dataModel = recommender.getDataModel();
+    int numUsers = dataModel.getNumUsers();
+    double sampleRate = 1000.0 / numUsers;
+    LongPrimitiveIterator userSampler =
+        SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(), sampleRate);
+    if (userSampler.hasNext()) {
+      recommender.recommend(userSampler.next(), howMany); // Warm up
+    }
+    LatencyHistogram latency = new LatencyHistogram();
+    Collection<Callable<Void>> callables = Lists.newArrayList();
+    while (userSampler.hasNext()) {
+      callables.add(new TimedLoadCallable(recommender, userSampler.next(), howMany, latency));
+    }
+
+    int numThreads = Math.min(Runtime.getRuntime().availableProcessors(),
+        Math.max(1, callables.size()));
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Void>> futures = executor.invokeAll(callables);
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdown();
+    }
+    log.info("Recommend latency: {}", latency);
+    return latency;
+  }
+
+  private static final class TimedLoadCallable implements Callable<Void> {
+
+    private final Recommender recommender;
+    private final long userID;
+    private final int howMany;
+    private final LatencyHistogram latency;
+
+    TimedLoadCallable(Recommender recommender, long userID, int howMany, 
+        LatencyHistogram latency) {
+      this.recommender = recommender;
+      this.userID = userID;
+      this.howMany = howMany;
+      this.latency = latency;
+    }
+
+    @Override
+    public Void call() throws TasteException {
+      long start = System.nanoTime();
+      recommender.recommend(userID, howMany);
+      latency.record(System.nanoTime() - start);
+      return null;
+    }
+
+  }
+
+}
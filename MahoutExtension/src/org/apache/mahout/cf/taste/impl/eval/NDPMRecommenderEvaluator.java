@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Evaluation based on the ordering of pairs of test items, with proper handling of ties. Unlike
+ * {@link RankBasedRecommenderEvaluator}, which computes a footrule distance between two rankings,
+ * this evaluator computes one of:
+ * </p>
+ * <ul>
+ * <li>{@link Measure#NDPM}: the Normalized Distance-based Performance Measure of Yao (1995),
+ * (2 C<sup>-</sup> + C<sup>u</sup>) / 2 C<sup>i</sup>, where C<sup>-</sup> is the number of pairs
+ * the recommender orders opposite to the user, C<sup>u</sup> the number of pairs the user orders
+ * but the recommender ties, and C<sup>i</sup> the number of pairs the user orders. 0 is a perfect
+ * ordering, 1 a completely reversed one. Pairs the user ties are ignored.</li>
+ * <li>{@link Measure#KENDALL_TAU_B}: Kendall's tau-b rank correlation between real and estimated
+ * preferences, from -1 (reversed) to 1 (perfect).</li>
+ * </ul>
+ * <p>
+ * Pairs are classified in O(n log n) per user (see {@link RankPairCounter}), so users with
+ * thousands of test items do not make the evaluation quadratic. Users for which the measure is
+ * undefined, for instance because all their test items have the same rating, are skipped.
+ * </p>
+ */
+public final class NDPMRecommenderEvaluator extends AbstractRankBasedRecommenderEvaluator {
+
+  public enum Measure { NDPM, KENDALL_TAU_B }
+
+  private final Measure measure;
+  private final ThreadLocal<RankPairCounter> counters = new ThreadLocal<RankPairCounter>() {
+    @Override
+    protected RankPairCounter initialValue() {
+      return new RankPairCounter();
+    }
+  };
+  private RunningAverage average;
+
+  public NDPMRecommenderEvaluator() {
+    this(Measure.NDPM);
+  }
+
+  public NDPMRecommenderEvaluator(Measure measure) {
+    this.measure = Preconditions.checkNotNull(measure);
+  }
+
+  public Measure getMeasure() {
+    return measure;
+  }
+
+  @Override
+  protected void reset() {
+    average = new FullRunningAverage();
+  }
+
+  @Override
+  protected double processOneUser(long userId, PreferenceRankBuffer prefs) {
+    return calculateScore(prefs);
+  }
+
+  double calculateScore(PreferenceRankBuffer prefs) {
+    if (prefs.size() <= 1) {
+      return Double.NaN;
+    }
+    RankPairCounter counter = counters.get();
+    counter.count(prefs);
+    long userOrdered = counter.getPairs() - counter.getRealTies();
+    if (measure == Measure.NDPM) {
+      if (userOrdered == 0) {
+        return Double.NaN;
+      }
+      long recommenderTied = counter.getEstimatedTies() - counter.getJointTies();
+      return (2.0 * counter.getDiscordant() + recommenderTied) / (2.0 * userOrdered);
+    }
+    long recommenderOrdered = counter.getPairs() - counter.getEstimatedTies();
+    if (userOrdered == 0 || recommenderOrdered == 0) {
+      return Double.NaN;
+    }
+    return (counter.getConcordant() - counter.getDiscordant())
+        / Math.sqrt((double) userOrdered * recommenderOrdered);
+  }
+
+  @Override
+  protected double computeFinalEvaluation(double[] userScores) {
+    for (double score : userScores) {
+      if (!Double.isNaN(score)) {
+        average.addDatum(score);
+      }
+    }
+    return average.getAverage();
+  }
+
+  @Override
+  public String toString() {
+    return "NDPMRecommenderEvaluator[measure:" + measure + ']';
+  }
+
+}
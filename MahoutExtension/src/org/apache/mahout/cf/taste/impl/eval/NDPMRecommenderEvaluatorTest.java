@@ -0,0 +1,111 @@
+package org.apache.mahout.cf.taste.impl.eval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.eval.NDPMRecommenderEvaluator.Measure;
+import org.junit.Test;
+
+public class NDPMRecommenderEvaluatorTest
+{
+
+  private static final double EPSILON = 1e-12;
+
+  @Test
+  public void testPerfectAndReversedOrder()
+  {
+    NDPMRecommenderEvaluator ndpm = new NDPMRecommenderEvaluator(Measure.NDPM);
+    NDPMRecommenderEvaluator tau = new NDPMRecommenderEvaluator(Measure.KENDALL_TAU_B);
+    PreferenceRankBuffer prefs = new PreferenceRankBuffer();
+
+    prefs.add(1, 5f, 4.5f);
+    prefs.add(2, 4f, 3.5f);
+    prefs.add(3, 1f, 2f);
+    assertEquals(0, ndpm.calculateScore(prefs), EPSILON);
+    assertEquals(1, tau.calculateScore(prefs), EPSILON);
+
+    prefs.clear();
+    prefs.add(1, 5f, 1f);
+    prefs.add(2, 4f, 2f);
+    prefs.add(3, 1f, 3f);
+    assertEquals(1, ndpm.calculateScore(prefs), EPSILON);
+    assertEquals(-1, tau.calculateScore(prefs), EPSILON);
+  }
+
+  @Test
+  public void testTies()
+  {
+    NDPMRecommenderEvaluator ndpm = new NDPMRecommenderEvaluator(Measure.NDPM);
+    PreferenceRankBuffer prefs = new PreferenceRankBuffer();
+
+    // a recommender that ties everything is half way
+    prefs.add(1, 5f, 3f);
+    prefs.add(2, 4f, 3f);
+    prefs.add(3, 1f, 3f);
+    assertEquals(0.5, ndpm.calculateScore(prefs), EPSILON);
+
+    // a user that ties everything says nothing
+    prefs.clear();
+    prefs.add(1, 3f, 5f);
+    prefs.add(2, 3f, 1f);
+    assertTrue(Double.isNaN(ndpm.calculateScore(prefs)));
+  }
+
+  @Test
+  public void testAgainstPairwiseDefinition()
+  {
+    NDPMRecommenderEvaluator ndpm = new NDPMRecommenderEvaluator(Measure.NDPM);
+    NDPMRecommenderEvaluator tau = new NDPMRecommenderEvaluator(Measure.KENDALL_TAU_B);
+    PreferenceRankBuffer prefs = new PreferenceRankBuffer();
+    Random random = new Random(7);
+    for (int run = 0; run < 200; run++) {
+      prefs.clear();
+      int n = 2 + random.nextInt(300);
+      for (int i = 0; i < n; i++) {
+        // few distinct values, so there are many ties
+        prefs.add(i, 1 + random.nextInt(5), random.nextInt(8) / 2f);
+      }
+      long concordant = 0;
+      long discordant = 0;
+      long recommenderTied = 0;
+      long realTied = 0;
+      long estimatedTied = 0;
+      for (int i = 0; i < n; i++) {
+        for (int j = i + 1; j < n; j++) {
+          int real = Float.compare(prefs.getRealPref(i), prefs.getRealPref(j));
+          int est = Float.compare(prefs.getEstimatedPref(i), prefs.getEstimatedPref(j));
+          if (real == 0) {
+            realTied++;
+          }
+          if (est == 0) {
+            estimatedTied++;
+          }
+          if (real != 0 && est == 0) {
+            recommenderTied++;
+          } else if (real * est > 0) {
+            concordant++;
+          } else if (real * est < 0) {
+            discordant++;
+          }
+        }
+      }
+      long pairs = (long) n * (n - 1) / 2;
+      double expectedNdpm = (2.0 * discordant + recommenderTied) / (2.0 * (pairs - realTied));
+      double expectedTau = (concordant - discordant)
+          / Math.sqrt((double) (pairs - realTied) * (pairs - estimatedTied));
+      double actualNdpm = ndpm.calculateScore(prefs);
+      double actualTau = tau.calculateScore(prefs);
+      if (pairs == realTied) {
+        assertTrue(Double.isNaN(actualNdpm));
+      } else {
+        assertEquals(expectedNdpm, actualNdpm, EPSILON);
+      }
+      if (pairs != realTied && pairs != estimatedTied) {
+        assertEquals(expectedTau, actualTau, EPSILON);
+      }
+    }
+  }
+
+}
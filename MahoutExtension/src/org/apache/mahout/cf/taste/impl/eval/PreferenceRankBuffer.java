@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The real and estimated preferences of one test user, stored as parallel primitive arrays instead
+ * of one object per preference. A buffer is meant to be reused for many users by one thread:
+ * {@link #clear()} keeps the arrays, which only grow when a user has more test items than any user
+ * before.
+ * </p><p>
+ * {@link #rank()} ranks the preferences by real and by estimated value by sorting packed
+ * (value, tie-breaker) longs, so no comparator or boxing is involved. Ties in the real value keep
+ * insertion order, ties in the estimate keep the order of the real ranking, just like two
+ * consecutive stable sorts would.
+ * </p>
+ */
+public final class PreferenceRankBuffer {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] itemIDs;
+  private float[] realPrefs;
+  private float[] estimatedPrefs;
+  private int[] realRanks;
+  private int[] estimatedRanks;
+  private int[] byRealRank;
+  private long[] sortKeys;
+  private float[] scratchEstimates;
+  private int size;
+
+  public PreferenceRankBuffer() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public PreferenceRankBuffer(int capacity) {
+    int initial = Math.max(1, capacity);
+    itemIDs = new long[initial];
+    realPrefs = new float[initial];
+    estimatedPrefs = new float[initial];
+    realRanks = new int[initial];
+    estimatedRanks = new int[initial];
+    byRealRank = new int[initial];
+    sortKeys = new long[initial];
+    scratchEstimates = new float[initial];
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void add(long itemID, float realPref, float estimatedPref) {
+    if (size == itemIDs.length) {
+      grow();
+    }
+    itemIDs[size] = itemID;
+    realPrefs[size] = realPref;
+    estimatedPrefs[size] = estimatedPref;
+    realRanks[size] = -1;
+    estimatedRanks[size] = -1;
+    size++;
+  }
+
+  public long getItemID(int i) {
+    return itemIDs[i];
+  }
+
+  public float getRealPref(int i) {
+    return realPrefs[i];
+  }
+
+  public float getEstimatedPref(int i) {
+    return estimatedPrefs[i];
+  }
+
+  /** Only valid after {@link #rank()}. */
+  public int getRealRank(int i) {
+    return realRanks[i];
+  }
+
+  /** Only valid after {@link #rank()}. */
+  public int getEstimatedRank(int i) {
+    return estimatedRanks[i];
+  }
+
+  /** Index of the preference with the given real rank. Only valid after {@link #rank()}. */
+  public int getIndexByRealRank(int rank) {
+    return byRealRank[rank];
+  }
+
+  /**
+   * Returns an array of at least the given length that callers may use to collect estimates before
+   * adding them. Its content is undefined, and it is only valid until the next call.
+   */
+  public float[] scratchEstimates(int length) {
+    if (scratchEstimates.length < length) {
+      scratchEstimates = new float[Math.max(length, scratchEstimates.length << 1)];
+    }
+    return scratchEstimates;
+  }
+
+  /**
+   * Computes the ranks of all preferences, ascending, by real value and by estimated value.
+   */
+  public void rank() {
+    for (int i = 0; i < size; i++) {
+      sortKeys[i] = pack(realPrefs[i], i);
+    }
+    Arrays.sort(sortKeys, 0, size);
+    for (int rank = 0; rank < size; rank++) {
+      int i = (int) sortKeys[rank];
+      realRanks[i] = rank;
+      byRealRank[rank] = i;
+    }
+
+    for (int i = 0; i < size; i++) {
+      sortKeys[i] = pack(estimatedPrefs[i], realRanks[i]);
+    }
+    Arrays.sort(sortKeys, 0, size);
+    for (int rank = 0; rank < size; rank++) {
+      estimatedRanks[byRealRank[(int) sortKeys[rank]]] = rank;
+    }
+  }
+
+  /**
+   * Packs a float and a non-negative int into a long whose natural order is the order of
+   * {@link Float#compare(float, float)} on the float, then the int.
+   */
+  static long pack(float value, int tieBreaker) {
+    return ((long) sortableBits(value) << 32) | tieBreaker;
+  }
+
+  /**
+   * Maps a float onto an int such that signed int comparison agrees with
+   * {@link Float#compare(float, float)}.
+   */
+  static int sortableBits(float value) {
+    int bits = Float.floatToIntBits(value);
+    return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+  }
+
+  private void grow() {
+    int newCapacity = itemIDs.length << 1;
+    itemIDs = Arrays.copyOf(itemIDs, newCapacity);
+    realPrefs = Arrays.copyOf(realPrefs, newCapacity);
+    estimatedPrefs = Arrays.copyOf(estimatedPrefs, newCapacity);
+    realRanks = Arrays.copyOf(realRanks, newCapacity);
+    estimatedRanks = Arrays.copyOf(estimatedRanks, newCapacity);
+    byRealRank = Arrays.copyOf(byRealRank, newCapacity);
+    sortKeys = Arrays.copyOf(sortKeys, newCapacity);
+  }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.impl.common.LatencyHistogram;
+
+/**
+ * <p>
+ * Result of {@link PrequentialEvaluator#evaluate}: the accuracy of the predictions made while the
+ * ratings were replayed, overall and per window of consecutive ratings, and how fast they were
+ * replayed compared to the rate at which they came in.
+ * </p><p>
+ * Ratings the recommender could not predict, for instance because the user or the item was new,
+ * count for the coverage but not for the errors.
+ * </p>
+ */
+public final class PrequentialEvaluation {
+
+  private final Window total;
+  private final List<Window> windows;
+  private final LatencyHistogram predictLatency;
+  private final LatencyHistogram updateLatency;
+
+  PrequentialEvaluation(Window total, List<Window> windows, LatencyHistogram predictLatency,
+      LatencyHistogram updateLatency) {
+    this.total = total;
+    this.windows = Collections.unmodifiableList(windows);
+    this.predictLatency = predictLatency;
+    this.updateLatency = updateLatency;
+  }
+
+  /** All replayed ratings as one window. */
+  public Window getTotal() {
+    return total;
+  }
+
+  public List<Window> getWindows() {
+    return windows;
+  }
+
+  public int getNumRatings() {
+    return total.getNumRatings();
+  }
+
+  public double getMeanAbsoluteError() {
+    return total.getMeanAbsoluteError();
+  }
+
+  public double getRootMeanSquaredError() {
+    return total.getRootMeanSquaredError();
+  }
+
+  public double getCoverage() {
+    return total.getCoverage();
+  }
+
+  public double getRatingsPerSecond() {
+    return total.getRatingsPerSecond();
+  }
+
+  public double getEventsPerSecond() {
+    return total.getEventsPerSecond();
+  }
+
+  /**
+   * How many times faster than they came in the ratings were replayed; below 1 the recommender
+   * cannot keep up.
+   */
+  public double getSpeedUp() {
+    return total.getRatingsPerSecond() / total.getEventsPerSecond();
+  }
+
+  /** Latency of the predictions. */
+  public LatencyHistogram getPredictLatency() {
+    return predictLatency;
+  }
+
+  /** Latency of applying the ratings, including the refreshes. */
+  public LatencyHistogram getUpdateLatency() {
+    return updateLatency;
+  }
+
+  @Override
+  public String toString() {
+    return "PrequentialEvaluation[ratings:" + getNumRatings() + ", MAE:" + getMeanAbsoluteError()
+        + ", RMSE:" + getRootMeanSquaredError() + ", coverage:" + getCoverage() + ", ratings/s:"
+        + getRatingsPerSecond() + ", speed-up:" + getSpeedUp() + ", windows:" + windows.size()
+        + ']';
+  }
+
+  /**
+   * Accuracy and throughput over consecutive ratings.
+   */
+  public static final class Window {
+
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final int numRatings;
+    private final int numPredicted;
+    private final double absoluteErrors;
+    private final double squaredErrors;
+    private final long nanos;
+
+    Window(long firstTimestamp, long lastTimestamp, int numRatings, int numPredicted,
+        double absoluteErrors, double squaredErrors, long nanos) {
+      this.firstTimestamp = firstTimestamp;
+      this.lastTimestamp = lastTimestamp;
+      this.numRatings = numRatings;
+      this.numPredicted = numPredicted;
+      this.absoluteErrors = absoluteErrors;
+      this.squaredErrors = squaredErrors;
+      this.nanos = nanos;
+    }
+
+    public long getFirstTimestamp() {
+      return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+      return lastTimestamp;
+    }
+
+    public int getNumRatings() {
+      return numRatings;
+    }
+
+    public int getNumPredicted() {
+      return numPredicted;
+    }
+
+    /** NaN if no rating could be predicted. */
+    public double getMeanAbsoluteError() {
+      return numPredicted == 0 ? Double.NaN : absoluteErrors / numPredicted;
+    }
+
+    public double getRootMeanSquaredError() {
+      return numPredicted == 0 ? Double.NaN : Math.sqrt(squaredErrors / numPredicted);
+    }
+
+    /** Fraction of the ratings that could be predicted. */
+    public double getCoverage() {
+      return numRatings == 0 ? Double.NaN : (double) numPredicted / numRatings;
+    }
+
+    /** Ratings predicted and applied per second of replay. */
+    public double getRatingsPerSecond() {
+      return numRatings * 1.0e9 / nanos;
+    }
+
+    /**
+     * Ratings per second at which they came in, taking the timestamps to be in seconds, as in the
+     * MovieLens data; infinite if they all have the same timestamp.
+     */
+    public double getEventsPerSecond() {
+      long seconds = lastTimestamp - firstTimestamp;
+      return seconds == 0 ? Double.POSITIVE_INFINITY : (double) numRatings / seconds;
+    }
+
+    @Override
+    public String toString() {
+      return "Window[from:" + firstTimestamp + ", to:" + lastTimestamp + ", ratings:" + numRatings
+          + ", MAE:" + getMeanAbsoluteError() + ", coverage:" + getCoverage() + ", ratings/s:"
+          + getRatingsPerSecond() + ']';
+    }
+
+  }
+
+}
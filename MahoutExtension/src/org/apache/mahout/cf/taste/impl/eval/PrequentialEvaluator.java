@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LatencyHistogram;
+import org.apache.mahout.cf.taste.impl.model.DeltaDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Prequential ("predict, then learn") evaluation: the ratings are replayed in time order, and for
+ * every rating the recommender first estimates it and then gets it, the way a live system sees its
+ * data. Unlike a random split, the recommender never predicts a rating from ratings that were given
+ * after it.
+ * </p><p>
+ * The recommender is built once, on a {@link DeltaDataModel} with the first ratings. The other
+ * ratings are applied to that model one by one, so the recommender only sees them if it reads the
+ * model it was built on; a recommender that copies the model or trains on it, like an SVD
+ * recommender, sees them when it is refreshed. Every {@code refreshInterval} ratings the
+ * recommender is refreshed, which also empties its similarity caches; a
+ * {@link org.apache.mahout.cf.taste.impl.similarity.SimilarityCacheInvalidator} on the model keeps
+ * them up to date in between.
+ * </p><p>
+ * Estimates are capped to the range of the ratings seen so far, like Mahout's evaluators do. The
+ * time to predict and to apply the ratings gives the throughput, which can be compared with the
+ * rate at which the ratings came in to see whether the recommender can keep up.
+ * </p>
+ */
+public final class PrequentialEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(PrequentialEvaluator.class);
+
+  private final int windowSize;
+  private final int refreshInterval;
+
+  public PrequentialEvaluator(int windowSize) {
+    this(windowSize, 0);
+  }
+
+  /**
+   * @param windowSize number of ratings per window of the result
+   * @param refreshInterval number of ratings after which the recommender is refreshed, or 0 to
+   *  never refresh it
+   */
+  public PrequentialEvaluator(int windowSize, int refreshInterval) {
+    Preconditions.checkArgument(windowSize > 0, "Invalid windowSize: " + windowSize);
+    Preconditions.checkArgument(refreshInterval >= 0, "Invalid refreshInterval: " + refreshInterval);
+    this.windowSize = windowSize;
+    this.refreshInterval = refreshInterval;
+  }
+
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  public int getRefreshInterval() {
+    return refreshInterval;
+  }
+
+  /**
+   * @param warmUpPercentage fraction of the ratings, the earliest, to build the recommender on;
+   *  the others are replayed
+   */
+  public PrequentialEvaluation evaluate(RecommenderBuilder recommenderBuilder, RatingEvents events,
+      double warmUpPercentage) throws TasteException {
+    Preconditions.checkNotNull(recommenderBuilder);
+    Preconditions.checkArgument(warmUpPercentage >= 0.0 && warmUpPercentage <= 1.0,
+        "Invalid warmUpPercentage: " + warmUpPercentage);
+    int size = events.size();
+    int warmUp = (int) (warmUpPercentage * size);
+    DeltaDataModel model = warmUpModel(events, warmUp);
+    long start = System.nanoTime();
+    Recommender recommender = recommenderBuilder.buildRecommender(model);
+    log.info("Built recommender on {} ratings in {} ms, replaying {} ratings", new Object[] {
+        warmUp, (System.nanoTime() - start) / 1000000, size - warmUp});
+
+    LatencyHistogram predictLatency = new LatencyHistogram();
+    LatencyHistogram updateLatency = new LatencyHistogram();
+    List<PrequentialEvaluation.Window> windows = Lists.newArrayList();
+    int predicted = 0;
+    double absoluteErrors = 0.0;
+    double squaredErrors = 0.0;
+    long nanos = 0;
+    int windowStart = warmUp;
+    int windowPredicted = 0;
+    double windowAbsoluteErrors = 0.0;
+    double windowSquaredErrors = 0.0;
+    long windowNanos = 0;
+    for (int i = warmUp; i < size; i++) {
+      long userID = events.getUserID(i);
+      long itemID = events.getItemID(i);
+      float value = events.getValue(i);
+
+      long before = System.nanoTime();
+      float estimate = estimate(recommender, userID, itemID);
+      long between = System.nanoTime();
+      model.setPreference(userID, itemID, value);
+      if (refreshInterval > 0 && (i - warmUp + 1) % refreshInterval == 0) {
+        recommender.refresh(null);
+      }
+      long after = System.nanoTime();
+      predictLatency.record(between - before);
+      updateLatency.record(after - between);
+      windowNanos += after - before;
+
+      if (!Float.isNaN(estimate)) {
+        double error = Math.max(model.getMinPreference(),
+            Math.min(model.getMaxPreference(), estimate)) - value;
+        windowPredicted++;
+        windowAbsoluteErrors += Math.abs(error);
+        windowSquaredErrors += error * error;
+      }
+
+      if (i + 1 - windowStart == windowSize || i + 1 == size) {
+        PrequentialEvaluation.Window window = new PrequentialEvaluation.Window(
+            events.getTimestamp(windowStart), events.getTimestamp(i), i + 1 - windowStart,
+            windowPredicted, windowAbsoluteErrors, windowSquaredErrors, windowNanos);
+        windows.add(window);
+        log.info("Replayed {} ratings: {}", i + 1 - warmUp, window);
+        predicted += windowPredicted;
+        absoluteErrors += windowAbsoluteErrors;
+        squaredErrors += windowSquaredErrors;
+        nanos += windowNanos;
+        windowStart = i + 1;
+        windowPredicted = 0;
+        windowAbsoluteErrors = 0.0;
+        windowSquaredErrors = 0.0;
+        windowNanos = 0;
+      }
+    }
+
+    PrequentialEvaluation.Window total = new PrequentialEvaluation.Window(
+        warmUp < size ? events.getTimestamp(warmUp) : 0L,
+        warmUp < size ? events.getTimestamp(size - 1) : 0L,
+        size - warmUp, predicted, absoluteErrors, squaredErrors, nanos);
+    PrequentialEvaluation evaluation =
+        new PrequentialEvaluation(total, windows, predictLatency, updateLatency);
+    log.info("Evaluation result: {}", evaluation);
+    return evaluation;
+  }
+
+  /**
+   * The estimate of the recommender, or NaN if the user or item is unknown to it.
+   */
+  private static float estimate(Recommender recommender, long userID, long itemID)
+    throws TasteException {
+    try {
+      return recommender.estimatePreference(userID, itemID);
+    } catch (NoSuchUserException nsue) {
+      return Float.NaN;
+    } catch (NoSuchItemException nsie) {
+      return Float.NaN;
+    }
+  }
+
+  /**
+   * A model with the first {@code n} ratings, on an empty base so that all of them can change.
+   */
+  static DeltaDataModel warmUpModel(RatingEvents events, int n) throws TasteException {
+    long[] userIDs = new long[n];
+    long[] itemIDs = new long[n];
+    float[] values = new float[n];
+    for (int i = 0; i < n; i++) {
+      userIDs[i] = events.getUserID(i);
+      itemIDs[i] = events.getItemID(i);
+      values[i] = events.getValue(i);
+    }
+    DeltaDataModel model;
+    try {
+      model = new DeltaDataModel(new GenericDataModel(new FastByIDMap<PreferenceArray>()));
+    } catch (IOException ioe) {
+      // there are no delta files to read
+      throw new TasteException(ioe);
+    }
+    model.apply(userIDs, itemIDs, values, n);
+    return model;
+  }
+
+  @Override
+  public String toString() {
+    return "PrequentialEvaluator[windowSize:" + windowSize + ", refreshInterval:" + refreshInterval
+        + ']';
+  }
+
+}
@@ -0,0 +1,76 @@
+package org.apache.mahout.cf.taste.impl.eval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.model.DeltaDataModel;
+import org.apache.mahout.cf.taste.impl.recommender.ItemAverageRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public class PrequentialEvaluatorTest
+{
+
+  private static final double EPSILON = 1e-6;
+
+  @Test
+  public void testEventsAreSortedStably()
+  {
+    RatingEvents events = new RatingEvents(new long[] { 1, 2, 3, 4 }, new long[] { 10, 20, 30, 40 },
+        new float[] { 1, 2, 3, 4 }, new long[] { 300, 100, 200, 100 });
+    long[] userIDs = new long[events.size()];
+    long[] timestamps = new long[events.size()];
+    for (int i = 0; i < events.size(); i++) {
+      userIDs[i] = events.getUserID(i);
+      timestamps[i] = events.getTimestamp(i);
+    }
+    assertArrayEquals(new long[] { 2, 4, 3, 1 }, userIDs);
+    assertArrayEquals(new long[] { 100, 100, 200, 300 }, timestamps);
+    assertEquals(30, events.getItemID(2));
+    assertEquals(3f, events.getValue(2), 0f);
+  }
+
+  @Test
+  public void testPredictsBeforeApplying() throws TasteException
+  {
+    RatingEvents events = new RatingEvents(new long[] { 1, 2, 3, 3, 3, 2 },
+        new long[] { 10, 10, 12, 10, 11, 11 }, new float[] { 4, 2, 3, 5, 1, 4 },
+        new long[] { 1, 2, 3, 4, 5, 6 });
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException
+      {
+        return new ItemAverageRecommender(dataModel);
+      }
+    };
+    // refreshing after every rating makes the averages include it
+    PrequentialEvaluation evaluation =
+        new PrequentialEvaluator(2, 1).evaluate(builder, events, 0.5);
+
+    assertEquals(3, evaluation.getNumRatings());
+    // 5 is estimated as 3, item 11 is new, and then 4 is estimated as 1
+    assertEquals(2.5, evaluation.getMeanAbsoluteError(), EPSILON);
+    assertEquals(2 / 3.0, evaluation.getCoverage(), EPSILON);
+    assertEquals(2, evaluation.getWindows().size());
+    assertEquals(2, evaluation.getWindows().get(0).getNumRatings());
+    assertEquals(2.0, evaluation.getWindows().get(0).getMeanAbsoluteError(), EPSILON);
+    assertEquals(6, evaluation.getWindows().get(1).getFirstTimestamp());
+    assertEquals(3 / 2.0, evaluation.getEventsPerSecond(), EPSILON);
+    assertEquals(3, evaluation.getPredictLatency().getCount());
+  }
+
+  @Test
+  public void testWarmUpModel() throws TasteException
+  {
+    RatingEvents events = new RatingEvents(new long[] { 1, 1, 2 }, new long[] { 10, 10, 20 },
+        new float[] { 4, 2, 5 }, new long[] { 1, 2, 3 });
+    DeltaDataModel model = PrequentialEvaluator.warmUpModel(events, 2);
+    assertEquals(1, model.getNumUsers());
+    // the later rating of a preference wins
+    assertEquals(2f, model.getPreferenceValue(1, 10), 0f);
+  }
+
+}
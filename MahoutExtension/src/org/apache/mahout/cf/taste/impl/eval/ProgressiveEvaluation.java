@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+/**
+ * <p>
+ * Result of {@link AbstractRankBasedRecommenderEvaluator#evaluateProgressively}: the evaluation over
+ * the test users that were processed before the evaluation stopped, with a confidence interval for
+ * the evaluation over all test users.
+ * </p><p>
+ * The interval treats the evaluation as a ratio of per-user sums (a plain average of user scores is
+ * the special case where every user weighs 1) and uses the normal approximation of its
+ * distribution. Because the test users form a finite population, the interval shrinks to the
+ * estimate itself when every user has been processed.
+ * </p>
+ */
+public final class ProgressiveEvaluation {
+
+  /** z-value of a two-sided 95% confidence interval */
+  static final double Z_95 = 1.959964;
+
+  private final double estimate;
+  private final double lowerBound;
+  private final double upperBound;
+  private final int numUsersEvaluated;
+  private final int numUsers;
+
+  ProgressiveEvaluation(double estimate, double halfWidth, int numUsersEvaluated, int numUsers) {
+    this.estimate = estimate;
+    this.lowerBound = estimate - halfWidth;
+    this.upperBound = estimate + halfWidth;
+    this.numUsersEvaluated = numUsersEvaluated;
+    this.numUsers = numUsers;
+  }
+
+  public double getEstimate() {
+    return estimate;
+  }
+
+  /** Lower bound of the 95% confidence interval. */
+  public double getLowerBound() {
+    return lowerBound;
+  }
+
+  /** Upper bound of the 95% confidence interval. */
+  public double getUpperBound() {
+    return upperBound;
+  }
+
+  public int getNumUsersEvaluated() {
+    return numUsersEvaluated;
+  }
+
+  /** Number of test users, evaluated or not. */
+  public int getNumUsers() {
+    return numUsers;
+  }
+
+  /**
+   * Half the width of the 95% confidence interval of sum(scores) / sum(weights) over the first
+   * {@code n} users, skipping users whose score is NaN; infinite with fewer than two users.
+   */
+  static double halfWidth(double[] scores, double[] weights, int n, int numUsers) {
+    double scoreSum = 0.0;
+    double weightSum = 0.0;
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (!Double.isNaN(scores[i]) && weights[i] > 0.0) {
+        scoreSum += scores[i];
+        weightSum += weights[i];
+        count++;
+      }
+    }
+    if (count < 2) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double ratio = scoreSum / weightSum;
+    double squares = 0.0;
+    for (int i = 0; i < n; i++) {
+      if (!Double.isNaN(scores[i]) && weights[i] > 0.0) {
+        double residual = scores[i] - ratio * weights[i];
+        squares += residual * residual;
+      }
+    }
+    double meanWeight = weightSum / count;
+    // delta method variance of a ratio estimator, with finite population correction
+    double variance = squares / ((double) count * (count - 1) * meanWeight * meanWeight)
+        * Math.max(0.0, 1.0 - (double) n / numUsers);
+    return Z_95 * Math.sqrt(variance);
+  }
+
+  @Override
+  public String toString() {
+    return "ProgressiveEvaluation[estimate:" + estimate + ", 95% interval:[" + lowerBound + ','
+        + upperBound + "], users:" + numUsersEvaluated + '/' + numUsers + ']';
+  }
+
+}
@@ -17,13 +17,8 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
-import org.apache.mahout.cf.taste.model.Preference;
 
 /**
  * <p>
@@ -39,7 +34,7 @@ import org.apache.mahout.cf.taste.model.Preference;
  * This algorithm uses a part of a users preferences as training set and a part as test set. For the
  * items in the test set, the predicted rating is requested. 
  * The test set is then sorted by real rating and ranked. Then it is sorted by predicted rating and
- * ranked. These two rankings are compared. For an item, the penalty is abs(rank1-rank2).
+ * ranked (see {@link PreferenceRankBuffer}). These two rankings are compared. For an item, the penalty is abs(rank1-rank2).
  * All penalties are added up and then divided by the worst possible score, which is the one 
  * corresponding with the items being in the completely reversed order.  
  * </p><p>
@@ -56,84 +51,41 @@ public final class RankBasedRecommenderEvaluator extends AbstractRankBasedRecomm
   }
   
   @Override
-  protected void processOneEstimate(float estimatedPreference, Preference realPref) 
-  {
-    System.out.println("Unimplemented");
-  }
-  
-  @Override
-  protected void processOneUser(long userId, ArrayList<Object[]> allPrefs)
+  protected double processOneUser(long userId, PreferenceRankBuffer prefs)
   {
-    double score = calculateScore(userId, allPrefs);
-    average.addDatum(score);
+    return calculateScore(userId, prefs);
   }
 
-  double calculateScore(long userId, ArrayList<Object[]> allPrefs)
+  double calculateScore(long userId, PreferenceRankBuffer prefs)
   {
-    if (allPrefs.size() <= 1)
+    int n = prefs.size();
+    if (n <= 1)
       return 1;
     
-    // pref = [itemId, realPref, realRank, estPref, estRank]
-
-    // sort by real prefs and set rankings
-    Collections.sort(allPrefs, new Comparator<Object[]>() {
-      @Override
-      public int compare(Object[] o1, Object[] o2)
-      {
-        return Float.compare( (float)o1[1], (float)o2[1] );
-      }
-    });
-    for (int i=0; i<allPrefs.size(); i++)
-    {
-      Object[] objs = allPrefs.get(i);
-      objs[2] = i;
-//      System.out.printf("user %d p %d item %d real %.1f rank %d est %.1f rank %d \n", userId, i, 
-//        objs[0], objs[1], objs[2], objs[3], objs[4]); 
-    }
-//    System.out.println();
-    
-    // sort by estimated prefs and set rankings
-    Collections.sort(allPrefs, new Comparator<Object[]>() {
-      @Override
-      public int compare(Object[] o1, Object[] o2)
-      {
-        return Float.compare( (float)o1[3], (float)o2[3] );
-      }
-    });
-    for (int i=0; i<allPrefs.size(); i++)
-    {
-      Object[] objs = allPrefs.get(i);
-      objs[4] = i;
-//      System.out.printf("user %d p %d item %d real %.1f rank %d est %.1f rank %d \n", userId, i, 
-//        objs[0], objs[1], objs[2], objs[3], objs[4]); 
-    }
-//    System.out.println();
+    // rank by real prefs and by estimated prefs
+    prefs.rank();
     
     // now measure and cummulate all differences
     int totalDiff=0;
-    for (int i=0; i<allPrefs.size(); i++)
+    for (int i=0; i<n; i++)
     {
-      Object[] objs = allPrefs.get(i);
-      int realRank = (int) objs[2];
-      int estRank = (int) objs[4];
-      int diff = Math.abs(realRank - estRank);
+      int diff = Math.abs(prefs.getRealRank(i) - prefs.getEstimatedRank(i));
       totalDiff += diff;      
-//      System.out.printf("user %d p %d item %d real %.1f rank %d est %.1f rank %d diff %d\n", 
-//        userId, i, objs[0], objs[1], realRank, objs[3], estRank, diff); 
     }
     // what would be the cumulative difference if the list was exactly in reversed order?
-    int n = allPrefs.size();
     double worstCase = (n*(n+1)) / 2 - Math.ceil(n/2.0);
     double score = (worstCase - totalDiff) / worstCase;
-//    System.out.println(totalDiff);
-//    System.out.println(worstCase);
-//    System.out.println("score: " + score);
     return score;
   }
 
   @Override
-  protected double computeFinalEvaluation() 
+  protected double computeFinalEvaluation(double[] userScores) 
   {
+    for (double score : userScores) {
+      if (!Double.isNaN(score)) {
+        average.addDatum(score);
+      }
+    }
 //    System.out.println();
 //    System.out.println("compute final");
 //    System.out.println(average.getAverage());
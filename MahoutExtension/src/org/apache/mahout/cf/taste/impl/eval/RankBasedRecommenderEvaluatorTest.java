@@ -1,9 +1,18 @@
 package org.apache.mahout.cf.taste.impl.eval;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
-import java.util.ArrayList;
-
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.DataModelBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.recommender.ItemAverageRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -22,44 +31,129 @@ public class RankBasedRecommenderEvaluatorTest
     RankBasedRecommenderEvaluator evaluator = new RankBasedRecommenderEvaluator();
     evaluator.reset();
     long userId = 1;
-    ArrayList<Object[]> allPrefs = new ArrayList<Object[]>();
+    PreferenceRankBuffer allPrefs = new PreferenceRankBuffer();
     double score = evaluator.calculateScore(userId, allPrefs);
     
-//  pref = [itemId, realPref, realRank, estPref, estRank]
     evaluator.reset();
     allPrefs.clear();
-    allPrefs.add( new Object[] {1, 5f, 1, 5f, 1} );
+    allPrefs.add(1, 5f, 5f);
     score = evaluator.calculateScore(userId, allPrefs);   
     assertEquals(1, score, EPSILON);
     
     evaluator.reset();
     allPrefs.clear();
-    allPrefs.add( new Object[] {1, 5f, 1, 5f, 1} );
-    allPrefs.add( new Object[] {1, 4f, 2, 4f, 2} );
-    allPrefs.add( new Object[] {1, 3f, 3, 3f, 3} );
+    allPrefs.add(1, 5f, 5f);
+    allPrefs.add(1, 4f, 4f);
+    allPrefs.add(1, 3f, 3f);
     score = evaluator.calculateScore(userId, allPrefs);   
     assertEquals(1, score, EPSILON);
     
     evaluator.reset();
     allPrefs.clear();
-    allPrefs.add( new Object[] {1, 5f, 1, 1f, 5} );
-    allPrefs.add( new Object[] {1, 4f, 2, 2f, 4} );
-    allPrefs.add( new Object[] {1, 3f, 3, 3f, 3} );
-    allPrefs.add( new Object[] {1, 2f, 4, 4f, 2} );
-    allPrefs.add( new Object[] {1, 1f, 5, 5f, 1} );
+    allPrefs.add(1, 5f, 1f);
+    allPrefs.add(1, 4f, 2f);
+    allPrefs.add(1, 3f, 3f);
+    allPrefs.add(1, 2f, 4f);
+    allPrefs.add(1, 1f, 5f);
     score = evaluator.calculateScore(userId, allPrefs);   
     assertEquals(0, score, EPSILON);
     
     evaluator.reset();
     allPrefs.clear();
-    allPrefs.add( new Object[] {1, 5f, 1, 5f, 1} );
-    allPrefs.add( new Object[] {1, 4f, 2, 2f, 4} );
-    allPrefs.add( new Object[] {1, 3f, 3, 3f, 3} );
-    allPrefs.add( new Object[] {1, 2f, 4, 4f, 2} );
-    allPrefs.add( new Object[] {1, 1f, 5, 1f, 5} );
+    allPrefs.add(1, 5f, 5f);
+    allPrefs.add(1, 4f, 2f);
+    allPrefs.add(1, 3f, 3f);
+    allPrefs.add(1, 2f, 4f);
+    allPrefs.add(1, 1f, 1f);
     score = evaluator.calculateScore(userId, allPrefs);   
     assertEquals(.66666666666666666, score, EPSILON);
     
   }
 
+  @Test
+  public void testRankKeepsStableTieOrder()
+  {
+    PreferenceRankBuffer prefs = new PreferenceRankBuffer(1);
+    prefs.add(10, 3f, 2f);
+    prefs.add(11, 3f, 2f);
+    prefs.add(12, 1f, 2f);
+    prefs.add(13, -0f, 0f);
+    prefs.rank();
+    // real ties keep insertion order, estimate ties keep real order
+    assertEquals(2, prefs.getRealRank(0));
+    assertEquals(3, prefs.getRealRank(1));
+    assertEquals(1, prefs.getRealRank(2));
+    assertEquals(0, prefs.getRealRank(3));
+    assertEquals(0, prefs.getEstimatedRank(3));
+    assertEquals(1, prefs.getEstimatedRank(2));
+    assertEquals(2, prefs.getEstimatedRank(0));
+    assertEquals(3, prefs.getEstimatedRank(1));
+    assertEquals(12, prefs.getItemID(prefs.getIndexByRealRank(1)));
+  }
+
+  @Test
+  public void testParallelEvaluationEqualsSingleThreaded() throws TasteException
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 200, 50, 20, 20);
+    RecommenderBuilder builder = itemAverageBuilder();
+    
+    RankBasedRecommenderEvaluator single = new RankBasedRecommenderEvaluator();
+    single.setNumThreads(1);
+    double expected = single.evaluate(builder, null, dataModel, 0.7, 1.0);
+
+    RankBasedRecommenderEvaluator parallel = new RankBasedRecommenderEvaluator();
+    parallel.setNumThreads(8);
+    double actual = parallel.evaluate(builder, null, dataModel, 0.7, 1.0);
+    
+    assertEquals(expected, actual, EPSILON);
+  }
+
+  @Test
+  public void testEvaluateWithDataModelBuilder() throws TasteException
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 200, 50, 20, 20);
+    RecommenderBuilder builder = itemAverageBuilder();
+    DataModelBuilder dataModelBuilder = new DataModelBuilder() {
+      @Override
+      public DataModel buildDataModel(FastByIDMap<PreferenceArray> trainingData)
+      {
+        // sorts the training arrays in place
+        return new GenericDataModel(trainingData);
+      }
+    };
+
+    double expected = new RankBasedRecommenderEvaluator().evaluate(builder, null, dataModel, 
+        0.7, 1.0);
+    double actual = new RankBasedRecommenderEvaluator().evaluate(builder, dataModelBuilder, 
+        dataModel, 0.7, 1.0);
+    assertEquals(expected, actual, EPSILON);
+  }
+
+  @Test
+  public void testEvaluationIsReproducible() throws TasteException
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 200, 50, 20, 20);
+    RecommenderBuilder builder = itemAverageBuilder();
+
+    AbsoluteDifferenceRecommenderEvaluator evaluator = new AbsoluteDifferenceRecommenderEvaluator();
+    double first = evaluator.evaluate(builder, null, dataModel, 0.7, 1.0);
+    assertEquals(first, evaluator.evaluate(builder, null, dataModel, 0.7, 1.0), EPSILON);
+    assertEquals(first, new AbsoluteDifferenceRecommenderEvaluator().evaluate(builder, null,
+        dataModel, 0.7, 1.0), EPSILON);
+
+    evaluator.setSeed(AbstractRankBasedRecommenderEvaluator.DEFAULT_SEED + 1);
+    assertTrue(first != evaluator.evaluate(builder, null, dataModel, 0.7, 1.0));
+  }
+
+  private static RecommenderBuilder itemAverageBuilder()
+  {
+    return new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel model) throws TasteException
+      {
+        return new ItemAverageRecommender(model);
+      }
+    };
+  }
+
 }
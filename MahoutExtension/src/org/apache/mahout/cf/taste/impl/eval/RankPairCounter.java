@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Classifies all pairs of a user's test items by comparing their real and estimated preferences,
+ * in O(n log n) time (Knight's algorithm): the items are sorted by (real, estimated) value, after
+ * which the discordant pairs are exactly the inversions in the sequence of estimates, counted with
+ * a merge sort. Tied pairs follow from the run lengths of equal values.
+ * </p><p>
+ * Instances keep their scratch arrays between calls and are not thread-safe.
+ * </p>
+ */
+final class RankPairCounter {
+
+  private long[] keys = new long[16];
+  private int[] estimates = new int[16];
+  private int[] scratch = new int[16];
+
+  private long pairs;
+  private long realTies;
+  private long estimatedTies;
+  private long jointTies;
+  private long discordant;
+
+  void count(PreferenceRankBuffer prefs) {
+    int n = prefs.size();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      keys[i] = ((long) PreferenceRankBuffer.sortableBits(prefs.getRealPref(i)) << 32)
+          | unsignedBits(prefs.getEstimatedPref(i));
+    }
+    Arrays.sort(keys, 0, n);
+
+    pairs = (long) n * (n - 1) / 2;
+    realTies = 0;
+    jointTies = 0;
+    int realRun = 1;
+    int jointRun = 1;
+    for (int i = 1; i <= n; i++) {
+      if (i < n && (keys[i] >>> 32) == (keys[i - 1] >>> 32)) {
+        realRun++;
+        if (keys[i] == keys[i - 1]) {
+          jointRun++;
+        } else {
+          jointTies += tiedPairs(jointRun);
+          jointRun = 1;
+        }
+      } else {
+        realTies += tiedPairs(realRun);
+        jointTies += tiedPairs(jointRun);
+        realRun = 1;
+        jointRun = 1;
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      estimates[i] = (int) keys[i] ^ Integer.MIN_VALUE;
+    }
+    discordant = countInversions(0, n);
+
+    // the estimates are sorted now
+    estimatedTies = 0;
+    int estimatedRun = 1;
+    for (int i = 1; i <= n; i++) {
+      if (i < n && estimates[i] == estimates[i - 1]) {
+        estimatedRun++;
+      } else {
+        estimatedTies += tiedPairs(estimatedRun);
+        estimatedRun = 1;
+      }
+    }
+  }
+
+  /** Number of pairs, n(n-1)/2. */
+  long getPairs() {
+    return pairs;
+  }
+
+  /** Pairs with equal real preferences. */
+  long getRealTies() {
+    return realTies;
+  }
+
+  /** Pairs with equal estimated preferences. */
+  long getEstimatedTies() {
+    return estimatedTies;
+  }
+
+  /** Pairs with both equal real and equal estimated preferences. */
+  long getJointTies() {
+    return jointTies;
+  }
+
+  /** Pairs ordered strictly, but in opposite directions, by real and estimated preferences. */
+  long getDiscordant() {
+    return discordant;
+  }
+
+  /** Pairs ordered strictly, in the same direction, by real and estimated preferences. */
+  long getConcordant() {
+    return pairs - realTies - estimatedTies + jointTies - discordant;
+  }
+
+  /**
+   * Sorts estimates[from, to) and returns the number of pairs i < j with estimates[i] > estimates[j].
+   */
+  private long countInversions(int from, int to) {
+    int length = to - from;
+    if (length < 2) {
+      return 0;
+    }
+    if (length <= 8) {
+      // insertion sort; each shift is one inversion
+      long inversions = 0;
+      for (int i = from + 1; i < to; i++) {
+        int value = estimates[i];
+        int j = i - 1;
+        while (j >= from && estimates[j] > value) {
+          estimates[j + 1] = estimates[j];
+          j--;
+          inversions++;
+        }
+        estimates[j + 1] = value;
+      }
+      return inversions;
+    }
+    int middle = (from + to) >>> 1;
+    long inversions = countInversions(from, middle) + countInversions(middle, to);
+    if (estimates[middle - 1] <= estimates[middle]) {
+      return inversions;
+    }
+    System.arraycopy(estimates, from, scratch, from, length);
+    int left = from;
+    int right = middle;
+    int out = from;
+    while (left < middle && right < to) {
+      if (scratch[right] < scratch[left]) {
+        // everything left in the lower half is larger than this element
+        inversions += middle - left;
+        estimates[out++] = scratch[right++];
+      } else {
+        estimates[out++] = scratch[left++];
+      }
+    }
+    while (left < middle) {
+      estimates[out++] = scratch[left++];
+    }
+    while (right < to) {
+      estimates[out++] = scratch[right++];
+    }
+    return inversions;
+  }
+
+  private void ensureCapacity(int n) {
+    if (keys.length < n) {
+      int capacity = Math.max(n, keys.length << 1);
+      keys = new long[capacity];
+      estimates = new int[capacity];
+      scratch = new int[capacity];
+    }
+  }
+
+  private static long unsignedBits(float value) {
+    return (PreferenceRankBuffer.sortableBits(value) ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+  }
+
+  private static long tiedPairs(int run) {
+    return (long) run * (run - 1) / 2;
+  }
+
+}
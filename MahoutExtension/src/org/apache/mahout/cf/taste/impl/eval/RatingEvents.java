@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.apache.mahout.cf.taste.impl.model.file.RatingsConverter;
+import org.apache.mahout.math.Sorting;
+import org.apache.mahout.math.function.IntComparator;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * Ratings with the time they were given, in time order, for a {@link PrequentialEvaluator}. The
+ * sort is stable, so ratings with the same timestamp keep the order they had in the input.
+ * </p><p>
+ * {@link #load(File)} reads the layouts of {@link RatingsConverter}: u.data of ml-100k,
+ * ratings.dat of ml-1M and ml-10M, or CSV with a fourth column, as written by
+ * {@code MovieDataConvert} when it keeps timestamps.
+ * </p>
+ */
+public final class RatingEvents {
+
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  private final float[] values;
+  private final long[] timestamps;
+
+  /**
+   * Takes over the arrays and sorts them by timestamp.
+   */
+  public RatingEvents(long[] userIDs, long[] itemIDs, float[] values, final long[] timestamps) {
+    int n = timestamps.length;
+    Preconditions.checkArgument(userIDs.length == n && itemIDs.length == n && values.length == n,
+        "Arrays differ in length");
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Sorting.mergeSort(order, 0, n, new IntComparator() {
+      @Override
+      public int compare(int a, int b) {
+        return timestamps[a] < timestamps[b] ? -1 : timestamps[a] > timestamps[b] ? 1 : 0;
+      }
+    });
+    this.userIDs = new long[n];
+    this.itemIDs = new long[n];
+    this.values = new float[n];
+    this.timestamps = new long[n];
+    for (int i = 0; i < n; i++) {
+      this.userIDs[i] = userIDs[order[i]];
+      this.itemIDs[i] = itemIDs[order[i]];
+      this.values[i] = values[order[i]];
+      this.timestamps[i] = timestamps[order[i]];
+    }
+  }
+
+  /**
+   * Reads the ratings of a file, detecting its layout from the first line. Lines that do not start
+   * with a number, such as a header, are skipped, and so are lines without a rating.
+   *
+   * @throws IOException if a rating has no timestamp
+   */
+  public static RatingEvents load(File file) throws IOException {
+    RatingsConverter.Format format = RatingsConverter.detect(file);
+    Pattern separator = Pattern.compile(format == RatingsConverter.Format.DOUBLE_COLON ? "::"
+        : format == RatingsConverter.Format.TAB ? "\t" : ",");
+    long[] userIDs = new long[1024];
+    long[] itemIDs = new long[1024];
+    float[] values = new float[1024];
+    long[] timestamps = new long[1024];
+    int n = 0;
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+    try {
+      int lineNumber = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isEmpty() || !Character.isDigit(line.charAt(0))) {
+          continue;
+        }
+        String[] fields = separator.split(line.trim());
+        if (fields.length < 3 || fields[2].isEmpty()) {
+          continue;
+        }
+        if (fields.length < 4) {
+          throw new IOException("No timestamp in line " + lineNumber + " of " + file);
+        }
+        if (n == userIDs.length) {
+          userIDs = Arrays.copyOf(userIDs, 2 * n);
+          itemIDs = Arrays.copyOf(itemIDs, 2 * n);
+          values = Arrays.copyOf(values, 2 * n);
+          timestamps = Arrays.copyOf(timestamps, 2 * n);
+        }
+        try {
+          userIDs[n] = Long.parseLong(fields[0]);
+          itemIDs[n] = Long.parseLong(fields[1]);
+          values[n] = Float.parseFloat(fields[2]);
+          timestamps[n] = Long.parseLong(fields[3]);
+        } catch (NumberFormatException nfe) {
+          throw new IOException("Bad rating in line " + lineNumber + " of " + file, nfe);
+        }
+        n++;
+      }
+    } finally {
+      Closeables.close(reader, true);
+    }
+    return new RatingEvents(Arrays.copyOf(userIDs, n), Arrays.copyOf(itemIDs, n),
+        Arrays.copyOf(values, n), Arrays.copyOf(timestamps, n));
+  }
+
+  public int size() {
+    return timestamps.length;
+  }
+
+  public long getUserID(int i) {
+    return userIDs[i];
+  }
+
+  public long getItemID(int i) {
+    return itemIDs[i];
+  }
+
+  public float getValue(int i) {
+    return values[i];
+  }
+
+  public long getTimestamp(int i) {
+    return timestamps[i];
+  }
+
+  @Override
+  public String toString() {
+    int n = timestamps.length;
+    return "RatingEvents[ratings:" + n
+        + (n == 0 ? "" : ", from:" + timestamps[0] + ", to:" + timestamps[n - 1]) + ']';
+  }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * Stores a {@link TrainingTestSplit} in a compact binary file, so that later runs and other
+ * evaluators use exactly the same split without computing it again. Only the masks are stored,
+ * one bit per preference; the file is only valid together with the data model it was made from.
+ * To check that, it holds a fingerprint of that data model: its numbers of users, items and
+ * preferences, and a checksum of the user and item IDs in the order of the preference arrays,
+ * which is what the masks refer to. {@link #read(DataModel, File)} refuses a file whose
+ * fingerprint differs; {@link #loadOrCreate} makes the split again.
+ * </p><p>
+ * The file is memory-mapped when it is read. Layout, big-endian:
+ * </p>
+ * <pre>
+ * int magic, int version, double trainingPercentage, double evaluationPercentage, long seed,
+ * int numUsers, int numItems, long numPreferences, long checksum (of the source),
+ * 3 sections (user masks, item masks, test masks), each:
+ *   int count, count times: long id, int words, words times long
+ * </pre>
+ */
+public final class SplitFile {
+
+  private static final Logger log = LoggerFactory.getLogger(SplitFile.class);
+
+  private static final int MAGIC = 0x4D535054; // "MSPT"
+  private static final int VERSION = 2;
+
+  private SplitFile() {
+  }
+
+  /**
+   * The file in which the split of a data file with the given parameters is kept: next to the data
+   * file, for instance {@code ml-100k.csv.split-90-100-42.bin}.
+   */
+  public static File fileFor(File dataFile,
+                             double trainingPercentage,
+                             double evaluationPercentage,
+                             long seed) {
+    String name = String.format(Locale.ROOT, "%s.split-%d-%d-%d.bin", dataFile.getName(),
+        Math.round(trainingPercentage * 100), Math.round(evaluationPercentage * 100), seed);
+    return new File(dataFile.getAbsoluteFile().getParentFile(), name);
+  }
+
+  /**
+   * Reads the split from {@code file} if it exists; otherwise computes it and writes it there.
+   */
+  public static TrainingTestSplit loadOrCreate(DataModel dataModel,
+                                               File file,
+                                               double trainingPercentage,
+                                               double evaluationPercentage,
+                                               long seed) throws TasteException, IOException {
+    if (file.exists()) {
+      try {
+        TrainingTestSplit split = read(dataModel, file);
+        if (split.getSeed() != seed
+            || split.getTrainingPercentage() != trainingPercentage
+            || split.getEvaluationPercentage() != evaluationPercentage) {
+          throw new IOException(file + " holds a split with other parameters");
+        }
+        return split;
+      } catch (StaleSplitException sse) {
+        log.info("Making the split again: {}", sse.getMessage());
+      }
+    }
+    TrainingTestSplit split =
+        new TrainingTestSplit(dataModel, trainingPercentage, evaluationPercentage, seed);
+    write(split, file);
+    return split;
+  }
+
+  public static void write(TrainingTestSplit split, File file)
+      throws TasteException, IOException {
+    // write to a temporary file first, so that a run that is killed leaves no broken split behind
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+    boolean threw = true;
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeDouble(split.getTrainingPercentage());
+      out.writeDouble(split.getEvaluationPercentage());
+      out.writeLong(split.getSeed());
+      Fingerprint fingerprint = new Fingerprint(split.getSource());
+      out.writeInt(fingerprint.numUsers);
+      out.writeInt(fingerprint.numItems);
+      out.writeLong(fingerprint.numPreferences);
+      out.writeLong(fingerprint.checksum);
+      writeMasks(out, split.getUserMasks());
+      writeMasks(out, split.getItemMasks());
+      writeMasks(out, split.getTestMasks());
+      threw = false;
+    } finally {
+      Closeables.close(out, threw);
+    }
+    if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+      throw new IOException("Could not rename " + tmp + " to " + file);
+    }
+    log.info("Wrote split to {} ({} bytes)", file, file.length());
+  }
+
+  /** Masks are written in ID order, so equal splits give equal files. */
+  private static void writeMasks(DataOutputStream out, FastByIDMap<long[]> masks)
+      throws IOException {
+    long[] ids = new long[masks.size()];
+    int n = 0;
+    LongPrimitiveIterator it = masks.keySetIterator();
+    while (it.hasNext()) {
+      ids[n++] = it.nextLong();
+    }
+    Arrays.sort(ids);
+    out.writeInt(n);
+    for (long id : ids) {
+      long[] mask = masks.get(id);
+      out.writeLong(id);
+      out.writeInt(mask.length);
+      for (long word : mask) {
+        out.writeLong(word);
+      }
+    }
+  }
+
+  public static TrainingTestSplit read(DataModel dataModel, File file)
+      throws TasteException, IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large for a split file");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException(file + " is not a split file");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new StaleSplitException(file + " has unsupported version " + version);
+      }
+      double trainingPercentage = buffer.getDouble();
+      double evaluationPercentage = buffer.getDouble();
+      long seed = buffer.getLong();
+      int numUsers = buffer.getInt();
+      int numItems = buffer.getInt();
+      long numPreferences = buffer.getLong();
+      long checksum = buffer.getLong();
+      Fingerprint fingerprint = new Fingerprint(dataModel);
+      if (numUsers != fingerprint.numUsers || numItems != fingerprint.numItems
+          || numPreferences != fingerprint.numPreferences || checksum != fingerprint.checksum) {
+        throw new StaleSplitException(file + " was made from another data model (" + numUsers
+            + " users, " + numItems + " items, " + numPreferences + " preferences)");
+      }
+      FastByIDMap<long[]> userMasks = readMasks(buffer);
+      FastByIDMap<long[]> itemMasks = readMasks(buffer);
+      FastByIDMap<long[]> testMasks = readMasks(buffer);
+      log.info("Read split from {}", file);
+      return new TrainingTestSplit(dataModel, trainingPercentage, evaluationPercentage, seed,
+          userMasks, itemMasks, testMasks);
+    } finally {
+      Closeables.close(raf, true);
+    }
+  }
+
+  private static FastByIDMap<long[]> readMasks(ByteBuffer buffer) {
+    int count = buffer.getInt();
+    FastByIDMap<long[]> masks = new FastByIDMap<long[]>(count);
+    for (int i = 0; i < count; i++) {
+      long id = buffer.getLong();
+      long[] mask = new long[buffer.getInt()];
+      // bulk copy out of the mapping; the masks themselves are small, one bit per preference
+      LongBuffer words = buffer.asLongBuffer();
+      words.get(mask);
+      buffer.position(buffer.position() + 8 * mask.length);
+      masks.put(id, mask);
+    }
+    return masks;
+  }
+
+  /**
+   * The numbers of users, items and preferences of a data model, and a checksum of the user and
+   * item IDs. The checksum depends on the order of the items in every user's preference array, but
+   * not on the order of the users.
+   */
+  private static final class Fingerprint {
+
+    private final int numUsers;
+    private final int numItems;
+    private long numPreferences;
+    private long checksum;
+
+    Fingerprint(DataModel dataModel) throws TasteException {
+      numUsers = dataModel.getNumUsers();
+      numItems = dataModel.getNumItems();
+      LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+      while (userIDs.hasNext()) {
+        long userID = userIDs.nextLong();
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        long userHash = mix(userID);
+        for (int i = 0; i < prefs.length(); i++) {
+          userHash = 31 * userHash + mix(prefs.getItemID(i));
+        }
+        checksum += mix(userHash);
+        numPreferences += prefs.length();
+      }
+    }
+
+    /** The 64-bit finalizer of MurmurHash3. */
+    private static long mix(long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+    }
+  }
+
+  /** The file is intact but was made by another version or from another data model. */
+  private static final class StaleSplitException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    StaleSplitException(String message) {
+      super(message);
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+package org.apache.mahout.cf.taste.impl.eval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public class SplitFileTest
+{
+
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 300, 80, 60, 60);
+    File dir = File.createTempFile("split", "");
+    assertTrue(dir.delete() && dir.mkdir());
+    File file = SplitFile.fileFor(new File(dir, "ratings.csv"), 0.8, 0.5, 11L);
+    try {
+      assertEquals("ratings.csv.split-80-50-11.bin", file.getName());
+      TrainingTestSplit created = SplitFile.loadOrCreate(dataModel, file, 0.8, 0.5, 11L);
+      assertTrue(file.exists());
+      TrainingTestSplit loaded = SplitFile.loadOrCreate(dataModel, file, 0.8, 0.5, 11L);
+
+      assertEquals(11L, loaded.getSeed());
+      assertEquals(0.8, loaded.getTrainingPercentage(), 0.0);
+      assertEquals(0.5, loaded.getEvaluationPercentage(), 0.0);
+      assertMasksEqual(created.getUserMasks(), loaded.getUserMasks());
+      assertMasksEqual(created.getItemMasks(), loaded.getItemMasks());
+      assertMasksEqual(created.getTestMasks(), loaded.getTestMasks());
+      assertEquals(created.getTrainingModel().getNumUsers(),
+          loaded.getTrainingModel().getNumUsers());
+    } finally {
+      file.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testRefusesOtherDataModel() throws Exception
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 300, 80, 60, 60);
+    // same numbers of users, items and preferences, but user 0 has other items
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      userData.put(userID, dataModel.getPreferencesFromUser(userID).clone());
+    }
+    PreferenceArray prefs = userData.get(0L);
+    long free = 0;
+    while (prefs.hasPrefWithItemID(free)) {
+      free++;
+    }
+    prefs.setItemID(0, free);
+    prefs.sortByItem();
+    DataModel changed = new GenericDataModel(userData);
+    assertEquals(dataModel.getNumItems(), changed.getNumItems());
+
+    File file = File.createTempFile("split", ".bin");
+    try {
+      SplitFile.write(new TrainingTestSplit(dataModel, 0.8, 1.0, 5L), file);
+      try {
+        SplitFile.read(changed, file);
+        fail();
+      } catch (IOException expected) {
+        // the fingerprint differs
+      }
+      // loadOrCreate makes the split again
+      TrainingTestSplit split = SplitFile.loadOrCreate(changed, file, 0.8, 1.0, 5L);
+      assertSame(changed, split.getSource());
+      assertSame(changed, SplitFile.read(changed, file).getSource());
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void assertMasksEqual(FastByIDMap<long[]> expected, FastByIDMap<long[]> actual)
+  {
+    assertEquals(expected.size(), actual.size());
+    for (Map.Entry<Long,long[]> entry : expected.entrySet()) {
+      assertArrayEquals(entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+
+}
@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.MaskedDataModel;
+import org.apache.mahout.cf.taste.impl.model.MaskedPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Splits the preferences of a data model into a training and a test set, the same way Mahout's
+ * evaluators do: a fraction {@code evaluationPercentage} of the users takes part, and a fraction
+ * {@code trainingPercentage} of the preferences of those users goes into the training set. Users
+ * without training preferences are left out of both sets.
+ * </p><p>
+ * Neither set copies any preference: the training set is a {@link MaskedDataModel} over the source,
+ * and the test preferences are {@link MaskedPreferenceArray}s. The masks take one bit per
+ * preference of a participating user, twice (once by user and once by item).
+ * </p><p>
+ * Whether a user takes part and whether a preference is used for training is decided by hashing
+ * the IDs together with a seed, not by drawing from a shared random stream. Both masks of a
+ * preference therefore agree without a lookup from one into the other, and a split is completely
+ * determined by its seed and percentages.
+ * </p>
+ */
+public final class TrainingTestSplit {
+
+  private final DataModel source;
+  private final double trainingPercentage;
+  private final double evaluationPercentage;
+  private final long seed;
+  private final FastByIDMap<long[]> userMasks;
+  private final FastByIDMap<long[]> itemMasks;
+  private final FastByIDMap<long[]> testMasks;
+  private final MaskedDataModel trainingModel;
+  private final FastByIDMap<PreferenceArray> testPrefs;
+
+  public TrainingTestSplit(DataModel source, double trainingPercentage,
+      double evaluationPercentage, long seed) throws TasteException {
+    Preconditions.checkNotNull(source);
+    Preconditions.checkArgument(trainingPercentage >= 0.0 && trainingPercentage <= 1.0,
+      "Invalid trainingPercentage: " + trainingPercentage);
+    Preconditions.checkArgument(evaluationPercentage >= 0.0 && evaluationPercentage <= 1.0,
+      "Invalid evaluationPercentage: " + evaluationPercentage);
+    this.source = source;
+    this.trainingPercentage = trainingPercentage;
+    this.evaluationPercentage = evaluationPercentage;
+    this.seed = seed;
+
+    int numUsers = source.getNumUsers();
+    userMasks = new FastByIDMap<long[]>(1 + (int) (evaluationPercentage * numUsers));
+    testMasks = new FastByIDMap<long[]>(1 + (int) (evaluationPercentage * numUsers));
+    LongPrimitiveIterator it = source.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      if (!isEvaluated(userID)) {
+        continue;
+      }
+      PreferenceArray prefs = source.getPreferencesFromUser(userID);
+      int size = prefs.length();
+      long[] trainingMask = new long[MaskedPreferenceArray.words(size)];
+      long[] testMask = new long[trainingMask.length];
+      boolean hasTraining = false;
+      boolean hasTest = false;
+      for (int i = 0; i < size; i++) {
+        if (isTraining(userID, prefs.getItemID(i))) {
+          MaskedPreferenceArray.set(trainingMask, i);
+          hasTraining = true;
+        } else {
+          MaskedPreferenceArray.set(testMask, i);
+          hasTest = true;
+        }
+      }
+      if (hasTraining) {
+        userMasks.put(userID, trainingMask);
+        if (hasTest) {
+          testMasks.put(userID, testMask);
+        }
+      }
+    }
+
+    itemMasks = new FastByIDMap<long[]>(source.getNumItems());
+    it = source.getItemIDs();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      PreferenceArray prefs = source.getPreferencesForItem(itemID);
+      int size = prefs.length();
+      long[] trainingMask = null;
+      for (int i = 0; i < size; i++) {
+        long userID = prefs.getUserID(i);
+        if (userMasks.containsKey(userID) && isTraining(userID, itemID)) {
+          if (trainingMask == null) {
+            trainingMask = new long[MaskedPreferenceArray.words(size)];
+          }
+          MaskedPreferenceArray.set(trainingMask, i);
+        }
+      }
+      if (trainingMask != null) {
+        itemMasks.put(itemID, trainingMask);
+      }
+    }
+
+    trainingModel = new MaskedDataModel(source, userMasks, itemMasks);
+    testPrefs = testPrefs(source, testMasks);
+  }
+
+  /**
+   * A split from masks that were computed before, see {@link SplitFile}.
+   */
+  TrainingTestSplit(DataModel source, double trainingPercentage, double evaluationPercentage,
+      long seed, FastByIDMap<long[]> userMasks, FastByIDMap<long[]> itemMasks,
+      FastByIDMap<long[]> testMasks) throws TasteException {
+    this.source = Preconditions.checkNotNull(source);
+    this.trainingPercentage = trainingPercentage;
+    this.evaluationPercentage = evaluationPercentage;
+    this.seed = seed;
+    this.userMasks = userMasks;
+    this.itemMasks = itemMasks;
+    this.testMasks = testMasks;
+    trainingModel = new MaskedDataModel(source, userMasks, itemMasks);
+    testPrefs = testPrefs(source, testMasks);
+  }
+
+  private static FastByIDMap<PreferenceArray> testPrefs(DataModel source,
+      FastByIDMap<long[]> testMasks) throws TasteException {
+    FastByIDMap<PreferenceArray> testPrefs = new FastByIDMap<PreferenceArray>(testMasks.size());
+    for (Map.Entry<Long,long[]> entry : testMasks.entrySet()) {
+      long userID = entry.getKey();
+      testPrefs.put(userID,
+          new MaskedPreferenceArray(source.getPreferencesFromUser(userID), entry.getValue(), true));
+    }
+    return testPrefs;
+  }
+
+  public DataModel getSource() {
+    return source;
+  }
+
+  public double getTrainingPercentage() {
+    return trainingPercentage;
+  }
+
+  public double getEvaluationPercentage() {
+    return evaluationPercentage;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  public DataModel getTrainingModel() {
+    return trainingModel;
+  }
+
+  /**
+   * The training preferences per user, for a
+   * {@link org.apache.mahout.cf.taste.eval.DataModelBuilder}. These are mutable copies, not views:
+   * a builder may sort them in place, as {@code GenericDataModel} does.
+   */
+  public FastByIDMap<PreferenceArray> getTrainingPrefs() throws TasteException {
+    FastByIDMap<PreferenceArray> trainingPrefs =
+        new FastByIDMap<PreferenceArray>(trainingModel.getNumUsers());
+    LongPrimitiveIterator it = trainingModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      trainingPrefs.put(userID, trainingModel.getPreferencesFromUser(userID).clone());
+    }
+    return trainingPrefs;
+  }
+
+  /**
+   * The test preferences of every user that takes part and has both training and test preferences.
+   */
+  public FastByIDMap<PreferenceArray> getTestPrefs() {
+    return testPrefs;
+  }
+
+  FastByIDMap<long[]> getUserMasks() {
+    return userMasks;
+  }
+
+  FastByIDMap<long[]> getItemMasks() {
+    return itemMasks;
+  }
+
+  FastByIDMap<long[]> getTestMasks() {
+    return testMasks;
+  }
+
+  boolean isEvaluated(long userID) {
+    return uniform(~seed, userID, 0) < evaluationPercentage;
+  }
+
+  boolean isTraining(long userID, long itemID) {
+    return uniform(seed, userID, itemID) < trainingPercentage;
+  }
+
+  /**
+   * A number in [0, 1), uniformly distributed over seeds and a pseudo-random function of its
+   * arguments (SplitMix64 finalizer).
+   */
+  static double uniform(long seed, long a, long b) {
+    long h = mix(seed ^ mix(a * 0x9E3779B97F4A7C15L + b));
+    return (h >>> 11) * 0x1.0p-53;
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+}
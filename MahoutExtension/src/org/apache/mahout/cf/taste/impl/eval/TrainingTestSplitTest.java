@@ -0,0 +1,91 @@
+package org.apache.mahout.cf.taste.impl.eval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public class TrainingTestSplitTest
+{
+
+  @Test
+  public void testSplitPartitionsPreferences() throws TasteException
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 300, 80, 60, 60);
+    TrainingTestSplit split = new TrainingTestSplit(dataModel, 0.8, 0.5, 1234L);
+    DataModel training = split.getTrainingModel();
+
+    int evaluated = 0;
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      if (!split.isEvaluated(userID)) {
+        assertFalse(split.getTestPrefs().containsKey(userID));
+        continue;
+      }
+      evaluated++;
+      PreferenceArray test = split.getTestPrefs().get(userID);
+      PreferenceArray train = training.getPreferencesFromUser(userID);
+      assertEquals(prefs.length(), train.length() + (test == null ? 0 : test.length()));
+      for (int i = 0; i < prefs.length(); i++) {
+        long itemID = prefs.getItemID(i);
+        Float trainValue = training.getPreferenceValue(userID, itemID);
+        if (split.isTraining(userID, itemID)) {
+          assertEquals(prefs.getValue(i), trainValue, 0);
+          assertTrue(training.getPreferencesForItem(itemID).hasPrefWithUserID(userID));
+        } else {
+          assertNull(trainValue);
+          assertTrue(test.hasPrefWithItemID(itemID));
+        }
+      }
+    }
+    assertEquals(evaluated, training.getNumUsers());
+    assertTrue(evaluated > 100 && evaluated < 200);
+  }
+
+  @Test
+  public void testViewEqualsCopy() throws TasteException
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 100, 40, 20, 20);
+    TrainingTestSplit split = new TrainingTestSplit(dataModel, 0.7, 1.0, 99L);
+    DataModel view = split.getTrainingModel();
+    FastByIDMap<PreferenceArray> copies = new FastByIDMap<PreferenceArray>();
+    for (Map.Entry<Long,PreferenceArray> entry : split.getTrainingPrefs().entrySet()) {
+      copies.put(entry.getKey(), entry.getValue().clone());
+    }
+    DataModel copy = new GenericDataModel(copies);
+
+    assertEquals(copy.getNumUsers(), view.getNumUsers());
+    assertEquals(copy.getNumItems(), view.getNumItems());
+    LongPrimitiveIterator items = copy.getItemIDs();
+    while (items.hasNext()) {
+      long itemID = items.nextLong();
+      assertEquals(copy.getNumUsersWithPreferenceFor(itemID), 
+          view.getNumUsersWithPreferenceFor(itemID));
+      assertEquals(copy.getNumUsersWithPreferenceFor(itemID, 7), 
+          view.getNumUsersWithPreferenceFor(itemID, 7));
+    }
+    PearsonCorrelationSimilarity copySimilarity = new PearsonCorrelationSimilarity(copy);
+    PearsonCorrelationSimilarity viewSimilarity = new PearsonCorrelationSimilarity(view);
+    for (long userID = 0; userID < 20; userID++) {
+      for (long otherID = 20; otherID < 40; otherID++) {
+        assertEquals(copySimilarity.userSimilarity(userID, otherID), 
+            viewSimilarity.userSimilarity(userID, otherID), 0);
+      }
+    }
+  }
+
+}
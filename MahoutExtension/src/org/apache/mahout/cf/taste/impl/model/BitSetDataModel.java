@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.CompressedBitmap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} for binary data such as clicks or purchases, where a preference
+ * only says that a user interacted with an item. Users and items are numbered in ascending ID
+ * order, and every user's items and every item's users are stored as a {@link CompressedBitmap} of
+ * those numbers. Typical data takes a few bytes per preference instead of the tens of bytes of
+ * {@link GenericBooleanPrefDataModel}, and the number of users that two items have in common is a
+ * popcount rather than a hash lookup per user.
+ * </p><p>
+ * Every preference has the value 1.0. The bitmaps are also available directly, for similarities
+ * that only need set sizes, see
+ * {@link org.apache.mahout.cf.taste.impl.similarity.BitSetSimilarity}.
+ * </p>
+ */
+public final class BitSetDataModel extends AbstractDataModel {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  private final CompressedBitmap[] userItems;
+  private final CompressedBitmap[] itemUsers;
+  private final long numPrefs;
+
+  /**
+   * Takes every preference of another data model as an interaction, whatever its value.
+   */
+  public BitSetDataModel(DataModel dataModel) throws TasteException {
+    userIDs = SortedIDs.users(dataModel);
+    itemIDs = SortedIDs.items(dataModel);
+    userItems = new CompressedBitmap[userIDs.length];
+    int[] itemCounts = new int[itemIDs.length];
+    int[] items = new int[16];
+    long total = 0;
+    for (int u = 0; u < userIDs.length; u++) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userIDs[u]);
+      int size = prefs.length();
+      if (items.length < size) {
+        items = new int[Math.max(size, 2 * items.length)];
+      }
+      for (int i = 0; i < size; i++) {
+        items[i] = Arrays.binarySearch(itemIDs, prefs.getItemID(i));
+      }
+      Arrays.sort(items, 0, size);
+      int n = 0;
+      for (int i = 0; i < size; i++) {
+        if (n == 0 || items[i] != items[n - 1]) {
+          items[n++] = items[i];
+          itemCounts[items[i]]++;
+        }
+      }
+      userItems[u] = CompressedBitmap.of(items, 0, n);
+      total += n;
+    }
+    numPrefs = total;
+
+    // transpose; users are visited in ascending order, so every item's users come out sorted
+    int[] offsets = new int[itemIDs.length + 1];
+    for (int i = 0; i < itemIDs.length; i++) {
+      offsets[i + 1] = offsets[i] + itemCounts[i];
+    }
+    int[] users = new int[(int) total];
+    int[] next = Arrays.copyOf(offsets, itemIDs.length);
+    for (int u = 0; u < userIDs.length; u++) {
+      for (int i : userItems[u].toArray()) {
+        users[next[i]++] = u;
+      }
+    }
+    itemUsers = new CompressedBitmap[itemIDs.length];
+    for (int i = 0; i < itemIDs.length; i++) {
+      itemUsers[i] = CompressedBitmap.of(users, offsets[i], offsets[i + 1]);
+    }
+    setMaxPreference(1.0f);
+    setMinPreference(1.0f);
+  }
+
+  private int userIndex(long userID) throws NoSuchUserException {
+    int index = Arrays.binarySearch(userIDs, userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return index;
+  }
+
+  private int itemIndex(long itemID) throws NoSuchItemException {
+    int index = Arrays.binarySearch(itemIDs, itemID);
+    if (index < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return index;
+  }
+
+  /** The items of a user, by their number in ascending ID order. */
+  public CompressedBitmap getItemBitmap(long userID) throws NoSuchUserException {
+    return userItems[userIndex(userID)];
+  }
+
+  /** The users of an item, by their number in ascending ID order. */
+  public CompressedBitmap getUserBitmap(long itemID) throws NoSuchItemException {
+    return itemUsers[itemIndex(itemID)];
+  }
+
+  /** ID of the item with the given number. */
+  public long getItemID(int index) {
+    return itemIDs[index];
+  }
+
+  /** ID of the user with the given number. */
+  public long getUserID(int index) {
+    return userIDs[index];
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    int[] items = getItemBitmap(userID).toArray();
+    PreferenceArray prefs = new BooleanUserPreferenceArray(items.length);
+    prefs.setUserID(0, userID);
+    for (int i = 0; i < items.length; i++) {
+      prefs.setItemID(i, itemIDs[items[i]]);
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    int[] items = getItemBitmap(userID).toArray();
+    FastIDSet result = new FastIDSet(items.length);
+    for (int item : items) {
+      result.add(itemIDs[item]);
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    int[] users = getUserBitmap(itemID).toArray();
+    PreferenceArray prefs = new BooleanItemPreferenceArray(users.length);
+    prefs.setItemID(0, itemID);
+    for (int i = 0; i < users.length; i++) {
+      prefs.setUserID(i, userIDs[users[i]]);
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    CompressedBitmap items = getItemBitmap(userID);
+    int item = Arrays.binarySearch(itemIDs, itemID);
+    return item >= 0 && items.contains(item) ? 1.0f : null;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    userIndex(userID);
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  /** Total number of preferences. */
+  public long getNumPreferences() {
+    return numPrefs;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    int index = Arrays.binarySearch(itemIDs, itemID);
+    return index < 0 ? 0 : itemUsers[index].cardinality();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    int index1 = Arrays.binarySearch(itemIDs, itemID1);
+    int index2 = Arrays.binarySearch(itemIDs, itemID2);
+    if (index1 < 0 || index2 < 0) {
+      return 0;
+    }
+    return itemUsers[index1].intersectionSize(itemUsers[index2]);
+  }
+
+  /** Approximate number of bytes this model takes on the heap. */
+  public long getSizeInBytes() {
+    long size = 8L * (userIDs.length + itemIDs.length) + 8L * (userItems.length + itemUsers.length);
+    for (CompressedBitmap bitmap : userItems) {
+      size += bitmap.sizeInBytes();
+    }
+    for (CompressedBitmap bitmap : itemUsers) {
+      size += bitmap.sizeInBytes();
+    }
+    return size;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return false;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // nothing to do
+  }
+
+  @Override
+  public String toString() {
+    return "BitSetDataModel[users:" + userIDs.length + ", items:" + itemIDs.length + ", prefs:"
+        + numPrefs + ']';
+  }
+
+}
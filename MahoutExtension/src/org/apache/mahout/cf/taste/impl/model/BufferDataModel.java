@@ -0,0 +1,400 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.AbstractLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} on ratings in the binary layout of
+ * {@link RatingsFile}, used in place: nothing is parsed or copied, and the preference arrays it
+ * returns are {@link BufferPreferenceArray} views on the buffer.
+ * </p><p>
+ * With {@link #map(File)} the buffer is a read-only mapping of a file, so opening even a large data
+ * set takes milliseconds, and the operating system pages the data in as it is used. Several JVMs
+ * that map the same file share one copy of it in the page cache. {@link #copyOf(DataModel)} puts
+ * the preferences of any other data model in a direct buffer.
+ * </p><p>
+ * Either way the preferences are outside the Java heap: the garbage collector never has to
+ * trace or copy them, which keeps collection pauses out of latency measurements and leaves the
+ * heap to the recommenders. The preference array views hold no data of their own, and reading
+ * IDs and values from them allocates nothing.
+ * </p><p>
+ * A serialized model holds the bytes of its ratings and is read back as a model on a heap buffer.
+ * </p>
+ */
+public final class BufferDataModel extends AbstractDataModel {
+
+  private static final long serialVersionUID = 1L;
+
+  // serialized as the bytes of the ratings, see writeReplace()
+  private final transient ByteBuffer ratings;
+  private final transient LongBuffer userIDs;
+  private final transient LongBuffer itemIDs;
+  private final transient IntBuffer userOffsets;
+  private final transient IntBuffer userItems;
+  private final transient FloatBuffer userValues;
+  private final transient IntBuffer itemOffsets;
+  private final transient IntBuffer itemUsers;
+  private final transient FloatBuffer itemValues;
+  private final int numPrefs;
+  private final boolean hasValues;
+  private final int sizeInBytes;
+
+  /**
+   * @param buffer ratings in the layout of {@link RatingsFile}, from its position on
+   */
+  public BufferDataModel(ByteBuffer buffer) throws IOException {
+    ByteBuffer in = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    int start = in.position();
+    if (in.getInt() != RatingsFile.MAGIC) {
+      throw new IOException("Not in ratings format");
+    }
+    int version = in.getInt();
+    if (version != RatingsFile.VERSION) {
+      throw new IOException("Unsupported ratings format version " + version);
+    }
+    int numUsers = in.getInt();
+    int numItems = in.getInt();
+    numPrefs = in.getInt();
+    if (numUsers < 0 || numItems < 0 || numPrefs < 0) {
+      throw new IOException("Invalid ratings header: " + numUsers + " users, " + numItems
+          + " items, " + numPrefs + " preferences");
+    }
+    hasValues = (in.getInt() & RatingsFile.FLAG_HAS_VALUES) != 0;
+    setMinPreference(in.getFloat());
+    setMaxPreference(in.getFloat());
+
+    // in long, so that the counts of a corrupt header cannot overflow past the truncation check
+    long position = start + RatingsFile.HEADER_SIZE;
+    userIDs = section(in, position, 8L * numUsers).asLongBuffer();
+    position += 8L * numUsers;
+    itemIDs = section(in, position, 8L * numItems).asLongBuffer();
+    position += 8L * numItems;
+    userOffsets = section(in, position, 4L * (numUsers + 1L)).asIntBuffer();
+    position += 4L * (numUsers + 1L);
+    userItems = section(in, position, 4L * numPrefs).asIntBuffer();
+    position += 4L * numPrefs;
+    userValues = section(in, position, 4L * numPrefs).asFloatBuffer();
+    position += 4L * numPrefs;
+    itemOffsets = section(in, position, 4L * (numItems + 1L)).asIntBuffer();
+    position += 4L * (numItems + 1L);
+    itemUsers = section(in, position, 4L * numPrefs).asIntBuffer();
+    position += 4L * numPrefs;
+    itemValues = section(in, position, 4L * numPrefs).asFloatBuffer();
+    position += 4L * numPrefs;
+    sizeInBytes = (int) (position - start);
+    ratings = section(in, start, sizeInBytes);
+  }
+
+  private static ByteBuffer section(ByteBuffer in, long position, long length)
+      throws IOException {
+    if (position + length > in.limit()) {
+      throw new IOException("Ratings are truncated");
+    }
+    ByteBuffer section = in.duplicate();
+    section.limit((int) (position + length)).position((int) position);
+    return section.slice();
+  }
+
+  /**
+   * Maps a file in the format of {@link RatingsFile} read-only.
+   */
+  public static BufferDataModel map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large to map");
+      }
+      // the mapping stays valid after the channel is closed
+      return new BufferDataModel(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      Closeables.close(raf, true);
+    }
+  }
+
+  /**
+   * Copies all preferences of a data model into a direct buffer, outside the Java heap. The
+   * direct memory this takes, see {@link #getSizeInBytes()}, counts against
+   * {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+   */
+  public static BufferDataModel copyOf(DataModel dataModel) throws TasteException, IOException {
+    RatingsFile.Ratings ratings = RatingsFile.toRatings(dataModel);
+    long size = ratings.encodedSize();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Too many preferences for one buffer");
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+    ratings.encode(buffer);
+    return new BufferDataModel(buffer);
+  }
+
+  /** Number of bytes of the buffer that hold the preferences. */
+  public int getSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  private Object writeReplace() {
+    byte[] bytes = new byte[sizeInBytes];
+    ratings.duplicate().get(bytes);
+    return new SerializedForm(bytes);
+  }
+
+  private void readObject(ObjectInputStream in) throws InvalidObjectException {
+    throw new InvalidObjectException("Serialized as " + SerializedForm.class.getName());
+  }
+
+  /** The bytes of the ratings, which the buffers are views of. */
+  private static final class SerializedForm implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] ratings;
+
+    SerializedForm(byte[] ratings) {
+      this.ratings = ratings;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+      try {
+        return new BufferDataModel(ByteBuffer.wrap(ratings));
+      } catch (IOException ioe) {
+        throw new InvalidObjectException(ioe.getMessage());
+      }
+    }
+  }
+
+  /** Whether the buffer is outside the Java heap, as a mapping or a direct buffer is. */
+  boolean isDirect() {
+    return userIDs.isDirect();
+  }
+
+  private int userIndex(long userID) throws NoSuchUserException {
+    int index = BufferPreferenceArray.indexOf(userIDs, userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return index;
+  }
+
+  private int itemIndex(long itemID) throws NoSuchItemException {
+    int index = BufferPreferenceArray.indexOf(itemIDs, itemID);
+    if (index < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return index;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongBufferIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    int index = userIndex(userID);
+    int offset = userOffsets.get(index);
+    return new BufferPreferenceArray(userID, true, itemIDs, userItems, userValues, offset,
+        userOffsets.get(index + 1) - offset);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    int index = userIndex(userID);
+    int from = userOffsets.get(index);
+    int to = userOffsets.get(index + 1);
+    FastIDSet result = new FastIDSet(to - from);
+    for (int j = from; j < to; j++) {
+      result.add(itemIDs.get(userItems.get(j)));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongBufferIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    int index = itemIndex(itemID);
+    int offset = itemOffsets.get(index);
+    return new BufferPreferenceArray(itemID, false, userIDs, itemUsers, itemValues, offset,
+        itemOffsets.get(index + 1) - offset);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    BufferPreferenceArray prefs = (BufferPreferenceArray) getPreferencesFromUser(userID);
+    int i = prefs.find(itemID);
+    return i < 0 ? null : prefs.getValue(i);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    userIndex(userID);
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.limit();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.limit();
+  }
+
+  /** Total number of preferences. */
+  public int getNumPreferences() {
+    return numPrefs;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    int index = BufferPreferenceArray.indexOf(itemIDs, itemID);
+    return index < 0 ? 0 : itemOffsets.get(index + 1) - itemOffsets.get(index);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    int index1 = BufferPreferenceArray.indexOf(itemIDs, itemID1);
+    int index2 = BufferPreferenceArray.indexOf(itemIDs, itemID2);
+    if (index1 < 0 || index2 < 0) {
+      return 0;
+    }
+    // merge the two ascending lists of user numbers
+    int i = itemOffsets.get(index1);
+    int end1 = itemOffsets.get(index1 + 1);
+    int j = itemOffsets.get(index2);
+    int end2 = itemOffsets.get(index2 + 1);
+    int count = 0;
+    while (i < end1 && j < end2) {
+      int user1 = itemUsers.get(i);
+      int user2 = itemUsers.get(j);
+      if (user1 < user2) {
+        i++;
+      } else if (user1 > user2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return hasValues;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // read-only
+  }
+
+  @Override
+  public String toString() {
+    return "BufferDataModel[users:" + getNumUsers() + ", items:" + getNumItems() + ", prefs:"
+        + numPrefs + ", bytes:" + sizeInBytes + ']';
+  }
+
+  private static final class LongBufferIterator extends AbstractLongPrimitiveIterator {
+
+    private final LongBuffer ids;
+    private int position;
+
+    LongBufferIterator(LongBuffer ids) {
+      this.ids = ids;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < ids.limit();
+    }
+
+    @Override
+    public long nextLong() {
+      if (position >= ids.limit()) {
+        throw new NoSuchElementException();
+      }
+      return ids.get(position++);
+    }
+
+    @Override
+    public long peek() {
+      if (position >= ids.limit()) {
+        throw new NoSuchElementException();
+      }
+      return ids.get(position);
+    }
+
+    @Override
+    public void skip(int n) {
+      position += n;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
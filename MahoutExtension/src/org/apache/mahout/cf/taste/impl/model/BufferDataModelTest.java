@@ -0,0 +1,273 @@
+package org.apache.mahout.cf.taste.impl.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class BufferDataModelTest
+{
+
+  @Test
+  public void testSameAsGenericDataModel() throws Exception
+  {
+    Random random = new Random(13);
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (int u = 0; u < 200; u++) {
+      long userID = 1000 + 7 * u;
+      PreferenceArray prefs =
+          RandomDataModels.randomPreferences(random, userID, 200, 1 + random.nextInt(30), 1.0);
+      for (int i = 0; i < prefs.length(); i++) {
+        prefs.setItemID(i, 3 * prefs.getItemID(i));
+      }
+      userData.put(userID, prefs);
+    }
+    DataModel expected = new GenericDataModel(userData);
+
+    File file = File.createTempFile("buffer", RatingsFile.EXTENSION);
+    try {
+      RatingsFile.write(expected, file);
+      DataModel actual = BufferDataModel.map(file);
+
+      assertEquals(expected.getNumUsers(), actual.getNumUsers());
+      assertEquals(expected.getNumItems(), actual.getNumItems());
+      assertEquals(expected.getMinPreference(), actual.getMinPreference(), 0.0f);
+      assertEquals(expected.getMaxPreference(), actual.getMaxPreference(), 0.0f);
+      LongPrimitiveIterator users = expected.getUserIDs();
+      LongPrimitiveIterator actualUsers = actual.getUserIDs();
+      while (users.hasNext()) {
+        long userID = users.nextLong();
+        assertEquals(userID, actualUsers.nextLong());
+        assertPrefsEqual(expected.getPreferencesFromUser(userID),
+            actual.getPreferencesFromUser(userID));
+        assertEquals(expected.getItemIDsFromUser(userID), actual.getItemIDsFromUser(userID));
+      }
+      long[] itemIDs = new long[expected.getNumItems()];
+      LongPrimitiveIterator items = expected.getItemIDs();
+      for (int i = 0; i < itemIDs.length; i++) {
+        itemIDs[i] = items.nextLong();
+        assertPrefsEqual(expected.getPreferencesForItem(itemIDs[i]),
+            actual.getPreferencesForItem(itemIDs[i]));
+      }
+      for (int t = 0; t < 500; t++) {
+        long itemID1 = itemIDs[random.nextInt(itemIDs.length)];
+        long itemID2 = itemIDs[random.nextInt(itemIDs.length)];
+        assertEquals(expected.getNumUsersWithPreferenceFor(itemID1, itemID2),
+            actual.getNumUsersWithPreferenceFor(itemID1, itemID2));
+        long userID = 1000 + 7 * random.nextInt(200);
+        assertEquals(expected.getPreferenceValue(userID, itemID1),
+            actual.getPreferenceValue(userID, itemID1));
+      }
+      assertNull(actual.getPreferenceValue(1000, 1));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testCopyOfIsOffHeap() throws Exception
+  {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    PreferenceArray prefs = new GenericUserPreferenceArray(3);
+    prefs.setUserID(0, 1);
+    for (int i = 0; i < 3; i++) {
+      prefs.setItemID(i, 10 * (i + 1));
+      prefs.setValue(i, i + 1);
+    }
+    userData.put(1, prefs);
+    BufferDataModel model = BufferDataModel.copyOf(new GenericDataModel(userData));
+
+    assertEquals(3, model.getNumPreferences());
+    assertEquals(2f, model.getPreferenceValue(1, 20), 0.0f);
+    assertArrayEquals(new long[] { 10, 20, 30 }, model.getPreferencesFromUser(1).getIDs());
+    assertEquals(RatingsFile.HEADER_SIZE + 8 * 4 + 4 * 6 + 16 * 3, model.getSizeInBytes());
+    assertTrue(model.isDirect());
+  }
+
+  @Test
+  public void testLaterRatingWins() throws Exception
+  {
+    long[] users = { 5, 3, 5, 5 };
+    long[] items = { 10, 10, 20, 10 };
+    float[] values = { 1f, 2f, 3f, 4f };
+    RatingsFile.Ratings ratings = new RatingsFile.Ratings(users, items, values, 4, true);
+    ByteBuffer buffer = ByteBuffer.allocate((int) ratings.encodedSize());
+    ratings.encode(buffer);
+    BufferDataModel model = new BufferDataModel(buffer);
+
+    assertEquals(3, model.getNumPreferences());
+    assertEquals(4f, model.getPreferenceValue(5, 10), 0.0f);
+    assertArrayEquals(new long[] { 3, 5 }, model.getPreferencesForItem(10).getIDs());
+    assertFalse(model.isDirect());
+    try {
+      model.getPreferencesFromUser(4);
+      fail();
+    } catch (NoSuchUserException expected) {
+      // user 4 has no ratings
+    }
+  }
+
+  @Test
+  public void testCorruptHeader() throws Exception
+  {
+    RatingsFile.Ratings ratings = new RatingsFile.Ratings(new long[] { 1, 2 },
+        new long[] { 10, 20 }, new float[] { 1f, 2f }, 2, true);
+    // counts whose section sizes overflow an int, and a negative one
+    for (int numUsers : new int[] { Integer.MAX_VALUE / 4, -1 }) {
+      ByteBuffer buffer = ByteBuffer.allocate((int) ratings.encodedSize());
+      ratings.encode(buffer);
+      buffer.putInt(8, numUsers);
+      try {
+        new BufferDataModel(buffer);
+        fail();
+      } catch (IOException expected) {
+        // truncated or invalid
+      }
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception
+  {
+    DataModel expected = RandomDataModels.randomDataModel(3, 20, 30, 1, 10);
+    BufferDataModel model = BufferDataModel.copyOf(expected);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(model);
+    out.writeObject(model.getPreferencesFromUser(3));
+    out.close();
+    ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    BufferDataModel copy = (BufferDataModel) in.readObject();
+    PreferenceArray prefs = (PreferenceArray) in.readObject();
+
+    assertEquals(model.getSizeInBytes(), copy.getSizeInBytes());
+    assertFalse(copy.isDirect());
+    LongPrimitiveIterator userIDs = expected.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertPrefsEqual(model.getPreferencesFromUser(userID), copy.getPreferencesFromUser(userID));
+    }
+    assertPrefsEqual(model.getPreferencesFromUser(3), prefs);
+  }
+
+  @Test
+  public void testSortingViewCopiesIt() throws Exception
+  {
+    long[] users = { 1, 1, 1, 2 };
+    long[] items = { 10, 20, 30, 20 };
+    float[] values = { 3f, 5f, 1f, 4f };
+    RatingsFile.Ratings ratings = new RatingsFile.Ratings(users, items, values, 4, false);
+    ByteBuffer buffer = ByteBuffer.allocate((int) ratings.encodedSize());
+    ratings.encode(buffer);
+    BufferDataModel model = new BufferDataModel(buffer);
+
+    PreferenceArray prefs = model.getPreferencesFromUser(1);
+    prefs.sortByItem();
+    assertEquals(10, prefs.getItemID(0));
+    prefs.sortByValueReversed();
+    assertArrayEquals(new long[] { 20, 10, 30 }, prefs.getIDs());
+    assertEquals(5f, prefs.getValue(0), 0.0f);
+    prefs.setValue(2, 2f);
+    assertEquals(2f, prefs.clone().getValue(2), 0.0f);
+    assertTrue(prefs.hasPrefWithItemID(30));
+
+    assertArrayEquals(new long[] { 10, 20, 30 }, model.getPreferencesFromUser(1).getIDs());
+    assertEquals(1f, model.getPreferenceValue(1, 30), 0.0f);
+  }
+
+  @Test
+  public void testLoadIgnoresFilesNextToDataFile() throws Exception
+  {
+    File dir = Files.createTempDir();
+    try {
+      File dataFile = new File(dir, "ratings.csv");
+      Files.write("1,10,3\n2,10,4\n2,20,5\n", dataFile, Charsets.UTF_8);
+      Files.write("1,20,1\n3,30,2\n", new File(dir, "ratings.2.csv"), Charsets.UTF_8);
+
+      BufferDataModel model = (BufferDataModel) RatingsFile.load(dataFile);
+      assertEquals(3, model.getNumPreferences());
+      assertEquals(2, model.getNumUsers());
+      assertNull(model.getPreferenceValue(1, 20));
+
+      // the binary copy next to the data file is mapped the second time, not read as updates
+      model = (BufferDataModel) RatingsFile.load(dataFile);
+      assertEquals(3, model.getNumPreferences());
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testLoadWithoutRatings() throws Exception
+  {
+    File dir = Files.createTempDir();
+    try {
+      File dataFile = new File(dir, "clicks.csv");
+      Files.write("1,10\n2,10\n2,20\n3,30\n3,20\n", dataFile, Charsets.UTF_8);
+      BufferDataModel model = (BufferDataModel) RatingsFile.load(dataFile);
+      assertEquals(5, model.getNumPreferences());
+      assertEquals(3, model.getNumUsers());
+      assertFalse(model.hasPreferenceValues());
+      assertEquals(1f, model.getPreferenceValue(3, 30), 0.0f);
+
+      // compressed files are read by FileDataModel
+      File compressed = new File(dir, "clicks.csv.gz");
+      OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+      try {
+        Files.copy(dataFile, out);
+      } finally {
+        out.close();
+      }
+      DataModel fileModel = RatingsFile.load(compressed);
+      assertTrue(fileModel instanceof FileDataModel);
+      assertEquals(3, fileModel.getNumUsers());
+      assertEquals(2, fileModel.getNumUsersWithPreferenceFor(20));
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static void assertPrefsEqual(PreferenceArray expected, PreferenceArray actual)
+  {
+    assertEquals(expected.length(), actual.length());
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.getUserID(i), actual.getUserID(i));
+      assertEquals(expected.getItemID(i), actual.getItemID(i));
+      assertEquals(expected.getValue(i), actual.getValue(i), 0.0f);
+    }
+  }
+
+}
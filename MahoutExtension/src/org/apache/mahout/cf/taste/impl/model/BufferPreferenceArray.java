@@ -0,0 +1,334 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * A read-only view of the preferences of one user or one item in a compressed sparse row layout
+ * held in NIO buffers, which may be memory-mapped or direct: elements {@code offset} to
+ * {@code offset + length} of an index column and a value column, where the index column holds
+ * positions in a sorted column of IDs. Reading an element allocates nothing; only {@link #get(int)}
+ * and the iterator create {@link Preference} objects.
+ * </p><p>
+ * The buffers are only read with absolute gets, so one set of buffers can back any number of views
+ * that are used from any number of threads. The buffers are never written: the first setter or
+ * sort that would change the view copies it to the heap, and the view reads and writes that
+ * private copy from then on, like a preference array of {@code GenericDataModel} that a caller
+ * sorts in place. A view that has been changed is no longer safe to share between threads, and
+ * {@link #find(long)} and {@link #getIndex(int)} are no longer available on it. Sorting a view
+ * by the ID that it is already ordered by does not copy it.
+ * </p><p>
+ * A view is serialized as a copy on the heap, without the buffers.
+ * </p>
+ */
+public final class BufferPreferenceArray implements PreferenceArray {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long id;
+  private final boolean byUser;
+  private final transient LongBuffer otherIDs;
+  private final transient IntBuffer indexes;
+  private final transient FloatBuffer values;
+  private final int offset;
+  private final int length;
+  private PreferenceArray copy;
+
+  /**
+   * @param id the ID of the user (if {@code byUser}) or item all preferences belong to
+   * @param otherIDs the sorted IDs of the items (if {@code byUser}) or users
+   * @param indexes the positions in {@code otherIDs} of the preferences, ascending per row
+   * @param values the preference values, in the same order as {@code indexes}
+   */
+  public BufferPreferenceArray(long id, boolean byUser, LongBuffer otherIDs, IntBuffer indexes,
+      FloatBuffer values, int offset, int length) {
+    this.id = id;
+    this.byUser = byUser;
+    this.otherIDs = otherIDs;
+    this.indexes = indexes;
+    this.values = values;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Position of {@code id} in the sorted IDs, or a negative number if it is not there.
+   */
+  public static int indexOf(LongBuffer ids, long id) {
+    int low = 0;
+    int high = ids.limit() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midID = ids.get(mid);
+      if (midID < id) {
+        low = mid + 1;
+      } else if (midID > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /** The heap copy that replaces the buffers once this view is changed. */
+  private PreferenceArray copy() {
+    if (copy == null) {
+      copy = clone();
+    }
+    return copy;
+  }
+
+  private Object writeReplace() {
+    return copy == null ? clone() : copy;
+  }
+
+  private void checkUnchanged() {
+    if (copy != null) {
+      throw new IllegalStateException("View has been changed and no longer maps to the buffers");
+    }
+  }
+
+  private int check(int i) {
+    if (i < 0 || i >= length) {
+      throw new ArrayIndexOutOfBoundsException(i);
+    }
+    return offset + i;
+  }
+
+  /**
+   * Position of the element with the given item (if by user) or user ID, or a negative number.
+   */
+  public int find(long otherID) {
+    checkUnchanged();
+    int otherIndex = indexOf(otherIDs, otherID);
+    if (otherIndex < 0) {
+      return -1;
+    }
+    int low = offset;
+    int high = offset + length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midIndex = indexes.get(mid);
+      if (midIndex < otherIndex) {
+        low = mid + 1;
+      } else if (midIndex > otherIndex) {
+        high = mid - 1;
+      } else {
+        return mid - offset;
+      }
+    }
+    return -1;
+  }
+
+  /** Position of element {@code i} in the sorted column of the other IDs. */
+  public int getIndex(int i) {
+    checkUnchanged();
+    return indexes.get(check(i));
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public Preference get(int i) {
+    if (copy != null) {
+      return copy.get(i);
+    }
+    return new GenericPreference(getUserID(i), getItemID(i), getValue(i));
+  }
+
+  @Override
+  public long getUserID(int i) {
+    if (copy != null) {
+      return copy.getUserID(i);
+    }
+    return byUser ? id : otherIDs.get(indexes.get(check(i)));
+  }
+
+  @Override
+  public long getItemID(int i) {
+    if (copy != null) {
+      return copy.getItemID(i);
+    }
+    return byUser ? otherIDs.get(indexes.get(check(i))) : id;
+  }
+
+  @Override
+  public float getValue(int i) {
+    if (copy != null) {
+      return copy.getValue(i);
+    }
+    return values.get(check(i));
+  }
+
+  @Override
+  public long[] getIDs() {
+    if (copy != null) {
+      return copy.getIDs();
+    }
+    long[] ids = new long[length];
+    for (int i = 0; i < length; i++) {
+      ids[i] = otherIDs.get(indexes.get(offset + i));
+    }
+    return ids;
+  }
+
+  @Override
+  public boolean hasPrefWithUserID(long userID) {
+    if (copy != null) {
+      return copy.hasPrefWithUserID(userID);
+    }
+    return byUser ? length > 0 && userID == id : find(userID) >= 0;
+  }
+
+  @Override
+  public boolean hasPrefWithItemID(long itemID) {
+    if (copy != null) {
+      return copy.hasPrefWithItemID(itemID);
+    }
+    return byUser ? find(itemID) >= 0 : length > 0 && itemID == id;
+  }
+
+  @Override
+  public PreferenceArray clone() {
+    if (copy != null) {
+      return copy.clone();
+    }
+    PreferenceArray result;
+    if (byUser) {
+      result = new GenericUserPreferenceArray(length);
+      result.setUserID(0, id);
+      for (int i = 0; i < length; i++) {
+        result.setItemID(i, getItemID(i));
+        result.setValue(i, getValue(i));
+      }
+    } else {
+      result = new GenericItemPreferenceArray(length);
+      result.setItemID(0, id);
+      for (int i = 0; i < length; i++) {
+        result.setUserID(i, getUserID(i));
+        result.setValue(i, getValue(i));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Iterator<Preference> iterator() {
+    return new Iterator<Preference>() {
+      private int i;
+
+      @Override
+      public boolean hasNext() {
+        return i < length;
+      }
+
+      @Override
+      public Preference next() {
+        if (i >= length) {
+          throw new NoSuchElementException();
+        }
+        return get(i++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public void set(int i, Preference pref) {
+    check(i);
+    copy().set(i, pref);
+  }
+
+  @Override
+  public void setUserID(int i, long userID) {
+    check(i);
+    copy().setUserID(i, userID);
+  }
+
+  @Override
+  public void setItemID(int i, long itemID) {
+    check(i);
+    copy().setItemID(i, itemID);
+  }
+
+  @Override
+  public void setValue(int i, float value) {
+    check(i);
+    copy().setValue(i, value);
+  }
+
+  @Override
+  public void sortByUser() {
+    // a view by user has one user ID; a view by item is ordered by user ID
+    if (copy != null) {
+      copy.sortByUser();
+    }
+  }
+
+  @Override
+  public void sortByItem() {
+    if (copy != null) {
+      copy.sortByItem();
+    }
+  }
+
+  @Override
+  public void sortByValue() {
+    copy().sortByValue();
+  }
+
+  @Override
+  public void sortByValueReversed() {
+    copy().sortByValueReversed();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(10 * length);
+    result.append("BufferPreferenceArray[").append(byUser ? "userID:" : "itemID:").append(id);
+    result.append(",{");
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(byUser ? getItemID(i) : getUserID(i));
+      result.append('=');
+      result.append(getValue(i));
+    }
+    result.append("}]");
+    return result.toString();
+  }
+
+}
@@ -0,0 +1,554 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * A {@link DataModel} that takes new and removed preferences on top of a read-only base model,
+ * without reloading it. Changes come from {@link #apply(long[], long[], float[], int)},
+ * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)}, or from
+ * append-only delta files that {@link #ingest()} (and so {@link #refresh(Collection)}) reads from
+ * where it stopped the previous time.
+ * </p><p>
+ * A delta file has one change per line, {@code userID,itemID,value} or tab-separated, like the
+ * update files of {@link org.apache.mahout.cf.taste.impl.model.file.FileDataModel}: a line
+ * without a value adds a boolean preference, and a line with an empty value removes the
+ * preference. Lines starting with {@code #} are ignored, and so is a last line that has no line
+ * end yet; it is read when it is complete.
+ * </p><p>
+ * Every changed user and item gets a new, sorted preference array; arrays are never modified once
+ * they are published. A batch of changes is applied to a copy of the changed users and items and
+ * their IDs, which then replaces the current one with a single volatile write, so readers never
+ * take a lock and see either all of a batch or none of it, while changes are applied one batch
+ * at a time. Since every batch copies the maps of changed users and items, apply changes in
+ * batches rather than one at a time where there are many. Users and items that are not changed
+ * are served by the base model.
+ * </p><p>
+ * The minimum and maximum preference only ever widen: a batch that adds a value outside them
+ * moves them, but removals do not narrow them again, since that would take a pass over the base
+ * model.
+ * </p><p>
+ * After every batch the {@link Listener}s get the IDs of the changed users and items, so that a
+ * similarity cache can drop just those entries, see
+ * {@link org.apache.mahout.cf.taste.impl.similarity.SimilarityCacheInvalidator}. Note that
+ * refreshing a recommender also refreshes its similarity, which empties a Mahout cache
+ * completely; call {@link #ingest()} on the model instead to keep the rest of the cache.
+ * </p>
+ */
+public final class DeltaDataModel extends AbstractDataModel {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Told about every batch of changes, after it has been applied.
+   */
+  public interface Listener {
+    void preferencesChanged(long[] userIDs, long[] itemIDs) throws TasteException;
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(DeltaDataModel.class);
+
+  private static final Pattern DELIMITER = Pattern.compile("[\t,]");
+
+  private final DataModel base;
+  private volatile State state;
+  private final File[] deltaFiles;
+  // bytes of each delta file that have been applied; guarded by this
+  private final long[] deltaOffsets;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+  /**
+   * @param base model with the preferences to start from; it is not changed
+   * @param deltaFiles append-only files with changes, which are applied right away and on
+   *  every {@link #ingest()}
+   */
+  public DeltaDataModel(DataModel base, File... deltaFiles) throws TasteException, IOException {
+    this.base = Preconditions.checkNotNull(base);
+    this.deltaFiles = deltaFiles.clone();
+    this.deltaOffsets = new long[deltaFiles.length];
+    state = new State(new FastByIDMap<PreferenceArray>(), new FastByIDMap<PreferenceArray>(),
+        SortedIDs.users(base), SortedIDs.items(base), base.getMinPreference(),
+        base.getMaxPreference());
+    ingest();
+  }
+
+  /**
+   * The changes applied so far; never modified once published, and replaced as a whole by every
+   * batch.
+   */
+  private static final class State implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // changed users and items; an empty array means the user or item has no preferences left
+    final FastByIDMap<PreferenceArray> users;
+    final FastByIDMap<PreferenceArray> items;
+    final long[] userIDs;
+    final long[] itemIDs;
+    final float minPreference;
+    final float maxPreference;
+
+    State(FastByIDMap<PreferenceArray> users, FastByIDMap<PreferenceArray> items, long[] userIDs,
+        long[] itemIDs, float minPreference, float maxPreference) {
+      this.users = users;
+      this.items = items;
+      this.userIDs = userIDs;
+      this.itemIDs = itemIDs;
+      this.minPreference = minPreference;
+      this.maxPreference = maxPreference;
+    }
+  }
+
+  public DataModel getBase() {
+    return base;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(Preconditions.checkNotNull(listener));
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Applies what has been appended to the delta files since the last call.
+   *
+   * @return number of changes applied
+   */
+  public synchronized int ingest() throws TasteException, IOException {
+    int total = 0;
+    for (int f = 0; f < deltaFiles.length; f++) {
+      byte[] bytes;
+      RandomAccessFile raf = new RandomAccessFile(deltaFiles[f], "r");
+      try {
+        long length = raf.length();
+        if (length <= deltaOffsets[f]) {
+          continue;
+        }
+        Preconditions.checkState(length - deltaOffsets[f] <= Integer.MAX_VALUE,
+            "Too much new data in " + deltaFiles[f]);
+        bytes = new byte[(int) (length - deltaOffsets[f])];
+        raf.seek(deltaOffsets[f]);
+        raf.readFully(bytes);
+      } finally {
+        Closeables.close(raf, true);
+      }
+      int end = bytes.length;
+      while (end > 0 && bytes[end - 1] != '\n') {
+        end--;
+      }
+      if (end == 0) {
+        continue;
+      }
+      String[] lines = new String(bytes, 0, end, Charsets.UTF_8).split("\n");
+      long[] changedUsers = new long[lines.length];
+      long[] changedItems = new long[lines.length];
+      float[] values = new float[lines.length];
+      int n = 0;
+      for (String line : lines) {
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0) == '#') {
+          continue;
+        }
+        String[] fields = DELIMITER.split(line, -1);
+        if (fields.length < 2) {
+          throw new IOException("Bad line in " + deltaFiles[f] + ": " + line);
+        }
+        changedUsers[n] = Long.parseLong(fields[0].trim());
+        changedItems[n] = Long.parseLong(fields[1].trim());
+        if (fields.length == 2) {
+          values[n] = 1.0f;
+        } else {
+          String value = fields[2].trim();
+          values[n] = value.isEmpty() ? Float.NaN : Float.parseFloat(value);
+        }
+        n++;
+      }
+      apply(changedUsers, changedItems, values, n);
+      deltaOffsets[f] += end;
+      total += n;
+      log.info("Applied {} changes from {}", n, deltaFiles[f]);
+    }
+    return total;
+  }
+
+  /**
+   * Applies a batch of changes; where the batch has several for one preference, the last one
+   * wins.
+   *
+   * @param values new preference values, or NaN to remove the preference
+   */
+  public synchronized void apply(long[] changedUsers, long[] changedItems, float[] values, int n)
+    throws TasteException {
+    if (n == 0) {
+      return;
+    }
+    State current = state;
+    float minPreference = current.minPreference;
+    float maxPreference = current.maxPreference;
+    FastByIDMap<FastByIDMap<Float>> byUser = new FastByIDMap<FastByIDMap<Float>>();
+    FastByIDMap<FastByIDMap<Float>> byItem = new FastByIDMap<FastByIDMap<Float>>();
+    for (int i = 0; i < n; i++) {
+      changes(byUser, changedUsers[i]).put(changedItems[i], values[i]);
+      changes(byItem, changedItems[i]).put(changedUsers[i], values[i]);
+      if (values[i] > maxPreference) {
+        maxPreference = values[i];
+      }
+      if (values[i] < minPreference) {
+        minPreference = values[i];
+      }
+    }
+    FastByIDMap<PreferenceArray> users = current.users.clone();
+    FastByIDMap<PreferenceArray> items = current.items.clone();
+    FastIDSet added = new FastIDSet();
+    FastIDSet removed = new FastIDSet();
+    for (Map.Entry<Long,FastByIDMap<Float>> entry : byUser.entrySet()) {
+      long userID = entry.getKey();
+      PreferenceArray prefs = users.get(userID);
+      if (prefs == null && Arrays.binarySearch(current.userIDs, userID) >= 0) {
+        prefs = base.getPreferencesFromUser(userID);
+      }
+      PreferenceArray updated = merge(prefs, entry.getValue(), userID, true);
+      users.put(userID, updated);
+      membership(prefs, updated, userID, added, removed);
+    }
+    long[] userIDs = updateIDs(current.userIDs, added, removed);
+
+    added.clear();
+    removed.clear();
+    for (Map.Entry<Long,FastByIDMap<Float>> entry : byItem.entrySet()) {
+      long itemID = entry.getKey();
+      PreferenceArray prefs = items.get(itemID);
+      if (prefs == null && Arrays.binarySearch(current.itemIDs, itemID) >= 0) {
+        prefs = base.getPreferencesForItem(itemID);
+      }
+      PreferenceArray updated = merge(prefs, entry.getValue(), itemID, false);
+      items.put(itemID, updated);
+      membership(prefs, updated, itemID, added, removed);
+    }
+    long[] itemIDs = updateIDs(current.itemIDs, added, removed);
+    state = new State(users, items, userIDs, itemIDs, minPreference, maxPreference);
+
+    long[] userChanges = keys(byUser);
+    long[] itemChanges = keys(byItem);
+    for (Listener listener : listeners) {
+      listener.preferencesChanged(userChanges, itemChanges);
+    }
+  }
+
+  private static FastByIDMap<Float> changes(FastByIDMap<FastByIDMap<Float>> changes, long id) {
+    FastByIDMap<Float> result = changes.get(id);
+    if (result == null) {
+      result = new FastByIDMap<Float>();
+      changes.put(id, result);
+    }
+    return result;
+  }
+
+  private static long[] keys(FastByIDMap<?> map) {
+    long[] keys = new long[map.size()];
+    int i = 0;
+    LongPrimitiveIterator it = map.keySetIterator();
+    while (it.hasNext()) {
+      keys[i++] = it.nextLong();
+    }
+    return keys;
+  }
+
+  /**
+   * A new array with the preferences of {@code current} that are not changed, and the changes
+   * that are not removals, sorted by the other ID.
+   */
+  private static PreferenceArray merge(PreferenceArray current, FastByIDMap<Float> changes,
+      long id, boolean byUser) {
+    int size = current == null ? 0 : current.length();
+    long[] otherIDs = new long[size + changes.size()];
+    float[] values = new float[otherIDs.length];
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      long otherID = byUser ? current.getItemID(i) : current.getUserID(i);
+      if (!changes.containsKey(otherID)) {
+        otherIDs[n] = otherID;
+        values[n++] = current.getValue(i);
+      }
+    }
+    for (Map.Entry<Long,Float> change : changes.entrySet()) {
+      if (!Float.isNaN(change.getValue())) {
+        otherIDs[n] = change.getKey();
+        values[n++] = change.getValue();
+      }
+    }
+    PreferenceArray result;
+    if (byUser) {
+      result = new GenericUserPreferenceArray(n);
+      if (n > 0) {
+        result.setUserID(0, id);
+      }
+      for (int i = 0; i < n; i++) {
+        result.setItemID(i, otherIDs[i]);
+        result.setValue(i, values[i]);
+      }
+      result.sortByItem();
+    } else {
+      result = new GenericItemPreferenceArray(n);
+      if (n > 0) {
+        result.setItemID(0, id);
+      }
+      for (int i = 0; i < n; i++) {
+        result.setUserID(i, otherIDs[i]);
+        result.setValue(i, values[i]);
+      }
+      result.sortByUser();
+    }
+    return result;
+  }
+
+  private static void membership(PreferenceArray current, PreferenceArray updated, long id,
+      FastIDSet added, FastIDSet removed) {
+    boolean was = current != null && current.length() > 0;
+    boolean is = updated.length() > 0;
+    if (is && !was) {
+      added.add(id);
+    } else if (was && !is) {
+      removed.add(id);
+    }
+  }
+
+  private static long[] updateIDs(long[] ids, FastIDSet added, FastIDSet removed) {
+    if (added.isEmpty() && removed.isEmpty()) {
+      return ids;
+    }
+    long[] result = new long[ids.length - removed.size() + added.size()];
+    int n = 0;
+    for (long id : ids) {
+      if (!removed.contains(id)) {
+        result[n++] = id;
+      }
+    }
+    LongPrimitiveIterator it = added.iterator();
+    while (it.hasNext()) {
+      result[n++] = it.nextLong();
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(state.userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    return getPreferencesFromUser(state, userID);
+  }
+
+  private PreferenceArray getPreferencesFromUser(State current, long userID)
+    throws TasteException {
+    PreferenceArray prefs = current.users.get(userID);
+    if (prefs == null) {
+      return base.getPreferencesFromUser(userID);
+    }
+    if (prefs.length() == 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int size = prefs.length();
+    FastIDSet result = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(state.itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    return getPreferencesForItem(state, itemID);
+  }
+
+  private PreferenceArray getPreferencesForItem(State current, long itemID)
+    throws TasteException {
+    PreferenceArray prefs = current.items.get(itemID);
+    if (prefs == null) {
+      return base.getPreferencesForItem(itemID);
+    }
+    if (prefs.length() == 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    State current = state;
+    if (!current.users.containsKey(userID)) {
+      return base.getPreferenceValue(userID, itemID);
+    }
+    PreferenceArray prefs = getPreferencesFromUser(current, userID);
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      if (prefs.getItemID(i) == itemID) {
+        return prefs.getValue(i);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    State current = state;
+    if (!current.users.containsKey(userID)) {
+      return base.getPreferenceTime(userID, itemID);
+    }
+    getPreferencesFromUser(current, userID);
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return state.itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return state.userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    PreferenceArray prefs = state.items.get(itemID);
+    return prefs == null ? base.getNumUsersWithPreferenceFor(itemID) : prefs.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    State current = state;
+    if (!current.items.containsKey(itemID1) && !current.items.containsKey(itemID2)) {
+      return base.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    }
+    if (Arrays.binarySearch(current.itemIDs, itemID1) < 0
+        || Arrays.binarySearch(current.itemIDs, itemID2) < 0) {
+      return 0;
+    }
+    PreferenceArray prefs1 = getPreferencesForItem(current, itemID1);
+    PreferenceArray prefs2 = getPreferencesForItem(current, itemID2);
+    if (prefs1.length() > prefs2.length()) {
+      PreferenceArray swap = prefs1;
+      prefs1 = prefs2;
+      prefs2 = swap;
+    }
+    FastIDSet users1 = new FastIDSet(prefs1.length());
+    for (int i = 0; i < prefs1.length(); i++) {
+      users1.add(prefs1.getUserID(i));
+    }
+    int count = 0;
+    for (int i = 0; i < prefs2.length(); i++) {
+      if (users1.contains(prefs2.getUserID(i))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    Preconditions.checkArgument(!Float.isNaN(value), "NaN value");
+    apply(new long[] { userID }, new long[] { itemID }, new float[] { value }, 1);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    apply(new long[] { userID }, new long[] { itemID }, new float[] { Float.NaN }, 1);
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return state.maxPreference;
+  }
+
+  @Override
+  public float getMinPreference() {
+    return state.minPreference;
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return base.hasPreferenceValues();
+  }
+
+  /**
+   * Ingests the delta files; the base model is not refreshed, it is taken to be immutable.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    try {
+      ingest();
+    } catch (TasteException te) {
+      log.warn("Could not apply changes", te);
+    } catch (IOException ioe) {
+      log.warn("Could not read changes", ioe);
+    }
+  }
+
+  @Override
+  public String toString() {
+    State current = state;
+    return "DeltaDataModel[users:" + current.userIDs.length + ", items:" + current.itemIDs.length
+        + ", changed users:" + current.users.size() + ", base:" + base + ']';
+  }
+
+}
@@ -0,0 +1,217 @@
+package org.apache.mahout.cf.taste.impl.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.CachingItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.SimilarityCacheInvalidator;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class DeltaDataModelTest
+{
+
+  private static FastByIDMap<FastByIDMap<Float>> randomRatings(Random random)
+  {
+    FastByIDMap<FastByIDMap<Float>> ratings = new FastByIDMap<FastByIDMap<Float>>();
+    for (int u = 0; u < 50; u++) {
+      FastByIDMap<Float> prefs = new FastByIDMap<Float>();
+      int n = 1 + random.nextInt(10);
+      for (int i = 0; i < n; i++) {
+        prefs.put(random.nextInt(40), 1f + random.nextInt(5));
+      }
+      ratings.put(u, prefs);
+    }
+    return ratings;
+  }
+
+  private static DataModel toDataModel(FastByIDMap<FastByIDMap<Float>> ratings)
+  {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    LongPrimitiveIterator users = ratings.keySetIterator();
+    while (users.hasNext()) {
+      long userID = users.nextLong();
+      FastByIDMap<Float> prefs = ratings.get(userID);
+      if (prefs.isEmpty()) {
+        continue;
+      }
+      PreferenceArray array = new GenericUserPreferenceArray(prefs.size());
+      array.setUserID(0, userID);
+      int i = 0;
+      LongPrimitiveIterator items = prefs.keySetIterator();
+      while (items.hasNext()) {
+        long itemID = items.nextLong();
+        array.setItemID(i, itemID);
+        array.setValue(i++, prefs.get(itemID));
+      }
+      userData.put(userID, array);
+    }
+    return new GenericDataModel(userData);
+  }
+
+  private static void assertSameModel(DataModel expected, DataModel actual) throws Exception
+  {
+    assertEquals(expected.getNumUsers(), actual.getNumUsers());
+    assertEquals(expected.getNumItems(), actual.getNumItems());
+    LongPrimitiveIterator users = expected.getUserIDs();
+    LongPrimitiveIterator actualUsers = actual.getUserIDs();
+    while (users.hasNext()) {
+      long userID = users.nextLong();
+      assertEquals(userID, actualUsers.nextLong());
+      PreferenceArray prefs = expected.getPreferencesFromUser(userID);
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals((Float) prefs.getValue(i),
+            actual.getPreferenceValue(userID, prefs.getItemID(i)));
+      }
+      assertEquals(prefs.length(), actual.getPreferencesFromUser(userID).length());
+    }
+    LongPrimitiveIterator items = expected.getItemIDs();
+    while (items.hasNext()) {
+      long itemID = items.nextLong();
+      long[] expectedUsers = expected.getPreferencesForItem(itemID).getIDs();
+      long[] actualItemUsers = actual.getPreferencesForItem(itemID).getIDs();
+      Arrays.sort(expectedUsers);
+      Arrays.sort(actualItemUsers);
+      assertArrayEquals(expectedUsers, actualItemUsers);
+      assertEquals(expected.getNumUsersWithPreferenceFor(itemID, 7),
+          actual.getNumUsersWithPreferenceFor(itemID, 7));
+    }
+  }
+
+  @Test
+  public void testApply() throws Exception
+  {
+    Random random = new Random(3);
+    FastByIDMap<FastByIDMap<Float>> ratings = randomRatings(random);
+    DeltaDataModel model = new DeltaDataModel(toDataModel(ratings));
+    for (int batch = 0; batch < 20; batch++) {
+      int n = random.nextInt(30);
+      long[] userIDs = new long[n];
+      long[] itemIDs = new long[n];
+      float[] values = new float[n];
+      for (int i = 0; i < n; i++) {
+        userIDs[i] = random.nextInt(60);
+        itemIDs[i] = random.nextInt(50);
+        values[i] = random.nextInt(3) == 0 ? Float.NaN : 1f + random.nextInt(5);
+        FastByIDMap<Float> prefs = ratings.get(userIDs[i]);
+        if (prefs == null) {
+          prefs = new FastByIDMap<Float>();
+          ratings.put(userIDs[i], prefs);
+        }
+        if (Float.isNaN(values[i])) {
+          prefs.remove(itemIDs[i]);
+        } else {
+          prefs.put(itemIDs[i], values[i]);
+        }
+      }
+      model.apply(userIDs, itemIDs, values, n);
+      assertSameModel(toDataModel(ratings), model);
+    }
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testRemoveLastPreference() throws Exception
+  {
+    FastByIDMap<FastByIDMap<Float>> ratings = new FastByIDMap<FastByIDMap<Float>>();
+    ratings.put(1, new FastByIDMap<Float>());
+    ratings.get(1).put(10, 3f);
+    ratings.put(2, new FastByIDMap<Float>());
+    ratings.get(2).put(10, 4f);
+    DeltaDataModel model = new DeltaDataModel(toDataModel(ratings));
+    model.removePreference(1, 10);
+    assertEquals(1, model.getNumUsers());
+    model.getPreferencesFromUser(1);
+  }
+
+  @Test
+  public void testIngestAndInvalidate() throws Exception
+  {
+    File deltas = File.createTempFile("deltas", ".csv");
+    deltas.deleteOnExit();
+    append(deltas, "1,10,3\n2,10,4\n2,11,5\n");
+    FastByIDMap<FastByIDMap<Float>> ratings = new FastByIDMap<FastByIDMap<Float>>();
+    ratings.put(1, new FastByIDMap<Float>());
+    ratings.get(1).put(11, 2f);
+    DeltaDataModel model = new DeltaDataModel(toDataModel(ratings), deltas);
+    CachingItemSimilarity similarity =
+        new CachingItemSimilarity(new TanimotoCoefficientSimilarity(model), model);
+    model.addListener(new SimilarityCacheInvalidator(null, similarity));
+    assertEquals(2, model.getNumUsers());
+    assertEquals(1.0, similarity.itemSimilarity(10, 11), 0.0);
+
+    // the second line is not complete yet
+    append(deltas, "# comment\n1,11,\n1,12");
+    assertEquals(1, model.ingest());
+    assertNull(model.getPreferenceValue(1, 11));
+    assertEquals(0.5, similarity.itemSimilarity(10, 11), 0.0);
+    append(deltas, "\n");
+    assertEquals(1, model.ingest());
+    assertEquals(1f, model.getPreferenceValue(1, 12), 0f);
+    assertEquals(3, model.getNumItems());
+  }
+
+  @Test
+  public void testReadersSeeWholeBatches() throws Exception
+  {
+    FastByIDMap<FastByIDMap<Float>> ratings = randomRatings(new Random(5));
+    final DeltaDataModel model = new DeltaDataModel(toDataModel(ratings));
+    final int batches = 2000;
+    final AtomicBoolean torn = new AtomicBoolean();
+    // every batch adds user and item 1000 + b together: once the user is there, so is the item
+    Thread reader = new Thread() {
+      @Override
+      public void run()
+      {
+        long id = 1000;
+        while (id < 1000 + batches) {
+          try {
+            model.getPreferencesFromUser(id);
+          } catch (TasteException te) {
+            continue;
+          }
+          try {
+            model.getPreferencesForItem(id);
+          } catch (TasteException te) {
+            torn.set(true);
+          }
+          id++;
+        }
+      }
+    };
+    reader.start();
+    for (int b = 0; b < batches; b++) {
+      model.apply(new long[] { 1000 + b }, new long[] { 1000 + b }, new float[] { 1f }, 1);
+    }
+    reader.join(60000);
+    assertFalse(reader.isAlive());
+    assertFalse(torn.get());
+  }
+
+  private static void append(File file, String text) throws IOException
+  {
+    FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(text.getBytes(Charsets.UTF_8));
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} that numbers users and items 0..n-1 in ascending ID order once,
+ * when it is created, and keeps the preferences in flat arrays indexed by those numbers: the
+ * preferences of user {@code u} are elements {@code userOffsets[u]} up to
+ * {@code userOffsets[u + 1]} of {@code userItems} (item numbers, ascending) and
+ * {@code userValues}, and likewise by item. These are the arrays of
+ * {@link RatingsFile.Ratings}, kept on the heap rather than encoded into a buffer.
+ * </p><p>
+ * Code on hot paths, such as similarity and neighborhood computations, can translate the IDs it is
+ * given with {@link #userIndex(long)} and {@link #itemIndex(long)} once and then work on the
+ * arrays, without hashing a long ID or creating a preference array per lookup; see
+ * {@link org.apache.mahout.cf.taste.impl.similarity.IndexedCorrelationSimilarity}. The arrays
+ * are returned as they are, not copied, and must not be modified.
+ * </p><p>
+ * The {@link DataModel} methods take a binary search to find a user or item, and return
+ * {@link BufferPreferenceArray} views on the arrays.
+ * </p>
+ */
+public final class IndexedDataModel extends AbstractDataModel {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  private final int[] userOffsets;
+  private final int[] userItems;
+  private final float[] userValues;
+  private final int[] itemOffsets;
+  private final int[] itemUsers;
+  private final float[] itemValues;
+  private final boolean hasValues;
+  // the same arrays, for the preference array views
+  private final LongBuffer userIDBuffer;
+  private final LongBuffer itemIDBuffer;
+  private final IntBuffer userItemBuffer;
+  private final FloatBuffer userValueBuffer;
+  private final IntBuffer itemUserBuffer;
+  private final FloatBuffer itemValueBuffer;
+
+  public IndexedDataModel(DataModel dataModel) throws TasteException {
+    RatingsFile.Ratings ratings = RatingsFile.toRatings(dataModel);
+    userIDs = ratings.getUserIDs();
+    itemIDs = ratings.getItemIDs();
+    userOffsets = ratings.getUserOffsets();
+    userItems = ratings.getUserItems();
+    userValues = ratings.getUserValues();
+    itemOffsets = ratings.getItemOffsets();
+    itemUsers = ratings.getItemUsers();
+    itemValues = ratings.getItemValues();
+    hasValues = dataModel.hasPreferenceValues();
+
+    userIDBuffer = LongBuffer.wrap(userIDs);
+    itemIDBuffer = LongBuffer.wrap(itemIDs);
+    userItemBuffer = IntBuffer.wrap(userItems);
+    userValueBuffer = FloatBuffer.wrap(userValues);
+    itemUserBuffer = IntBuffer.wrap(itemUsers);
+    itemValueBuffer = FloatBuffer.wrap(itemValues);
+    setMaxPreference(dataModel.getMaxPreference());
+    setMinPreference(dataModel.getMinPreference());
+  }
+
+  /** Number of the user, or -1 if there is no such user. */
+  public int userIndex(long userID) {
+    int index = Arrays.binarySearch(userIDs, userID);
+    return index < 0 ? -1 : index;
+  }
+
+  /** Number of the item, or -1 if there is no such item. */
+  public int itemIndex(long itemID) {
+    int index = Arrays.binarySearch(itemIDs, itemID);
+    return index < 0 ? -1 : index;
+  }
+
+  public long userID(int userIndex) {
+    return userIDs[userIndex];
+  }
+
+  public long itemID(int itemIndex) {
+    return itemIDs[itemIndex];
+  }
+
+  /** Where the preferences of each user start; one element more than there are users. */
+  public int[] getUserOffsets() {
+    return userOffsets;
+  }
+
+  /** Item numbers of the preferences, by user, ascending per user. */
+  public int[] getUserItems() {
+    return userItems;
+  }
+
+  /** Values of the preferences, by user. */
+  public float[] getUserValues() {
+    return userValues;
+  }
+
+  /** Where the preferences of each item start; one element more than there are items. */
+  public int[] getItemOffsets() {
+    return itemOffsets;
+  }
+
+  /** User numbers of the preferences, by item, ascending per item. */
+  public int[] getItemUsers() {
+    return itemUsers;
+  }
+
+  /** Values of the preferences, by item. */
+  public float[] getItemValues() {
+    return itemValues;
+  }
+
+  private int checkedUserIndex(long userID) throws NoSuchUserException {
+    int index = userIndex(userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return index;
+  }
+
+  private int checkedItemIndex(long itemID) throws NoSuchItemException {
+    int index = itemIndex(itemID);
+    if (index < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return index;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    int u = checkedUserIndex(userID);
+    return new BufferPreferenceArray(userID, true, itemIDBuffer, userItemBuffer, userValueBuffer,
+        userOffsets[u], userOffsets[u + 1] - userOffsets[u]);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    int u = checkedUserIndex(userID);
+    FastIDSet result = new FastIDSet(userOffsets[u + 1] - userOffsets[u]);
+    for (int j = userOffsets[u]; j < userOffsets[u + 1]; j++) {
+      result.add(itemIDs[userItems[j]]);
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    int i = checkedItemIndex(itemID);
+    return new BufferPreferenceArray(itemID, false, userIDBuffer, itemUserBuffer, itemValueBuffer,
+        itemOffsets[i], itemOffsets[i + 1] - itemOffsets[i]);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    int u = checkedUserIndex(userID);
+    int item = itemIndex(itemID);
+    if (item < 0) {
+      return null;
+    }
+    int j = Arrays.binarySearch(userItems, userOffsets[u], userOffsets[u + 1], item);
+    return j < 0 ? null : userValues[j];
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    checkedUserIndex(userID);
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  /** Total number of preferences. */
+  public int getNumPreferences() {
+    return userItems.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    int i = itemIndex(itemID);
+    return i < 0 ? 0 : itemOffsets[i + 1] - itemOffsets[i];
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    int item1 = itemIndex(itemID1);
+    int item2 = itemIndex(itemID2);
+    if (item1 < 0 || item2 < 0) {
+      return 0;
+    }
+    int i = itemOffsets[item1];
+    int end1 = itemOffsets[item1 + 1];
+    int j = itemOffsets[item2];
+    int end2 = itemOffsets[item2 + 1];
+    int count = 0;
+    while (i < end1 && j < end2) {
+      int user1 = itemUsers[i];
+      int user2 = itemUsers[j];
+      if (user1 < user2) {
+        i++;
+      } else if (user1 > user2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return hasValues;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // nothing to do
+  }
+
+  @Override
+  public String toString() {
+    return "IndexedDataModel[users:" + userIDs.length + ", items:" + itemIDs.length + ", prefs:"
+        + userItems.length + ']';
+  }
+
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} that shows a subset of the preferences of another data model,
+ * without copying them. For every user and every item that is part of the subset there is a mask
+ * with one bit per element of the source's preference array for that user or item (see
+ * {@link MaskedPreferenceArray}); users and items without a mask are not part of the model.
+ * </p><p>
+ * Both masks of a preference must agree. Keeping them consistent is up to whoever creates them,
+ * typically a training / test split.
+ * </p>
+ */
+public final class MaskedDataModel extends AbstractDataModel {
+
+  private static final long serialVersionUID = 1L;
+
+  private final DataModel source;
+  private final FastByIDMap<long[]> userMasks;
+  private final FastByIDMap<long[]> itemMasks;
+  private final long[] userIDs;
+  private final long[] itemIDs;
+
+  public MaskedDataModel(DataModel source, FastByIDMap<long[]> userMasks,
+      FastByIDMap<long[]> itemMasks) {
+    this.source = Preconditions.checkNotNull(source);
+    this.userMasks = Preconditions.checkNotNull(userMasks);
+    this.itemMasks = Preconditions.checkNotNull(itemMasks);
+    this.userIDs = sortedKeys(userMasks);
+    this.itemIDs = sortedKeys(itemMasks);
+    setMaxPreference(source.getMaxPreference());
+    setMinPreference(source.getMinPreference());
+  }
+
+  private static long[] sortedKeys(FastByIDMap<long[]> masks) {
+    long[] keys = new long[masks.size()];
+    int i = 0;
+    LongPrimitiveIterator it = masks.keySetIterator();
+    while (it.hasNext()) {
+      keys[i++] = it.nextLong();
+    }
+    Arrays.sort(keys);
+    return keys;
+  }
+
+  public DataModel getSource() {
+    return source;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    long[] mask = userMasks.get(userID);
+    if (mask == null) {
+      throw new NoSuchUserException(userID);
+    }
+    return new MaskedPreferenceArray(source.getPreferencesFromUser(userID), mask, true);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int size = prefs.length();
+    FastIDSet result = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    long[] mask = itemMasks.get(itemID);
+    if (mask == null) {
+      throw new NoSuchItemException(itemID);
+    }
+    return new MaskedPreferenceArray(source.getPreferencesForItem(itemID), mask, false);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    int position = userPosition(userID, itemID);
+    return position < 0 ? null : source.getPreferencesFromUser(userID).getValue(position);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    return userPosition(userID, itemID) < 0 ? null : source.getPreferenceTime(userID, itemID);
+  }
+
+  /**
+   * Position of the preference in the source array of the user, or -1 if it is not in this model.
+   */
+  private int userPosition(long userID, long itemID) throws TasteException {
+    long[] mask = userMasks.get(userID);
+    if (mask == null) {
+      throw new NoSuchUserException(userID);
+    }
+    PreferenceArray prefs = source.getPreferencesFromUser(userID);
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      if (prefs.getItemID(i) == itemID) {
+        return MaskedPreferenceArray.isSet(mask, i) ? i : -1;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    long[] mask = itemMasks.get(itemID);
+    return mask == null ? 0 : MaskedPreferenceArray.count(mask);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    if (!itemMasks.containsKey(itemID1) || !itemMasks.containsKey(itemID2)) {
+      return 0;
+    }
+    PreferenceArray prefs1 = getPreferencesForItem(itemID1);
+    PreferenceArray prefs2 = getPreferencesForItem(itemID2);
+    if (prefs1.length() > prefs2.length()) {
+      PreferenceArray swap = prefs1;
+      prefs1 = prefs2;
+      prefs2 = swap;
+    }
+    FastIDSet users = new FastIDSet(prefs1.length());
+    for (int i = 0; i < prefs1.length(); i++) {
+      users.add(prefs1.getUserID(i));
+    }
+    int count = 0;
+    for (int i = 0; i < prefs2.length(); i++) {
+      if (users.contains(prefs2.getUserID(i))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return source.hasPreferenceValues();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // masks refer to positions in the source arrays, which must not change
+  }
+
+  @Override
+  public String toString() {
+    return "MaskedDataModel[users:" + userIDs.length + ", items:" + itemIDs.length + ", source:"
+        + source + ']';
+  }
+
+}
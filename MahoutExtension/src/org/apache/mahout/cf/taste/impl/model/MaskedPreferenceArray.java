@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A read-only view of the preferences of another {@link PreferenceArray} whose bit is set in a
+ * mask: element {@code i} of the view is the element of the source at the position of the i-th set
+ * bit. No preference data is copied.
+ * </p><p>
+ * The view remembers where its last lookup ended, so walking it from front to back costs O(1) per
+ * element. The cursor is packed into one volatile long, which the Java memory model reads and
+ * writes at once, so a view that is shared between threads still returns the right elements.
+ * </p><p>
+ * The setters and sort methods throw {@link UnsupportedOperationException}; {@link #clone()}
+ * returns a mutable copy.
+ * </p>
+ */
+public final class MaskedPreferenceArray implements PreferenceArray {
+
+  private static final long serialVersionUID = 1L;
+
+  private final PreferenceArray source;
+  private final long[] mask;
+  private final int length;
+  private final boolean byUser;
+  // (index << 32) | source position of the element that was looked up last
+  private volatile long cursor;
+
+  /**
+   * @param source array to take the preferences from
+   * @param mask one bit per element of the source, 64 per word
+   * @param byUser true if the source holds the preferences of one user, false if it holds those
+   *  for one item; determines what {@link #getIDs()} and {@link #clone()} return
+   */
+  public MaskedPreferenceArray(PreferenceArray source, long[] mask, boolean byUser) {
+    Preconditions.checkArgument(mask.length == words(source.length()), "Mask does not fit source");
+    this.source = source;
+    this.mask = mask;
+    this.length = count(mask);
+    this.byUser = byUser;
+    this.cursor = -1L;
+  }
+
+  /** Number of mask words needed for an array of the given length. */
+  public static int words(int length) {
+    return (length + 63) >>> 6;
+  }
+
+  public static int count(long[] mask) {
+    int count = 0;
+    for (long word : mask) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  public static boolean isSet(long[] mask, int position) {
+    return (mask[position >>> 6] & (1L << position)) != 0;
+  }
+
+  public static void set(long[] mask, int position) {
+    mask[position >>> 6] |= 1L << position;
+  }
+
+  /** Source position of element {@code i}. */
+  private int position(int i) {
+    if (i < 0 || i >= length) {
+      throw new ArrayIndexOutOfBoundsException(i);
+    }
+    long current = cursor;
+    int index = (int) (current >> 32);
+    int position = (int) current;
+    if (index == i) {
+      return position;
+    }
+    if (index > i) {
+      index = -1;
+      position = -1;
+    }
+    int remaining = i - index;
+    int from = position + 1;
+    int w = from >>> 6;
+    long word = mask[w] & (-1L << from);
+    int bits = Long.bitCount(word);
+    while (bits < remaining) {
+      remaining -= bits;
+      word = mask[++w];
+      bits = Long.bitCount(word);
+    }
+    while (--remaining > 0) {
+      word &= word - 1;
+    }
+    position = (w << 6) + Long.numberOfTrailingZeros(word);
+    cursor = ((long) i << 32) | (position & 0xFFFFFFFFL);
+    return position;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public Preference get(int i) {
+    int position = position(i);
+    return new GenericPreference(source.getUserID(position), source.getItemID(position),
+        source.getValue(position));
+  }
+
+  @Override
+  public long getUserID(int i) {
+    return source.getUserID(position(i));
+  }
+
+  @Override
+  public long getItemID(int i) {
+    return source.getItemID(position(i));
+  }
+
+  @Override
+  public float getValue(int i) {
+    return source.getValue(position(i));
+  }
+
+  @Override
+  public long[] getIDs() {
+    long[] ids = new long[length];
+    for (int i = 0; i < length; i++) {
+      ids[i] = byUser ? getItemID(i) : getUserID(i);
+    }
+    return ids;
+  }
+
+  @Override
+  public boolean hasPrefWithUserID(long userID) {
+    for (int i = 0; i < length; i++) {
+      if (getUserID(i) == userID) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean hasPrefWithItemID(long itemID) {
+    for (int i = 0; i < length; i++) {
+      if (getItemID(i) == itemID) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public PreferenceArray clone() {
+    PreferenceArray copy;
+    if (byUser) {
+      copy = new GenericUserPreferenceArray(length);
+      if (length > 0) {
+        copy.setUserID(0, getUserID(0));
+      }
+      for (int i = 0; i < length; i++) {
+        copy.setItemID(i, getItemID(i));
+        copy.setValue(i, getValue(i));
+      }
+    } else {
+      copy = new GenericItemPreferenceArray(length);
+      if (length > 0) {
+        copy.setItemID(0, getItemID(0));
+      }
+      for (int i = 0; i < length; i++) {
+        copy.setUserID(i, getUserID(i));
+        copy.setValue(i, getValue(i));
+      }
+    }
+    return copy;
+  }
+
+  @Override
+  public Iterator<Preference> iterator() {
+    return new Iterator<Preference>() {
+      private int i;
+
+      @Override
+      public boolean hasNext() {
+        return i < length;
+      }
+
+      @Override
+      public Preference next() {
+        if (i >= length) {
+          throw new NoSuchElementException();
+        }
+        return get(i++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public void set(int i, Preference pref) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setUserID(int i, long userID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setItemID(int i, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setValue(int i, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sortByUser() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sortByItem() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sortByValue() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sortByValueReversed() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(10 * length);
+    result.append("MaskedPreferenceArray[{");
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(byUser ? getItemID(i) : getUserID(i));
+      result.append('=');
+      result.append(getValue(i));
+    }
+    result.append("}]");
+    return result.toString();
+  }
+
+}
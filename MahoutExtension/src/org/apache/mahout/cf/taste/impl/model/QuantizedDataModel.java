@@ -0,0 +1,419 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} that stores preferences compactly, for data sets whose ratings
+ * are a handful of discrete values:
+ * </p>
+ * <ul>
+ * <li>Every value is a one-byte code into a table of at most 256 values. If the data has no more
+ * distinct values than that, the table holds exactly those and nothing is lost; otherwise it holds
+ * 256 evenly spaced values between the minimum and maximum, and values are rounded to the nearest
+ * one, see {@link #isLossless()}.</li>
+ * <li>The item IDs of every user, ascending, are stored as variable-length differences to the
+ * previous ID, seven bits per byte; the first ID of a row is zigzag-encoded, so negative IDs work
+ * too. The user IDs of every item are stored the same way.</li>
+ * </ul>
+ * <p>
+ * With dense IDs a preference takes about four bytes, counting both directions, against 24 for
+ * 8-byte IDs and 4-byte values; {@link #getSizeInBytes()} and {@link #getPlainSizeInBytes()}
+ * give the numbers for a model. The price is decoding: preference arrays are decoded into new
+ * {@link GenericUserPreferenceArray}s and {@link GenericItemPreferenceArray}s on every call, and
+ * finding a single preference scans its row. Counting common users of two items decodes both rows
+ * side by side and allocates nothing.
+ * </p>
+ */
+public final class QuantizedDataModel extends AbstractDataModel {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int MAX_CODES = 256;
+
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  private final float[] valueTable;
+  private final boolean lossless;
+  private final boolean hasValues;
+  private final int numPrefs;
+  private final Rows userRows;
+  private final Rows itemRows;
+
+  public QuantizedDataModel(DataModel dataModel) throws TasteException {
+    userIDs = SortedIDs.users(dataModel);
+    itemIDs = SortedIDs.items(dataModel);
+    hasValues = dataModel.hasPreferenceValues();
+
+    Set<Float> distinct = new HashSet<Float>();
+    float min = Float.POSITIVE_INFINITY;
+    float max = Float.NEGATIVE_INFINITY;
+    int total = 0;
+    for (long userID : userIDs) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      for (int i = 0; i < prefs.length(); i++) {
+        float value = prefs.getValue(i);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (distinct.size() <= MAX_CODES) {
+          distinct.add(value);
+        }
+      }
+      total += prefs.length();
+    }
+    numPrefs = total;
+    lossless = distinct.size() <= MAX_CODES;
+    if (lossless) {
+      valueTable = new float[distinct.size()];
+      int i = 0;
+      for (float value : distinct) {
+        valueTable[i++] = value;
+      }
+      Arrays.sort(valueTable);
+    } else {
+      valueTable = new float[MAX_CODES];
+      for (int i = 0; i < MAX_CODES; i++) {
+        valueTable[i] = min + (max - min) * i / (MAX_CODES - 1);
+      }
+    }
+
+    userRows = new Rows(userIDs.length, numPrefs);
+    for (long userID : userIDs) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID).clone();
+      prefs.sortByItem();
+      userRows.addRow(prefs, true, this);
+    }
+    itemRows = new Rows(itemIDs.length, numPrefs);
+    for (long itemID : itemIDs) {
+      PreferenceArray prefs = dataModel.getPreferencesForItem(itemID).clone();
+      prefs.sortByUser();
+      itemRows.addRow(prefs, false, this);
+    }
+    userRows.trim();
+    itemRows.trim();
+    setMaxPreference(dataModel.getMaxPreference());
+    setMinPreference(dataModel.getMinPreference());
+  }
+
+  byte encode(float value) {
+    if (lossless) {
+      return (byte) Arrays.binarySearch(valueTable, value);
+    }
+    float min = valueTable[0];
+    float range = valueTable[MAX_CODES - 1] - min;
+    return (byte) (range == 0 ? 0 : Math.round((value - min) / range * (MAX_CODES - 1)));
+  }
+
+  /** True if every value is stored exactly. */
+  public boolean isLossless() {
+    return lossless;
+  }
+
+  /** Approximate number of bytes this model takes on the heap. */
+  public long getSizeInBytes() {
+    return 8L * (userIDs.length + itemIDs.length) + 4L * valueTable.length
+        + userRows.sizeInBytes() + itemRows.sizeInBytes();
+  }
+
+  /**
+   * Number of bytes the same preferences take as 8-byte IDs and 4-byte values, by user and by
+   * item, with an offset per row, which is what most other models store.
+   */
+  public long getPlainSizeInBytes() {
+    return 12L * (userIDs.length + itemIDs.length) + 2L * numPrefs * (8 + 4);
+  }
+
+  private int userIndex(long userID) throws NoSuchUserException {
+    int index = Arrays.binarySearch(userIDs, userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return index;
+  }
+
+  private int itemIndex(long itemID) throws NoSuchItemException {
+    int index = Arrays.binarySearch(itemIDs, itemID);
+    if (index < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return index;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    int u = userIndex(userID);
+    Cursor cursor = userRows.cursor(u);
+    PreferenceArray prefs = new GenericUserPreferenceArray(cursor.remaining);
+    prefs.setUserID(0, userID);
+    for (int i = 0; cursor.next(); i++) {
+      prefs.setItemID(i, cursor.id);
+      prefs.setValue(i, valueTable[cursor.code()]);
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    Cursor cursor = userRows.cursor(userIndex(userID));
+    FastIDSet result = new FastIDSet(cursor.remaining);
+    while (cursor.next()) {
+      result.add(cursor.id);
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    Cursor cursor = itemRows.cursor(itemIndex(itemID));
+    PreferenceArray prefs = new GenericItemPreferenceArray(cursor.remaining);
+    prefs.setItemID(0, itemID);
+    for (int i = 0; cursor.next(); i++) {
+      prefs.setUserID(i, cursor.id);
+      prefs.setValue(i, valueTable[cursor.code()]);
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    Cursor cursor = userRows.cursor(userIndex(userID));
+    while (cursor.next()) {
+      if (cursor.id >= itemID) {
+        return cursor.id == itemID ? valueTable[cursor.code()] : null;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    userIndex(userID);
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  /** Total number of preferences. */
+  public int getNumPreferences() {
+    return numPrefs;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    int index = Arrays.binarySearch(itemIDs, itemID);
+    return index < 0 ? 0 : itemRows.length(index);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    int index1 = Arrays.binarySearch(itemIDs, itemID1);
+    int index2 = Arrays.binarySearch(itemIDs, itemID2);
+    if (index1 < 0 || index2 < 0) {
+      return 0;
+    }
+    Cursor cursor1 = itemRows.cursor(index1);
+    Cursor cursor2 = itemRows.cursor(index2);
+    int count = 0;
+    boolean more = cursor1.next() && cursor2.next();
+    while (more) {
+      if (cursor1.id < cursor2.id) {
+        more = cursor1.next();
+      } else if (cursor1.id > cursor2.id) {
+        more = cursor2.next();
+      } else {
+        count++;
+        more = cursor1.next() && cursor2.next();
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return hasValues;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // nothing to do
+  }
+
+  @Override
+  public String toString() {
+    return "QuantizedDataModel[users:" + userIDs.length + ", items:" + itemIDs.length + ", prefs:"
+        + numPrefs + ", lossless:" + lossless + ']';
+  }
+
+  /**
+   * Rows of ascending IDs, delta-varint encoded, with a value code per element.
+   */
+  private static final class Rows {
+
+    private final int[] prefOffsets;
+    private final int[] byteOffsets;
+    private final byte[] codes;
+    private byte[] ids;
+    private int numRows;
+    private int numBytes;
+
+    Rows(int numRows, int numPrefs) {
+      prefOffsets = new int[numRows + 1];
+      byteOffsets = new int[numRows + 1];
+      codes = new byte[numPrefs];
+      ids = new byte[Math.max(16, numPrefs + numPrefs / 2)];
+    }
+
+    void addRow(PreferenceArray prefs, boolean byUser, QuantizedDataModel model) {
+      int size = prefs.length();
+      int offset = prefOffsets[numRows];
+      long previous = 0;
+      for (int i = 0; i < size; i++) {
+        long id = byUser ? prefs.getItemID(i) : prefs.getUserID(i);
+        // the first ID may be negative, the differences after it are not
+        writeVarLong(i == 0 ? (id << 1) ^ (id >> 63) : id - previous);
+        previous = id;
+        codes[offset + i] = model.encode(prefs.getValue(i));
+      }
+      numRows++;
+      prefOffsets[numRows] = offset + size;
+      byteOffsets[numRows] = numBytes;
+    }
+
+    private void writeVarLong(long value) {
+      if (ids.length < numBytes + 10) {
+        ids = Arrays.copyOf(ids, 2 * ids.length);
+      }
+      while ((value & ~0x7FL) != 0) {
+        ids[numBytes++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      ids[numBytes++] = (byte) value;
+    }
+
+    void trim() {
+      ids = Arrays.copyOf(ids, numBytes);
+    }
+
+    int length(int row) {
+      return prefOffsets[row + 1] - prefOffsets[row];
+    }
+
+    Cursor cursor(int row) {
+      return new Cursor(ids, byteOffsets[row], codes, prefOffsets[row], length(row));
+    }
+
+    long sizeInBytes() {
+      return 4L * (prefOffsets.length + byteOffsets.length) + codes.length + ids.length;
+    }
+
+  }
+
+  /**
+   * Decodes one row, front to back.
+   */
+  private static final class Cursor {
+
+    private final byte[] ids;
+    private final byte[] codes;
+    private int bytePosition;
+    private int prefPosition;
+    private boolean first = true;
+    int remaining;
+    long id;
+
+    Cursor(byte[] ids, int bytePosition, byte[] codes, int prefPosition, int length) {
+      this.ids = ids;
+      this.codes = codes;
+      this.bytePosition = bytePosition;
+      this.prefPosition = prefPosition - 1;
+      this.remaining = length;
+    }
+
+    boolean next() {
+      if (remaining == 0) {
+        return false;
+      }
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = ids[bytePosition++];
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      if (first) {
+        id = (value >>> 1) ^ -(value & 1);
+        first = false;
+      } else {
+        id += value;
+      }
+      prefPosition++;
+      remaining--;
+      return true;
+    }
+
+    int code() {
+      return codes[prefPosition] & 0xFF;
+    }
+
+  }
+
+}
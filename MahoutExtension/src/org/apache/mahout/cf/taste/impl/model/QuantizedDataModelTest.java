@@ -0,0 +1,88 @@
+package org.apache.mahout.cf.taste.impl.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public class QuantizedDataModelTest
+{
+
+  /** Negative IDs and a long gap every ten items, and discrete or continuous values. */
+  private static DataModel randomDataModel(Random random, boolean discrete)
+  {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (int u = 0; u < 100; u++) {
+      long userID = 50 * u - 1000;
+      PreferenceArray prefs =
+          RandomDataModels.randomPreferences(random, userID, 300, 1 + random.nextInt(30), 1.0);
+      for (int i = 0; i < prefs.length(); i++) {
+        long item = prefs.getItemID(i);
+        prefs.setItemID(i, item - 300 + item / 10 * 100000);
+        if (!discrete) {
+          prefs.setValue(i, 5 * random.nextFloat());
+        }
+      }
+      userData.put(userID, prefs);
+    }
+    return new GenericDataModel(userData);
+  }
+
+  @Test
+  public void testLossless() throws Exception
+  {
+    DataModel expected = randomDataModel(new Random(21), true);
+    QuantizedDataModel actual = new QuantizedDataModel(expected);
+    assertTrue(actual.isLossless());
+    assertTrue(actual.getSizeInBytes() < actual.getPlainSizeInBytes() / 2);
+    LongPrimitiveIterator users = expected.getUserIDs();
+    while (users.hasNext()) {
+      long userID = users.nextLong();
+      PreferenceArray prefs = expected.getPreferencesFromUser(userID);
+      PreferenceArray actualPrefs = actual.getPreferencesFromUser(userID);
+      assertArrayEquals(prefs.getIDs(), actualPrefs.getIDs());
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals(prefs.getValue(i), actualPrefs.getValue(i), 0.0f);
+        assertEquals(prefs.getValue(i), actual.getPreferenceValue(userID, prefs.getItemID(i)),
+            0.0f);
+      }
+      assertNull(actual.getPreferenceValue(userID, -301));
+    }
+    LongPrimitiveIterator items = expected.getItemIDs();
+    while (items.hasNext()) {
+      long itemID = items.nextLong();
+      assertArrayEquals(expected.getPreferencesForItem(itemID).getIDs(),
+          actual.getPreferencesForItem(itemID).getIDs());
+      assertEquals(expected.getNumUsersWithPreferenceFor(itemID, -298),
+          actual.getNumUsersWithPreferenceFor(itemID, -298));
+    }
+  }
+
+  @Test
+  public void testLossy() throws Exception
+  {
+    DataModel expected = randomDataModel(new Random(22), false);
+    QuantizedDataModel actual = new QuantizedDataModel(expected);
+    assertFalse(actual.isLossless());
+    float step = (expected.getMaxPreference() - expected.getMinPreference()) / 255;
+    LongPrimitiveIterator users = expected.getUserIDs();
+    while (users.hasNext()) {
+      long userID = users.nextLong();
+      PreferenceArray prefs = expected.getPreferencesFromUser(userID);
+      PreferenceArray actualPrefs = actual.getPreferencesFromUser(userID);
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals(prefs.getValue(i), actualPrefs.getValue(i), step / 2 + 1e-6f);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/** Random data models for tests, the same for the same seed. */
+public final class RandomDataModels
+{
+
+  private RandomDataModels()
+  {
+  }
+
+  /**
+   * Users 0 to numUsers - 1, each with between minPrefs and maxPrefs distinct items out of 0 to
+   * numItems - 1, rated 1 to 5 in whole steps so that there are ties.
+   */
+  public static DataModel randomDataModel(long seed, int numUsers, int numItems, int minPrefs,
+      int maxPrefs)
+  {
+    return randomDataModel(seed, numUsers, numItems, minPrefs, maxPrefs, 1.0);
+  }
+
+  /**
+   * As {@link #randomDataModel(long, int, int, int, int)}, with items drawn as numItems * x^skew
+   * for a uniform x; a skew above 1 makes the low items popular, so that some share many users.
+   */
+  public static DataModel randomDataModel(long seed, int numUsers, int numItems, int minPrefs,
+      int maxPrefs, double skew)
+  {
+    Random random = new Random(seed);
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(numUsers);
+    for (int u = 0; u < numUsers; u++) {
+      int size =
+          minPrefs == maxPrefs ? minPrefs : minPrefs + random.nextInt(maxPrefs - minPrefs + 1);
+      userData.put(u, randomPreferences(random, u, numItems, size, skew));
+    }
+    return new GenericDataModel(userData);
+  }
+
+  /** The preferences of one user for size distinct items, drawn and rated as above. */
+  public static PreferenceArray randomPreferences(Random random, long userID, int numItems,
+      int size, double skew)
+  {
+    Preconditions.checkArgument(size <= numItems, "%s items out of %s", size, numItems);
+    FastIDSet items = new FastIDSet(size);
+    while (items.size() < size) {
+      items.add(skew == 1.0
+          ? random.nextInt(numItems)
+          : (long) (numItems * Math.pow(random.nextDouble(), skew)));
+    }
+    PreferenceArray prefs = new GenericUserPreferenceArray(size);
+    prefs.setUserID(0, userID);
+    int i = 0;
+    for (long itemID : items) {
+      prefs.setItemID(i, itemID);
+      prefs.setValue(i++, 1 + random.nextInt(5));
+    }
+    prefs.sortByItem();
+    return prefs;
+  }
+
+}
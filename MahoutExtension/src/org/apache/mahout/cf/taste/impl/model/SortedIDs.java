@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+/**
+ * The user and item IDs of a data model as ascending arrays, which the models that number users
+ * and items densely, in the order of their IDs, search with {@link Arrays#binarySearch(long[],
+ * long)}.
+ */
+public final class SortedIDs {
+
+  private SortedIDs() {
+  }
+
+  public static long[] users(DataModel dataModel) throws TasteException {
+    return sorted(dataModel.getUserIDs(), dataModel.getNumUsers());
+  }
+
+  public static long[] items(DataModel dataModel) throws TasteException {
+    return sorted(dataModel.getItemIDs(), dataModel.getNumItems());
+  }
+
+  private static long[] sorted(LongPrimitiveIterator it, int size) {
+    long[] ids = new long[size];
+    int n = 0;
+    while (it.hasNext()) {
+      ids[n++] = it.nextLong();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+
+}
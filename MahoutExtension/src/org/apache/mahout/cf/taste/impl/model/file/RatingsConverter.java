@@ -0,0 +1,481 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * Converts rating files of the common MovieLens layouts to the comma separated layout of
+ * {@link FileDataModel} or to the binary layout of {@link RatingsFile}:
+ * </p>
+ * <ul>
+ * <li>{@link Format#TAB}: {@code user<tab>item<tab>rating<tab>timestamp}, as in ml-100k's u.data</li>
+ * <li>{@link Format#DOUBLE_COLON}: {@code user::item::rating::timestamp}, as in the ratings.dat of
+ * ml-1M and ml-10M</li>
+ * <li>{@link Format#CSV}: {@code user,item,rating[,timestamp]}</li>
+ * </ul>
+ * <p>
+ * As in {@link FileDataModel}, a line may leave out the rating: {@code user,item} is a preference
+ * without a value, and {@code user,item,} (an empty rating and no timestamp) removes the rating of
+ * that user for that item from the lines before it. If the first line with a rating has none, the
+ * data is read as boolean: the binary output has no values, and every preference counts as 1.
+ * </p>
+ * <p>
+ * The input is memory-mapped and cut into chunks at line ends, which are parsed in parallel
+ * straight from the mapped bytes, without a String per line. For CSV output the bytes of the fields
+ * are copied as they are, so values are not reformatted. The chunks are written in input order, so
+ * the output has the lines in the same order as the input. Lines that do not start with two
+ * numbers, such as a header, are skipped.
+ * </p>
+ */
+public final class RatingsConverter {
+
+  private static final Logger log = LoggerFactory.getLogger(RatingsConverter.class);
+
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+  private static final int CHUNKS_PER_THREAD = 4;
+  private static final int MAX_CHUNK_SIZE = 1 << 26;
+
+  public enum Format {
+    TAB((byte) '\t'),
+    DOUBLE_COLON((byte) ':'),
+    CSV((byte) ',');
+
+    private final byte separator;
+
+    Format(byte separator) {
+      this.separator = separator;
+    }
+  }
+
+  private final Format format;
+  private final boolean keepTimestamps;
+  private final int numThreads;
+
+  /**
+   * @param format layout of the input, or null to detect it from the first line
+   * @param keepTimestamps whether CSV output gets the timestamp as a fourth column, if the input
+   *  has one; the binary format has no timestamps
+   * @param numThreads number of parsing threads; smaller than 1 means one per processor
+   */
+  public RatingsConverter(Format format, boolean keepTimestamps, int numThreads) {
+    this.format = format;
+    this.keepTimestamps = keepTimestamps;
+    this.numThreads = numThreads < 1 ? Runtime.getRuntime().availableProcessors() : numThreads;
+  }
+
+  /**
+   * Detects the layout from the first line of a file: "::" means {@link Format#DOUBLE_COLON}, a
+   * tab {@link Format#TAB}, and anything else {@link Format#CSV}.
+   */
+  public static Format detect(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      ByteBuffer head = ByteBuffer.allocate(4096);
+      raf.getChannel().read(head, 0);
+      String firstLine = new String(head.array(), 0, head.position(), US_ASCII).split("\n", 2)[0];
+      if (firstLine.contains("::")) {
+        return Format.DOUBLE_COLON;
+      }
+      return firstLine.indexOf('\t') >= 0 ? Format.TAB : Format.CSV;
+    } finally {
+      Closeables.close(raf, true);
+    }
+  }
+
+  /**
+   * Converts {@code input} to {@code output}; if the name of the output ends in
+   * {@link RatingsFile#EXTENSION} it is written in the binary format, otherwise as CSV.
+   *
+   * @return the number of lines converted, including those without a rating
+   */
+  public long convert(File input, File output) throws IOException {
+    Format inputFormat = format == null ? detect(input) : format;
+    boolean binary = output.getName().endsWith(RatingsFile.EXTENSION);
+    long start = System.nanoTime();
+    RandomAccessFile raf = new RandomAccessFile(input, "r");
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    OutputStream out = null;
+    boolean threw = true;
+    try {
+      FileChannel channel = raf.getChannel();
+      long[] bounds = chunkBounds(channel);
+      List<Future<Chunk>> futures = Lists.newArrayList();
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        futures.add(executor.submit(
+            new ChunkParser(channel, bounds[i], bounds[i + 1], inputFormat, binary)));
+      }
+
+      long count = 0;
+      long skipped = 0;
+      if (binary) {
+        List<Chunk> chunks = Lists.newArrayList();
+        boolean hasValues = true;
+        boolean decided = false;
+        long removals = 0;
+        for (Future<Chunk> future : futures) {
+          Chunk chunk = get(future);
+          chunks.add(chunk);
+          count += chunk.size;
+          skipped += chunk.skipped;
+          removals += chunk.removals;
+          if (!decided && chunk.size > 0) {
+            hasValues = chunk.firstHasValue;
+            decided = true;
+          }
+        }
+        Preconditions.checkState(count <= Integer.MAX_VALUE, "Too many ratings");
+        long[] userIDs = new long[(int) count];
+        long[] itemIDs = new long[(int) count];
+        float[] values = new float[(int) count];
+        int n = 0;
+        for (Chunk chunk : chunks) {
+          System.arraycopy(chunk.userIDs, 0, userIDs, n, chunk.size);
+          System.arraycopy(chunk.itemIDs, 0, itemIDs, n, chunk.size);
+          System.arraycopy(chunk.values, 0, values, n, chunk.size);
+          n += chunk.size;
+        }
+        if (!hasValues) {
+          for (int k = 0; k < n; k++) {
+            if (!Float.isNaN(values[k])) {
+              values[k] = 1.0f;
+            }
+          }
+        }
+        RatingsFile.Ratings ratings =
+            new RatingsFile.Ratings(userIDs, itemIDs, values, n, hasValues);
+        if (removals > 0) {
+          ratings = withoutUnratedItems(ratings, hasValues);
+        }
+        RatingsFile.write(ratings, output);
+      } else {
+        out = new FileOutputStream(output);
+        // write every chunk as soon as it and the ones before it are done
+        for (Future<Chunk> future : futures) {
+          Chunk chunk = get(future);
+          out.write(chunk.text, 0, chunk.textSize);
+          count += chunk.size;
+          skipped += chunk.skipped;
+        }
+      }
+      threw = false;
+      log.info("Converted {} lines from {} to {} in {} ms, skipped {} lines", new Object[] {count,
+          input, output, (System.nanoTime() - start) / 1000000, skipped});
+      return count;
+    } finally {
+      executor.shutdownNow();
+      Closeables.close(out, threw);
+      Closeables.close(raf, true);
+    }
+  }
+
+  /**
+   * Numbers the items again, leaving out those whose ratings were all removed, as
+   * {@link FileDataModel} does; it keeps such users, without preferences.
+   */
+  private static RatingsFile.Ratings withoutUnratedItems(RatingsFile.Ratings ratings,
+      boolean hasValues) {
+    int[] itemOffsets = ratings.getItemOffsets();
+    long[] items = new long[ratings.getNumItems()];
+    int numItems = 0;
+    for (int i = 0; i < items.length; i++) {
+      if (itemOffsets[i + 1] > itemOffsets[i]) {
+        items[numItems++] = ratings.getItemIDs()[i];
+      }
+    }
+    int n = ratings.getNumPrefs();
+    long[] userIDs = new long[n];
+    long[] itemIDs = new long[n];
+    int[] userOffsets = ratings.getUserOffsets();
+    int[] userItems = ratings.getUserItems();
+    for (int u = 0; u < ratings.getNumUsers(); u++) {
+      for (int j = userOffsets[u]; j < userOffsets[u + 1]; j++) {
+        userIDs[j] = ratings.getUserIDs()[u];
+        itemIDs[j] = ratings.getItemIDs()[userItems[j]];
+      }
+    }
+    return new RatingsFile.Ratings(ratings.getUserIDs(), Arrays.copyOf(items, numItems), userIDs,
+        itemIDs, ratings.getUserValues().clone(), n, hasValues);
+  }
+
+  private static Chunk get(Future<Chunk> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ie) {
+      throw new IOException(ie);
+    } catch (ExecutionException ee) {
+      throw new IOException(ee.getCause());
+    }
+  }
+
+  /**
+   * Start positions of the chunks, plus the size of the file; every chunk but the first starts
+   * right after a line end.
+   */
+  private long[] chunkBounds(FileChannel channel) throws IOException {
+    long size = channel.size();
+    int numChunks = (int) Math.max(numThreads * CHUNKS_PER_THREAD, size / MAX_CHUNK_SIZE + 1);
+    long[] bounds = new long[numChunks + 1];
+    bounds[numChunks] = size;
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    for (int i = 1; i < numChunks; i++) {
+      long position = Math.max(bounds[i - 1], size / numChunks * i);
+      bounds[i] = size;
+      while (position < size) {
+        probe.clear();
+        int read = channel.read(probe, position);
+        int newline = -1;
+        for (int j = 0; j < read && newline < 0; j++) {
+          if (probe.get(j) == '\n') {
+            newline = j;
+          }
+        }
+        if (newline >= 0) {
+          bounds[i] = position + newline + 1;
+          break;
+        }
+        position += read;
+      }
+    }
+    return bounds;
+  }
+
+  /** Parsed ratings, or CSV text, of one chunk. */
+  private static final class Chunk {
+    int size;
+    int skipped;
+    int removals;
+    // whether the first line of the chunk that was converted has a rating
+    boolean firstHasValue;
+    long[] userIDs = new long[1024];
+    long[] itemIDs = new long[1024];
+    float[] values = new float[1024];
+    byte[] text = new byte[1 << 16];
+    int textSize;
+
+    void add(long userID, long itemID, float value) {
+      if (size == userIDs.length) {
+        userIDs = Arrays.copyOf(userIDs, 2 * size);
+        itemIDs = Arrays.copyOf(itemIDs, 2 * size);
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      userIDs[size] = userID;
+      itemIDs[size] = itemID;
+      values[size++] = value;
+    }
+
+    void append(ByteBuffer bytes, int from, int to) {
+      ensureText(to - from);
+      for (int i = from; i < to; i++) {
+        text[textSize++] = bytes.get(i);
+      }
+    }
+
+    void append(byte b) {
+      ensureText(1);
+      text[textSize++] = b;
+    }
+
+    private void ensureText(int extra) {
+      if (textSize + extra > text.length) {
+        text = Arrays.copyOf(text, Math.max(2 * text.length, textSize + extra));
+      }
+    }
+  }
+
+  private final class ChunkParser implements Callable<Chunk> {
+
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final Format inputFormat;
+    private final boolean binary;
+    // start and end of the fields of the current line
+    private final int[] fieldStarts = new int[4];
+    private final int[] fieldEnds = new int[4];
+
+    ChunkParser(FileChannel channel, long start, long end, Format inputFormat, boolean binary) {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+      this.inputFormat = inputFormat;
+      this.binary = binary;
+    }
+
+    @Override
+    public Chunk call() throws IOException {
+      Chunk chunk = new Chunk();
+      if (end == start) {
+        return chunk;
+      }
+      ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      int limit = bytes.limit();
+      int position = 0;
+      while (position < limit) {
+        int lineEnd = position;
+        while (lineEnd < limit && bytes.get(lineEnd) != '\n') {
+          lineEnd++;
+        }
+        int contentEnd = lineEnd;
+        if (contentEnd > position && bytes.get(contentEnd - 1) == '\r') {
+          contentEnd--;
+        }
+        if (contentEnd > position) {
+          parseLine(bytes, position, contentEnd, chunk);
+        }
+        position = lineEnd + 1;
+      }
+      return chunk;
+    }
+
+    private void parseLine(ByteBuffer bytes, int from, int to, Chunk chunk) {
+      byte separator = inputFormat.separator;
+      int numFields = 0;
+      int fieldStart = from;
+      for (int i = from; i <= to && numFields < 4; i++) {
+        if (i == to || bytes.get(i) == separator) {
+          fieldStarts[numFields] = fieldStart;
+          fieldEnds[numFields++] = i;
+          if (inputFormat == Format.DOUBLE_COLON && i + 1 < to && bytes.get(i + 1) == separator) {
+            i++;
+          }
+          fieldStart = i + 1;
+        }
+      }
+      if (numFields < 2 || !isInteger(bytes, fieldStarts[0], fieldEnds[0])
+          || !isInteger(bytes, fieldStarts[1], fieldEnds[1])) {
+        chunk.skipped++;
+        return;
+      }
+      boolean hasValue = numFields > 2 && fieldStarts[2] < fieldEnds[2];
+      boolean removal = numFields == 3 && !hasValue;
+      if (chunk.size == 0) {
+        chunk.firstHasValue = hasValue;
+      }
+      if (binary) {
+        float value;
+        if (hasValue) {
+          value = parseFloat(bytes, fieldStarts[2], fieldEnds[2]);
+        } else if (removal) {
+          value = Float.NaN;
+          chunk.removals++;
+        } else {
+          value = 1.0f;
+        }
+        chunk.add(parseLong(bytes, fieldStarts[0], fieldEnds[0]),
+            parseLong(bytes, fieldStarts[1], fieldEnds[1]), value);
+      } else {
+        chunk.size++;
+        chunk.append(bytes, fieldStarts[0], fieldEnds[0]);
+        chunk.append((byte) ',');
+        chunk.append(bytes, fieldStarts[1], fieldEnds[1]);
+        if (hasValue || removal || keepTimestamps && numFields > 3) {
+          chunk.append((byte) ',');
+          chunk.append(bytes, fieldStarts[2], fieldEnds[2]);
+        }
+        if (keepTimestamps && numFields > 3) {
+          chunk.append((byte) ',');
+          chunk.append(bytes, fieldStarts[3], fieldEnds[3]);
+        }
+        chunk.append((byte) '\n');
+      }
+    }
+
+  }
+
+  static boolean isInteger(ByteBuffer bytes, int from, int to) {
+    int i = from < to && bytes.get(from) == '-' ? from + 1 : from;
+    if (i == to) {
+      return false;
+    }
+    for (; i < to; i++) {
+      byte b = bytes.get(i);
+      if (b < '0' || b > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static long parseLong(ByteBuffer bytes, int from, int to) {
+    boolean negative = bytes.get(from) == '-';
+    long result = 0;
+    for (int i = negative ? from + 1 : from; i < to; i++) {
+      result = 10 * result + (bytes.get(i) - '0');
+    }
+    return negative ? -result : result;
+  }
+
+  /**
+   * Parses plain decimals like "4" or "3.5" directly; anything else, such as an exponent, goes
+   * through {@link Float#parseFloat(String)}.
+   */
+  static float parseFloat(ByteBuffer bytes, int from, int to) {
+    int i = from;
+    boolean negative = i < to && bytes.get(i) == '-';
+    if (negative) {
+      i++;
+    }
+    long mantissa = 0;
+    int decimals = -1;
+    int digits = 0;
+    for (; i < to; i++) {
+      byte b = bytes.get(i);
+      if (b >= '0' && b <= '9' && digits < 18) {
+        mantissa = 10 * mantissa + (b - '0');
+        digits++;
+        if (decimals >= 0) {
+          decimals++;
+        }
+      } else if (b == '.' && decimals < 0) {
+        decimals = 0;
+      } else {
+        byte[] field = new byte[to - from];
+        for (int j = 0; j < field.length; j++) {
+          field[j] = bytes.get(from + j);
+        }
+        return Float.parseFloat(new String(field, US_ASCII));
+      }
+    }
+    double value = decimals > 0 ? mantissa / Math.pow(10, decimals) : mantissa;
+    return (float) (negative ? -value : value);
+  }
+
+}
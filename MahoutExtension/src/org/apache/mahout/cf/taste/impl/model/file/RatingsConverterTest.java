@@ -0,0 +1,128 @@
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.BufferDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class RatingsConverterTest
+{
+
+  @Test
+  public void testLayouts() throws Exception
+  {
+    Random random = new Random(17);
+    StringBuilder tab = new StringBuilder();
+    StringBuilder colons = new StringBuilder();
+    StringBuilder csv = new StringBuilder("userId,movieId,rating,timestamp\r\n");
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      int user = 1 + random.nextInt(100);
+      int item = 1 + random.nextInt(500);
+      String rating = random.nextBoolean() ? String.valueOf(1 + random.nextInt(5)) 
+          : (1 + random.nextInt(4)) + ".5";
+      long time = 874965758L + random.nextInt(1000000);
+      tab.append(user).append('\t').append(item).append('\t').append(rating).append('\t')
+          .append(time).append('\n');
+      colons.append(user).append("::").append(item).append("::").append(rating).append("::")
+          .append(time).append('\n');
+      csv.append(user).append(',').append(item).append(',').append(rating).append(',')
+          .append(time).append("\r\n");
+      expected.append(user).append(',').append(item).append(',').append(rating).append('\n');
+    }
+
+    File dir = Files.createTempDir();
+    try {
+      for (String input : new String[] { tab.toString(), colons.toString(), csv.toString() }) {
+        File in = new File(dir, "in.dat");
+        Files.write(input, in, Charsets.US_ASCII);
+        File out = new File(dir, "out.csv");
+        assertEquals(2000, new RatingsConverter(null, false, 3).convert(in, out));
+        assertEquals(expected.toString(), Files.toString(out, Charsets.US_ASCII));
+
+        File binary = new File(dir, "binary" + RatingsFile.EXTENSION);
+        new RatingsConverter(null, false, 3).convert(in, binary);
+        assertSameRatings(new FileDataModel(out), BufferDataModel.map(binary));
+      }
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testLinesWithoutRatings() throws Exception
+  {
+    // the first line decides: ratings, in which "user,item," removes a rating
+    assertSameRatings("1,10,4\n1,11,3\n2,10,5\n1,10,\n3,12,2\n3,12,\n", 3, 2);
+    // boolean, also with a rating, a timestamp and a removal of a preference that does not exist
+    assertSameRatings("1,10\n1,11\n2,10\n2,12,\n3,12\n1,11,\n4,13,5\n5,13,,874965758\n", 5, 3);
+  }
+
+  /** Converts the input both ways and checks both against the input read by FileDataModel. */
+  private static void assertSameRatings(String input, int numUsers, int numItems)
+      throws Exception
+  {
+    File dir = Files.createTempDir();
+    try {
+      File in = new File(dir, "in.csv");
+      Files.write(input, in, Charsets.US_ASCII);
+      DataModel expected = new FileDataModel(in);
+      assertEquals(numUsers, expected.getNumUsers());
+      assertEquals(numItems, expected.getNumItems());
+      File out = new File(dir, "out.csv");
+      new RatingsConverter(null, true, 2).convert(in, out);
+      assertSameRatings(expected, new FileDataModel(out));
+      File binary = new File(dir, "binary" + RatingsFile.EXTENSION);
+      new RatingsConverter(null, false, 2).convert(in, binary);
+      assertSameRatings(expected, BufferDataModel.map(binary));
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static void assertSameRatings(DataModel expected, DataModel actual) throws Exception
+  {
+    assertEquals(expected.hasPreferenceValues(), actual.hasPreferenceValues());
+    assertEquals(expected.getNumUsers(), actual.getNumUsers());
+    assertEquals(expected.getNumItems(), actual.getNumItems());
+    LongPrimitiveIterator userIDs = expected.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray expectedPrefs = expected.getPreferencesFromUser(userID);
+      PreferenceArray actualPrefs = actual.getPreferencesFromUser(userID);
+      assertEquals(expectedPrefs.length(), actualPrefs.length());
+      expectedPrefs.sortByItem();
+      actualPrefs.sortByItem();
+      for (int i = 0; i < expectedPrefs.length(); i++) {
+        assertEquals(expectedPrefs.getItemID(i), actualPrefs.getItemID(i));
+        assertEquals(expectedPrefs.getValue(i), actualPrefs.getValue(i), 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void testParseFloat() throws IOException
+  {
+    for (String s : new String[] { "4", "3.5", "0.25", "-1.5", "1e2", "10.0" }) {
+      assertEquals(Float.parseFloat(s), RatingsConverter.parseFloat(
+          java.nio.ByteBuffer.wrap(s.getBytes(Charsets.US_ASCII)), 0, s.length()), 0.0f);
+    }
+  }
+
+}
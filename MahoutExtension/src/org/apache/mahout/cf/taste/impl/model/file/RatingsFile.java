@@ -0,0 +1,376 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.model.BufferDataModel;
+import org.apache.mahout.cf.taste.impl.model.SortedIDs;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * A binary ratings format that can be memory-mapped and used as it is, by a
+ * {@link BufferDataModel}, instead of being parsed like the text files of {@link FileDataModel}.
+ * </p><p>
+ * Users and items are numbered densely in the order of their IDs. The preferences are stored
+ * twice in compressed sparse row form, once by user and once by item: an offset per row, and a
+ * column of item (or user) numbers and a column of values, both ascending by number within a
+ * row. Layout, big-endian, with every section starting right after the previous one:
+ * </p>
+ * <pre>
+ * header (64 bytes): int magic, int version, int numUsers, int numItems, int numPrefs, int flags,
+ *                    float minValue, float maxValue, 32 bytes reserved
+ * long[numUsers] userIDs, long[numItems] itemIDs (both ascending)
+ * int[numUsers + 1] userOffsets, int[numPrefs] item numbers, float[numPrefs] values
+ * int[numItems + 1] itemOffsets, int[numPrefs] user numbers, float[numPrefs] values
+ * </pre>
+ * <p>
+ * A file is mapped as a whole, so it can hold at most about 2 GB, which is some 130 million
+ * preferences.
+ * </p>
+ */
+public final class RatingsFile {
+
+  private static final Logger log = LoggerFactory.getLogger(RatingsFile.class);
+
+  public static final int MAGIC = 0x4D524154; // "MRAT"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 64;
+  public static final int FLAG_HAS_VALUES = 1;
+
+  /** Extension of the binary file that {@link #load(File)} keeps next to a text file. */
+  public static final String EXTENSION = ".ratings";
+
+  private RatingsFile() {
+  }
+
+  /**
+   * <p>
+   * Loads a data file: a file ending in {@value #EXTENSION} is mapped. For any other file, a binary
+   * copy next to it is mapped, which is first created from the text file with a
+   * {@link RatingsConverter} if it does not exist yet or is older than the text file.
+   * </p><p>
+   * The conversion does not use {@link FileDataModel}, which would take the binary copy and other
+   * files next to the data file whose names start with the same name for update files. Only
+   * compressed files, ending in .gz or .zip, which the converter cannot map, are read with a
+   * {@link FileDataModel}.
+   * </p>
+   */
+  public static DataModel load(File dataFile) throws IOException {
+    String name = dataFile.getName();
+    if (name.endsWith(EXTENSION)) {
+      return BufferDataModel.map(dataFile);
+    }
+    if (name.endsWith(".gz") || name.endsWith(".zip")) {
+      return new FileDataModel(dataFile);
+    }
+    File binaryFile = new File(dataFile.getPath() + EXTENSION);
+    if (!binaryFile.exists() || binaryFile.lastModified() < dataFile.lastModified()) {
+      log.info("Converting {} to {}", dataFile, binaryFile);
+      new RatingsConverter(null, false, 0).convert(dataFile, binaryFile);
+    }
+    return BufferDataModel.map(binaryFile);
+  }
+
+  /**
+   * Writes all preferences of a data model.
+   */
+  public static void write(DataModel dataModel, File file) throws IOException, TasteException {
+    write(toRatings(dataModel), file);
+  }
+
+  /**
+   * All preferences of a data model, in the layout of the file. Users and items are those of the
+   * data model, including any without preferences.
+   */
+  public static Ratings toRatings(DataModel dataModel) throws TasteException {
+    long[] users = SortedIDs.users(dataModel);
+    int numPrefs = 0;
+    for (long userID : users) {
+      numPrefs += dataModel.getPreferencesFromUser(userID).length();
+    }
+    long[] userIDs = new long[numPrefs];
+    long[] itemIDs = new long[numPrefs];
+    float[] values = new float[numPrefs];
+    int n = 0;
+    for (long userID : users) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      for (int i = 0; i < prefs.length(); i++) {
+        userIDs[n] = prefs.getUserID(i);
+        itemIDs[n] = prefs.getItemID(i);
+        values[n++] = prefs.getValue(i);
+      }
+    }
+    return new Ratings(users, SortedIDs.items(dataModel), userIDs, itemIDs, values, n,
+        dataModel.hasPreferenceValues());
+  }
+
+  /**
+   * Writes the ratings to a file through a writable mapping, without another copy on the heap.
+   */
+  public static void write(Ratings ratings, File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+    boolean threw = true;
+    try {
+      long size = ratings.encodedSize();
+      Preconditions.checkArgument(size <= Integer.MAX_VALUE, "Too many ratings for one file");
+      raf.setLength(size);
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      ratings.encode(buffer);
+      buffer.force();
+      threw = false;
+    } finally {
+      Closeables.close(raf, threw);
+    }
+    if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+      throw new IOException("Could not rename " + tmp + " to " + file);
+    }
+    log.info("Wrote {} ratings to {} ({} bytes)", new Object[] {ratings.getNumPrefs(), file,
+        file.length()});
+  }
+
+  /**
+   * <p>
+   * Ratings in the layout of the file, built from (user ID, item ID, value) triples in any order.
+   * When a user rated an item more than once, the last rating counts, as in {@link FileDataModel}.
+   * A NaN value removes the ratings before it, like a line without a value in a
+   * {@link FileDataModel} file; the user and item are still numbered.
+   * </p>
+   */
+  public static final class Ratings {
+
+    private final long[] users;
+    private final long[] items;
+    private final int[] userOffsets;
+    private final int[] userItems;
+    private final float[] userValues;
+    private final int[] itemOffsets;
+    private final int[] itemUsers;
+    private final float[] itemValues;
+    private final boolean hasValues;
+    private float minValue = Float.NaN;
+    private float maxValue = Float.NaN;
+
+    /**
+     * Takes the first {@code n} triples of the arrays, which it may reorder.
+     */
+    public Ratings(long[] userIDs, long[] itemIDs, float[] values, int n, boolean hasValues) {
+      this(uniqueSorted(userIDs, n), uniqueSorted(itemIDs, n), userIDs, itemIDs, values, n,
+          hasValues);
+    }
+
+    /**
+     * As {@link #Ratings(long[], long[], float[], int, boolean)}, numbering the given users and
+     * items, ascending and distinct, which must include those of the triples; the others get
+     * empty rows.
+     */
+    public Ratings(long[] users, long[] items, long[] userIDs, long[] itemIDs, float[] values,
+        int n, boolean hasValues) {
+      this.hasValues = hasValues;
+      this.users = users;
+      this.items = items;
+
+      // group by user: counting sort on the user number
+      int[] offsets = new int[users.length + 1];
+      int[] userOf = new int[n];
+      for (int k = 0; k < n; k++) {
+        userOf[k] = Arrays.binarySearch(users, userIDs[k]);
+        offsets[userOf[k] + 1]++;
+      }
+      for (int u = 0; u < users.length; u++) {
+        offsets[u + 1] += offsets[u];
+      }
+      // within a user, order by item number and then by input position
+      long[] keys = new long[n];
+      int[] fill = Arrays.copyOf(offsets, users.length);
+      for (int k = 0; k < n; k++) {
+        keys[fill[userOf[k]]++] = (long) Arrays.binarySearch(items, itemIDs[k]) << 32 | k;
+      }
+      userOffsets = new int[users.length + 1];
+      int[] rowItems = new int[n];
+      float[] rowValues = new float[n];
+      int m = 0;
+      for (int u = 0; u < users.length; u++) {
+        Arrays.sort(keys, offsets[u], offsets[u + 1]);
+        for (int j = offsets[u]; j < offsets[u + 1]; j++) {
+          int item = (int) (keys[j] >>> 32);
+          if (j + 1 < offsets[u + 1] && (int) (keys[j + 1] >>> 32) == item) {
+            continue; // a later rating of the same item follows
+          }
+          float value = values[(int) keys[j]];
+          if (Float.isNaN(value)) {
+            continue; // removed
+          }
+          rowItems[m] = item;
+          rowValues[m++] = value;
+          if (!(value >= minValue)) {
+            minValue = value;
+          }
+          if (!(value <= maxValue)) {
+            maxValue = value;
+          }
+        }
+        userOffsets[u + 1] = m;
+      }
+      userItems = Arrays.copyOf(rowItems, m);
+      userValues = Arrays.copyOf(rowValues, m);
+
+      // transpose: counting sort on the item number keeps users ascending within an item
+      itemOffsets = new int[items.length + 1];
+      for (int j = 0; j < m; j++) {
+        itemOffsets[userItems[j] + 1]++;
+      }
+      for (int i = 0; i < items.length; i++) {
+        itemOffsets[i + 1] += itemOffsets[i];
+      }
+      itemUsers = new int[m];
+      itemValues = new float[m];
+      fill = Arrays.copyOf(itemOffsets, items.length);
+      for (int u = 0; u < users.length; u++) {
+        for (int j = userOffsets[u]; j < userOffsets[u + 1]; j++) {
+          int position = fill[userItems[j]]++;
+          itemUsers[position] = u;
+          itemValues[position] = userValues[j];
+        }
+      }
+    }
+
+    private static long[] uniqueSorted(long[] ids, int n) {
+      long[] sorted = Arrays.copyOf(ids, n);
+      Arrays.sort(sorted);
+      int unique = 0;
+      for (int k = 0; k < n; k++) {
+        if (unique == 0 || sorted[unique - 1] != sorted[k]) {
+          sorted[unique++] = sorted[k];
+        }
+      }
+      return Arrays.copyOf(sorted, unique);
+    }
+
+    public int getNumUsers() {
+      return users.length;
+    }
+
+    public int getNumItems() {
+      return items.length;
+    }
+
+    public int getNumPrefs() {
+      return userItems.length;
+    }
+
+    /** User IDs, ascending. This and the other arrays are returned as they are, not copied. */
+    public long[] getUserIDs() {
+      return users;
+    }
+
+    /** Item IDs, ascending. */
+    public long[] getItemIDs() {
+      return items;
+    }
+
+    /** Where the preferences of each user start; one element more than there are users. */
+    public int[] getUserOffsets() {
+      return userOffsets;
+    }
+
+    /** Item numbers of the preferences, by user, ascending per user. */
+    public int[] getUserItems() {
+      return userItems;
+    }
+
+    /** Values of the preferences, by user. */
+    public float[] getUserValues() {
+      return userValues;
+    }
+
+    /** Where the preferences of each item start; one element more than there are items. */
+    public int[] getItemOffsets() {
+      return itemOffsets;
+    }
+
+    /** User numbers of the preferences, by item, ascending per item. */
+    public int[] getItemUsers() {
+      return itemUsers;
+    }
+
+    /** Values of the preferences, by item. */
+    public float[] getItemValues() {
+      return itemValues;
+    }
+
+    public long encodedSize() {
+      return HEADER_SIZE + 8L * (users.length + items.length)
+          + 4L * (users.length + 1 + items.length + 1) + 16L * userItems.length;
+    }
+
+    /**
+     * Writes the ratings at the position of the buffer, which must have {@link #encodedSize()}
+     * bytes left.
+     */
+    public void encode(ByteBuffer buffer) {
+      ByteBuffer out = buffer.duplicate();
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putInt(users.length);
+      out.putInt(items.length);
+      out.putInt(userItems.length);
+      out.putInt(hasValues ? FLAG_HAS_VALUES : 0);
+      out.putFloat(minValue);
+      out.putFloat(maxValue);
+      out.put(new byte[HEADER_SIZE - 32]);
+      out.asLongBuffer().put(users);
+      out.position(out.position() + 8 * users.length);
+      out.asLongBuffer().put(items);
+      out.position(out.position() + 8 * items.length);
+      putInts(out, userOffsets);
+      putInts(out, userItems);
+      putFloats(out, userValues);
+      putInts(out, itemOffsets);
+      putInts(out, itemUsers);
+      putFloats(out, itemValues);
+    }
+
+    private static void putInts(ByteBuffer out, int[] values) {
+      out.asIntBuffer().put(values);
+      out.position(out.position() + 4 * values.length);
+    }
+
+    private static void putFloats(ByteBuffer out, float[] values) {
+      out.asFloatBuffer().put(values);
+      out.position(out.position() + 4 * values.length);
+    }
+
+  }
+
+}
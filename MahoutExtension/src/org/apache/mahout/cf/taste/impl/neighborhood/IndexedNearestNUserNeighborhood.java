@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.model.IndexedDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.IndexedCorrelationSimilarity;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * The n most similar users, like {@link NearestNUserNeighborhood}, but with all users compared by
+ * their numbers in an {@link IndexedDataModel}. The candidates are kept in a heap of primitive
+ * arrays; only the user asked for and the users returned are translated between IDs and numbers.
+ * </p><p>
+ * Users are returned from most to least similar. Users with a NaN similarity or one below
+ * {@code minSimilarity} are never part of the neighborhood.
+ * </p>
+ */
+public final class IndexedNearestNUserNeighborhood implements UserNeighborhood {
+
+  private final int n;
+  private final double minSimilarity;
+  private final IndexedCorrelationSimilarity similarity;
+  private final IndexedDataModel dataModel;
+
+  public IndexedNearestNUserNeighborhood(int n, IndexedCorrelationSimilarity similarity) {
+    this(n, Double.NEGATIVE_INFINITY, similarity);
+  }
+
+  public IndexedNearestNUserNeighborhood(int n, double minSimilarity,
+      IndexedCorrelationSimilarity similarity) {
+    Preconditions.checkArgument(n >= 1, "n must be at least 1");
+    this.n = n;
+    this.minSimilarity = minSimilarity;
+    this.similarity = Preconditions.checkNotNull(similarity);
+    this.dataModel = similarity.getIndexedDataModel();
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+    int user = dataModel.userIndex(userID);
+    if (user < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    int numUsers = dataModel.getNumUsers();
+    // min-heap on similarity of the best users so far
+    double[] heapSimilarities = new double[n];
+    int[] heapUsers = new int[n];
+    int size = 0;
+    for (int other = 0; other < numUsers; other++) {
+      if (other == user) {
+        continue;
+      }
+      double value = similarity.userSimilarity(user, other);
+      if (Double.isNaN(value) || value < minSimilarity) {
+        continue;
+      }
+      if (size < n) {
+        siftUp(heapSimilarities, heapUsers, size++, value, other);
+      } else if (value > heapSimilarities[0]) {
+        siftDown(heapSimilarities, heapUsers, size, value, other);
+      }
+    }
+    long[] neighborhood = new long[size];
+    while (size > 0) {
+      neighborhood[--size] = dataModel.userID(heapUsers[0]);
+      siftDown(heapSimilarities, heapUsers, size, heapSimilarities[size], heapUsers[size]);
+    }
+    return neighborhood;
+  }
+
+  private static void siftUp(double[] similarities, int[] users, int position, double value,
+      int user) {
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      if (similarities[parent] <= value) {
+        break;
+      }
+      similarities[position] = similarities[parent];
+      users[position] = users[parent];
+      position = parent;
+    }
+    similarities[position] = value;
+    users[position] = user;
+  }
+
+  /** Replaces the root by the given element and restores the heap of the given size. */
+  private static void siftDown(double[] similarities, int[] users, int size, double value,
+      int user) {
+    int position = 0;
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && similarities[child + 1] < similarities[child]) {
+        child++;
+      }
+      if (similarities[child] >= value) {
+        break;
+      }
+      similarities[position] = similarities[child];
+      users[position] = users[child];
+      position = child;
+    }
+    if (size > 0) {
+      similarities[position] = value;
+      users[position] = user;
+    }
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // the data model is immutable
+  }
+
+  @Override
+  public String toString() {
+    return "IndexedNearestNUserNeighborhood[n:" + n + ", minSimilarity:" + minSimilarity
+        + ", similarity:" + similarity + ']';
+  }
+
+}
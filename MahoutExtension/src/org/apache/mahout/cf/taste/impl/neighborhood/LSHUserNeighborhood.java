@@ -0,0 +1,374 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.math.Sorting;
+import org.apache.mahout.math.function.IntComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An approximate neighborhood: the n most similar users, like {@link NearestNUserNeighborhood},
+ * but only among the users that share a locality-sensitive hash with the user asked for, instead
+ * of among all users. Every user gets a signature of {@code bands * rows} hashes, cut into
+ * {@code bands} bands of {@code rows} hashes each; two users are candidates for each other if all
+ * hashes of at least one band agree. The candidates are then ranked by the real similarity.
+ * </p><p>
+ * Two kinds of signature are supported:
+ * </p>
+ * <ul>
+ * <li>{@link Signature#MIN_HASH}: the smallest hash of the items of the user, per hash function.
+ * Two users agree on one of these with probability equal to the Jaccard coefficient (Tanimoto
+ * similarity) of their item sets, so it is meant for Tanimoto and log-likelihood similarity.</li>
+ * <li>{@link Signature#HYPERPLANE} and {@link Signature#CENTERED_HYPERPLANE}: the side of a random
+ * hyperplane the preference vector of the user is on, one bit per hyperplane. Two users agree on
+ * one of these with probability 1 - &theta; / &pi;, for the angle &theta; between their vectors,
+ * so it is meant for cosine similarity, or, with the values centered on the mean of the user, for
+ * Pearson correlation.</li>
+ * </ul>
+ * <p>
+ * With a probability p of two users agreeing on one hash, they become candidates with probability
+ * 1 - (1 - p<sup>rows</sup>)<sup>bands</sup>. More bands therefore find more of the real neighbors
+ * (recall), more rows per band fewer candidates that are not (speed).
+ * </p><p>
+ * The bands of all users are hashed once, when the neighborhood is created, into one sorted array
+ * per band; this takes O(preferences * bands * rows) time and 12 bytes per user per band. A lookup
+ * hashes the user asked for and computes the similarity to its candidates only. The hash functions
+ * are derived from a seed, so the neighborhood of a user is the same every time.
+ * {@link #refresh(Collection)} hashes all users again.
+ * </p><p>
+ * Users with a NaN similarity or one below {@code minSimilarity} are never part of the
+ * neighborhood, and users are returned from most to least similar.
+ * </p>
+ */
+public final class LSHUserNeighborhood implements UserNeighborhood {
+
+  private static final Logger log = LoggerFactory.getLogger(LSHUserNeighborhood.class);
+
+  public enum Signature { MIN_HASH, HYPERPLANE, CENTERED_HYPERPLANE }
+
+  private final int n;
+  private final double minSimilarity;
+  private final UserSimilarity similarity;
+  private final DataModel dataModel;
+  private final Signature signature;
+  private final int bands;
+  private final int rows;
+  private final long[] seeds;
+  private final RefreshHelper refreshHelper;
+  private volatile Buckets buckets;
+
+  public LSHUserNeighborhood(int n, UserSimilarity similarity, DataModel dataModel,
+      Signature signature, int bands, int rows) throws TasteException {
+    this(n, Double.NEGATIVE_INFINITY, similarity, dataModel, signature, bands, rows, 0L);
+  }
+
+  /**
+   * @param n maximum number of neighbors; {@link Integer#MAX_VALUE} returns all candidates with at
+   *  least {@code minSimilarity}, like {@link ThresholdUserNeighborhood}
+   * @param bands number of bands; more bands find more neighbors
+   * @param rows number of hashes per band; more rows give fewer candidates. At most 64 for
+   *  hyperplane signatures.
+   * @param seed seed of the hash functions
+   */
+  public LSHUserNeighborhood(int n, double minSimilarity, UserSimilarity similarity,
+      DataModel dataModel, Signature signature, int bands, int rows, long seed)
+    throws TasteException {
+    Preconditions.checkArgument(n >= 1, "n must be at least 1");
+    Preconditions.checkArgument(bands >= 1, "bands must be at least 1");
+    Preconditions.checkArgument(rows >= 1, "rows must be at least 1");
+    Preconditions.checkArgument(signature == Signature.MIN_HASH || rows <= 64,
+        "At most 64 rows per band for hyperplane signatures");
+    this.n = n;
+    this.minSimilarity = minSimilarity;
+    this.similarity = Preconditions.checkNotNull(similarity);
+    this.dataModel = Preconditions.checkNotNull(dataModel);
+    this.signature = Preconditions.checkNotNull(signature);
+    this.bands = bands;
+    this.rows = rows;
+    this.seeds = new long[bands * rows];
+    for (int i = 0; i < seeds.length; i++) {
+      seeds[i] = mix(seed + (i + 1) * 0x9E3779B97F4A7C15L);
+    }
+    this.refreshHelper = new RefreshHelper(null);
+    refreshHelper.addDependency(dataModel);
+    refreshHelper.addDependency(similarity);
+    this.buckets = new Buckets();
+  }
+
+  public Signature getSignature() {
+    return signature;
+  }
+
+  public int getBands() {
+    return bands;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+    Buckets current = buckets;
+    long[] keys = bandKeys(dataModel.getPreferencesFromUser(userID));
+    FastIDSet candidates = new FastIDSet();
+    for (int band = 0; band < bands; band++) {
+      current.addCandidates(band, keys[band], candidates);
+    }
+    candidates.remove(userID);
+
+    int capacity = Math.min(n, candidates.size());
+    // min-heap on similarity of the best users so far
+    double[] heapSimilarities = new double[capacity];
+    long[] heapUsers = new long[capacity];
+    int size = 0;
+    LongPrimitiveIterator it = candidates.iterator();
+    while (it.hasNext()) {
+      long other = it.nextLong();
+      double value = similarity.userSimilarity(userID, other);
+      if (Double.isNaN(value) || value < minSimilarity) {
+        continue;
+      }
+      if (size < capacity) {
+        siftUp(heapSimilarities, heapUsers, size++, value, other);
+      } else if (value > heapSimilarities[0]) {
+        siftDown(heapSimilarities, heapUsers, size, value, other);
+      }
+    }
+    long[] neighborhood = new long[size];
+    while (size > 0) {
+      neighborhood[--size] = heapUsers[0];
+      siftDown(heapSimilarities, heapUsers, size, heapSimilarities[size], heapUsers[size]);
+    }
+    return neighborhood;
+  }
+
+  /** The key of every band of the signature of the given preferences. */
+  long[] bandKeys(PreferenceArray prefs) {
+    long[] hashes = signature == Signature.MIN_HASH ? minHashes(prefs) : hyperplaneBits(prefs);
+    long[] keys = new long[bands];
+    for (int band = 0; band < bands; band++) {
+      long key = band;
+      for (int row = 0; row < rows; row++) {
+        key = mix(key ^ hashes[band * rows + row]);
+      }
+      keys[band] = key;
+    }
+    return keys;
+  }
+
+  private long[] minHashes(PreferenceArray prefs) {
+    long[] hashes = new long[seeds.length];
+    Arrays.fill(hashes, Long.MAX_VALUE);
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      long item = prefs.getItemID(i) * 0xC2B2AE3D27D4EB4FL;
+      for (int h = 0; h < seeds.length; h++) {
+        long hash = mix(item ^ seeds[h]);
+        if (hash < hashes[h]) {
+          hashes[h] = hash;
+        }
+      }
+    }
+    return hashes;
+  }
+
+  /**
+   * One bit per hyperplane, 1 if the preference vector is on its positive side. The normal of a
+   * hyperplane has a pseudo-random coordinate of +1 or -1 for every item, so it is never stored.
+   */
+  private long[] hyperplaneBits(PreferenceArray prefs) {
+    int size = prefs.length();
+    double mean = 0.0;
+    if (signature == Signature.CENTERED_HYPERPLANE && size > 0) {
+      for (int i = 0; i < size; i++) {
+        mean += prefs.getValue(i);
+      }
+      mean /= size;
+    }
+    double[] projections = new double[seeds.length];
+    for (int i = 0; i < size; i++) {
+      long item = prefs.getItemID(i) * 0xC2B2AE3D27D4EB4FL;
+      double value = prefs.getValue(i) - mean;
+      long bits = 0L;
+      for (int h = 0; h < seeds.length; h++) {
+        if ((h & 63) == 0) {
+          bits = mix(item ^ seeds[h]);
+        }
+        projections[h] += (bits & (1L << h)) != 0 ? value : -value;
+      }
+    }
+    long[] hashes = new long[seeds.length];
+    for (int h = 0; h < seeds.length; h++) {
+      hashes[h] = projections[h] > 0.0 ? 1L : 0L;
+    }
+    return hashes;
+  }
+
+  private static void siftUp(double[] similarities, long[] users, int position, double value,
+      long user) {
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      if (similarities[parent] <= value) {
+        break;
+      }
+      similarities[position] = similarities[parent];
+      users[position] = users[parent];
+      position = parent;
+    }
+    similarities[position] = value;
+    users[position] = user;
+  }
+
+  /** Replaces the root by the given element and restores the heap of the given size. */
+  private static void siftDown(double[] similarities, long[] users, int size, double value,
+      long user) {
+    int position = 0;
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && similarities[child + 1] < similarities[child]) {
+        child++;
+      }
+      if (similarities[child] >= value) {
+        break;
+      }
+      similarities[position] = similarities[child];
+      users[position] = users[child];
+      position = child;
+    }
+    if (size > 0) {
+      similarities[position] = value;
+      users[position] = user;
+    }
+  }
+
+  /** SplitMix64 finalizer. */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+    try {
+      buckets = new Buckets();
+    } catch (TasteException te) {
+      log.warn("Could not hash the users again", te);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LSHUserNeighborhood[n:" + n + ", minSimilarity:" + minSimilarity + ", signature:"
+        + signature + ", bands:" + bands + ", rows:" + rows + ", similarity:" + similarity + ']';
+  }
+
+  /**
+   * The users by band key: per band, the keys of all users in ascending order and the users in
+   * the same order.
+   */
+  private final class Buckets {
+
+    private final long[] userIDs;
+    private final long[][] keys;
+    private final int[][] users;
+
+    Buckets() throws TasteException {
+      long start = System.nanoTime();
+      int numUsers = dataModel.getNumUsers();
+      userIDs = new long[numUsers];
+      final long[][] keysByUser = new long[bands][numUsers];
+      LongPrimitiveIterator it = dataModel.getUserIDs();
+      int user = 0;
+      while (it.hasNext() && user < numUsers) {
+        long userID = it.nextLong();
+        userIDs[user] = userID;
+        long[] bandKeys = bandKeys(dataModel.getPreferencesFromUser(userID));
+        for (int band = 0; band < bands; band++) {
+          keysByUser[band][user] = bandKeys[band];
+        }
+        user++;
+      }
+      final int count = user;
+      keys = new long[bands][count];
+      users = new int[bands][count];
+      for (int band = 0; band < bands; band++) {
+        final long[] bandKeys = keysByUser[band];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+          order[i] = i;
+        }
+        Sorting.mergeSort(order, 0, count, new IntComparator() {
+          @Override
+          public int compare(int a, int b) {
+            return bandKeys[a] < bandKeys[b] ? -1 : bandKeys[a] > bandKeys[b] ? 1 : 0;
+          }
+        });
+        for (int i = 0; i < count; i++) {
+          keys[band][i] = bandKeys[order[i]];
+        }
+        users[band] = order;
+        keysByUser[band] = null;
+      }
+      log.info("Hashed {} users into {} bands of {} rows in {} ms",
+          new Object[] {count, bands, rows, (System.nanoTime() - start) / 1000000});
+    }
+
+    void addCandidates(int band, long key, FastIDSet candidates) {
+      long[] bandKeys = keys[band];
+      int low = 0;
+      int high = bandKeys.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (bandKeys[middle] < key) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      int[] bandUsers = users[band];
+      for (int i = low; i < bandKeys.length && bandKeys[i] == key; i++) {
+        candidates.add(userIDs[bandUsers[i]]);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,108 @@
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.neighborhood.LSHUserNeighborhood.Signature;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+public class LSHUserNeighborhoodTest
+{
+
+  private static final int NUM_USERS = 200;
+  private static final long TWIN = 1000;
+
+  @Test
+  public void testTwinsAreCandidates() throws Exception
+  {
+    // users with the same preferences have the same signature, whatever the bands and rows
+    DataModel dataModel = randomDataModel(NUM_USERS, 300, true);
+    UserSimilarity tanimoto = new TanimotoCoefficientSimilarity(dataModel);
+    UserSimilarity pearson = new PearsonCorrelationSimilarity(dataModel);
+    UserNeighborhood minHash = new LSHUserNeighborhood(1, tanimoto, dataModel,
+        Signature.MIN_HASH, 2, 16);
+    UserNeighborhood hyperplane = new LSHUserNeighborhood(Integer.MAX_VALUE, 0.99, pearson,
+        dataModel, Signature.CENTERED_HYPERPLANE, 2, 32, 5L);
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      long[] neighborhood = minHash.getUserNeighborhood(userID);
+      assertEquals(1, neighborhood.length);
+      assertEquals(userID + TWIN, neighborhood[0]);
+      assertTrue(contains(hyperplane.getUserNeighborhood(userID), userID + TWIN));
+      assertTrue(contains(hyperplane.getUserNeighborhood(userID + TWIN), userID));
+    }
+  }
+
+  @Test
+  public void testRecallAndOrder() throws Exception
+  {
+    DataModel dataModel = randomDataModel(NUM_USERS, 60, false);
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    UserNeighborhood exact = new NearestNUserNeighborhood(5, similarity, dataModel);
+    // many short bands: nearly all users are candidates
+    UserNeighborhood wide = new LSHUserNeighborhood(5, similarity, dataModel,
+        Signature.CENTERED_HYPERPLANE, 40, 1);
+    // long bands: few candidates
+    UserNeighborhood narrow = new LSHUserNeighborhood(5, similarity, dataModel,
+        Signature.CENTERED_HYPERPLANE, 2, 12);
+    int wideFound = 0;
+    int narrowFound = 0;
+    int total = 0;
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      long[] expected = exact.getUserNeighborhood(userID);
+      long[] wideNeighbors = wide.getUserNeighborhood(userID);
+      long[] narrowNeighbors = narrow.getUserNeighborhood(userID);
+      for (long neighbor : expected) {
+        total++;
+        wideFound += contains(wideNeighbors, neighbor) ? 1 : 0;
+        narrowFound += contains(narrowNeighbors, neighbor) ? 1 : 0;
+      }
+      for (int i = 1; i < narrowNeighbors.length; i++) {
+        assertTrue(similarity.userSimilarity(userID, narrowNeighbors[i - 1])
+            >= similarity.userSimilarity(userID, narrowNeighbors[i]));
+      }
+    }
+    assertTrue(wideFound > 0.95 * total);
+    assertTrue(narrowFound < wideFound);
+  }
+
+  private static boolean contains(long[] userIDs, long userID)
+  {
+    for (long id : userIDs) {
+      if (id == userID) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Users 0 to numUsers - 1, and if twins is set also a copy of each with ID + TWIN. */
+  private static DataModel randomDataModel(int numUsers, int numItems, boolean twins)
+  {
+    Random random = new Random(11);
+    FastByIDMap<PreferenceArray> prefs = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0; userID < numUsers; userID++) {
+      int size = 5 + random.nextInt(25);
+      PreferenceArray array =
+          RandomDataModels.randomPreferences(random, userID, numItems, size, 1.0);
+      prefs.put(userID, array);
+      if (twins) {
+        PreferenceArray twin = array.clone();
+        twin.setUserID(0, userID + TWIN);
+        prefs.put(userID + TWIN, twin);
+      }
+    }
+    return new GenericDataModel(prefs);
+  }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+
+/**
+ * A {@link GenericItemBasedRecommender} that looks up the user's preferences once for all items in
+ * a batch, instead of once per estimated preference, and indexes them so that checking whether the
+ * user already rated an item is not a linear scan.
+ */
+public class BatchItemBasedRecommender extends GenericItemBasedRecommender 
+    implements BatchPreferenceEstimator {
+
+  public BatchItemBasedRecommender(DataModel dataModel, ItemSimilarity similarity) {
+    super(dataModel, similarity);
+  }
+
+  @Override
+  public void estimatePreferences(long userID, long[] itemIDs, int count, float[] estimates)
+    throws TasteException {
+    PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
+    int numRated = preferencesFromUser.length();
+    FastByIDMap<Float> ratedItems = new FastByIDMap<Float>(numRated);
+    for (int j = 0; j < numRated; j++) {
+      ratedItems.put(preferencesFromUser.getItemID(j), preferencesFromUser.getValue(j));
+    }
+    for (int i = 0; i < count; i++) {
+      long itemID = itemIDs[i];
+      Float actualPref = ratedItems.get(itemID);
+      if (actualPref != null) {
+        estimates[i] = actualPref;
+        continue;
+      }
+      try {
+        estimates[i] = doEstimatePreference(userID, preferencesFromUser, itemID);
+      } catch (NoSuchItemException nsie) {
+        estimates[i] = Float.NaN;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Batch" + super.toString();
+  }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+/**
+ * <p>
+ * Implemented by recommenders that can estimate the preferences of one user for several items
+ * cheaper than by calling {@link Recommender#estimatePreference(long, long)} once per item,
+ * typically because per-user work (a neighborhood, the user's preferences, a feature vector) only
+ * has to be looked up once.
+ * </p><p>
+ * The estimates must be the same as the ones the single-item method returns.
+ * </p>
+ */
+public interface BatchPreferenceEstimator {
+
+  /**
+   * @param userID user to estimate preferences for
+   * @param itemIDs items to estimate preferences for; only the first {@code count} are used
+   * @param count number of items
+   * @param estimates receives the estimated preference of {@code itemIDs[i]} at index {@code i}, or
+   *  {@link Float#NaN} if that item's preference cannot be estimated (for instance, because the
+   *  item is unknown; callers that need to tell unknown items apart ask the data model)
+   * @throws NoSuchUserException if the user is unknown
+   */
+  void estimatePreferences(long userID, long[] itemIDs, int count, float[] estimates) 
+    throws TasteException;
+
+}
@@ -0,0 +1,66 @@
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.svd.BatchSVDRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.svd.RatingSGDFactorizer;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchPreferenceEstimatorTest {
+
+  private static final int NUM_USERS = 60;
+  private static final int NUM_ITEMS = 40;
+
+  private DataModel dataModel;
+
+  @Before
+  public void setUp() throws Exception {
+    RandomUtils.useTestSeed();
+    dataModel = RandomDataModels.randomDataModel(11, NUM_USERS, NUM_ITEMS, 15, 15);
+  }
+
+  @Test
+  public void testUserBased() throws TasteException {
+    PearsonCorrelationSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    assertSameEstimates(new BatchUserBasedRecommender(dataModel, 
+        new NearestNUserNeighborhood(10, similarity, dataModel), similarity));
+  }
+
+  @Test
+  public void testItemBased() throws TasteException {
+    assertSameEstimates(new BatchItemBasedRecommender(dataModel, 
+        new PearsonCorrelationSimilarity(dataModel)));
+  }
+
+  @Test
+  public void testSVD() throws TasteException {
+    assertSameEstimates(new BatchSVDRecommender(dataModel, 
+        new RatingSGDFactorizer(dataModel, 5, 5)));
+  }
+
+  private void assertSameEstimates(Recommender recommender) throws TasteException {
+    // all items, including unknown ones and ones the user rated
+    long[] itemIDs = new long[NUM_ITEMS + 2];
+    for (int i = 0; i < itemIDs.length; i++) {
+      itemIDs[i] = i;
+    }
+    float[] estimates = new float[itemIDs.length];
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      ((BatchPreferenceEstimator) recommender).estimatePreferences(userID, itemIDs, itemIDs.length,
+          estimates);
+      for (int i = 0; i < NUM_ITEMS; i++) {
+        assertEquals(recommender.estimatePreference(userID, itemIDs[i]), estimates[i], 0);
+      }
+      assertEquals(Float.NaN, estimates[NUM_ITEMS], 0);
+    }
+  }
+
+}
@@ -0,0 +1,586 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * Computes the top-n recommendations of every user of a recommender's data model and writes them
+ * to a file. The users are split over a {@link ForkJoinPool}, in tasks of {@value #LEAF_USERS}
+ * users.
+ * </p><p>
+ * If the recommender is a {@link BatchPreferenceEstimator}, the job does not call
+ * {@link Recommender#recommend(long, int)}: it estimates the user's candidate items in blocks of
+ * {@value #BLOCK_ITEMS} and keeps the best n in a heap of primitive arrays. The heap, the blocks
+ * and the other scratch arrays belong to the thread and are reused for every user. Items whose
+ * estimate is NaN are left out, as {@code recommend} leaves them out.
+ * </p><p>
+ * For a {@link BatchUserBasedRecommender} the candidates are the items of the user's neighbors,
+ * as for {@code recommend}, and the neighborhood is computed once per user. For other recommenders
+ * they are all items the user has not rated, found by merging the user's sorted items against
+ * all items. {@code recommend} asks its
+ * {@link org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy} instead, which by default
+ * collects the items of every user who shares an item with the user; on ml-100k that costs far
+ * more than estimating all items. For item-based recommenders the result is the same, since an
+ * item that is not a candidate has no similarity with the user's items. A latent factor model can
+ * also recommend items outside the candidates. Items with the same estimate are ordered by
+ * ascending item ID. Recommenders that are not a {@code BatchPreferenceEstimator} are asked for
+ * their recommendations one user at a time.
+ * </p><p>
+ * Each task encodes its users into a buffer of {@value #CHUNK_BYTES} bytes and hands full buffers
+ * to a writer thread through a bounded queue. There are only twice as many buffers as threads,
+ * so if the disk is slower than the recommender, tasks wait for a buffer to come back instead of
+ * filling the heap.
+ * </p><p>
+ * File layout, big-endian: a header of 16 bytes (int magic, int version, int n, int reserved),
+ * then per user a long user ID, an int count, and count times a long item ID and a float value,
+ * best first. Users are not in ID order; {@link #read(File)} loads a file back.
+ * </p>
+ */
+public final class BatchRecommendationJob {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchRecommendationJob.class);
+
+  public static final int MAGIC = 0x4D524543; // "MREC"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 16;
+
+  static final int LEAF_USERS = 64;
+  static final int BLOCK_ITEMS = 512;
+  static final int CHUNK_BYTES = 64 * 1024;
+
+  private final Recommender recommender;
+  private final int howMany;
+  private final int parallelism;
+  private final boolean batch;
+  private long numUsers;
+  private long numRecommendations;
+  private long nanos;
+
+  /**
+   * @param parallelism number of threads; smaller than 1 means one per processor
+   */
+  public BatchRecommendationJob(Recommender recommender, int howMany, int parallelism) {
+    this(recommender, howMany, parallelism, true);
+  }
+
+  /**
+   * @param useBatchEstimates false to call {@code recommend} even if the recommender is a
+   *  {@link BatchPreferenceEstimator}
+   */
+  public BatchRecommendationJob(Recommender recommender, int howMany, int parallelism,
+      boolean useBatchEstimates) {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    this.recommender = Preconditions.checkNotNull(recommender);
+    this.howMany = howMany;
+    this.parallelism = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+    this.batch = useBatchEstimates && recommender instanceof BatchPreferenceEstimator;
+  }
+
+  /**
+   * Recommends to every user and writes the recommendations to the file.
+   */
+  public void run(File file) throws TasteException, IOException {
+    DataModel dataModel = recommender.getDataModel();
+    long[] userIDs = ids(dataModel.getUserIDs(), dataModel.getNumUsers());
+    long[] itemIDs = null;
+    if (batch) {
+      itemIDs = ids(dataModel.getItemIDs(), dataModel.getNumItems());
+      Arrays.sort(itemIDs);
+    }
+    int bufferSize = Math.max(CHUNK_BYTES, 12 + 12 * howMany);
+    BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(2 * parallelism);
+    for (int i = 0; i < 2 * parallelism; i++) {
+      free.add(ByteBuffer.allocate(bufferSize));
+    }
+    BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(2 * parallelism + 1);
+    AtomicLong recommendations = new AtomicLong();
+
+    long start = System.nanoTime();
+    OutputStream out = new FileOutputStream(file);
+    boolean threw = true;
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(howMany).putInt(0);
+      out.write(header.array());
+      Writer writer = new Writer(out, free, full);
+      writer.start();
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(new Task(new Shared(userIDs, itemIDs, free, full, recommendations), 0,
+            userIDs.length));
+      } catch (TaskException te) {
+        throw te.getCause();
+      } finally {
+        // after a failure, invoke returns while other tasks may still run; they are stopped and
+        // waited for before the writer stops taking buffers, or they could wait for one forever
+        pool.shutdownNow();
+        awaitTermination(pool);
+        writer.finish();
+      }
+      if (writer.failure != null) {
+        throw writer.failure;
+      }
+      threw = false;
+    } finally {
+      Closeables.close(out, threw);
+    }
+    nanos = System.nanoTime() - start;
+    numUsers = userIDs.length;
+    numRecommendations = recommendations.get();
+    log.info("Wrote {} recommendations for {} users in {} ms, {} users/s",
+        new Object[] {numRecommendations, numUsers, nanos / 1000000,
+                      (long) getUsersPerSecond()});
+  }
+
+  public Recommender getRecommender() {
+    return recommender;
+  }
+
+  /**
+   * Whether the job scores the candidates with the recommender's batch estimates, instead of
+   * calling {@code recommend}; the two may score different items, see the class comment.
+   */
+  public boolean usesBatchEstimates() {
+    return batch;
+  }
+
+  /** Number of users of the last run. */
+  public long getNumUsers() {
+    return numUsers;
+  }
+
+  /** Number of recommendations written in the last run. */
+  public long getNumRecommendations() {
+    return numRecommendations;
+  }
+
+  public long getMillis() {
+    return nanos / 1000000;
+  }
+
+  public double getUsersPerSecond() {
+    return nanos == 0 ? Double.NaN : numUsers * 1.0e9 / nanos;
+  }
+
+  /** All recommendations in a file written by {@link #run(File)}, by user. */
+  public static FastByIDMap<List<RecommendedItem>> read(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      Preconditions.checkArgument(in.readInt() == MAGIC, "Not a recommendations file: " + file);
+      int version = in.readInt();
+      Preconditions.checkArgument(version == VERSION, "Unsupported version " + version);
+      in.readInt();
+      in.readInt();
+      FastByIDMap<List<RecommendedItem>> recommendations = new FastByIDMap<List<RecommendedItem>>();
+      while (in.available() > 0) {
+        long userID = in.readLong();
+        int count = in.readInt();
+        List<RecommendedItem> items = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+          items.add(new GenericRecommendedItem(in.readLong(), in.readFloat()));
+        }
+        recommendations.put(userID, items);
+      }
+      return recommendations;
+    } finally {
+      Closeables.close(in, true);
+    }
+  }
+
+  private static long[] ids(LongPrimitiveIterator it, int size) {
+    long[] ids = new long[size];
+    int i = 0;
+    while (it.hasNext() && i < size) {
+      ids[i++] = it.nextLong();
+    }
+    return i == size ? ids : Arrays.copyOf(ids, i);
+  }
+
+  @Override
+  public String toString() {
+    return "BatchRecommendationJob[howMany:" + howMany + ", parallelism:" + parallelism
+        + ", recommender:" + recommender + ']';
+  }
+
+  /** What all tasks of one run share. */
+  private static final class Shared {
+
+    final long[] userIDs;
+    // all items in ascending order, or null to call recommend
+    final long[] itemIDs;
+    final BlockingQueue<ByteBuffer> free;
+    final BlockingQueue<ByteBuffer> full;
+    final AtomicLong recommendations;
+
+    Shared(long[] userIDs, long[] itemIDs, BlockingQueue<ByteBuffer> free,
+        BlockingQueue<ByteBuffer> full, AtomicLong recommendations) {
+      this.userIDs = userIDs;
+      this.itemIDs = itemIDs;
+      this.free = free;
+      this.full = full;
+      this.recommendations = recommendations;
+    }
+
+  }
+
+  /** Carries a checked exception out of a task. */
+  private static final class TaskException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    TaskException(TasteException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized TasteException getCause() {
+      return (TasteException) super.getCause();
+    }
+
+  }
+
+  /** The users from {@code from} to {@code to}, split in halves down to LEAF_USERS. */
+  private final class Task extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Shared shared;
+    private final int from;
+    private final int to;
+
+    Task(Shared shared, int from, int to) {
+      this.shared = shared;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > LEAF_USERS) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new Task(shared, from, middle), new Task(shared, middle, to));
+        return;
+      }
+      Scratch scratch = scratches.get();
+      ByteBuffer buffer = take(shared.free);
+      try {
+        for (int u = from; u < to; u++) {
+          long userID = shared.userIDs[u];
+          int count = shared.itemIDs == null
+              ? recommend(userID, scratch) : estimate(userID, shared.itemIDs, scratch);
+          if (buffer.remaining() < 12 + 12 * count) {
+            put(shared.full, buffer);
+            // the writer owns it now, even if the take fails
+            buffer = null;
+            buffer = take(shared.free);
+          }
+          buffer.putLong(userID).putInt(count);
+          for (int i = 0; i < count; i++) {
+            buffer.putLong(scratch.resultItems[i]).putFloat(scratch.resultValues[i]);
+          }
+          shared.recommendations.addAndGet(count);
+        }
+      } catch (TasteException te) {
+        throw new TaskException(te);
+      } finally {
+        // also after a failure, so that the other tasks do not run out of buffers; the queue has
+        // room for all buffers, so this does not block, even when the thread is interrupted
+        if (buffer != null) {
+          shared.full.offer(buffer);
+        }
+      }
+    }
+
+    private int recommend(long userID, Scratch scratch) throws TasteException {
+      List<RecommendedItem> items = recommender.recommend(userID, howMany);
+      int count = Math.min(items.size(), howMany);
+      for (int i = 0; i < count; i++) {
+        scratch.resultItems[i] = items.get(i).getItemID();
+        scratch.resultValues[i] = items.get(i).getValue();
+      }
+      return count;
+    }
+
+    /** Estimates the candidate items of the user, and keeps the best in the heap. */
+    private int estimate(long userID, long[] itemIDs, Scratch scratch) throws TasteException {
+      long[] candidates = scratch.candidates;
+      int numCandidates = 0;
+      long[] theNeighborhood = null;
+      BatchUserBasedRecommender userBased = null;
+      if (recommender instanceof BatchUserBasedRecommender) {
+        // once per user, not once per block
+        userBased = (BatchUserBasedRecommender) recommender;
+        theNeighborhood = userBased.getNeighborhood(userID);
+        LongPrimitiveIterator it =
+            userBased.getNeighborhoodItems(userID, theNeighborhood).iterator();
+        while (it.hasNext()) {
+          candidates[numCandidates++] = it.nextLong();
+        }
+      } else {
+        PreferenceArray prefs = recommender.getDataModel().getPreferencesFromUser(userID);
+        int numRated = prefs.length();
+        long[] rated = scratch.rated(numRated);
+        for (int i = 0; i < numRated; i++) {
+          rated[i] = prefs.getItemID(i);
+        }
+        Arrays.sort(rated, 0, numRated);
+        int r = 0;
+        for (long itemID : itemIDs) {
+          while (r < numRated && rated[r] < itemID) {
+            r++;
+          }
+          if (r == numRated || rated[r] != itemID) {
+            candidates[numCandidates++] = itemID;
+          }
+        }
+      }
+      BatchPreferenceEstimator estimator = (BatchPreferenceEstimator) recommender;
+      long[] block = scratch.blockItems;
+      float[] estimates = scratch.blockEstimates;
+      int size = 0;
+      for (int from = 0; from < numCandidates; from += BLOCK_ITEMS) {
+        int blockSize = Math.min(BLOCK_ITEMS, numCandidates - from);
+        System.arraycopy(candidates, from, block, 0, blockSize);
+        if (userBased != null) {
+          userBased.estimateUnrated(userID, theNeighborhood, block, blockSize, estimates);
+        } else {
+          estimator.estimatePreferences(userID, block, blockSize, estimates);
+        }
+        for (int b = 0; b < blockSize; b++) {
+          float value = estimates[b];
+          if (Float.isNaN(value)) {
+            continue;
+          }
+          if (size < howMany) {
+            scratch.siftUp(size++, block[b], value);
+          } else if (isBetter(value, block[b], scratch.heapValues[0], scratch.heapItems[0])) {
+            scratch.siftDown(size, block[b], value);
+          }
+        }
+      }
+      int count = size;
+      while (size > 0) {
+        scratch.resultItems[--size] = scratch.heapItems[0];
+        scratch.resultValues[size] = scratch.heapValues[0];
+        scratch.siftDown(size, scratch.heapItems[size], scratch.heapValues[size]);
+      }
+      return count;
+    }
+
+  }
+
+  private final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      try {
+        return new Scratch(howMany, recommender.getDataModel().getNumItems());
+      } catch (TasteException te) {
+        throw new TaskException(te);
+      }
+    }
+  };
+
+  /** Higher value first, lower item ID first among equal values. */
+  static boolean isBetter(float value, long itemID, float otherValue, long otherItemID) {
+    return value > otherValue || (value == otherValue && itemID < otherItemID);
+  }
+
+  /** The arrays a thread reuses for every user. */
+  private static final class Scratch {
+
+    final long[] blockItems = new long[BLOCK_ITEMS];
+    final float[] blockEstimates = new float[BLOCK_ITEMS];
+    // min-heap on the order of isBetter, the worst of the best at the root
+    final long[] heapItems;
+    final float[] heapValues;
+    final long[] resultItems;
+    final float[] resultValues;
+    final long[] candidates;
+    private long[] rated = new long[64];
+
+    Scratch(int howMany, int numItems) {
+      heapItems = new long[howMany];
+      heapValues = new float[howMany];
+      resultItems = new long[howMany];
+      resultValues = new float[howMany];
+      candidates = new long[numItems];
+    }
+
+    long[] rated(int size) {
+      if (rated.length < size) {
+        rated = new long[Math.max(size, 2 * rated.length)];
+      }
+      return rated;
+    }
+
+    void siftUp(int position, long itemID, float value) {
+      while (position > 0) {
+        int parent = (position - 1) >>> 1;
+        if (!isBetter(heapValues[parent], heapItems[parent], value, itemID)) {
+          break;
+        }
+        heapItems[position] = heapItems[parent];
+        heapValues[position] = heapValues[parent];
+        position = parent;
+      }
+      heapItems[position] = itemID;
+      heapValues[position] = value;
+    }
+
+    /** Replaces the root by the given element and restores the heap of the given size. */
+    void siftDown(int size, long itemID, float value) {
+      int position = 0;
+      while (true) {
+        int child = 2 * position + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size
+            && isBetter(heapValues[child], heapItems[child], heapValues[child + 1],
+                heapItems[child + 1])) {
+          child++;
+        }
+        if (!isBetter(value, itemID, heapValues[child], heapItems[child])) {
+          break;
+        }
+        heapItems[position] = heapItems[child];
+        heapValues[position] = heapValues[child];
+        position = child;
+      }
+      if (size > 0) {
+        heapItems[position] = itemID;
+        heapValues[position] = value;
+      }
+    }
+
+  }
+
+  private static void awaitTermination(ForkJoinPool pool) {
+    try {
+      while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+        log.info("Waiting for the tasks to stop");
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ByteBuffer take(BlockingQueue<ByteBuffer> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ie);
+    }
+  }
+
+  private static void put(BlockingQueue<ByteBuffer> queue, ByteBuffer buffer) {
+    try {
+      queue.put(buffer);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ie);
+    }
+  }
+
+  /**
+   * Writes the buffers of the full queue in the order they come, and gives them back to the
+   * free queue.
+   */
+  private static final class Writer extends Thread {
+
+    // an empty buffer that is not part of the pool, put last
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final OutputStream out;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> full;
+    volatile IOException failure;
+
+    Writer(OutputStream out, BlockingQueue<ByteBuffer> free, BlockingQueue<ByteBuffer> full) {
+      super("BatchRecommendationJob writer");
+      setDaemon(true);
+      this.out = out;
+      this.free = free;
+      this.full = full;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        ByteBuffer buffer = take(full);
+        if (buffer == END) {
+          return;
+        }
+        if (failure == null) {
+          try {
+            out.write(buffer.array(), 0, buffer.position());
+          } catch (IOException ioe) {
+            // keep taking buffers, so that the tasks do not wait forever
+            failure = ioe;
+          }
+        }
+        buffer.clear();
+        put(free, buffer);
+      }
+    }
+
+    void finish() {
+      put(full, END);
+      try {
+        join();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,195 @@
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.svd.BatchSVDRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.svd.RatingSGDFactorizer;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class BatchRecommendationJobTest
+{
+
+  private static final int NUM_USERS = 300;
+  private static final int NUM_ITEMS = 700;
+  private static final int HOW_MANY = 10;
+
+  private DataModel dataModel;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    RandomUtils.useTestSeed();
+    // more items than a block, and values with few decimals, so that there are ties
+    dataModel = RandomDataModels.randomDataModel(5, NUM_USERS, NUM_ITEMS, 20, 20);
+  }
+
+  @Test
+  public void testBestUnratedItems() throws Exception
+  {
+    Recommender recommender = new BatchSVDRecommender(dataModel, 
+        new RatingSGDFactorizer(dataModel, 5, 5));
+    BatchRecommendationJob job = new BatchRecommendationJob(recommender, HOW_MANY, 3);
+    FastByIDMap<List<RecommendedItem>> written = run(job);
+    assertEquals(NUM_USERS, job.getNumUsers());
+    assertEquals(NUM_USERS, written.size());
+    assertEquals(NUM_USERS * HOW_MANY, job.getNumRecommendations());
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      List<Float> expected = Lists.newArrayList();
+      LongPrimitiveIterator items = dataModel.getItemIDs();
+      while (items.hasNext()) {
+        long itemID = items.nextLong();
+        if (dataModel.getPreferenceValue(userID, itemID) == null) {
+          expected.add(recommender.estimatePreference(userID, itemID));
+        }
+      }
+      Collections.sort(expected, Collections.reverseOrder());
+      List<RecommendedItem> actual = written.get(userID);
+      assertEquals(HOW_MANY, actual.size());
+      for (int i = 0; i < HOW_MANY; i++) {
+        RecommendedItem item = actual.get(i);
+        assertEquals(expected.get(i), item.getValue(), 0.0f);
+        assertNull(dataModel.getPreferenceValue(userID, item.getItemID()));
+      }
+    }
+  }
+
+  @Test
+  public void testBatchAndRecommendAgree() throws Exception
+  {
+    PearsonCorrelationSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    assertBatchAndRecommendAgree(new BatchItemBasedRecommender(dataModel, similarity));
+    assertBatchAndRecommendAgree(new BatchUserBasedRecommender(dataModel, 
+        new NearestNUserNeighborhood(10, similarity, dataModel), similarity));
+  }
+
+  private void assertBatchAndRecommendAgree(Recommender recommender) throws Exception
+  {
+    FastByIDMap<List<RecommendedItem>> batch = 
+        run(new BatchRecommendationJob(recommender, HOW_MANY, 4, true));
+    FastByIDMap<List<RecommendedItem>> oneByOne = 
+        run(new BatchRecommendationJob(recommender, HOW_MANY, 4, false));
+    assertEquals(oneByOne.size(), batch.size());
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      List<RecommendedItem> expected = oneByOne.get(userID);
+      List<RecommendedItem> actual = batch.get(userID);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), 0.0f);
+        if (i > 0) {
+          // best first, ties by item ID
+          RecommendedItem previous = actual.get(i - 1);
+          assertTrue(BatchRecommendationJob.isBetter(previous.getValue(), previous.getItemID(), 
+              actual.get(i).getValue(), actual.get(i).getItemID()));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFailureStopsAllTasks() throws Exception
+  {
+    final Recommender delegate = new ItemAverageRecommender(dataModel);
+    Recommender failing = new Recommender() {
+      @Override
+      public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException
+      {
+        return recommend(userID, howMany, null);
+      }
+
+      @Override
+      public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer)
+        throws TasteException
+      {
+        try {
+          // slow, so that the other tasks have started and still run when user 0 fails
+          Thread.sleep(userID == 0 ? 100 : 5);
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+        if (userID == 0) {
+          throw new TasteException("user 0");
+        }
+        return delegate.recommend(userID, howMany, rescorer);
+      }
+
+      @Override
+      public float estimatePreference(long userID, long itemID) throws TasteException
+      {
+        return delegate.estimatePreference(userID, itemID);
+      }
+
+      @Override
+      public void setPreference(long userID, long itemID, float value)
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void removePreference(long userID, long itemID)
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public DataModel getDataModel()
+      {
+        return dataModel;
+      }
+
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed)
+      {
+      }
+    };
+    try {
+      run(new BatchRecommendationJob(failing, HOW_MANY, 4));
+      fail();
+    } catch (TasteException te) {
+      assertEquals("user 0", te.getMessage());
+    }
+    // no task and no writer is left behind
+    String inner = BatchRecommendationJob.class.getName() + '$';
+    for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+      for (StackTraceElement element : stack) {
+        assertFalse(element.getClassName().startsWith(inner));
+      }
+    }
+  }
+
+  private static FastByIDMap<List<RecommendedItem>> run(BatchRecommendationJob job) 
+    throws Exception
+  {
+    File file = File.createTempFile("recommendations", ".bin");
+    try {
+      job.run(file);
+      return BatchRecommendationJob.read(file);
+    } finally {
+      file.delete();
+    }
+  }
+
+}
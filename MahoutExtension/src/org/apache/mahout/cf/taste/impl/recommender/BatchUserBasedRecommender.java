@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+/**
+ * A {@link GenericUserBasedRecommender} that computes the user's neighborhood once for all items in
+ * a batch, instead of once per estimated preference.
+ */
+public class BatchUserBasedRecommender extends GenericUserBasedRecommender 
+    implements BatchPreferenceEstimator {
+
+  private final UserNeighborhood neighborhood;
+
+  public BatchUserBasedRecommender(DataModel dataModel,
+                                   UserNeighborhood neighborhood,
+                                   UserSimilarity similarity) {
+    super(dataModel, neighborhood, similarity);
+    this.neighborhood = neighborhood;
+  }
+
+  @Override
+  public void estimatePreferences(long userID, long[] itemIDs, int count, float[] estimates)
+    throws TasteException {
+    DataModel model = getDataModel();
+    long[] theNeighborhood = null;
+    for (int i = 0; i < count; i++) {
+      long itemID = itemIDs[i];
+      Float actualPref = model.getPreferenceValue(userID, itemID);
+      if (actualPref != null) {
+        estimates[i] = actualPref;
+        continue;
+      }
+      if (theNeighborhood == null) {
+        theNeighborhood = neighborhood.getUserNeighborhood(userID);
+      }
+      try {
+        estimates[i] = doEstimatePreference(userID, theNeighborhood, itemID);
+      } catch (NoSuchItemException nsie) {
+        estimates[i] = Float.NaN;
+      }
+    }
+  }
+
+  long[] getNeighborhood(long userID) throws TasteException {
+    return neighborhood.getUserNeighborhood(userID);
+  }
+
+  /**
+   * The items {@link #recommend(long, int)} considers: those of the user's neighbors that the user
+   * has not rated.
+   */
+  FastIDSet getNeighborhoodItems(long userID, long[] theNeighborhood) throws TasteException {
+    DataModel model = getDataModel();
+    FastIDSet items = new FastIDSet();
+    for (long neighborID : theNeighborhood) {
+      items.addAll(model.getItemIDsFromUser(neighborID));
+    }
+    items.removeAll(model.getItemIDsFromUser(userID));
+    return items;
+  }
+
+  /**
+   * Like {@link #estimatePreferences(long, long[], int, float[])} for items the user has not
+   * rated, with a neighborhood the caller already has.
+   */
+  void estimateUnrated(long userID, long[] theNeighborhood, long[] itemIDs, int count,
+      float[] estimates) throws TasteException {
+    for (int i = 0; i < count; i++) {
+      try {
+        estimates[i] = doEstimatePreference(userID, theNeighborhood, itemIDs[i]);
+      } catch (NoSuchItemException nsie) {
+        estimates[i] = Float.NaN;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Batch" + super.toString();
+  }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.recommender.BatchPreferenceEstimator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An {@link SVDRecommender} that looks up the user's feature vector once for all items in a batch.
+ * </p><p>
+ * {@link SVDRecommender} is final and keeps its {@link Factorization} private, so this class
+ * delegates to one and gets hold of every factorization it trains through the
+ * {@link PersistenceStrategy} it hands to it.
+ * </p>
+ */
+public final class BatchSVDRecommender implements Recommender, BatchPreferenceEstimator {
+
+  private final SVDRecommender delegate;
+  private volatile Factorization factorization;
+
+  public BatchSVDRecommender(DataModel dataModel, Factorizer factorizer) throws TasteException {
+    this(dataModel, factorizer, new NoPersistenceStrategy());
+  }
+
+  public BatchSVDRecommender(DataModel dataModel, Factorizer factorizer, 
+      PersistenceStrategy persistenceStrategy) throws TasteException {
+    delegate = new SVDRecommender(dataModel, factorizer, 
+        new CapturingPersistenceStrategy(Preconditions.checkNotNull(persistenceStrategy)));
+  }
+
+  @Override
+  public void estimatePreferences(long userID, long[] itemIDs, int count, float[] estimates)
+    throws TasteException {
+    Factorization current = factorization;
+    double[] userFeatures = current.getUserFeatures(userID);
+    if (current instanceof QuantizedFactorization) {
+      // decode the user once and every item on the fly
+      QuantizedFactorization quantized = (QuantizedFactorization) current;
+      for (int i = 0; i < count; i++) {
+        try {
+          estimates[i] = (float) quantized.dot(userFeatures, quantized.itemIndex(itemIDs[i]));
+        } catch (NoSuchItemException nsie) {
+          estimates[i] = Float.NaN;
+        }
+      }
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      double[] itemFeatures;
+      try {
+        itemFeatures = current.getItemFeatures(itemIDs[i]);
+      } catch (NoSuchItemException nsie) {
+        estimates[i] = Float.NaN;
+        continue;
+      }
+      double estimate = 0;
+      for (int feature = 0; feature < userFeatures.length; feature++) {
+        estimate += userFeatures[feature] * itemFeatures[feature];
+      }
+      estimates[i] = (float) estimate;
+    }
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    return delegate.recommend(userID, howMany);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    return delegate.recommend(userID, howMany, rescorer);
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    return delegate.estimatePreference(userID, itemID);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    delegate.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    delegate.removePreference(userID, itemID);
+  }
+
+  @Override
+  public DataModel getDataModel() {
+    return delegate.getDataModel();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    delegate.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "BatchSVDRecommender";
+  }
+
+  /**
+   * Remembers the factorization that was loaded or trained last, then delegates.
+   */
+  private final class CapturingPersistenceStrategy implements PersistenceStrategy {
+
+    private final PersistenceStrategy persistenceStrategy;
+
+    CapturingPersistenceStrategy(PersistenceStrategy persistenceStrategy) {
+      this.persistenceStrategy = persistenceStrategy;
+    }
+
+    @Override
+    public Factorization load() throws IOException {
+      Factorization loaded = persistenceStrategy.load();
+      if (loaded != null) {
+        factorization = loaded;
+      }
+      return loaded;
+    }
+
+    @Override
+    public void maybePersist(Factorization trained) throws IOException {
+      factorization = trained;
+      persistenceStrategy.maybePersist(trained);
+    }
+
+  }
+
+}
@@ -0,0 +1,412 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Trains the same biased matrix factorization as {@link RatingSGDFactorizer}, with the same
+ * update rule and defaults, on several threads at once. The preferences are copied into three
+ * primitive arrays (user index, item index, value) and shuffled once; the factors are flat
+ * {@code double} arrays that all threads update without locks. Two schedules are available:
+ * </p>
+ * <ul>
+ * <li>{@link Schedule#HOGWILD}: every thread walks its own slice of the preferences. Two threads
+ * can update the same user or item at the same time, and then one of the updates may be lost;
+ * with sparse preferences that is rare enough not to hurt convergence (Niu et al., 2011).</li>
+ * <li>{@link Schedule#STRATIFIED}: users and items are split in as many blocks as there are
+ * threads, and every epoch runs through the strata of the block matrix in as many steps: in each
+ * step the threads train blocks that have no user and no item in common (Gemulla et al., 2011).
+ * No update is lost, and the result depends only on the seed, not on the timing of the threads.
+ * </li>
+ * </ul>
+ * <p>
+ * With one thread both schedules are plain SGD over the shuffled preferences. The time and the
+ * training RMSE of every epoch are logged and kept, see {@link #getEpochMillis()} and
+ * {@link #getEpochRmse()}; the RMSE of an epoch is measured on the errors just before each update,
+ * so it costs nothing extra.
+ * </p>
+ */
+public final class ConcurrentSGDFactorizer extends AbstractFactorizer {
+
+  private static final Logger log = LoggerFactory.getLogger(ConcurrentSGDFactorizer.class);
+
+  public enum Schedule { HOGWILD, STRATIFIED }
+
+  // the layout of RatingSGDFactorizer: user [average, user bias, 1, features],
+  // item [1, 1, item bias, features]
+  static final int FEATURE_OFFSET = 3;
+  // relative to the learning rate and the regularization, as in RatingSGDFactorizer
+  private static final double BIAS_LEARNING_RATE = 0.5;
+  private static final double BIAS_REGULARIZATION = 0.1;
+
+  private final DataModel dataModel;
+  private final int numFeatures;
+  private final double learningRate;
+  private final double regularization;
+  private final double randomNoise;
+  private final int numEpochs;
+  private final double learningRateDecay;
+  private final int numThreads;
+  private final Schedule schedule;
+  private final long seed;
+  private volatile long[] epochMillis = new long[0];
+  private volatile double[] epochRmse = new double[0];
+
+  /**
+   * One thread per processor, {@link Schedule#HOGWILD}, and the defaults of
+   * {@link RatingSGDFactorizer}.
+   */
+  public ConcurrentSGDFactorizer(DataModel dataModel, int numFeatures, int numEpochs)
+    throws TasteException {
+    this(dataModel, numFeatures, numEpochs, Schedule.HOGWILD);
+  }
+
+  /**
+   * One thread per processor and the defaults of {@link RatingSGDFactorizer}.
+   */
+  public ConcurrentSGDFactorizer(DataModel dataModel, int numFeatures, int numEpochs,
+      Schedule schedule) throws TasteException {
+    this(dataModel, numFeatures, 0.01, 0.1, 0.01, numEpochs, 1.0,
+        Runtime.getRuntime().availableProcessors(), schedule, RandomUtils.getRandom().nextLong());
+  }
+
+  /**
+   * @param learningRate learning rate of the features; the biases learn at half this rate
+   * @param regularization regularization of the features; the biases get a tenth of it
+   * @param randomNoise standard deviation of the initial features
+   * @param learningRateDecay factor the learning rate is multiplied with after every epoch
+   * @param numThreads number of threads to train on
+   * @param seed seed of the shuffle, the initial features and the order of the strata
+   */
+  public ConcurrentSGDFactorizer(DataModel dataModel, int numFeatures, double learningRate,
+      double regularization, double randomNoise, int numEpochs, double learningRateDecay,
+      int numThreads, Schedule schedule, long seed) throws TasteException {
+    super(dataModel);
+    Preconditions.checkArgument(numFeatures >= 1, "numFeatures must be at least 1");
+    Preconditions.checkArgument(numEpochs >= 1, "numEpochs must be at least 1");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    this.dataModel = dataModel;
+    this.numFeatures = numFeatures;
+    this.learningRate = learningRate;
+    this.regularization = regularization;
+    this.randomNoise = randomNoise;
+    this.numEpochs = numEpochs;
+    this.learningRateDecay = learningRateDecay;
+    this.numThreads = numThreads;
+    this.schedule = Preconditions.checkNotNull(schedule);
+    this.seed = seed;
+  }
+
+  @Override
+  public Factorization factorize() throws TasteException {
+    Random random = new Random(seed);
+    Model model = new Model(dataModel.getNumUsers(), dataModel.getNumItems());
+    int numPrefs = model.load();
+    model.shuffle(random);
+    model.initialize(random);
+
+    // slices of the preferences: one per thread for HOGWILD, one per stratum for STRATIFIED
+    int[] bounds;
+    if (schedule == Schedule.STRATIFIED) {
+      bounds = model.stratify(numThreads);
+    } else {
+      bounds = new int[numThreads + 1];
+      for (int t = 0; t <= numThreads; t++) {
+        bounds[t] = (int) ((long) numPrefs * t / numThreads);
+      }
+    }
+
+    long[] millis = new long[numEpochs];
+    double[] rmse = new double[numEpochs];
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      double rate = learningRate;
+      for (int epoch = 0; epoch < numEpochs; epoch++) {
+        long start = System.nanoTime();
+        double squaredError = 0.0;
+        if (schedule == Schedule.STRATIFIED) {
+          int[] steps = permutation(numThreads, random);
+          for (int step : steps) {
+            List<Callable<Double>> tasks = Lists.newArrayListWithCapacity(numThreads);
+            for (int t = 0; t < numThreads; t++) {
+              int stratum = t * numThreads + (t + step) % numThreads;
+              tasks.add(model.task(bounds[stratum], bounds[stratum + 1], rate));
+            }
+            squaredError += invokeAll(executor, tasks);
+          }
+        } else {
+          List<Callable<Double>> tasks = Lists.newArrayListWithCapacity(numThreads);
+          for (int t = 0; t < numThreads; t++) {
+            tasks.add(model.task(bounds[t], bounds[t + 1], rate));
+          }
+          squaredError += invokeAll(executor, tasks);
+        }
+        millis[epoch] = (System.nanoTime() - start) / 1000000;
+        rmse[epoch] = Math.sqrt(squaredError / numPrefs);
+        log.info("Epoch {} of {}: {} ms, training RMSE {}",
+            new Object[] {epoch + 1, numEpochs, millis[epoch], rmse[epoch]});
+        rate *= learningRateDecay;
+      }
+    } finally {
+      executor.shutdown();
+    }
+    epochMillis = millis;
+    epochRmse = rmse;
+    return model.toFactorization();
+  }
+
+  /** Milliseconds per epoch of the last factorization. */
+  public long[] getEpochMillis() {
+    return epochMillis.clone();
+  }
+
+  /** Training RMSE per epoch of the last factorization, see the class comment. */
+  public double[] getEpochRmse() {
+    return epochRmse.clone();
+  }
+
+  private static double invokeAll(ExecutorService executor, List<Callable<Double>> tasks)
+    throws TasteException {
+    double sum = 0.0;
+    try {
+      for (Future<Double> future : executor.invokeAll(tasks)) {
+        sum += future.get();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    }
+    return sum;
+  }
+
+  private static int[] permutation(int n, Random random) {
+    int[] permutation = new int[n];
+    for (int i = 0; i < n; i++) {
+      permutation[i] = i;
+    }
+    for (int i = n - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = permutation[i];
+      permutation[i] = permutation[j];
+      permutation[j] = swap;
+    }
+    return permutation;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentSGDFactorizer[features:" + numFeatures + ", epochs:" + numEpochs
+        + ", threads:" + numThreads + ", schedule:" + schedule + ']';
+  }
+
+  /** The preferences and the parameters of one factorization. */
+  private final class Model {
+
+    private final int numUsers;
+    private final int numItems;
+    private int[] users;
+    private int[] items;
+    private float[] values;
+    private double average;
+    private final double[] userFeatures;
+    private final double[] itemFeatures;
+    private final double[] userBiases;
+    private final double[] itemBiases;
+
+    Model(int numUsers, int numItems) {
+      this.numUsers = numUsers;
+      this.numItems = numItems;
+      userFeatures = new double[numUsers * numFeatures];
+      itemFeatures = new double[numItems * numFeatures];
+      userBiases = new double[numUsers];
+      itemBiases = new double[numItems];
+    }
+
+    /** Copies the preferences of the data model into the arrays, returns their number. */
+    int load() throws TasteException {
+      int numPrefs = 0;
+      LongPrimitiveIterator it = dataModel.getUserIDs();
+      while (it.hasNext()) {
+        numPrefs += dataModel.getPreferencesFromUser(it.nextLong()).length();
+      }
+      users = new int[numPrefs];
+      items = new int[numPrefs];
+      values = new float[numPrefs];
+      double sum = 0.0;
+      int n = 0;
+      it = dataModel.getUserIDs();
+      while (it.hasNext()) {
+        long userID = it.nextLong();
+        int user = userIndex(userID);
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        int size = prefs.length();
+        for (int i = 0; i < size; i++) {
+          users[n] = user;
+          items[n] = itemIndex(prefs.getItemID(i));
+          values[n] = prefs.getValue(i);
+          sum += values[n];
+          n++;
+        }
+      }
+      average = numPrefs == 0 ? 0.0 : sum / numPrefs;
+      return numPrefs;
+    }
+
+    void shuffle(Random random) {
+      for (int i = values.length - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int user = users[i];
+        users[i] = users[j];
+        users[j] = user;
+        int item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        float value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+      }
+    }
+
+    void initialize(Random random) {
+      for (int i = 0; i < userFeatures.length; i++) {
+        userFeatures[i] = random.nextGaussian() * randomNoise;
+      }
+      for (int i = 0; i < itemFeatures.length; i++) {
+        itemFeatures[i] = random.nextGaussian() * randomNoise;
+      }
+    }
+
+    /**
+     * Sorts the preferences by stratum (user index modulo blocks, item index modulo blocks),
+     * keeping the shuffled order within a stratum, and returns where each stratum starts.
+     */
+    int[] stratify(int blocks) {
+      int numStrata = blocks * blocks;
+      int[] bounds = new int[numStrata + 1];
+      for (int n = 0; n < values.length; n++) {
+        bounds[stratum(n, blocks) + 1]++;
+      }
+      for (int s = 0; s < numStrata; s++) {
+        bounds[s + 1] += bounds[s];
+      }
+      int[] next = bounds.clone();
+      int[] sortedUsers = new int[values.length];
+      int[] sortedItems = new int[values.length];
+      float[] sortedValues = new float[values.length];
+      for (int n = 0; n < values.length; n++) {
+        int position = next[stratum(n, blocks)]++;
+        sortedUsers[position] = users[n];
+        sortedItems[position] = items[n];
+        sortedValues[position] = values[n];
+      }
+      users = sortedUsers;
+      items = sortedItems;
+      values = sortedValues;
+      return bounds;
+    }
+
+    private int stratum(int n, int blocks) {
+      return (users[n] % blocks) * blocks + items[n] % blocks;
+    }
+
+    Callable<Double> task(final int from, final int to, final double rate) {
+      return new Callable<Double>() {
+        @Override
+        public Double call() {
+          return train(from, to, rate);
+        }
+      };
+    }
+
+    /**
+     * One SGD step per preference from {@code from} to {@code to}, with the update rule of
+     * {@link RatingSGDFactorizer}; returns the sum of the squared errors before the updates.
+     */
+    double train(int from, int to, double rate) {
+      int k = numFeatures;
+      double biasRate = BIAS_LEARNING_RATE * rate;
+      double biasRegularization = BIAS_REGULARIZATION * regularization;
+      double squaredError = 0.0;
+      for (int n = from; n < to; n++) {
+        int user = users[n];
+        int item = items[n];
+        int u = user * k;
+        int i = item * k;
+        double prediction = average + userBiases[user] + itemBiases[item];
+        for (int f = 0; f < k; f++) {
+          prediction += userFeatures[u + f] * itemFeatures[i + f];
+        }
+        double error = values[n] - prediction;
+        squaredError += error * error;
+        userBiases[user] += biasRate * (error - biasRegularization * userBiases[user]);
+        itemBiases[item] += biasRate * (error - biasRegularization * itemBiases[item]);
+        for (int f = 0; f < k; f++) {
+          double userFeature = userFeatures[u + f];
+          double itemFeature = itemFeatures[i + f];
+          userFeatures[u + f] += rate * (error * itemFeature - regularization * userFeature);
+          itemFeatures[i + f] += rate * (error * userFeature - regularization * itemFeature);
+        }
+      }
+      return squaredError;
+    }
+
+    Factorization toFactorization() {
+      double[][] userVectors = new double[numUsers][FEATURE_OFFSET + numFeatures];
+      for (int user = 0; user < numUsers; user++) {
+        double[] vector = userVectors[user];
+        vector[0] = average;
+        vector[1] = userBiases[user];
+        vector[2] = 1.0;
+        System.arraycopy(userFeatures, user * numFeatures, vector, FEATURE_OFFSET, numFeatures);
+      }
+      double[][] itemVectors = new double[numItems][FEATURE_OFFSET + numFeatures];
+      for (int item = 0; item < numItems; item++) {
+        double[] vector = itemVectors[item];
+        vector[0] = 1.0;
+        vector[1] = 1.0;
+        vector[2] = itemBiases[item];
+        System.arraycopy(itemFeatures, item * numFeatures, vector, FEATURE_OFFSET, numFeatures);
+      }
+      return createFactorization(userVectors, itemVectors);
+    }
+
+  }
+
+}
@@ -0,0 +1,118 @@
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.svd.ConcurrentSGDFactorizer.Schedule;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentSGDFactorizerTest
+{
+
+  private static final int NUM_USERS = 200;
+  private static final int NUM_ITEMS = 150;
+  private static final int NUM_EPOCHS = 20;
+
+  private DataModel dataModel;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    RandomUtils.useTestSeed();
+    // ratings of rank 2 plus noise, about a third of all pairs
+    Random random = new Random(3);
+    double[][] users = new double[NUM_USERS][2];
+    double[][] items = new double[NUM_ITEMS][2];
+    for (double[] vector : users) {
+      vector[0] = random.nextGaussian();
+      vector[1] = random.nextGaussian();
+    }
+    for (double[] vector : items) {
+      vector[0] = random.nextGaussian();
+      vector[1] = random.nextGaussian();
+    }
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(NUM_USERS);
+    for (int u = 0; u < NUM_USERS; u++) {
+      PreferenceArray prefs = new GenericUserPreferenceArray(NUM_ITEMS / 3);
+      prefs.setUserID(0, u);
+      int firstItem = random.nextInt(NUM_ITEMS);
+      for (int j = 0; j < prefs.length(); j++) {
+        int i = (firstItem + 3 * j) % NUM_ITEMS;
+        double value = 3 + users[u][0] * items[i][0] + users[u][1] * items[i][1];
+        prefs.setItemID(j, i);
+        prefs.setValue(j, (float) (value + 0.1 * random.nextGaussian()));
+      }
+      userData.put(u, prefs);
+    }
+    dataModel = new GenericDataModel(userData);
+  }
+
+  @Test
+  public void testConvergesLikeRatingSGD() throws Exception
+  {
+    double expected = rmse(new RatingSGDFactorizer(dataModel, 5, 0.01, 0.1, 0.01, NUM_EPOCHS, 1.0)
+        .factorize());
+    for (Schedule schedule : Schedule.values()) {
+      ConcurrentSGDFactorizer factorizer = new ConcurrentSGDFactorizer(dataModel, 5, 0.01, 0.1, 
+          0.01, NUM_EPOCHS, 1.0, 4, schedule, 17);
+      double actual = rmse(factorizer.factorize());
+      assertTrue(schedule + ": " + actual + " vs " + expected, actual < 1.05 * expected);
+      double[] epochRmse = factorizer.getEpochRmse();
+      assertEquals(NUM_EPOCHS, epochRmse.length);
+      assertEquals(NUM_EPOCHS, factorizer.getEpochMillis().length);
+      for (int epoch = 1; epoch < NUM_EPOCHS; epoch++) {
+        assertTrue(epochRmse[epoch] < epochRmse[epoch - 1]);
+      }
+    }
+  }
+
+  @Test
+  public void testStratifiedIsDeterministic() throws Exception
+  {
+    Factorization first = new ConcurrentSGDFactorizer(dataModel, 5, 0.01, 0.1, 0.01, 5, 1.0, 4, 
+        Schedule.STRATIFIED, 23).factorize();
+    Factorization second = new ConcurrentSGDFactorizer(dataModel, 5, 0.01, 0.1, 0.01, 5, 1.0, 4, 
+        Schedule.STRATIFIED, 23).factorize();
+    for (int u = 0; u < NUM_USERS; u++) {
+      assertArrayEquals(first.getUserFeatures(u), second.getUserFeatures(u), 0.0);
+    }
+    for (int i = 0; i < NUM_ITEMS; i++) {
+      assertArrayEquals(first.getItemFeatures(i), second.getItemFeatures(i), 0.0);
+    }
+  }
+
+  private double rmse(Factorization factorization) throws Exception
+  {
+    double sum = 0.0;
+    int count = 0;
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      double[] userFeatures = factorization.getUserFeatures(userID);
+      for (Preference pref : dataModel.getPreferencesFromUser(userID)) {
+        double[] itemFeatures = factorization.getItemFeatures(pref.getItemID());
+        double estimate = 0.0;
+        for (int f = 0; f < userFeatures.length; f++) {
+          estimate += userFeatures[f] * itemFeatures[f];
+        }
+        double error = pref.getValue() - estimate;
+        sum += error * error;
+        count++;
+      }
+    }
+    return Math.sqrt(sum / count);
+  }
+
+}
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A {@link Factorization} whose feature vectors are stored with fewer bits than doubles. Every
+ * vector is divided by the largest absolute value in it, its scale, and the results, which are in
+ * [-1, 1], are stored as:
+ * </p>
+ * <ul>
+ * <li>{@link Precision#FLOAT16}: IEEE half-precision floats, two bytes per feature and about three
+ * significant digits;</li>
+ * <li>{@link Precision#INT8}: bytes from -127 to 127, one byte per feature and an absolute error
+ * of at most 1/254 of the scale.</li>
+ * </ul>
+ * <p>
+ * Against eight bytes per feature this takes a quarter or an eighth of the memory, which mostly
+ * matters for the item vectors that every recommendation reads. {@link #getUserFeatures(long)} and
+ * {@link #getItemFeatures(long)} decode into a new array on every call, and so do
+ * {@link #allUserFeatures()} and {@link #allItemFeatures()} for all vectors at once;
+ * {@link #dot(double[], int)} computes an estimate without decoding into an array.
+ * </p>
+ */
+public final class QuantizedFactorization extends Factorization {
+
+  public enum Precision { FLOAT16, INT8 }
+
+  private final Precision precision;
+  private final int numFeatures;
+  private final int numUsers;
+  private final int numItems;
+  private final float[] userScales;
+  private final float[] itemScales;
+  // exactly one of each pair is used, depending on the precision
+  private final short[] userHalves;
+  private final short[] itemHalves;
+  private final byte[] userBytes;
+  private final byte[] itemBytes;
+
+  private QuantizedFactorization(FastByIDMap<Integer> userIDMapping,
+      FastByIDMap<Integer> itemIDMapping, double[][] userFeatures, double[][] itemFeatures,
+      Precision precision) {
+    super(userIDMapping, itemIDMapping, new double[0][], new double[0][]);
+    this.precision = precision;
+    numUsers = userFeatures.length;
+    numItems = itemFeatures.length;
+    numFeatures = numUsers > 0 ? userFeatures[0].length
+        : numItems > 0 ? itemFeatures[0].length : 0;
+    userScales = new float[numUsers];
+    itemScales = new float[numItems];
+    if (precision == Precision.FLOAT16) {
+      userHalves = new short[numUsers * numFeatures];
+      itemHalves = new short[numItems * numFeatures];
+      userBytes = null;
+      itemBytes = null;
+    } else {
+      userHalves = null;
+      itemHalves = null;
+      userBytes = new byte[numUsers * numFeatures];
+      itemBytes = new byte[numItems * numFeatures];
+    }
+    for (int u = 0; u < numUsers; u++) {
+      userScales[u] = encode(userFeatures[u], userHalves, userBytes, u * numFeatures);
+    }
+    for (int i = 0; i < numItems; i++) {
+      itemScales[i] = encode(itemFeatures[i], itemHalves, itemBytes, i * numFeatures);
+    }
+  }
+
+  /**
+   * Quantizes the feature vectors of a factorization.
+   */
+  public static QuantizedFactorization quantize(Factorization factorization, Precision precision) {
+    Preconditions.checkNotNull(precision);
+    return new QuantizedFactorization(mapping(factorization.getUserIDMappings()),
+        mapping(factorization.getItemIDMappings()), factorization.allUserFeatures(),
+        factorization.allItemFeatures(), precision);
+  }
+
+  private static FastByIDMap<Integer> mapping(Iterable<Map.Entry<Long,Integer>> entries) {
+    FastByIDMap<Integer> mapping = new FastByIDMap<Integer>();
+    for (Map.Entry<Long,Integer> entry : entries) {
+      mapping.put(entry.getKey(), entry.getValue());
+    }
+    return mapping;
+  }
+
+  /** Stores a vector at {@code offset}, and returns its scale. */
+  private float encode(double[] vector, short[] halves, byte[] bytes, int offset) {
+    double maxAbs = 0.0;
+    for (double value : vector) {
+      maxAbs = Math.max(maxAbs, Math.abs(value));
+    }
+    float scale = (float) maxAbs;
+    double factor = scale == 0.0f ? 0.0 : 1.0 / scale;
+    for (int f = 0; f < numFeatures; f++) {
+      double normalized = vector[f] * factor;
+      if (precision == Precision.FLOAT16) {
+        halves[offset + f] = toHalf((float) normalized);
+      } else {
+        bytes[offset + f] = (byte) Math.round(normalized * 127.0);
+      }
+    }
+    return scale;
+  }
+
+  private double[] decode(short[] halves, byte[] bytes, float scale, int offset) {
+    double[] vector = new double[numFeatures];
+    for (int f = 0; f < numFeatures; f++) {
+      vector[f] = scale * feature(halves, bytes, offset + f);
+    }
+    return vector;
+  }
+
+  private double feature(short[] halves, byte[] bytes, int position) {
+    return precision == Precision.FLOAT16 ? fromHalf(halves[position]) : bytes[position] / 127.0;
+  }
+
+  public Precision getPrecision() {
+    return precision;
+  }
+
+  @Override
+  public double[] getUserFeatures(long userID) throws NoSuchUserException {
+    int u = userIndex(userID);
+    return decode(userHalves, userBytes, userScales[u], u * numFeatures);
+  }
+
+  @Override
+  public double[] getItemFeatures(long itemID) throws NoSuchItemException {
+    int i = itemIndex(itemID);
+    return decode(itemHalves, itemBytes, itemScales[i], i * numFeatures);
+  }
+
+  @Override
+  public double[][] allUserFeatures() {
+    double[][] features = new double[numUsers][];
+    for (int u = 0; u < numUsers; u++) {
+      features[u] = decode(userHalves, userBytes, userScales[u], u * numFeatures);
+    }
+    return features;
+  }
+
+  @Override
+  public double[][] allItemFeatures() {
+    double[][] features = new double[numItems][];
+    for (int i = 0; i < numItems; i++) {
+      features[i] = decode(itemHalves, itemBytes, itemScales[i], i * numFeatures);
+    }
+    return features;
+  }
+
+  /**
+   * Dot product of a (decoded) user vector with the vector of the item with the given index, see
+   * {@link #itemIndex(long)}.
+   */
+  public double dot(double[] userFeatures, int itemIndex) {
+    int offset = itemIndex * numFeatures;
+    double sum = 0.0;
+    if (precision == Precision.FLOAT16) {
+      for (int f = 0; f < numFeatures; f++) {
+        sum += userFeatures[f] * fromHalf(itemHalves[offset + f]);
+      }
+    } else {
+      for (int f = 0; f < numFeatures; f++) {
+        sum += userFeatures[f] * itemBytes[offset + f];
+      }
+      sum /= 127.0;
+    }
+    return sum * itemScales[itemIndex];
+  }
+
+  @Override
+  public int numFeatures() {
+    return numFeatures;
+  }
+
+  /** Bytes taken by the feature vectors and their scales. */
+  public long getSizeInBytes() {
+    int bytesPerFeature = precision == Precision.FLOAT16 ? 2 : 1;
+    return (long) (numUsers + numItems) * (bytesPerFeature * numFeatures + 4);
+  }
+
+  /** Bytes the same feature vectors take as doubles. */
+  public long getPlainSizeInBytes() {
+    return (long) (numUsers + numItems) * 8 * numFeatures;
+  }
+
+  /**
+   * The half-precision float nearest to a float, rounding half to even; values too large become
+   * infinite, values too small become zero or subnormal.
+   */
+  static short toHalf(float value) {
+    int bits = Float.floatToIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int exponent = (bits >>> 23) & 0xFF;
+    int mantissa = bits & 0x7FFFFF;
+    if (exponent == 0xFF) {
+      return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+    }
+    int halfExponent = exponent - 127 + 15;
+    if (halfExponent >= 0x1F) {
+      return (short) (sign | 0x7C00);
+    }
+    if (halfExponent <= 0) {
+      if (halfExponent < -10) {
+        return (short) sign;
+      }
+      // subnormal: shift the mantissa with its implicit leading one into place
+      mantissa |= 0x800000;
+      int shift = 14 - halfExponent;
+      int half = mantissa >> shift;
+      int rest = mantissa & ((1 << shift) - 1);
+      int halfway = 1 << (shift - 1);
+      if (rest > halfway || (rest == halfway && (half & 1) != 0)) {
+        half++;
+      }
+      return (short) (sign | half);
+    }
+    int half = (halfExponent << 10) | (mantissa >> 13);
+    int rest = mantissa & 0x1FFF;
+    if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) {
+      // may carry into the exponent, which is still right, up to infinity
+      half++;
+    }
+    return (short) (sign | half);
+  }
+
+  static float fromHalf(short half) {
+    int sign = (half & 0x8000) << 16;
+    int exponent = (half >>> 10) & 0x1F;
+    int mantissa = half & 0x3FF;
+    if (exponent == 0x1F) {
+      return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+    }
+    if (exponent == 0) {
+      float value = mantissa * 0x1.0p-24f;
+      return sign == 0 ? value : -value;
+    }
+    return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+  }
+
+}
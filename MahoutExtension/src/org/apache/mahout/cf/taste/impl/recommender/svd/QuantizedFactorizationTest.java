@@ -0,0 +1,86 @@
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.recommender.svd.QuantizedFactorization.Precision;
+import org.junit.Test;
+
+public class QuantizedFactorizationTest
+{
+
+  @Test
+  public void testHalfConversion()
+  {
+    // every half converts to a float and back unchanged, NaNs aside
+    for (int bits = 0; bits < 1 << 16; bits++) {
+      short half = (short) bits;
+      float value = QuantizedFactorization.fromHalf(half);
+      if (!Float.isNaN(value)) {
+        assertEquals(half, QuantizedFactorization.toHalf(value));
+      }
+    }
+    assertEquals(1.0f, QuantizedFactorization.fromHalf(QuantizedFactorization.toHalf(1.0f)), 0f);
+    assertEquals(Float.POSITIVE_INFINITY,
+        QuantizedFactorization.fromHalf(QuantizedFactorization.toHalf(1e6f)), 0f);
+    assertEquals(0.0f, QuantizedFactorization.fromHalf(QuantizedFactorization.toHalf(1e-9f)), 0f);
+    Random random = new Random(8);
+    for (int i = 0; i < 10000; i++) {
+      float value = (float) random.nextGaussian();
+      float rounded = QuantizedFactorization.fromHalf(QuantizedFactorization.toHalf(value));
+      assertEquals(value, rounded, Math.max(Math.abs(value) * 0x1.0p-11f, 0x1.0p-25f));
+    }
+  }
+
+  @Test
+  public void testQuantize() throws Exception
+  {
+    Random random = new Random(9);
+    int numFeatures = 10;
+    FastByIDMap<Integer> userIDs = new FastByIDMap<Integer>();
+    FastByIDMap<Integer> itemIDs = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[20][numFeatures];
+    double[][] itemFeatures = new double[30][numFeatures];
+    for (int u = 0; u < userFeatures.length; u++) {
+      userIDs.put(100 + u, u);
+      for (int f = 0; f < numFeatures; f++) {
+        userFeatures[u][f] = random.nextGaussian();
+      }
+    }
+    for (int i = 0; i < itemFeatures.length; i++) {
+      itemIDs.put(200 + i, i);
+      for (int f = 0; f < numFeatures; f++) {
+        itemFeatures[i][f] = random.nextGaussian();
+      }
+    }
+    Factorization factorization = new Factorization(userIDs, itemIDs, userFeatures, itemFeatures);
+
+    for (Precision precision : Precision.values()) {
+      QuantizedFactorization quantized = QuantizedFactorization.quantize(factorization, precision);
+      assertEquals(numFeatures, quantized.numFeatures());
+      assertEquals(precision == Precision.FLOAT16 ? 4 : 8,
+          quantized.getPlainSizeInBytes() / (quantized.getSizeInBytes() - 4 * 50), 0.01);
+      for (int i = 0; i < itemFeatures.length; i++) {
+        double[] expected = itemFeatures[i];
+        double[] actual = quantized.getItemFeatures(200 + i);
+        double maxAbs = 0;
+        for (double value : expected) {
+          maxAbs = Math.max(maxAbs, Math.abs(value));
+        }
+        double tolerance = precision == Precision.FLOAT16 ? maxAbs / 2048 : maxAbs / 254;
+        for (int f = 0; f < numFeatures; f++) {
+          assertEquals(expected[f], actual[f], tolerance + 1e-12);
+        }
+        double[] user = quantized.getUserFeatures(100 + i % userFeatures.length);
+        double dot = 0;
+        for (int f = 0; f < numFeatures; f++) {
+          dot += user[f] * actual[f];
+        }
+        assertEquals(dot, quantized.dot(user, quantized.itemIndex(200 + i)), 1e-9);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A {@link Factorizer} that quantizes the factorization of another one, see
+ * {@link QuantizedFactorization}. Training itself is not affected; only the result is stored with
+ * less precision.
+ * </p>
+ */
+public final class QuantizingFactorizer implements Factorizer {
+
+  private final Factorizer delegate;
+  private final QuantizedFactorization.Precision precision;
+  private volatile QuantizedFactorization lastFactorization;
+
+  public QuantizingFactorizer(Factorizer delegate, QuantizedFactorization.Precision precision) {
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.precision = Preconditions.checkNotNull(precision);
+  }
+
+  @Override
+  public Factorization factorize() throws TasteException {
+    QuantizedFactorization factorization =
+        QuantizedFactorization.quantize(delegate.factorize(), precision);
+    lastFactorization = factorization;
+    return factorization;
+  }
+
+  /** The factorization made last, or null if there is none yet. */
+  public QuantizedFactorization getLastFactorization() {
+    return lastFactorization;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    delegate.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "QuantizingFactorizer[precision:" + precision + ", delegate:" + delegate + ']';
+  }
+
+}
@@ -0,0 +1,438 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.IndexedDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Computes the similarity of every pair of users up front, on all cores, instead of pair by pair
+ * when they are asked for, as a {@link CachingUserSimilarity} around one of Mahout's similarities
+ * does. Afterwards {@link #userSimilarity(long, long)} is a lookup. The measures are those of
+ * Mahout, with the same results (up to the float they are stored in):
+ * </p>
+ * <ul>
+ * <li>{@link Measure#PEARSON}: as {@link PearsonCorrelationSimilarity}.</li>
+ * <li>{@link Measure#UNCENTERED_COSINE}: as {@link UncenteredCosineSimilarity}.</li>
+ * <li>{@link Measure#EUCLIDEAN}: as {@link EuclideanDistanceSimilarity}.</li>
+ * <li>{@link Measure#SPEARMAN}: as {@link SpearmanCorrelationSimilarity}, which ranks the common
+ * items of two users in the order in which Mahout sorts all items of each user by value.</li>
+ * </ul>
+ * <p>
+ * The sums over the common items of a user and all users with a lower number are gathered from an
+ * inverted index, the users of every item in ascending order, instead of by merging the two rows
+ * of every pair. To keep this cache-friendly, the users are cut into tiles of
+ * {@value #ROW_TILE} rows, one task per tile, and the other users into blocks of
+ * {@value #COLUMN_BLOCK}: the accumulators of a block fit in the L2 cache, and for every item a
+ * cursor remembers where its users of the current block start, so that the inverted index is read
+ * sequentially.
+ * </p><p>
+ * The similarities are kept as a triangular matrix of floats, 2 n<sup>2</sup> bytes for n users,
+ * which makes this a fit for data sets with up to some tens of thousands of users. Users the data
+ * model did not have when the matrix was computed have similarity NaN; {@link #refresh(Collection)}
+ * recomputes it. A data model whose matrix would take more than a given number of bytes, by default
+ * half of the maximum heap, is refused with a {@link TasteException} before anything is allocated;
+ * {@link #matrixBytes(int)} tells in advance whether a data set fits.
+ * </p>
+ */
+public final class AllPairsUserSimilarity implements UserSimilarity {
+
+  private static final Logger log = LoggerFactory.getLogger(AllPairsUserSimilarity.class);
+
+  public enum Measure { PEARSON, UNCENTERED_COSINE, EUCLIDEAN, SPEARMAN }
+
+  static final int ROW_TILE = 32;
+  static final int COLUMN_BLOCK = 1024;
+
+  private final DataModel dataModel;
+  private final Measure measure;
+  private final boolean weighted;
+  private final int numThreads;
+  private final long maxBytes;
+  private volatile IndexedDataModel index;
+  // rows[u][v] is the similarity of users u and v, for v <= u
+  private volatile float[][] rows;
+
+  public AllPairsUserSimilarity(DataModel dataModel, Measure measure) throws TasteException {
+    this(dataModel, measure, Weighting.UNWEIGHTED, 0);
+  }
+
+  /**
+   * @param numThreads number of threads; smaller than 1 means one per processor
+   */
+  public AllPairsUserSimilarity(DataModel dataModel, Measure measure, Weighting weighting,
+      int numThreads) throws TasteException {
+    this(dataModel, measure, weighting, numThreads, Runtime.getRuntime().maxMemory() / 2);
+  }
+
+  /**
+   * @param numThreads number of threads; smaller than 1 means one per processor
+   * @param maxBytes most bytes the similarity matrix may take, see {@link #matrixBytes(int)}
+   * @throws TasteException if the matrix of the users of the data model would take more
+   */
+  public AllPairsUserSimilarity(DataModel dataModel, Measure measure, Weighting weighting,
+      int numThreads, long maxBytes) throws TasteException {
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+    Preconditions.checkArgument(measure != Measure.SPEARMAN || weighting != Weighting.WEIGHTED,
+        "Spearman correlation is not weighted");
+    this.dataModel = Preconditions.checkNotNull(dataModel);
+    this.measure = Preconditions.checkNotNull(measure);
+    this.weighted = weighting == Weighting.WEIGHTED;
+    this.numThreads = numThreads < 1 ? Runtime.getRuntime().availableProcessors() : numThreads;
+    this.maxBytes = maxBytes;
+    compute();
+  }
+
+  /**
+   * Bytes of the similarity matrix of the given number of users: a float for every pair, and an
+   * array header for every row.
+   */
+  public static long matrixBytes(int numUsers) {
+    return 4L * numUsers * (numUsers + 1) / 2 + 16L * numUsers;
+  }
+
+  public Measure getMeasure() {
+    return measure;
+  }
+
+  private void compute() throws TasteException {
+    long start = System.nanoTime();
+    IndexedDataModel index = dataModel instanceof IndexedDataModel
+        ? (IndexedDataModel) dataModel : new IndexedDataModel(dataModel);
+    int numUsers = index.getNumUsers();
+    long bytes = matrixBytes(numUsers);
+    if (bytes > maxBytes) {
+      throw new TasteException("Similarities of " + numUsers + " users would take "
+          + (bytes >> 20) + " MB, more than the limit of " + (maxBytes >> 20) + " MB");
+    }
+    int[] valueOrder = measure == Measure.SPEARMAN ? valueOrder(index) : null;
+    float[][] rows = new float[numUsers][];
+    for (int u = 0; u < numUsers; u++) {
+      rows[u] = new float[u + 1];
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Void>> futures = Lists.newArrayList();
+      // the last tiles have the most pairs, so they go first
+      for (int from = (numUsers - 1) / ROW_TILE * ROW_TILE; from >= 0; from -= ROW_TILE) {
+        futures.add(executor.submit(new TileComputer(index, valueOrder, rows, from,
+            Math.min(numUsers, from + ROW_TILE))));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    this.index = index;
+    this.rows = rows;
+    log.info("Computed {} similarities of {} users in {} ms", new Object[] {
+        (long) numUsers * (numUsers + 1) / 2, numUsers, (System.nanoTime() - start) / 1000000});
+  }
+
+  /**
+   * For every preference, in the order of the user rows of the index, its position when the
+   * preferences of its user are sorted by value the way {@link SpearmanCorrelationSimilarity}
+   * sorts them.
+   */
+  private int[] valueOrder(IndexedDataModel index) throws TasteException {
+    int[] userOffsets = index.getUserOffsets();
+    int[] userItems = index.getUserItems();
+    int[] valueOrder = new int[userItems.length];
+    for (int u = 0; u < index.getNumUsers(); u++) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(index.userID(u)).clone();
+      prefs.sortByValue();
+      int start = userOffsets[u];
+      int end = userOffsets[u + 1];
+      for (int i = 0; i < prefs.length(); i++) {
+        int position = Arrays.binarySearch(userItems, start, end,
+            index.itemIndex(prefs.getItemID(i)));
+        valueOrder[position] = i;
+      }
+    }
+    return valueOrder;
+  }
+
+  @Override
+  public double userSimilarity(long userID1, long userID2) {
+    IndexedDataModel index = this.index;
+    int user1 = index.userIndex(userID1);
+    int user2 = index.userIndex(userID2);
+    if (user1 < 0 || user2 < 0) {
+      return Double.NaN;
+    }
+    return user1 >= user2 ? rows[user1][user2] : rows[user2][user1];
+  }
+
+  /**
+   * The similarities of users u and v <= u of a tile of users.
+   */
+  private final class TileComputer implements Callable<Void> {
+
+    private final int[] userOffsets;
+    private final int[] userItems;
+    private final float[] userValues;
+    private final int[] itemOffsets;
+    private final int[] itemUsers;
+    private final float[] itemValues;
+    private final int[] valueOrder;
+    private final float[][] rows;
+    private final int from;
+    private final int to;
+    private final int numItems;
+    private final int[] counts = new int[COLUMN_BLOCK];
+    private final double[] sumX;
+    private final double[] sumX2;
+    private final double[] sumY;
+    private final double[] sumY2;
+    private final double[] sumXY;
+    private final double[] sumXYdiff2;
+    // rank buffers for Spearman, grown as needed
+    private long[] orderU = new long[0];
+    private long[] orderV = new long[0];
+    private int[] rankU = new int[0];
+    private int[] rankV = new int[0];
+
+    TileComputer(IndexedDataModel index, int[] valueOrder, float[][] rows, int from, int to) {
+      userOffsets = index.getUserOffsets();
+      userItems = index.getUserItems();
+      userValues = index.getUserValues();
+      itemOffsets = index.getItemOffsets();
+      itemUsers = index.getItemUsers();
+      itemValues = index.getItemValues();
+      numItems = index.getNumItems();
+      this.valueOrder = valueOrder;
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+      boolean sums = measure == Measure.PEARSON || measure == Measure.UNCENTERED_COSINE;
+      sumX = sums ? new double[COLUMN_BLOCK] : null;
+      sumX2 = sums ? new double[COLUMN_BLOCK] : null;
+      sumY = sums ? new double[COLUMN_BLOCK] : null;
+      sumY2 = sums ? new double[COLUMN_BLOCK] : null;
+      sumXY = sums ? new double[COLUMN_BLOCK] : null;
+      sumXYdiff2 = measure == Measure.EUCLIDEAN ? new double[COLUMN_BLOCK] : null;
+    }
+
+    @Override
+    public Void call() {
+      // per item, where its users of the current block start
+      int[] cursors = Arrays.copyOf(itemOffsets, numItems);
+      for (int blockStart = 0; blockStart < to; blockStart += COLUMN_BLOCK) {
+        int blockEnd = Math.min(blockStart + COLUMN_BLOCK, to);
+        for (int u = Math.max(from, blockStart); u < to; u++) {
+          int end = Math.min(blockEnd, u + 1);
+          Arrays.fill(counts, 0, end - blockStart, 0);
+          if (measure == Measure.SPEARMAN) {
+            countCommon(u, end, blockStart, cursors);
+          } else if (measure == Measure.EUCLIDEAN) {
+            accumulateDistances(u, end, blockStart, cursors);
+          } else {
+            accumulateSums(u, end, blockStart, cursors);
+          }
+          float[] row = rows[u];
+          for (int v = blockStart; v < end; v++) {
+            row[v] = (float) result(u, v, v - blockStart);
+          }
+        }
+        for (int u = from; u < to; u++) {
+          for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+            int item = userItems[p];
+            int itemEnd = itemOffsets[item + 1];
+            int q = cursors[item];
+            while (q < itemEnd && itemUsers[q] < blockEnd) {
+              q++;
+            }
+            cursors[item] = q;
+          }
+        }
+      }
+      return null;
+    }
+
+    // in the three loops below, the sums of a pair are added up in the order of the items, as
+    // AbstractSimilarity does when it merges the two rows
+
+    private void countCommon(int u, int end, int blockStart, int[] cursors) {
+      for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+        int item = userItems[p];
+        int itemEnd = itemOffsets[item + 1];
+        for (int q = cursors[item]; q < itemEnd && itemUsers[q] < end; q++) {
+          counts[itemUsers[q] - blockStart]++;
+        }
+      }
+    }
+
+    private void accumulateDistances(int u, int end, int blockStart, int[] cursors) {
+      Arrays.fill(sumXYdiff2, 0, end - blockStart, 0.0);
+      for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+        int item = userItems[p];
+        double x = userValues[p];
+        int itemEnd = itemOffsets[item + 1];
+        for (int q = cursors[item]; q < itemEnd && itemUsers[q] < end; q++) {
+          int k = itemUsers[q] - blockStart;
+          double diff = x - itemValues[q];
+          sumXYdiff2[k] += diff * diff;
+          counts[k]++;
+        }
+      }
+    }
+
+    private void accumulateSums(int u, int end, int blockStart, int[] cursors) {
+      int size = end - blockStart;
+      Arrays.fill(sumX, 0, size, 0.0);
+      Arrays.fill(sumX2, 0, size, 0.0);
+      Arrays.fill(sumY, 0, size, 0.0);
+      Arrays.fill(sumY2, 0, size, 0.0);
+      Arrays.fill(sumXY, 0, size, 0.0);
+      for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+        int item = userItems[p];
+        double x = userValues[p];
+        int itemEnd = itemOffsets[item + 1];
+        for (int q = cursors[item]; q < itemEnd && itemUsers[q] < end; q++) {
+          int k = itemUsers[q] - blockStart;
+          double y = itemValues[q];
+          sumXY[k] += x * y;
+          sumX[k] += x;
+          sumX2[k] += x * x;
+          sumY[k] += y;
+          sumY2[k] += y * y;
+          counts[k]++;
+        }
+      }
+    }
+
+    private double result(int u, int v, int k) {
+      int count = counts[k];
+      if (count == 0) {
+        return Double.NaN;
+      }
+      switch (measure) {
+        case PEARSON:
+          return IndexedCorrelationSimilarity.result(IndexedCorrelationSimilarity.Measure.PEARSON,
+              weighted, count, sumX[k], sumX2[k], sumY[k], sumY2[k], sumXY[k], 0.0, numItems);
+        case UNCENTERED_COSINE:
+          return IndexedCorrelationSimilarity.result(
+              IndexedCorrelationSimilarity.Measure.UNCENTERED_COSINE, weighted, count, sumX[k],
+              sumX2[k], sumY[k], sumY2[k], sumXY[k], 0.0, numItems);
+        case EUCLIDEAN:
+          return IndexedCorrelationSimilarity.result(
+              IndexedCorrelationSimilarity.Measure.EUCLIDEAN, weighted, count, 0.0, 0.0, 0.0, 0.0,
+              0.0, sumXYdiff2[k], numItems);
+        default:
+          return spearman(u, v, count);
+      }
+    }
+
+    /**
+     * Ranks the common items of u and v by the value order of each user, and correlates the
+     * ranks.
+     */
+    private double spearman(int u, int v, int count) {
+      if (count <= 1 || userOffsets[u + 1] - userOffsets[u] <= 1
+          || userOffsets[v + 1] - userOffsets[v] <= 1) {
+        return Double.NaN;
+      }
+      if (orderU.length < count) {
+        orderU = new long[count];
+        orderV = new long[count];
+        rankU = new int[count];
+        rankV = new int[count];
+      }
+      int i = userOffsets[u];
+      int endU = userOffsets[u + 1];
+      int j = userOffsets[v];
+      int endV = userOffsets[v + 1];
+      int n = 0;
+      while (i < endU && j < endV) {
+        if (userItems[i] < userItems[j]) {
+          i++;
+        } else if (userItems[i] > userItems[j]) {
+          j++;
+        } else {
+          orderU[n] = (long) valueOrder[i++] << 32 | n;
+          orderV[n] = (long) valueOrder[j++] << 32 | n;
+          n++;
+        }
+      }
+      Arrays.sort(orderU, 0, count);
+      Arrays.sort(orderV, 0, count);
+      for (int r = 0; r < count; r++) {
+        rankU[(int) orderU[r]] = r + 1;
+        rankV[(int) orderV[r]] = r + 1;
+      }
+      double sumXYRankDiff2 = 0.0;
+      for (int c = 0; c < count; c++) {
+        double diff = rankU[c] - rankV[c];
+        sumXYRankDiff2 += diff * diff;
+      }
+      return 1.0 - 6.0 * sumXYRankDiff2 / (count * ((double) count * count - 1));
+    }
+  }
+
+  @Override
+  public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    alreadyRefreshed = RefreshHelper.buildRefreshed(alreadyRefreshed);
+    RefreshHelper.maybeRefresh(alreadyRefreshed, dataModel);
+    try {
+      compute();
+    } catch (TasteException te) {
+      log.warn("Could not recompute similarities", te);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AllPairsUserSimilarity[measure:" + measure + ", weighted:" + weighted + ", dataModel:"
+        + dataModel + ']';
+  }
+
+}
@@ -0,0 +1,74 @@
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+public class AllPairsUserSimilarityTest
+{
+
+  @Test
+  public void testMatchesMahout() throws Exception
+  {
+    // more users than one column block, so that the cursors move on
+    DataModel dataModel = RandomDataModels.randomDataModel(17,
+        AllPairsUserSimilarity.COLUMN_BLOCK + 150, 120, 1, 30);
+    assertSame(dataModel, new PearsonCorrelationSimilarity(dataModel),
+        new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.PEARSON));
+    assertSame(dataModel, new PearsonCorrelationSimilarity(dataModel, Weighting.WEIGHTED),
+        new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.PEARSON,
+            Weighting.WEIGHTED, 3));
+    assertSame(dataModel, new UncenteredCosineSimilarity(dataModel),
+        new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.UNCENTERED_COSINE));
+    assertSame(dataModel, new EuclideanDistanceSimilarity(dataModel),
+        new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.EUCLIDEAN));
+    assertSame(dataModel, new SpearmanCorrelationSimilarity(dataModel),
+        new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.SPEARMAN));
+  }
+
+  @Test
+  public void testUnknownUser() throws Exception
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(17, 10, 20, 1, 20);
+    UserSimilarity similarity =
+        new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.EUCLIDEAN);
+    assertTrue(Double.isNaN(similarity.userSimilarity(0, 1000)));
+  }
+
+  @Test(expected = TasteException.class)
+  public void testRefusesMatrixOverLimit() throws Exception
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(17, 100, 20, 1, 20);
+    long bytes = AllPairsUserSimilarity.matrixBytes(100);
+    new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.PEARSON,
+        Weighting.UNWEIGHTED, 1, bytes);
+    new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.PEARSON,
+        Weighting.UNWEIGHTED, 1, bytes - 1);
+  }
+
+  private static void assertSame(DataModel dataModel, UserSimilarity expected,
+      UserSimilarity actual) throws Exception
+  {
+    Random random = new Random(3);
+    int numUsers = dataModel.getNumUsers();
+    for (int n = 0; n < 20000; n++) {
+      long user1 = random.nextInt(numUsers);
+      long user2 = random.nextInt(numUsers);
+      double value = expected.userSimilarity(user1, user2);
+      if (Double.isNaN(value)) {
+        assertTrue(Double.isNaN(actual.userSimilarity(user1, user2)));
+      } else {
+        assertEquals(value, actual.userSimilarity(user1, user2), 1.0e-6);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.CompressedBitmap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.BitSetDataModel;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.math.stats.LogLikelihood;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * User and item similarity on the bitmaps of a {@link BitSetDataModel}, computed from nothing but
+ * the sizes of two sets and of their intersection:
+ * </p>
+ * <ul>
+ * <li>{@link Measure#TANIMOTO}: intersection / union, as {@link TanimotoCoefficientSimilarity}.</li>
+ * <li>{@link Measure#LOG_LIKELIHOOD}: 1 - 1 / (1 + log-likelihood ratio) of the 2x2 contingency
+ * table, as {@link LogLikelihoodSimilarity}.</li>
+ * </ul>
+ * <p>
+ * The results are the same as those of the Mahout classes, NaN included when the sets have
+ * nothing in common. The intersection is counted with
+ * {@link CompressedBitmap#intersectionSize(CompressedBitmap)}, without building a
+ * {@link FastIDSet} per user or looking up IDs.
+ * </p>
+ */
+public final class BitSetSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+
+  public enum Measure { TANIMOTO, LOG_LIKELIHOOD }
+
+  private final BitSetDataModel dataModel;
+  private final Measure measure;
+
+  public BitSetSimilarity(BitSetDataModel dataModel, Measure measure) {
+    super(dataModel);
+    this.dataModel = dataModel;
+    this.measure = Preconditions.checkNotNull(measure);
+  }
+
+  public Measure getMeasure() {
+    return measure;
+  }
+
+  @Override
+  public double userSimilarity(long userID1, long userID2) throws TasteException {
+    CompressedBitmap items1 = dataModel.getItemBitmap(userID1);
+    CompressedBitmap items2 = dataModel.getItemBitmap(userID2);
+    if (measure == Measure.TANIMOTO) {
+      if (items1.isEmpty() && items2.isEmpty()) {
+        return Double.NaN;
+      }
+      if (items1.isEmpty() || items2.isEmpty()) {
+        return 0.0;
+      }
+    }
+    return similarity(items1, items2, dataModel.getNumItems());
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+    return similarity(dataModel.getUserBitmap(itemID1), dataModel.getUserBitmap(itemID2),
+        dataModel.getNumUsers());
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    CompressedBitmap users1 = dataModel.getUserBitmap(itemID1);
+    int numUsers = dataModel.getNumUsers();
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      result[i] = similarity(users1, dataModel.getUserBitmap(itemID2s[i]), numUsers);
+    }
+    return result;
+  }
+
+  private double similarity(CompressedBitmap set1, CompressedBitmap set2, int total) {
+    int intersection = set1.intersectionSize(set2);
+    if (intersection == 0) {
+      return Double.NaN;
+    }
+    long size1 = set1.cardinality();
+    long size2 = set2.cardinality();
+    if (measure == Measure.TANIMOTO) {
+      return (double) intersection / (size1 + size2 - intersection);
+    }
+    double logLikelihood = LogLikelihood.logLikelihoodRatio(intersection, size2 - intersection,
+        size1 - intersection, total - size1 - size2 + intersection);
+    return 1.0 - 1.0 / (1.0 + logLikelihood);
+  }
+
+  /**
+   * Every item that shares a user with the given one, which are exactly the items with a
+   * similarity other than NaN.
+   */
+  @Override
+  public long[] allSimilarItemIDs(long itemID) throws TasteException {
+    FastIDSet result = new FastIDSet();
+    for (int user : dataModel.getUserBitmap(itemID).toArray()) {
+      for (int item : dataModel.getItemBitmap(dataModel.getUserID(user)).toArray()) {
+        result.add(dataModel.getItemID(item));
+      }
+    }
+    return result.toArray();
+  }
+
+  @Override
+  public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // the data model is immutable
+  }
+
+  @Override
+  public String toString() {
+    return "BitSetSimilarity[measure:" + measure + ", dataModel:" + dataModel + ']';
+  }
+
+}
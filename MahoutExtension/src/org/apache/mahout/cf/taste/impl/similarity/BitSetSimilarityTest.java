@@ -0,0 +1,72 @@
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.BitSetDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.BitSetSimilarity.Measure;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class BitSetSimilarityTest
+{
+
+  private static final double EPSILON = 1e-12;
+
+  @Test
+  public void testSameAsMahout() throws Exception
+  {
+    Random random = new Random(5);
+    FastByIDMap<FastIDSet> userData = new FastByIDMap<FastIDSet>();
+    for (int u = 0; u < 100; u++) {
+      FastIDSet items = new FastIDSet();
+      int n = random.nextInt(25);
+      for (int i = 0; i < n; i++) {
+        items.add(10 + random.nextInt(60));
+      }
+      userData.put(100 + u, items);
+    }
+    DataModel generic = new GenericBooleanPrefDataModel(userData);
+    BitSetDataModel bitSet = new BitSetDataModel(generic);
+    assertEquals(generic.getNumUsers(), bitSet.getNumUsers());
+    assertEquals(generic.getNumItems(), bitSet.getNumItems());
+
+    TanimotoCoefficientSimilarity tanimoto = new TanimotoCoefficientSimilarity(generic);
+    LogLikelihoodSimilarity logLikelihood = new LogLikelihoodSimilarity(generic);
+    BitSetSimilarity bitSetTanimoto = new BitSetSimilarity(bitSet, Measure.TANIMOTO);
+    BitSetSimilarity bitSetLogLikelihood = new BitSetSimilarity(bitSet, Measure.LOG_LIKELIHOOD);
+    for (int u1 = 100; u1 < 200; u1++) {
+      long[] expected = generic.getItemIDsFromUser(u1).toArray();
+      Arrays.sort(expected);
+      assertArrayEquals(expected, bitSet.getPreferencesFromUser(u1).getIDs());
+      for (int u2 = 100; u2 < 200; u2 += 7) {
+        assertEquals(tanimoto.userSimilarity(u1, u2), bitSetTanimoto.userSimilarity(u1, u2),
+            EPSILON);
+        assertEquals(logLikelihood.userSimilarity(u1, u2),
+            bitSetLogLikelihood.userSimilarity(u1, u2), EPSILON);
+      }
+    }
+    long[] itemIDs = new long[bitSet.getNumItems()];
+    for (int i = 0; i < itemIDs.length; i++) {
+      itemIDs[i] = bitSet.getItemID(i);
+    }
+    for (long itemID : itemIDs) {
+      assertArrayEquals(tanimoto.itemSimilarities(itemID, itemIDs),
+          bitSetTanimoto.itemSimilarities(itemID, itemIDs), EPSILON);
+      assertArrayEquals(logLikelihood.itemSimilarities(itemID, itemIDs),
+          bitSetLogLikelihood.itemSimilarities(itemID, itemIDs), EPSILON);
+      long[] expected = tanimoto.allSimilarItemIDs(itemID);
+      long[] actual = bitSetTanimoto.allSimilarItemIDs(itemID);
+      Arrays.sort(expected);
+      Arrays.sort(actual);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+}
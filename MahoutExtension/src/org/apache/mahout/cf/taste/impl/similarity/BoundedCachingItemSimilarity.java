@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.BoundedSimilarityCache;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Caches the similarities of another {@link ItemSimilarity}, like {@link CachingItemSimilarity},
+ * but in a {@link BoundedSimilarityCache}: within a byte budget instead of a number of entries,
+ * with W-TinyLFU instead of LRU eviction, and with hit, miss and eviction counts.
+ * </p>
+ */
+public final class BoundedCachingItemSimilarity
+    implements ItemSimilarity, BoundedSimilarityCache.Loader {
+
+  private final ItemSimilarity similarity;
+  private final BoundedSimilarityCache cache;
+  private final RefreshHelper refreshHelper;
+
+  public BoundedCachingItemSimilarity(ItemSimilarity similarity, long maxBytes) {
+    this(similarity, new BoundedSimilarityCache(maxBytes));
+  }
+
+  public BoundedCachingItemSimilarity(ItemSimilarity similarity, BoundedSimilarityCache cache) {
+    this.similarity = Preconditions.checkNotNull(similarity);
+    this.cache = Preconditions.checkNotNull(cache);
+    this.refreshHelper = new RefreshHelper(null);
+    refreshHelper.addDependency(similarity);
+  }
+
+  public BoundedSimilarityCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+    return itemID1 < itemID2
+        ? cache.get(itemID1, itemID2, this) : cache.get(itemID2, itemID1, this);
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      result[i] = itemSimilarity(itemID1, itemID2s[i]);
+    }
+    return result;
+  }
+
+  @Override
+  public long[] allSimilarItemIDs(long itemID) throws TasteException {
+    return similarity.allSimilarItemIDs(itemID);
+  }
+
+  @Override
+  public double load(long itemID1, long itemID2) throws TasteException {
+    return similarity.itemSimilarity(itemID1, itemID2);
+  }
+
+  public void clearCacheForItem(long itemID) {
+    cache.removeKeysMatching(itemID);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    cache.clear();
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "BoundedCachingItemSimilarity[similarity:" + similarity + ", cache:" + cache + ']';
+  }
+
+}
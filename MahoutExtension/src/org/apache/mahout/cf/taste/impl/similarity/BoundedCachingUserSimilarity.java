@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.BoundedSimilarityCache;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Caches the similarities of another {@link UserSimilarity}, like {@link CachingUserSimilarity},
+ * but in a {@link BoundedSimilarityCache}: within a byte budget instead of a number of entries,
+ * with W-TinyLFU instead of LRU eviction, and with hit, miss and eviction counts.
+ * </p>
+ */
+public final class BoundedCachingUserSimilarity
+    implements UserSimilarity, BoundedSimilarityCache.Loader {
+
+  private final UserSimilarity similarity;
+  private final BoundedSimilarityCache cache;
+  private final RefreshHelper refreshHelper;
+
+  public BoundedCachingUserSimilarity(UserSimilarity similarity, long maxBytes) {
+    this(similarity, new BoundedSimilarityCache(maxBytes));
+  }
+
+  public BoundedCachingUserSimilarity(UserSimilarity similarity, BoundedSimilarityCache cache) {
+    this.similarity = Preconditions.checkNotNull(similarity);
+    this.cache = Preconditions.checkNotNull(cache);
+    this.refreshHelper = new RefreshHelper(null);
+    refreshHelper.addDependency(similarity);
+  }
+
+  public BoundedSimilarityCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public double userSimilarity(long userID1, long userID2) throws TasteException {
+    return userID1 < userID2
+        ? cache.get(userID1, userID2, this) : cache.get(userID2, userID1, this);
+  }
+
+  @Override
+  public double load(long userID1, long userID2) throws TasteException {
+    return similarity.userSimilarity(userID1, userID2);
+  }
+
+  @Override
+  public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+    cache.clear();
+    similarity.setPreferenceInferrer(inferrer);
+  }
+
+  public void clearCacheForUser(long userID) {
+    cache.removeKeysMatching(userID);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    cache.clear();
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "BoundedCachingUserSimilarity[similarity:" + similarity + ", cache:" + cache + ']';
+  }
+
+}
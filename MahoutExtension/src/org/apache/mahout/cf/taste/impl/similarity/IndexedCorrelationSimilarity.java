@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.model.IndexedDataModel;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * The correlation-based similarities of Mahout, on the flat arrays of an
+ * {@link IndexedDataModel}:
+ * </p>
+ * <ul>
+ * <li>{@link Measure#PEARSON}: as {@link PearsonCorrelationSimilarity}.</li>
+ * <li>{@link Measure#UNCENTERED_COSINE}: as {@link UncenteredCosineSimilarity}.</li>
+ * <li>{@link Measure#EUCLIDEAN}: as {@link EuclideanDistanceSimilarity}.</li>
+ * </ul>
+ * <p>
+ * Two users (or items) are compared by merging their rows of ascending item (or user) numbers, so
+ * a comparison does no hashing and allocates nothing. The methods that take numbers instead of IDs
+ * are for callers that have translated their IDs already, such as
+ * {@link org.apache.mahout.cf.taste.impl.neighborhood.IndexedNearestNUserNeighborhood}. Results
+ * are those of the Mahout classes without a {@link PreferenceInferrer}, weighting included.
+ * </p>
+ */
+public final class IndexedCorrelationSimilarity extends AbstractItemSimilarity
+    implements UserSimilarity {
+
+  public enum Measure { PEARSON, UNCENTERED_COSINE, EUCLIDEAN }
+
+  private final IndexedDataModel dataModel;
+  private final Measure measure;
+  private final boolean weighted;
+  private final int[] userOffsets;
+  private final int[] userItems;
+  private final float[] userValues;
+  private final int[] itemOffsets;
+  private final int[] itemUsers;
+  private final float[] itemValues;
+
+  public IndexedCorrelationSimilarity(IndexedDataModel dataModel, Measure measure) {
+    this(dataModel, measure, Weighting.UNWEIGHTED);
+  }
+
+  public IndexedCorrelationSimilarity(IndexedDataModel dataModel, Measure measure,
+      Weighting weighting) {
+    super(dataModel);
+    this.dataModel = dataModel;
+    this.measure = Preconditions.checkNotNull(measure);
+    this.weighted = weighting == Weighting.WEIGHTED;
+    userOffsets = dataModel.getUserOffsets();
+    userItems = dataModel.getUserItems();
+    userValues = dataModel.getUserValues();
+    itemOffsets = dataModel.getItemOffsets();
+    itemUsers = dataModel.getItemUsers();
+    itemValues = dataModel.getItemValues();
+  }
+
+  public Measure getMeasure() {
+    return measure;
+  }
+
+  public IndexedDataModel getIndexedDataModel() {
+    return dataModel;
+  }
+
+  @Override
+  public double userSimilarity(long userID1, long userID2) throws TasteException {
+    return userSimilarity(userIndex(userID1), userIndex(userID2));
+  }
+
+  private int userIndex(long userID) throws NoSuchUserException {
+    int index = dataModel.userIndex(userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return index;
+  }
+
+  private int itemIndex(long itemID) throws NoSuchItemException {
+    int index = dataModel.itemIndex(itemID);
+    if (index < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return index;
+  }
+
+  /** Similarity of two users, by their numbers in the data model. */
+  public double userSimilarity(int user1, int user2) {
+    return similarity(userOffsets, userItems, userValues, user1, user2, itemOffsets.length - 1);
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+    return itemSimilarity(itemIndex(itemID1), itemIndex(itemID2));
+  }
+
+  /** Similarity of two items, by their numbers in the data model. */
+  public double itemSimilarity(int item1, int item2) {
+    return similarity(itemOffsets, itemUsers, itemValues, item1, item2, userOffsets.length - 1);
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    int item1 = itemIndex(itemID1);
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      result[i] = itemSimilarity(item1, itemIndex(itemID2s[i]));
+    }
+    return result;
+  }
+
+  /**
+   * Merges rows {@code a} and {@code b}, and accumulates the sums the way
+   * {@link AbstractSimilarity} does, so that the results are identical.
+   */
+  private double similarity(int[] offsets, int[] indexes, float[] values, int a, int b,
+      int numOthers) {
+    int i = offsets[a];
+    int endA = offsets[a + 1];
+    int j = offsets[b];
+    int endB = offsets[b + 1];
+    if (i == endA || j == endB) {
+      return Double.NaN;
+    }
+    double sumX = 0.0;
+    double sumX2 = 0.0;
+    double sumY = 0.0;
+    double sumY2 = 0.0;
+    double sumXY = 0.0;
+    double sumXYdiff2 = 0.0;
+    int count = 0;
+    while (i < endA && j < endB) {
+      int indexA = indexes[i];
+      int indexB = indexes[j];
+      if (indexA < indexB) {
+        i++;
+      } else if (indexA > indexB) {
+        j++;
+      } else {
+        double x = values[i++];
+        double y = values[j++];
+        sumXY += x * y;
+        sumX += x;
+        sumX2 += x * x;
+        sumY += y;
+        sumY2 += y * y;
+        double diff = x - y;
+        sumXYdiff2 += diff * diff;
+        count++;
+      }
+    }
+    return result(measure, weighted, count, sumX, sumX2, sumY, sumY2, sumXY, sumXYdiff2,
+        numOthers);
+  }
+
+  /**
+   * The similarity from the sums over the co-rated elements, as {@link AbstractSimilarity}
+   * computes it.
+   *
+   * @param numOthers number of items for a user similarity, or of users for an item similarity
+   */
+  static double result(Measure measure, boolean weighted, int count, double sumX, double sumX2,
+      double sumY, double sumY2, double sumXY, double sumXYdiff2, int numOthers) {
+    double result;
+    if (measure == Measure.PEARSON) {
+      double meanX = sumX / count;
+      double meanY = sumY / count;
+      result = correlation(count, sumXY - meanY * sumX, sumX2 - meanX * sumX,
+          sumY2 - meanY * sumY);
+    } else if (measure == Measure.UNCENTERED_COSINE) {
+      result = correlation(count, sumXY, sumX2, sumY2);
+    } else {
+      result = 1.0 / (1.0 + Math.sqrt(sumXYdiff2) / Math.sqrt(count));
+    }
+    if (Double.isNaN(result)) {
+      return result;
+    }
+    if (weighted) {
+      double scaleFactor = 1.0 - (double) count / (double) (numOthers + 1);
+      if (result < 0.0) {
+        result = -1.0 + scaleFactor * (1.0 + result);
+      } else {
+        result = 1.0 - scaleFactor * (1.0 - result);
+      }
+    }
+    return Math.max(-1.0, Math.min(1.0, result));
+  }
+
+  private static double correlation(int count, double sumXY, double sumX2, double sumY2) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    double denominator = Math.sqrt(sumX2) * Math.sqrt(sumY2);
+    if (denominator == 0.0) {
+      return Double.NaN;
+    }
+    return sumXY / denominator;
+  }
+
+  @Override
+  public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // the data model is immutable
+  }
+
+  @Override
+  public String toString() {
+    return "IndexedCorrelationSimilarity[measure:" + measure + ", weighted:" + weighted
+        + ", dataModel:" + dataModel + ']';
+  }
+
+}
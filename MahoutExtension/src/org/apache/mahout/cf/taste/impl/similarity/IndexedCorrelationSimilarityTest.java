@@ -0,0 +1,116 @@
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.IndexedDataModel;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.neighborhood.IndexedNearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.similarity.IndexedCorrelationSimilarity.Measure;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+public class IndexedCorrelationSimilarityTest
+{
+
+  private static final double EPSILON = 1e-12;
+
+  /** Descending IDs with gaps, so that neither order nor index is the ID. */
+  private static DataModel randomDataModel(Random random)
+  {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (int u = 0; u < 80; u++) {
+      long userID = 500 - 3 * u;
+      PreferenceArray prefs =
+          RandomDataModels.randomPreferences(random, userID, 60, random.nextInt(20), 1.0);
+      for (int i = 0; i < prefs.length(); i++) {
+        prefs.setItemID(i, 1000 - 2 * prefs.getItemID(i));
+      }
+      userData.put(userID, prefs);
+    }
+    return new GenericDataModel(userData);
+  }
+
+  @Test
+  public void testSameAsMahout() throws Exception
+  {
+    DataModel generic = randomDataModel(new Random(11));
+    IndexedDataModel indexed = new IndexedDataModel(generic);
+    AbstractSimilarity[] expected = {
+      new PearsonCorrelationSimilarity(generic),
+      new PearsonCorrelationSimilarity(generic, Weighting.WEIGHTED),
+      new UncenteredCosineSimilarity(generic),
+      new EuclideanDistanceSimilarity(generic),
+      new EuclideanDistanceSimilarity(generic, Weighting.WEIGHTED),
+    };
+    IndexedCorrelationSimilarity[] actual = {
+      new IndexedCorrelationSimilarity(indexed, Measure.PEARSON),
+      new IndexedCorrelationSimilarity(indexed, Measure.PEARSON, Weighting.WEIGHTED),
+      new IndexedCorrelationSimilarity(indexed, Measure.UNCENTERED_COSINE),
+      new IndexedCorrelationSimilarity(indexed, Measure.EUCLIDEAN),
+      new IndexedCorrelationSimilarity(indexed, Measure.EUCLIDEAN, Weighting.WEIGHTED),
+    };
+    for (int s = 0; s < expected.length; s++) {
+      for (int u1 = 0; u1 < indexed.getNumUsers(); u1++) {
+        for (int u2 = 0; u2 < indexed.getNumUsers(); u2 += 3) {
+          long userID1 = indexed.userID(u1);
+          long userID2 = indexed.userID(u2);
+          assertEquals(expected[s].userSimilarity(userID1, userID2),
+              actual[s].userSimilarity(userID1, userID2), EPSILON);
+        }
+      }
+      for (int i1 = 0; i1 < indexed.getNumItems(); i1++) {
+        for (int i2 = 0; i2 < indexed.getNumItems(); i2 += 5) {
+          long itemID1 = indexed.itemID(i1);
+          long itemID2 = indexed.itemID(i2);
+          assertEquals(expected[s].itemSimilarity(itemID1, itemID2),
+              actual[s].itemSimilarity(itemID1, itemID2), EPSILON);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNeighborhood() throws Exception
+  {
+    DataModel generic = randomDataModel(new Random(12));
+    IndexedDataModel indexed = new IndexedDataModel(generic);
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(generic);
+    IndexedCorrelationSimilarity indexedSimilarity =
+        new IndexedCorrelationSimilarity(indexed, Measure.PEARSON);
+    NearestNUserNeighborhood expected = new NearestNUserNeighborhood(5, 0.1, similarity, generic);
+    IndexedNearestNUserNeighborhood actual =
+        new IndexedNearestNUserNeighborhood(5, 0.1, indexedSimilarity);
+    for (int u = 0; u < indexed.getNumUsers(); u++) {
+      long userID = indexed.userID(u);
+      // compare similarities rather than users, which may be tied
+      long[] expectedUsers = expected.getUserNeighborhood(userID);
+      long[] actualUsers = actual.getUserNeighborhood(userID);
+      assertEquals(expectedUsers.length, actualUsers.length);
+      double[] expectedSimilarities = new double[expectedUsers.length];
+      double[] actualSimilarities = new double[actualUsers.length];
+      for (int i = 0; i < expectedUsers.length; i++) {
+        expectedSimilarities[i] = similarity.userSimilarity(userID, expectedUsers[i]);
+        actualSimilarities[i] = similarity.userSimilarity(userID, actualUsers[i]);
+      }
+      Arrays.sort(expectedSimilarities);
+      for (int i = 1; i < actualSimilarities.length; i++) {
+        assertTrue(actualSimilarities[i - 1] >= actualSimilarities[i]);
+      }
+      Arrays.sort(actualSimilarities);
+      for (int i = 0; i < expectedSimilarities.length; i++) {
+        assertEquals(expectedSimilarities[i], actualSimilarities[i], EPSILON);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,348 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * The correlation-based similarities of Mahout, on a copy of the preferences of any
+ * {@link DataModel} in primitive arrays, one row of ascending IDs and one of values per user and
+ * per item. Two rows are compared by the loops of {@link SortedMergeKernels}, without the
+ * {@link PreferenceArray} calls and the branches of {@link AbstractSimilarity}:
+ * </p>
+ * <ul>
+ * <li>{@link Measure#PEARSON}: as {@link PearsonCorrelationSimilarity}.</li>
+ * <li>{@link Measure#UNCENTERED_COSINE}: as {@link UncenteredCosineSimilarity}.</li>
+ * <li>{@link Measure#EUCLIDEAN}: as {@link EuclideanDistanceSimilarity}.</li>
+ * <li>{@link Measure#SPEARMAN}: as {@link SpearmanCorrelationSimilarity}, for users only. The
+ * common items are ranked by their positions in the rows of both users sorted by value, which are
+ * computed once, instead of by sorting both rows for every pair.</li>
+ * </ul>
+ * <p>
+ * Results are those of the Mahout classes without a {@link PreferenceInferrer}, weighting
+ * included. The rows of users are copied when the similarity is created, those of items the first
+ * time an item similarity is asked for; {@link #refresh(Collection)} copies them again.
+ * </p>
+ */
+public final class MergeCorrelationSimilarity extends AbstractItemSimilarity
+    implements UserSimilarity {
+
+  private static final Logger log = LoggerFactory.getLogger(MergeCorrelationSimilarity.class);
+
+  public enum Measure { PEARSON, UNCENTERED_COSINE, EUCLIDEAN, SPEARMAN }
+
+  private final DataModel dataModel;
+  private final Measure measure;
+  private final boolean weighted;
+  private final RefreshHelper refreshHelper;
+  private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+    @Override
+    protected Buffers initialValue() {
+      return new Buffers();
+    }
+  };
+  private volatile Rows userRows;
+  private volatile Rows itemRows;
+
+  public MergeCorrelationSimilarity(DataModel dataModel, Measure measure) throws TasteException {
+    this(dataModel, measure, Weighting.UNWEIGHTED);
+  }
+
+  public MergeCorrelationSimilarity(DataModel dataModel, Measure measure, Weighting weighting)
+    throws TasteException {
+    super(dataModel);
+    Preconditions.checkArgument(measure != Measure.SPEARMAN || weighting != Weighting.WEIGHTED,
+        "Spearman correlation is not weighted");
+    this.dataModel = dataModel;
+    this.measure = Preconditions.checkNotNull(measure);
+    this.weighted = weighting == Weighting.WEIGHTED;
+    this.refreshHelper = new RefreshHelper(null);
+    refreshHelper.addDependency(dataModel);
+    userRows = userRows();
+  }
+
+  public Measure getMeasure() {
+    return measure;
+  }
+
+  @Override
+  public double userSimilarity(long userID1, long userID2) throws TasteException {
+    Rows rows = userRows;
+    int user1 = rows.index(userID1);
+    int user2 = rows.index(userID2);
+    if (user1 < 0) {
+      throw new NoSuchUserException(userID1);
+    }
+    if (user2 < 0) {
+      throw new NoSuchUserException(userID2);
+    }
+    if (measure == Measure.SPEARMAN) {
+      return spearman(rows, user1, user2);
+    }
+    return similarity(rows, user1, user2, rows.numOthers);
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+    Rows rows = itemRows();
+    return similarity(rows, itemIndex(rows, itemID1), itemIndex(rows, itemID2), rows.numOthers);
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    Rows rows = itemRows();
+    int item1 = itemIndex(rows, itemID1);
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      result[i] = similarity(rows, item1, itemIndex(rows, itemID2s[i]), rows.numOthers);
+    }
+    return result;
+  }
+
+  private static int itemIndex(Rows rows, long itemID) throws NoSuchItemException {
+    int index = rows.index(itemID);
+    if (index < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return index;
+  }
+
+  private double similarity(Rows rows, int a, int b, int numOthers) {
+    int fromA = rows.offsets[a];
+    int toA = rows.offsets[a + 1];
+    int fromB = rows.offsets[b];
+    int toB = rows.offsets[b + 1];
+    if (fromA == toA || fromB == toB) {
+      return Double.NaN;
+    }
+    double[] moments = buffers.get().moments;
+    int count = SortedMergeKernels.moments(rows.ids, rows.values, fromA, toA, rows.ids,
+        rows.values, fromB, toB, moments);
+    IndexedCorrelationSimilarity.Measure kind;
+    switch (measure) {
+      case PEARSON:
+        kind = IndexedCorrelationSimilarity.Measure.PEARSON;
+        break;
+      case UNCENTERED_COSINE:
+        kind = IndexedCorrelationSimilarity.Measure.UNCENTERED_COSINE;
+        break;
+      case EUCLIDEAN:
+        kind = IndexedCorrelationSimilarity.Measure.EUCLIDEAN;
+        break;
+      default:
+        throw new UnsupportedOperationException("No item similarity for " + measure);
+    }
+    return IndexedCorrelationSimilarity.result(kind, weighted, count,
+        moments[SortedMergeKernels.SUM_X], moments[SortedMergeKernels.SUM_X2],
+        moments[SortedMergeKernels.SUM_Y], moments[SortedMergeKernels.SUM_Y2],
+        moments[SortedMergeKernels.SUM_XY], moments[SortedMergeKernels.SUM_XY_DIFF2], numOthers);
+  }
+
+  /**
+   * Ranks the common items of both users by their positions in the rows sorted by value, and
+   * correlates the ranks.
+   */
+  private double spearman(Rows rows, int a, int b) {
+    int fromA = rows.offsets[a];
+    int toA = rows.offsets[a + 1];
+    int fromB = rows.offsets[b];
+    int toB = rows.offsets[b + 1];
+    if (toA - fromA <= 1 || toB - fromB <= 1) {
+      return Double.NaN;
+    }
+    Buffers buffer = buffers.get();
+    buffer.ensureCapacity(Math.min(toA - fromA, toB - fromB));
+    int count = SortedMergeKernels.intersect(rows.ids, fromA, toA, rows.ids, fromB, toB,
+        buffer.positionsA, buffer.positionsB);
+    if (count <= 1) {
+      return Double.NaN;
+    }
+    long[] orderA = buffer.orderA;
+    long[] orderB = buffer.orderB;
+    for (int n = 0; n < count; n++) {
+      orderA[n] = (long) rows.valueOrder[buffer.positionsA[n]] << 32 | n;
+      orderB[n] = (long) rows.valueOrder[buffer.positionsB[n]] << 32 | n;
+    }
+    Arrays.sort(orderA, 0, count);
+    Arrays.sort(orderB, 0, count);
+    int[] rankA = buffer.positionsA;
+    int[] rankB = buffer.positionsB;
+    for (int r = 0; r < count; r++) {
+      rankA[(int) orderA[r]] = r + 1;
+      rankB[(int) orderB[r]] = r + 1;
+    }
+    double sumXYRankDiff2 = 0.0;
+    for (int n = 0; n < count; n++) {
+      double diff = rankA[n] - rankB[n];
+      sumXYRankDiff2 += diff * diff;
+    }
+    return 1.0 - 6.0 * sumXYRankDiff2 / (count * ((double) count * count - 1));
+  }
+
+  private Rows userRows() throws TasteException {
+    return new Rows(dataModel.getNumUsers(), dataModel.getUserIDs(), true);
+  }
+
+  private Rows itemRows() throws TasteException {
+    Rows rows = itemRows;
+    if (rows == null) {
+      synchronized (this) {
+        rows = itemRows;
+        if (rows == null) {
+          rows = new Rows(dataModel.getNumItems(), dataModel.getItemIDs(), false);
+          itemRows = rows;
+        }
+      }
+    }
+    return rows;
+  }
+
+  @Override
+  public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+    try {
+      userRows = userRows();
+      itemRows = null;
+    } catch (TasteException te) {
+      log.warn("Could not copy the preferences again", te);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MergeCorrelationSimilarity[measure:" + measure + ", weighted:" + weighted
+        + ", dataModel:" + dataModel + ']';
+  }
+
+  /**
+   * The preferences of all users or all items: row r holds positions {@code offsets[r]} to
+   * {@code offsets[r + 1]} of the ID and value arrays, in ascending ID order.
+   */
+  private final class Rows {
+
+    private final FastByIDMap<Integer> indexes;
+    final int[] offsets;
+    final long[] ids;
+    final float[] values;
+    // for Spearman: per position, the position of the preference in its row sorted by value
+    final int[] valueOrder;
+    // number of items for user rows, of users for item rows, for the weighting
+    final int numOthers;
+
+    Rows(int numRows, LongPrimitiveIterator rowIDs, boolean byUser) throws TasteException {
+      indexes = new FastByIDMap<Integer>(numRows);
+      offsets = new int[numRows + 1];
+      PreferenceArray[] rows = new PreferenceArray[numRows];
+      int size = 0;
+      int row = 0;
+      while (rowIDs.hasNext() && row < numRows) {
+        long rowID = rowIDs.nextLong();
+        PreferenceArray prefs = byUser
+            ? dataModel.getPreferencesFromUser(rowID) : dataModel.getPreferencesForItem(rowID);
+        indexes.put(rowID, row);
+        rows[row++] = prefs;
+        size += prefs.length();
+      }
+      ids = new long[size];
+      values = new float[size];
+      valueOrder = byUser && measure == Measure.SPEARMAN ? new int[size] : null;
+      int position = 0;
+      for (int r = 0; r < row; r++) {
+        offsets[r] = position;
+        PreferenceArray prefs = rows[r].clone();
+        int length = prefs.length();
+        if (byUser) {
+          prefs.sortByItem();
+        } else {
+          prefs.sortByUser();
+        }
+        for (int i = 0; i < length; i++) {
+          ids[position + i] = byUser ? prefs.getItemID(i) : prefs.getUserID(i);
+          values[position + i] = prefs.getValue(i);
+        }
+        if (valueOrder != null) {
+          // sorted from the original order, as SpearmanCorrelationSimilarity sorts
+          PreferenceArray byValue = rows[r].clone();
+          byValue.sortByValue();
+          for (int i = 0; i < length; i++) {
+            int at = Arrays.binarySearch(ids, position, position + length, byValue.getItemID(i));
+            valueOrder[at] = i;
+          }
+        }
+        rows[r] = null;
+        position += length;
+      }
+      for (int r = row; r <= numRows; r++) {
+        offsets[r] = position;
+      }
+      numOthers = byUser ? dataModel.getNumItems() : dataModel.getNumUsers();
+    }
+
+    int index(long id) {
+      Integer index = indexes.get(id);
+      return index == null ? -1 : index;
+    }
+
+  }
+
+  /** Per thread, so that a comparison allocates nothing. */
+  private static final class Buffers {
+
+    final double[] moments = new double[SortedMergeKernels.NUM_MOMENTS];
+    int[] positionsA = new int[0];
+    int[] positionsB = new int[0];
+    long[] orderA = new long[0];
+    long[] orderB = new long[0];
+
+    void ensureCapacity(int capacity) {
+      if (positionsA.length < capacity) {
+        positionsA = new int[capacity];
+        positionsB = new int[capacity];
+        orderA = new long[capacity];
+        orderB = new long[capacity];
+      }
+    }
+
+  }
+
+}
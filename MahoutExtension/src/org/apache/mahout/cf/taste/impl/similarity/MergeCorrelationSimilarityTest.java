@@ -0,0 +1,98 @@
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.similarity.MergeCorrelationSimilarity.Measure;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+public class MergeCorrelationSimilarityTest
+{
+
+  private static final int NUM_USERS = 300;
+  private static final int NUM_ITEMS = 500;
+
+  @Test
+  public void testUsersMatchMahout() throws Exception
+  {
+    DataModel dataModel = randomDataModel();
+    assertSameUsers(new PearsonCorrelationSimilarity(dataModel),
+        new MergeCorrelationSimilarity(dataModel, Measure.PEARSON));
+    assertSameUsers(new PearsonCorrelationSimilarity(dataModel, Weighting.WEIGHTED),
+        new MergeCorrelationSimilarity(dataModel, Measure.PEARSON, Weighting.WEIGHTED));
+    assertSameUsers(new UncenteredCosineSimilarity(dataModel),
+        new MergeCorrelationSimilarity(dataModel, Measure.UNCENTERED_COSINE));
+    assertSameUsers(new EuclideanDistanceSimilarity(dataModel, Weighting.WEIGHTED),
+        new MergeCorrelationSimilarity(dataModel, Measure.EUCLIDEAN, Weighting.WEIGHTED));
+    assertSameUsers(new SpearmanCorrelationSimilarity(dataModel),
+        new MergeCorrelationSimilarity(dataModel, Measure.SPEARMAN));
+  }
+
+  @Test
+  public void testItemsMatchMahout() throws Exception
+  {
+    DataModel dataModel = randomDataModel();
+    assertSameItems(new PearsonCorrelationSimilarity(dataModel, Weighting.WEIGHTED),
+        new MergeCorrelationSimilarity(dataModel, Measure.PEARSON, Weighting.WEIGHTED));
+    assertSameItems(new EuclideanDistanceSimilarity(dataModel),
+        new MergeCorrelationSimilarity(dataModel, Measure.EUCLIDEAN));
+  }
+
+  private static void assertSameUsers(UserSimilarity expected, UserSimilarity actual)
+      throws Exception
+  {
+    for (long user1 = 0; user1 < NUM_USERS; user1 += 3) {
+      for (long user2 = 0; user2 < NUM_USERS; user2++) {
+        assertSame(expected.userSimilarity(user1, user2), actual.userSimilarity(user1, user2));
+      }
+    }
+  }
+
+  private static void assertSameItems(ItemSimilarity expected, ItemSimilarity actual)
+      throws Exception
+  {
+    long[] itemIDs = new long[NUM_ITEMS];
+    for (int i = 0; i < NUM_ITEMS; i++) {
+      itemIDs[i] = i;
+    }
+    for (long item1 = 0; item1 < NUM_ITEMS; item1 += 7) {
+      double[] expectedValues = expected.itemSimilarities(item1, itemIDs);
+      double[] actualValues = actual.itemSimilarities(item1, itemIDs);
+      for (int i = 0; i < NUM_ITEMS; i++) {
+        assertSame(expectedValues[i], actualValues[i]);
+      }
+    }
+  }
+
+  private static void assertSame(double expected, double actual)
+  {
+    if (Double.isNaN(expected)) {
+      assertTrue(Double.isNaN(actual));
+    } else {
+      assertEquals(expected, actual, 1.0e-12);
+    }
+  }
+
+  /** Mostly short rows and some long ones, so that both the merge and galloping are used. */
+  private static DataModel randomDataModel()
+  {
+    Random random = new Random(23);
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(NUM_USERS);
+    for (int u = 0; u < NUM_USERS; u++) {
+      int size = u % 10 == 0 ? 200 + random.nextInt(250) : 1 + random.nextInt(20);
+      userData.put(u, RandomDataModels.randomPreferences(random, u, NUM_ITEMS, size, 1.0));
+    }
+    return new GenericDataModel(userData);
+  }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import org.apache.mahout.cf.taste.impl.model.DeltaDataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Keeps similarity caches on a {@link DeltaDataModel} up to date by dropping only the entries of
+ * the users and items whose preferences changed. The similarity of two users depends on the
+ * preferences of those two, so every other entry stays valid; measures that also use the number
+ * of users or items, such as the log-likelihood, drift slightly until the cache is cleared.
+ * </p><p>
+ * The caches are {@link CachingUserSimilarity} and {@link CachingItemSimilarity}, or their
+ * bounded counterparts {@link BoundedCachingUserSimilarity} and
+ * {@link BoundedCachingItemSimilarity}.
+ * </p>
+ */
+public final class SimilarityCacheInvalidator implements DeltaDataModel.Listener {
+
+  private final UserSimilarity userSimilarity;
+  private final ItemSimilarity itemSimilarity;
+
+  /**
+   * @param userSimilarity cache to invalidate for changed users, or null
+   * @param itemSimilarity cache to invalidate for changed items, or null
+   */
+  public SimilarityCacheInvalidator(UserSimilarity userSimilarity,
+      ItemSimilarity itemSimilarity) {
+    Preconditions.checkArgument(userSimilarity == null
+        || userSimilarity instanceof CachingUserSimilarity
+        || userSimilarity instanceof BoundedCachingUserSimilarity, "Not a user similarity cache");
+    Preconditions.checkArgument(itemSimilarity == null
+        || itemSimilarity instanceof CachingItemSimilarity
+        || itemSimilarity instanceof BoundedCachingItemSimilarity, "Not an item similarity cache");
+    this.userSimilarity = userSimilarity;
+    this.itemSimilarity = itemSimilarity;
+  }
+
+  @Override
+  public void preferencesChanged(long[] userIDs, long[] itemIDs) {
+    if (userSimilarity != null) {
+      for (long userID : userIDs) {
+        if (userSimilarity instanceof CachingUserSimilarity) {
+          ((CachingUserSimilarity) userSimilarity).clearCacheForUser(userID);
+        } else {
+          ((BoundedCachingUserSimilarity) userSimilarity).clearCacheForUser(userID);
+        }
+      }
+    }
+    if (itemSimilarity != null) {
+      for (long itemID : itemIDs) {
+        if (itemSimilarity instanceof CachingItemSimilarity) {
+          ((CachingItemSimilarity) itemSimilarity).clearCacheForItem(itemID);
+        } else {
+          ((BoundedCachingItemSimilarity) itemSimilarity).clearCacheForItem(itemID);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+/**
+ * <p>
+ * The inner loops of the correlation-based similarities: intersecting two rows of ascending IDs,
+ * with a value per ID, and accumulating in one pass all sums that Pearson correlation, uncentered
+ * cosine and Euclidean distance need. The sums are added in ID order, as {@link AbstractSimilarity}
+ * adds them, so the results are the same to the last bit.
+ * </p><p>
+ * Rows of about the same length are merged with a loop in which both cursors move on by
+ * comparison results instead of by taking branches, which the JIT turns into conditional moves;
+ * only the accumulation of a common ID is a branch. If one row is more than
+ * {@value #GALLOP_RATIO} times as long as the other, every ID of the short row is looked up in the
+ * long row by galloping (exponential and then binary search) from the previous match.
+ * </p><p>
+ * These loops are plain Java: this code base targets Java 7, which has no vector API, and a merge
+ * is a chain of dependent loads and compares that the JIT does not vectorize either. The
+ * accumulation of the sums of the common IDs is the part that a vector API could speed up.
+ * </p>
+ */
+final class SortedMergeKernels {
+
+  /** Indexes of the sums in the array filled by {@link #moments}. */
+  static final int SUM_X = 0;
+  static final int SUM_X2 = 1;
+  static final int SUM_Y = 2;
+  static final int SUM_Y2 = 3;
+  static final int SUM_XY = 4;
+  static final int SUM_XY_DIFF2 = 5;
+  static final int NUM_MOMENTS = 6;
+
+  /** Length ratio from which the short row is galloped through the long one. */
+  static final int GALLOP_RATIO = 16;
+
+  private SortedMergeKernels() {
+  }
+
+  /**
+   * Sums over the IDs that both rows have, x from the first row and y from the second, into
+   * {@code moments} at the SUM_ indexes.
+   *
+   * @return number of common IDs
+   */
+  static int moments(long[] ids1, float[] values1, int from1, int to1, long[] ids2,
+      float[] values2, int from2, int to2, double[] moments) {
+    int length1 = to1 - from1;
+    int length2 = to2 - from2;
+    if (length1 > GALLOP_RATIO * length2) {
+      return gallopMoments(ids2, values2, from2, to2, ids1, values1, from1, to1, true, moments);
+    }
+    if (length2 > GALLOP_RATIO * length1) {
+      return gallopMoments(ids1, values1, from1, to1, ids2, values2, from2, to2, false, moments);
+    }
+    return mergeMoments(ids1, values1, from1, to1, ids2, values2, from2, to2, moments);
+  }
+
+  static int mergeMoments(long[] ids1, float[] values1, int from1, int to1, long[] ids2,
+      float[] values2, int from2, int to2, double[] moments) {
+    double sumX = 0.0;
+    double sumX2 = 0.0;
+    double sumY = 0.0;
+    double sumY2 = 0.0;
+    double sumXY = 0.0;
+    double sumXYdiff2 = 0.0;
+    int count = 0;
+    int i = from1;
+    int j = from2;
+    while (i < to1 && j < to2) {
+      long a = ids1[i];
+      long b = ids2[j];
+      if (a == b) {
+        double x = values1[i];
+        double y = values2[j];
+        sumXY += x * y;
+        sumX += x;
+        sumX2 += x * x;
+        sumY += y;
+        sumY2 += y * y;
+        double diff = x - y;
+        sumXYdiff2 += diff * diff;
+        count++;
+      }
+      i += a <= b ? 1 : 0;
+      j += a >= b ? 1 : 0;
+    }
+    return store(moments, count, sumX, sumX2, sumY, sumY2, sumXY, sumXYdiff2);
+  }
+
+  /**
+   * Looks up every ID of the short row in the long row.
+   *
+   * @param swapped true if the short row is the second one, so that its values are y
+   */
+  private static int gallopMoments(long[] shortIDs, float[] shortValues, int shortFrom,
+      int shortTo, long[] longIDs, float[] longValues, int longFrom, int longTo, boolean swapped,
+      double[] moments) {
+    double sumX = 0.0;
+    double sumX2 = 0.0;
+    double sumY = 0.0;
+    double sumY2 = 0.0;
+    double sumXY = 0.0;
+    double sumXYdiff2 = 0.0;
+    int count = 0;
+    int j = longFrom;
+    for (int i = shortFrom; i < shortTo && j < longTo; i++) {
+      long id = shortIDs[i];
+      j = gallop(longIDs, j, longTo, id);
+      if (j < longTo && longIDs[j] == id) {
+        double x = swapped ? longValues[j] : shortValues[i];
+        double y = swapped ? shortValues[i] : longValues[j];
+        sumXY += x * y;
+        sumX += x;
+        sumX2 += x * x;
+        sumY += y;
+        sumY2 += y * y;
+        double diff = x - y;
+        sumXYdiff2 += diff * diff;
+        count++;
+        j++;
+      }
+    }
+    return store(moments, count, sumX, sumX2, sumY, sumY2, sumXY, sumXYdiff2);
+  }
+
+  private static int store(double[] moments, int count, double sumX, double sumX2, double sumY,
+      double sumY2, double sumXY, double sumXYdiff2) {
+    moments[SUM_X] = sumX;
+    moments[SUM_X2] = sumX2;
+    moments[SUM_Y] = sumY;
+    moments[SUM_Y2] = sumY2;
+    moments[SUM_XY] = sumXY;
+    moments[SUM_XY_DIFF2] = sumXYdiff2;
+    return count;
+  }
+
+  /**
+   * The positions of the IDs that both rows have, in ascending ID order.
+   *
+   * @param positions1 receives the positions in the first row, at least as long as the shorter row
+   * @param positions2 receives the positions in the second row
+   * @return number of common IDs
+   */
+  static int intersect(long[] ids1, int from1, int to1, long[] ids2, int from2, int to2,
+      int[] positions1, int[] positions2) {
+    int count = 0;
+    int length1 = to1 - from1;
+    int length2 = to2 - from2;
+    if (length1 > GALLOP_RATIO * length2 || length2 > GALLOP_RATIO * length1) {
+      boolean swapped = length1 > length2;
+      long[] shortIDs = swapped ? ids2 : ids1;
+      long[] longIDs = swapped ? ids1 : ids2;
+      int shortTo = swapped ? to2 : to1;
+      int longTo = swapped ? to1 : to2;
+      int j = swapped ? from1 : from2;
+      for (int i = swapped ? from2 : from1; i < shortTo && j < longTo; i++) {
+        j = gallop(longIDs, j, longTo, shortIDs[i]);
+        if (j < longTo && longIDs[j] == shortIDs[i]) {
+          positions1[count] = swapped ? j : i;
+          positions2[count] = swapped ? i : j;
+          count++;
+          j++;
+        }
+      }
+      return count;
+    }
+    int i = from1;
+    int j = from2;
+    while (i < to1 && j < to2) {
+      long a = ids1[i];
+      long b = ids2[j];
+      if (a == b) {
+        positions1[count] = i;
+        positions2[count] = j;
+        count++;
+      }
+      i += a <= b ? 1 : 0;
+      j += a >= b ? 1 : 0;
+    }
+    return count;
+  }
+
+  /** The first position from {@code from} on whose ID is not smaller than {@code id}. */
+  static int gallop(long[] ids, int from, int to, long id) {
+    if (from >= to || ids[from] >= id) {
+      return from;
+    }
+    // ids[low] < id; find a high with ids[high] >= id, or to
+    int low = from;
+    int step = 1;
+    int high = from + 1;
+    while (high < to && ids[high] < id) {
+      low = high;
+      step <<= 1;
+      high = from + step;
+    }
+    if (high > to) {
+      high = to;
+    }
+    while (low + 1 < high) {
+      int middle = (low + high) >>> 1;
+      if (ids[middle] < id) {
+        low = middle;
+      } else {
+        high = middle;
+      }
+    }
+    return high;
+  }
+
+}
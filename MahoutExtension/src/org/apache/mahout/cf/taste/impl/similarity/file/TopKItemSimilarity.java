@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * An {@link ItemSimilarity} on precomputed top-K neighbor lists, as written by
+ * {@link TopKItemSimilarityBuilder}. The file is memory-mapped and used in place, like a
+ * {@link org.apache.mahout.cf.taste.impl.model.BufferDataModel}, so opening it takes no time and
+ * nothing of it is on the heap.
+ * </p><p>
+ * The similarity of two items is looked up in the list of either; items that are not in each
+ * other's list have similarity NaN. {@link #allSimilarItemIDs(long)} returns the list of an item,
+ * so that a {@link org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender} with an
+ * {@link org.apache.mahout.cf.taste.impl.recommender.AllSimilarItemsCandidateItemsStrategy} on this
+ * similarity only considers those items, and {@link #mostSimilarItems(long, int)} answers the
+ * question directly. Layout, big-endian:
+ * </p>
+ * <pre>
+ * header (32 bytes): int magic, int version, int numItems, int k, int numNeighbors,
+ *                    12 bytes reserved
+ * long[numItems] itemIDs (ascending)
+ * int[numItems + 1] offsets, int[numNeighbors] neighbor numbers, float[numNeighbors] similarities
+ * </pre>
+ * <p>
+ * Items are numbered in the order of their IDs; the neighbors of an item are ordered from the most
+ * to the least similar.
+ * </p>
+ */
+public final class TopKItemSimilarity implements ItemSimilarity {
+
+  public static final int MAGIC = 0x4D53494D; // "MSIM"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 32;
+
+  /** Extension of the files of {@link #fileFor(File, String, int)}. */
+  public static final String EXTENSION = ".topk";
+
+  private static final long[] NO_IDS = new long[0];
+
+  private final LongBuffer itemIDs;
+  private final IntBuffer offsets;
+  private final IntBuffer neighbors;
+  private final FloatBuffer similarities;
+  private final int numItems;
+  private final int k;
+
+  /**
+   * @param buffer neighbor lists in the layout above, from its position on
+   */
+  public TopKItemSimilarity(ByteBuffer buffer) throws IOException {
+    ByteBuffer in = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    int start = in.position();
+    if (in.getInt() != MAGIC) {
+      throw new IOException("Not in top-K similarity format");
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported top-K similarity format version " + version);
+    }
+    numItems = in.getInt();
+    k = in.getInt();
+    int numNeighbors = in.getInt();
+
+    int position = start + HEADER_SIZE;
+    itemIDs = section(in, position, 8 * numItems).asLongBuffer();
+    position += 8 * numItems;
+    offsets = section(in, position, 4 * (numItems + 1)).asIntBuffer();
+    position += 4 * (numItems + 1);
+    neighbors = section(in, position, 4 * numNeighbors).asIntBuffer();
+    position += 4 * numNeighbors;
+    similarities = section(in, position, 4 * numNeighbors).asFloatBuffer();
+  }
+
+  private static ByteBuffer section(ByteBuffer in, int position, int length) throws IOException {
+    if (position + length > in.limit()) {
+      throw new IOException("Top-K similarities are truncated");
+    }
+    ByteBuffer section = in.duplicate();
+    section.limit(position + length).position(position);
+    return section.slice();
+  }
+
+  /**
+   * Maps a file in the format above read-only.
+   */
+  public static TopKItemSimilarity map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large to map");
+      }
+      // the mapping stays valid after the channel is closed
+      return new TopKItemSimilarity(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      Closeables.close(raf, true);
+    }
+  }
+
+  /**
+   * Name of the file next to a data file for the top {@code k} of a similarity measure.
+   */
+  public static File fileFor(File dataFile, String similarityName, int k) {
+    String name = String.format(Locale.ROOT, "%s.%s-top%d%s", dataFile.getName(), similarityName, k,
+        EXTENSION);
+    return new File(dataFile.getAbsoluteFile().getParentFile(), name);
+  }
+
+  /**
+   * Maps {@code file}; it is first built from the data model with one thread per processor if it
+   * does not exist yet, is older than {@code dataFile}, the file the data model was loaded from, or
+   * has another number of items than the data model. Whether it is up to date is decided from its
+   * header before it is mapped, so a stale file is never mapped while it is replaced.
+   */
+  public static TopKItemSimilarity mapOrBuild(File file, File dataFile, DataModel dataModel,
+      ItemSimilarity similarity, int k) throws TasteException, IOException {
+    if (!file.exists() || file.lastModified() < dataFile.lastModified()
+        || !hasHeader(file, dataModel.getNumItems(), k)) {
+      new TopKItemSimilarityBuilder(dataModel, similarity, k, 0).build(file);
+    }
+    return map(file);
+  }
+
+  /** Whether the file is in this format with the given number of items and k. */
+  private static boolean hasHeader(File file, int numItems, int k) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return raf.length() >= HEADER_SIZE && raf.readInt() == MAGIC && raf.readInt() == VERSION
+          && raf.readInt() == numItems && raf.readInt() == k;
+    } finally {
+      Closeables.close(raf, true);
+    }
+  }
+
+  public int getNumItems() {
+    return numItems;
+  }
+
+  /** The maximum length of a neighbor list. */
+  public int getK() {
+    return k;
+  }
+
+  private int number(long itemID) {
+    int low = 0;
+    int high = numItems - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midID = itemIDs.get(mid);
+      if (midID < itemID) {
+        low = mid + 1;
+      } else if (midID > itemID) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /** Similarity of {@code other} in the list of {@code item}, or NaN. */
+  private float lookup(int item, int other) {
+    int end = offsets.get(item + 1);
+    for (int i = offsets.get(item); i < end; i++) {
+      if (neighbors.get(i) == other) {
+        return similarities.get(i);
+      }
+    }
+    return Float.NaN;
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) {
+    int item1 = number(itemID1);
+    int item2 = number(itemID2);
+    if (item1 < 0 || item2 < 0) {
+      return Double.NaN;
+    }
+    float similarity = lookup(item1, item2);
+    return Float.isNaN(similarity) ? lookup(item2, item1) : similarity;
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+    int item1 = number(itemID1);
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      int item2 = number(itemID2s[i]);
+      if (item1 < 0 || item2 < 0) {
+        result[i] = Double.NaN;
+      } else {
+        float similarity = lookup(item1, item2);
+        result[i] = Float.isNaN(similarity) ? lookup(item2, item1) : similarity;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The neighbors of an item, most similar first; empty for an unknown item.
+   */
+  @Override
+  public long[] allSimilarItemIDs(long itemID) {
+    int item = number(itemID);
+    if (item < 0) {
+      return NO_IDS;
+    }
+    int start = offsets.get(item);
+    long[] result = new long[offsets.get(item + 1) - start];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = itemIDs.get(neighbors.get(start + i));
+    }
+    return result;
+  }
+
+  /**
+   * The first {@code howMany} neighbors of an item, most similar first; empty for an unknown item.
+   */
+  public List<RecommendedItem> mostSimilarItems(long itemID, int howMany) {
+    int item = number(itemID);
+    if (item < 0) {
+      return Lists.newArrayList();
+    }
+    int start = offsets.get(item);
+    int end = Math.min(offsets.get(item + 1), start + howMany);
+    List<RecommendedItem> result = Lists.newArrayListWithCapacity(end - start);
+    for (int i = start; i < end; i++) {
+      result.add(new GenericRecommendedItem(itemIDs.get(neighbors.get(i)), similarities.get(i)));
+    }
+    return result;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // the file is immutable; build a new one to change it
+  }
+
+  @Override
+  public String toString() {
+    return "TopKItemSimilarity[items:" + numItems + ", k:" + k + ", neighbors:"
+        + neighbors.capacity() + ']';
+  }
+
+}
@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * Computes the {@code k} most similar items of every item of a data model, offline, and writes them
+ * in the format of {@link TopKItemSimilarity}, which maps the file and answers similarity queries
+ * with a lookup.
+ * </p><p>
+ * The items are numbered in the order of their IDs and cut into blocks of consecutive numbers,
+ * which are computed in parallel; every block is one task, so each thread only touches the top-K
+ * lists of its own items. The candidates of an item are the items that share a user with it, and
+ * their similarities are asked for with one {@link ItemSimilarity#itemSimilarities(long, long[])}
+ * call. Items without a common user are not considered; for the usual measures their similarity is
+ * undefined or 0. NaN similarities are skipped, and ties are broken by item ID, so the result does
+ * not depend on the number of threads.
+ * </p>
+ */
+public final class TopKItemSimilarityBuilder {
+
+  private static final Logger log = LoggerFactory.getLogger(TopKItemSimilarityBuilder.class);
+
+  static final int BLOCK_SIZE = 256;
+
+  private final DataModel dataModel;
+  private final ItemSimilarity similarity;
+  private final int k;
+  private final int numThreads;
+
+  /**
+   * @param k maximum number of neighbors per item
+   * @param numThreads number of threads; smaller than 1 means one per processor
+   */
+  public TopKItemSimilarityBuilder(DataModel dataModel, ItemSimilarity similarity, int k,
+      int numThreads) {
+    Preconditions.checkArgument(k > 0, "Invalid k: " + k);
+    this.dataModel = Preconditions.checkNotNull(dataModel);
+    this.similarity = Preconditions.checkNotNull(similarity);
+    this.k = k;
+    this.numThreads = numThreads < 1 ? Runtime.getRuntime().availableProcessors() : numThreads;
+  }
+
+  /**
+   * Computes the neighbor lists and writes them to {@code file}.
+   *
+   * @return the number of neighbors written
+   */
+  public long build(File file) throws TasteException, IOException {
+    long start = System.nanoTime();
+    long[] itemIDs = new long[dataModel.getNumItems()];
+    int numItems = 0;
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    while (it.hasNext()) {
+      itemIDs[numItems++] = it.nextLong();
+    }
+    Arrays.sort(itemIDs, 0, numItems);
+    itemIDs = Arrays.copyOf(itemIDs, numItems);
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Block> blocks = Lists.newArrayList();
+    try {
+      List<Future<Block>> futures = Lists.newArrayList();
+      for (int from = 0; from < numItems; from += BLOCK_SIZE) {
+        futures.add(executor.submit(
+            new BlockComputer(itemIDs, from, Math.min(numItems, from + BLOCK_SIZE))));
+      }
+      for (Future<Block> future : futures) {
+        blocks.add(get(future));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    long numNeighbors = 0;
+    for (Block block : blocks) {
+      numNeighbors += block.size;
+    }
+    write(file, itemIDs, blocks, numNeighbors);
+    log.info("Wrote {} neighbors of {} items to {} in {} ms", new Object[] {numNeighbors, numItems,
+        file, (System.nanoTime() - start) / 1000000});
+    return numNeighbors;
+  }
+
+  private static Block get(Future<Block> future) throws TasteException {
+    try {
+      return future.get();
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    }
+  }
+
+  private void write(File file, long[] itemIDs, List<Block> blocks, long numNeighbors)
+    throws IOException {
+    long size = TopKItemSimilarity.HEADER_SIZE + 8L * itemIDs.length + 4L * (itemIDs.length + 1)
+        + 8L * numNeighbors;
+    Preconditions.checkArgument(size <= Integer.MAX_VALUE, "Too many neighbors for one file");
+    File tmp = new File(file.getPath() + ".tmp");
+    RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+    boolean threw = true;
+    try {
+      raf.setLength(size);
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buffer.putInt(TopKItemSimilarity.MAGIC);
+      buffer.putInt(TopKItemSimilarity.VERSION);
+      buffer.putInt(itemIDs.length);
+      buffer.putInt(k);
+      buffer.putInt((int) numNeighbors);
+      buffer.position(TopKItemSimilarity.HEADER_SIZE);
+      for (long itemID : itemIDs) {
+        buffer.putLong(itemID);
+      }
+      int offset = 0;
+      buffer.putInt(offset);
+      for (Block block : blocks) {
+        for (int i = 1; i < block.offsets.length; i++) {
+          buffer.putInt(offset + block.offsets[i]);
+        }
+        offset += block.size;
+      }
+      for (Block block : blocks) {
+        for (int i = 0; i < block.size; i++) {
+          buffer.putInt(block.neighbors[i]);
+        }
+      }
+      for (Block block : blocks) {
+        for (int i = 0; i < block.size; i++) {
+          buffer.putFloat(block.similarities[i]);
+        }
+      }
+      buffer.force();
+      threw = false;
+    } finally {
+      Closeables.close(raf, threw);
+    }
+    // the rename replaces the file at once where the platform can, so that a process that has
+    // mapped the old file keeps it; elsewhere the old file has to go first
+    if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+      throw new IOException("Could not rename " + tmp + " to " + file);
+    }
+  }
+
+  /** The neighbor lists of a block of items, concatenated. */
+  private static final class Block {
+    // offsets[i] is where the list of the i-th item of the block starts
+    final int[] offsets;
+    int[] neighbors;
+    float[] similarities;
+    int size;
+
+    Block(int numItems, int k) {
+      offsets = new int[numItems + 1];
+      neighbors = new int[Math.min(numItems * k, 1 << 16)];
+      similarities = new float[neighbors.length];
+    }
+
+    void add(int neighbor, float similarity) {
+      if (size == neighbors.length) {
+        neighbors = Arrays.copyOf(neighbors, 2 * size);
+        similarities = Arrays.copyOf(similarities, 2 * size);
+      }
+      neighbors[size] = neighbor;
+      similarities[size++] = similarity;
+    }
+  }
+
+  private final class BlockComputer implements Callable<Block> {
+
+    private final long[] itemIDs;
+    private final int from;
+    private final int to;
+    // min-heap of the best neighbors so far, worst on top
+    private final int[] heapItems = new int[k];
+    private final float[] heapSimilarities = new float[k];
+
+    BlockComputer(long[] itemIDs, int from, int to) {
+      this.itemIDs = itemIDs;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public Block call() throws TasteException {
+      Block block = new Block(to - from, k);
+      FastIDSet candidates = new FastIDSet();
+      for (int item = from; item < to; item++) {
+        long itemID = itemIDs[item];
+        candidates.clear();
+        PreferenceArray prefs = dataModel.getPreferencesForItem(itemID);
+        for (int i = 0; i < prefs.length(); i++) {
+          candidates.addAll(dataModel.getItemIDsFromUser(prefs.getUserID(i)));
+        }
+        candidates.remove(itemID);
+        long[] candidateIDs = candidates.toArray();
+        double[] similarities = similarity.itemSimilarities(itemID, candidateIDs);
+
+        int heapSize = 0;
+        for (int i = 0; i < candidateIDs.length; i++) {
+          float value = (float) similarities[i];
+          if (Float.isNaN(value)) {
+            continue;
+          }
+          int neighbor = Arrays.binarySearch(itemIDs, candidateIDs[i]);
+          if (heapSize < k) {
+            heapItems[heapSize] = neighbor;
+            heapSimilarities[heapSize] = value;
+            siftUp(heapSize++);
+          } else if (isWorse(heapItems[0], heapSimilarities[0], neighbor, value)) {
+            heapItems[0] = neighbor;
+            heapSimilarities[0] = value;
+            siftDown(0, heapSize);
+          }
+        }
+        // taking the worst off the top fills the list from its end
+        int start = block.size;
+        for (int i = 0; i < heapSize; i++) {
+          block.add(0, 0.0f);
+        }
+        for (int end = heapSize - 1; end >= 0; end--) {
+          block.neighbors[start + end] = heapItems[0];
+          block.similarities[start + end] = heapSimilarities[0];
+          heapItems[0] = heapItems[end];
+          heapSimilarities[0] = heapSimilarities[end];
+          siftDown(0, end);
+        }
+        block.offsets[item - from + 1] = block.size;
+      }
+      return block;
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!isWorse(heapItems[i], heapSimilarities[i], heapItems[parent],
+            heapSimilarities[parent])) {
+          return;
+        }
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i, int size) {
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          return;
+        }
+        if (child + 1 < size && isWorse(heapItems[child + 1], heapSimilarities[child + 1],
+            heapItems[child], heapSimilarities[child])) {
+          child++;
+        }
+        if (!isWorse(heapItems[child], heapSimilarities[child], heapItems[i],
+            heapSimilarities[i])) {
+          return;
+        }
+        swap(i, child);
+        i = child;
+      }
+    }
+
+    private void swap(int i, int j) {
+      int item = heapItems[i];
+      heapItems[i] = heapItems[j];
+      heapItems[j] = item;
+      float value = heapSimilarities[i];
+      heapSimilarities[i] = heapSimilarities[j];
+      heapSimilarities[j] = value;
+    }
+  }
+
+  /**
+   * Whether neighbor {@code a} ranks below {@code b}: it is less similar, or as similar with a
+   * higher number.
+   */
+  static boolean isWorse(int a, float similarityA, int b, float similarityB) {
+    return similarityA < similarityB || similarityA == similarityB && a > b;
+  }
+
+}
@@ -0,0 +1,132 @@
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.RandomDataModels;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class TopKItemSimilarityTest
+{
+
+  private static final int K = 7;
+
+  @Test
+  public void testMatchesBruteForce() throws Exception
+  {
+    DataModel dataModel = RandomDataModels.randomDataModel(42, 200, 700, 15, 15, 2);
+    ItemSimilarity tanimoto = new TanimotoCoefficientSimilarity(dataModel);
+    File file = File.createTempFile("similarities", TopKItemSimilarity.EXTENSION);
+    try {
+      // more items than one block, on more than one thread
+      new TopKItemSimilarityBuilder(dataModel, tanimoto, K, 3).build(file);
+      TopKItemSimilarity topK = TopKItemSimilarity.map(file);
+      assertEquals(dataModel.getNumItems(), topK.getNumItems());
+      assertEquals(K, topK.getK());
+
+      long[] itemIDs = new long[dataModel.getNumItems()];
+      LongPrimitiveIterator it = dataModel.getItemIDs();
+      for (int i = 0; i < itemIDs.length; i++) {
+        itemIDs[i] = it.nextLong();
+      }
+      for (final long itemID : itemIDs) {
+        Long[] others = new Long[itemIDs.length - 1];
+        int n = 0;
+        for (long otherID : itemIDs) {
+          if (otherID != itemID && !Double.isNaN(tanimoto.itemSimilarity(itemID, otherID))
+              && tanimoto.itemSimilarity(itemID, otherID) > 0.0) {
+            others[n++] = otherID;
+          }
+        }
+        final ItemSimilarity similarity = tanimoto;
+        Arrays.sort(others, 0, n, new Comparator<Long>() {
+          @Override
+          public int compare(Long a, Long b)
+          {
+            try {
+              int bySimilarity = Float.compare((float) similarity.itemSimilarity(itemID, b),
+                  (float) similarity.itemSimilarity(itemID, a));
+              return bySimilarity != 0 ? bySimilarity : a.compareTo(b);
+            } catch (Exception e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        });
+        long[] expected = new long[Math.min(K, n)];
+        for (int i = 0; i < expected.length; i++) {
+          expected[i] = others[i];
+        }
+        assertArrayEquals(expected, topK.allSimilarItemIDs(itemID));
+
+        List<RecommendedItem> mostSimilar = topK.mostSimilarItems(itemID, 3);
+        assertEquals(Math.min(3, expected.length), mostSimilar.size());
+        for (int i = 0; i < mostSimilar.size(); i++) {
+          assertEquals(expected[i], mostSimilar.get(i).getItemID());
+          assertEquals(tanimoto.itemSimilarity(itemID, expected[i]), mostSimilar.get(i).getValue(),
+              1e-6);
+          assertEquals(tanimoto.itemSimilarity(itemID, expected[i]),
+              topK.itemSimilarity(expected[i], itemID), 1e-6);
+        }
+      }
+      assertTrue(topK.allSimilarItemIDs(-1).length == 0);
+      assertTrue(Double.isNaN(topK.itemSimilarity(-1, itemIDs[0])));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testRebuildsWhenDataFileChanges() throws Exception
+  {
+    File dir = Files.createTempDir();
+    File dataFile = new File(dir, "ratings.csv");
+    Files.touch(dataFile);
+    File file = TopKItemSimilarity.fileFor(dataFile, "tanimoto", K);
+    try {
+      DataModel dataModel = RandomDataModels.randomDataModel(42, 50, 100, 5, 5, 2);
+      mapOrBuild(file, dataFile, dataModel);
+      long built = dataFile.lastModified() + 2000;
+      assertTrue(file.setLastModified(built));
+      // unchanged data file: mapped as it is
+      TopKItemSimilarity old = mapOrBuild(file, dataFile, dataModel);
+      assertEquals(built, file.lastModified());
+
+      // a newer data file: built again, while the old file stays mapped
+      assertTrue(dataFile.setLastModified(built + 2000));
+      DataModel changed = RandomDataModels.randomDataModel(42, 50, 300, 5, 5, 2);
+      TopKItemSimilarity topK = mapOrBuild(file, dataFile, changed);
+      assertEquals(changed.getNumItems(), topK.getNumItems());
+      assertTrue(file.lastModified() != built);
+      assertEquals(dataModel.getNumItems(), old.getNumItems());
+
+      // as new as the data file, but for other items: built again
+      assertTrue(file.setLastModified(built + 4000));
+      assertEquals(dataModel.getNumItems(), mapOrBuild(file, dataFile, dataModel).getNumItems());
+    } finally {
+      file.delete();
+      dataFile.delete();
+      dir.delete();
+    }
+  }
+
+  private static TopKItemSimilarity mapOrBuild(File file, File dataFile, DataModel dataModel)
+      throws Exception
+  {
+    return TopKItemSimilarity.mapOrBuild(file, dataFile, dataModel,
+        new TanimotoCoefficientSimilarity(dataModel), K);
+  }
+
+}
@@ -0,0 +1,104 @@
+package performancetests;
+
+import static performancetests.DynamicRecommenderBuilder.NeighborhoodType.*;
+import static performancetests.DynamicRecommenderBuilder.RecommenderName.*;
+import static performancetests.DynamicRecommenderBuilder.SimilarityMeasure.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.Date;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+import org.apache.mahout.cf.taste.impl.recommender.BatchRecommendationJob;
+import org.apache.mahout.cf.taste.impl.recommender.BatchUserBasedRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+
+/**
+ * This class computes the top-N recommendations of all users with a BatchRecommendationJob, for 
+ * a few recommenders of DynamicRecommenderBuilder, and reports users per second: once with the 
+ * batch estimates and one thread, once with the batch estimates and all processors, and once 
+ * calling recommend() per user on all processors. The recommendations go to 
+ * results/recommendations.bin, which is overwritten by every run.
+ * <p>
+ * The modes do not always score the same items, see the candidates column: the batch mode scores 
+ * all items the user has not rated (for user-based recommenders the items of the neighbors), 
+ * recommend() asks the recommender's candidate item strategy. For item-based recommenders both 
+ * give the same recommendations; for SVD the batch mode scores far more items, so its users/s are 
+ * not those of recommend() on the same work.
+ * <p>
+ * Arguments: [rating file]; the default is data/ml-100k.csv.
+ */
+public class BatchRecommendationRunner
+{
+  static final int HOW_MANY = 10;
+  /** Enough for all item pairs of ml-100k, so that only the warm-up computes similarities. */
+  static final long SIMILARITY_CACHE_BYTES = 128L * 1024 * 1024;
+
+  public static void main(String[] args) throws IOException, TasteException
+  {
+    String dataSet = args.length > 0 ? args[0] : "data/ml-100k.csv";
+    DataModel model = RatingsFile.load(new File(dataSet));
+    int processors = Runtime.getRuntime().availableProcessors();
+    File output = new File("results/recommendations.bin");
+
+    String today = DateFormat.getDateTimeInstance().format(new Date()).replace(':', '_');
+    PrintWriter writer = new PrintWriter(
+      new FileOutputStream("results/batch-recommendations-" + today + ".csv"), true);
+    writer.println( "Java version," + System.getProperty("java.version") );
+    writer.println( "Data set," + dataSet );
+    writer.println( "Processors," + processors );
+    writer.println();
+    writer.println("recommender,mode,candidates,threads,users,recommendations,ms,users/s");
+
+    Object[][] configs = {
+        { "UB Pearson 4nn", GenericUserBased, Pearson, 4 }, 
+        { "UB Pearson 4nn LSH", GenericUserBased, Pearson, 4, CenteredHyperplane }, 
+        { "IB Pearson", GenericItemBased, Pearson },
+        { "SVD ALS", SVD_ALS, None },
+    };
+    for (Object[] conf : configs) 
+    {
+      DynamicRecommenderBuilder builder = new DynamicRecommenderBuilder(conf);
+      builder.setSimilarityCacheBytes(SIMILARITY_CACHE_BYTES);
+      Recommender recommender = builder.buildRecommender(model);
+      // a first run per recommender warms up the JIT and fills the similarity cache
+      new BatchRecommendationJob(recommender, HOW_MANY, processors).run(output);
+      run(writer, (String) conf[0], new BatchRecommendationJob(recommender, HOW_MANY, 1), 
+          "batch", 1, output);
+      run(writer, (String) conf[0], new BatchRecommendationJob(recommender, HOW_MANY, processors), 
+          "batch", processors, output);
+      run(writer, (String) conf[0], 
+          new BatchRecommendationJob(recommender, HOW_MANY, processors, false), "recommend", 
+          processors, output);
+    }
+    writer.println("Done.");
+    writer.close();
+  }
+
+  static void run(PrintWriter writer, String name, BatchRecommendationJob job, String mode, 
+      int threads, File output) throws IOException, TasteException
+  {
+    job.run(output);
+    System.out.printf("%-22s %-10s %2d threads %8d users %8d ms %10.0f users/s%n", name, mode, 
+        threads, job.getNumUsers(), job.getMillis(), job.getUsersPerSecond());
+    writer.printf("%s,%s,%s,%d,%d,%d,%d,%.0f%n", name, mode, candidates(job), threads, 
+        job.getNumUsers(), job.getNumRecommendations(), job.getMillis(), job.getUsersPerSecond());
+  }
+
+  /** Which items the job scores for a user. */
+  static String candidates(BatchRecommendationJob job)
+  {
+    if (!job.usesBatchEstimates())
+      return "candidate strategy";
+    if (job.getRecommender() instanceof BatchUserBasedRecommender)
+      return "neighbor items";
+    return "all unrated";
+  }
+
+}
@@ -4,6 +4,13 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.common.Weighting;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.example.kddcup.track1.svd.ParallelArraysSGDFactorizer;
+import org.apache.mahout.cf.taste.impl.common.BoundedSimilarityCache;
+import org.apache.mahout.cf.taste.impl.model.BitSetDataModel;
+import org.apache.mahout.cf.taste.impl.model.DeltaDataModel;
+import org.apache.mahout.cf.taste.impl.model.IndexedDataModel;
+import org.apache.mahout.cf.taste.impl.model.QuantizedDataModel;
+import org.apache.mahout.cf.taste.impl.neighborhood.IndexedNearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.LSHUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.neighborhood.ThresholdUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.*;
@@ -32,16 +39,41 @@ public class DynamicRecommenderBuilder implements RecommenderBuilder
   enum RecommenderName { Random, ItemAverage, ItemUserAverage, GenericUserBased, GenericItemBased,
     BiasedItemBased, SlopeOne, SlopeOneMem, 
     SVD_ALS, SVD_FUNK, SVD_ILR, SVD_PSGD, SVD_RSGD, SVD_PlusPlus,  
+    SVD_Hogwild, SVD_DSGD, // ConcurrentSGDFactorizer on all processors
     KnnItemBased, TreeClustering, TreeClustering2,
-    BookCrossing, KddCupTrack1 } // recommenders from Mahout examples. 
+    BookCrossing, KddCupTrack1, // recommenders from Mahout examples. 
   // Note that KddCupTrack2 is too complex to include here.
+    BooleanUserBased, BooleanItemBased } // on a BitSetDataModel, for binary data
   enum SimilarityMeasure { None, Pearson, PearsonW, UncenteredCosine, Euclidian, EuclidianW, 
-    Spearman, Tanimoto, LogLikelihood }
+    Spearman, Tanimoto, LogLikelihood, 
+    BitSetTanimoto, BitSetLogLikelihood, // on the bitmaps of a BitSetDataModel
+    IndexedPearson, IndexedPearsonW, IndexedUncenteredCosine, IndexedEuclidian, 
+    IndexedEuclidianW, // on the flat arrays of an IndexedDataModel
+    AllPairsPearson, AllPairsPearsonW, AllPairsEuclidian, AllPairsEuclidianW, 
+    AllPairsSpearman, // all user pairs computed up front, user-based only
+    MergePearson, MergePearsonW, MergeUncenteredCosine, MergeEuclidian, MergeEuclidianW, 
+    MergeSpearman } // merge kernels on primitive arrays; Spearman user-based only
+  // Exact compares a user to all others, the rest only to the users with a common LSH bucket
+  enum NeighborhoodType { Exact, MinHash, Hyperplane, CenteredHyperplane }
+
+  // bands and rows per band of the LSH neighborhoods, see LSHUserNeighborhood
+  static final int MIN_HASH_BANDS = 20;
+  static final int MIN_HASH_ROWS = 2;
+  static final int HYPERPLANE_BANDS = 20;
+  static final int HYPERPLANE_ROWS = 4;
 
   String name;
   RecommenderName recommenderName;
   SimilarityMeasure similarityMeasure;
   double nearestN = -1; // if smaller than 1, used as threshold for ThresholdUserNeighborhood
+  NeighborhoodType neighborhoodType = NeighborhoodType.Exact;
+  // if set, data models and SVD factors are stored quantized, see setQuantization
+  QuantizedFactorization.Precision quantization;
+  QuantizedDataModel quantizedDataModel;
+  QuantizingFactorizer quantizingFactorizer;
+  // if positive, similarities are cached in a BoundedSimilarityCache of this many bytes
+  long similarityCacheBytes;
+  BoundedSimilarityCache similarityCache;
   
   DynamicRecommenderBuilder(Object[] conf) 
   {
@@ -53,11 +85,97 @@ public class DynamicRecommenderBuilder implements RecommenderBuilder
         nearestN = ((Integer)conf[3]).doubleValue();
       else
         nearestN = (double) conf[3];
+    if (conf.length > 4)
+      neighborhoodType = (NeighborhoodType) conf[4];
+  }
+
+  /**
+   * Makes buildRecommender store the data model as a QuantizedDataModel, unless 
+   * {@link #copiesDataModel()}, and the factors of SVD recommenders with the given precision; null
+   * turns quantization off.
+   */
+  void setQuantization(QuantizedFactorization.Precision precision)
+  {
+    quantization = precision;
+  }
+
+  /**
+   * Makes buildRecommender cache similarities in a BoundedSimilarityCache of the given number of
+   * bytes instead of in Mahout's caches; 0 goes back to Mahout's caches.
+   */
+  void setSimilarityCacheBytes(long bytes)
+  {
+    similarityCacheBytes = bytes;
+  }
+
+  /** 
+   * The bounded similarity cache of the last recommender built, or null if it has none, for its
+   * hit, miss and eviction counts.
+   */
+  BoundedSimilarityCache getSimilarityCache()
+  {
+    return similarityCache;
+  }
+
+  /** Whether the similarity computes all user pairs up front, see AllPairsUserSimilarity. */
+  boolean computesAllPairs()
+  {
+    return similarityMeasure == SimilarityMeasure.AllPairsPearson 
+        || similarityMeasure == SimilarityMeasure.AllPairsPearsonW
+        || similarityMeasure == SimilarityMeasure.AllPairsEuclidian 
+        || similarityMeasure == SimilarityMeasure.AllPairsEuclidianW
+        || similarityMeasure == SimilarityMeasure.AllPairsSpearman;
+  }
+
+  /** 
+   * Whether the recommender or its similarity copies the data model into structures of its own
+   * when it is built, as indexed, bit set, all-pairs and merge similarities and boolean 
+   * recommenders do. They never read a QuantizedDataModel, so none is built for them.
+   */
+  boolean copiesDataModel()
+  {
+    String measure = similarityMeasure.name();
+    return recommenderName == RecommenderName.BooleanUserBased 
+        || recommenderName == RecommenderName.BooleanItemBased
+        || measure.startsWith("Indexed") || measure.startsWith("BitSet") 
+        || measure.startsWith("Merge") || computesAllPairs();
+  }
+
+  /** Bytes of the quantized data model and factors of the last recommender built. */
+  long getQuantizedBytes()
+  {
+    long bytes = quantizedDataModel == null ? 0 : quantizedDataModel.getSizeInBytes();
+    if (quantizingFactorizer != null && quantizingFactorizer.getLastFactorization() != null)
+      bytes += quantizingFactorizer.getLastFactorization().getSizeInBytes();
+    return bytes;
+  }
+
+  /** Bytes the same data model and factors take unquantized. */
+  long getPlainBytes()
+  {
+    long bytes = quantizedDataModel == null ? 0 : quantizedDataModel.getPlainSizeInBytes();
+    if (quantizingFactorizer != null && quantizingFactorizer.getLastFactorization() != null)
+      bytes += quantizingFactorizer.getLastFactorization().getPlainSizeInBytes();
+    return bytes;
   }
 
   @Override
   public Recommender buildRecommender(DataModel dataModel) throws TasteException
   {
+    quantizedDataModel = null;
+    quantizingFactorizer = null;
+    similarityCache = null;
+    if (quantization != null && !copiesDataModel()) {
+      quantizedDataModel = new QuantizedDataModel(dataModel);
+      dataModel = quantizedDataModel;
+    }
+
+    if (recommenderName == RecommenderName.BooleanUserBased 
+        || recommenderName == RecommenderName.BooleanItemBased)
+      dataModel = new BitSetDataModel(dataModel);
+    else if (similarityMeasure.name().startsWith("Indexed"))
+      dataModel = new IndexedDataModel(dataModel);
+
     UserSimilarity similarity; 
     switch (similarityMeasure) {
       case None: 
@@ -87,22 +205,109 @@ public class DynamicRecommenderBuilder implements RecommenderBuilder
       case LogLikelihood:
         similarity = new LogLikelihoodSimilarity(dataModel);
         break;
+      case BitSetTanimoto:
+        similarity = new BitSetSimilarity(bitSetDataModel(dataModel), 
+            BitSetSimilarity.Measure.TANIMOTO);
+        break;
+      case BitSetLogLikelihood:
+        similarity = new BitSetSimilarity(bitSetDataModel(dataModel), 
+            BitSetSimilarity.Measure.LOG_LIKELIHOOD);
+        break;
+      case IndexedPearson:
+        similarity = new IndexedCorrelationSimilarity((IndexedDataModel) dataModel, 
+            IndexedCorrelationSimilarity.Measure.PEARSON);
+        break;
+      case IndexedPearsonW:
+        similarity = new IndexedCorrelationSimilarity((IndexedDataModel) dataModel, 
+            IndexedCorrelationSimilarity.Measure.PEARSON, Weighting.WEIGHTED);
+        break;
+      case IndexedUncenteredCosine:
+        similarity = new IndexedCorrelationSimilarity((IndexedDataModel) dataModel, 
+            IndexedCorrelationSimilarity.Measure.UNCENTERED_COSINE);
+        break;
+      case IndexedEuclidian:
+        similarity = new IndexedCorrelationSimilarity((IndexedDataModel) dataModel, 
+            IndexedCorrelationSimilarity.Measure.EUCLIDEAN);
+        break;
+      case IndexedEuclidianW:
+        similarity = new IndexedCorrelationSimilarity((IndexedDataModel) dataModel, 
+            IndexedCorrelationSimilarity.Measure.EUCLIDEAN, Weighting.WEIGHTED);
+        break;
+      case AllPairsPearson:
+        similarity = new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.PEARSON);
+        break;
+      case AllPairsPearsonW:
+        similarity = new AllPairsUserSimilarity(dataModel, AllPairsUserSimilarity.Measure.PEARSON, 
+            Weighting.WEIGHTED, 0);
+        break;
+      case AllPairsEuclidian:
+        similarity = new AllPairsUserSimilarity(dataModel, 
+            AllPairsUserSimilarity.Measure.EUCLIDEAN);
+        break;
+      case AllPairsEuclidianW:
+        similarity = new AllPairsUserSimilarity(dataModel, 
+            AllPairsUserSimilarity.Measure.EUCLIDEAN, Weighting.WEIGHTED, 0);
+        break;
+      case AllPairsSpearman:
+        similarity = new AllPairsUserSimilarity(dataModel, 
+            AllPairsUserSimilarity.Measure.SPEARMAN);
+        break;
+      case MergePearson:
+        similarity = new MergeCorrelationSimilarity(dataModel, 
+            MergeCorrelationSimilarity.Measure.PEARSON);
+        break;
+      case MergePearsonW:
+        similarity = new MergeCorrelationSimilarity(dataModel, 
+            MergeCorrelationSimilarity.Measure.PEARSON, Weighting.WEIGHTED);
+        break;
+      case MergeUncenteredCosine:
+        similarity = new MergeCorrelationSimilarity(dataModel, 
+            MergeCorrelationSimilarity.Measure.UNCENTERED_COSINE);
+        break;
+      case MergeEuclidian:
+        similarity = new MergeCorrelationSimilarity(dataModel, 
+            MergeCorrelationSimilarity.Measure.EUCLIDEAN);
+        break;
+      case MergeEuclidianW:
+        similarity = new MergeCorrelationSimilarity(dataModel, 
+            MergeCorrelationSimilarity.Measure.EUCLIDEAN, Weighting.WEIGHTED);
+        break;
+      case MergeSpearman:
+        similarity = new MergeCorrelationSimilarity(dataModel, 
+            MergeCorrelationSimilarity.Measure.SPEARMAN);
+        break;
       default:
         throw new RuntimeException("No similarity measure set.");
     }
     
     UserNeighborhood userNeighborhood = null;
     if (nearestN != -1) {
-      if (nearestN < 1) {
+      if (neighborhoodType != NeighborhoodType.Exact) {
+        logger.info("using LSHUserNeighborhood " + neighborhoodType + " with N " + nearestN);
+        if (nearestN < 1)
+          userNeighborhood = lshNeighborhood(Integer.MAX_VALUE, nearestN, similarity, dataModel);
+        else
+          userNeighborhood = lshNeighborhood((int) nearestN, Double.NEGATIVE_INFINITY, similarity, 
+              dataModel);
+      }
+      else if (nearestN < 1) {
         logger.info("using ThresholdUserNeighborhood with threshold " + nearestN);
         userNeighborhood = new ThresholdUserNeighborhood(nearestN, similarity, dataModel);
       }
+      else if (similarity instanceof IndexedCorrelationSimilarity) {
+        logger.info("using IndexedNearestNUserNeighborhood with N " + nearestN);
+        userNeighborhood = new IndexedNearestNUserNeighborhood((int) nearestN, 
+            (IndexedCorrelationSimilarity) similarity);
+      }
       else {
         logger.info("using NearestNUserNeighborhood with N " + nearestN);
         userNeighborhood = new NearestNUserNeighborhood((int) nearestN, similarity, dataModel);
       }
     }
     
+    // caches to keep up to date when the data model is a DeltaDataModel
+    UserSimilarity userCache = null;
+    ItemSimilarity itemCache = null;
     Recommender recommender;
     switch (recommenderName) {
       case Random:
@@ -115,20 +320,21 @@ public class DynamicRecommenderBuilder implements RecommenderBuilder
         recommender = new ItemUserAverageRecommender(dataModel);
         break;
       case GenericUserBased:
-        similarity = new CachingUserSimilarity(similarity, dataModel);
+        // all pairs are looked up already, a cache would only take memory
+        if (!(similarity instanceof AllPairsUserSimilarity))
+          similarity = userCache = userCache(similarity, dataModel);
         if (userNeighborhood == null)
           throw new RuntimeException("UserNeighborhood should be defined when using "
               + "GenericUserBasedRecommender");
-        recommender = new GenericUserBasedRecommender(dataModel, userNeighborhood, similarity);
+        recommender = new BatchUserBasedRecommender(dataModel, userNeighborhood, similarity);
         break;
       case GenericItemBased:
-        ItemSimilarity iSimilarity = new CachingItemSimilarity((ItemSimilarity) similarity, 
-            dataModel);
-        recommender = new GenericItemBasedRecommender(dataModel, iSimilarity);
+        ItemSimilarity iSimilarity = itemCache = itemCache((ItemSimilarity) similarity, dataModel);
+        recommender = new BatchItemBasedRecommender(dataModel, iSimilarity);
         break;
       case BiasedItemBased:
-        ItemSimilarity iSimilarity2 = new CachingItemSimilarity((ItemSimilarity) similarity, 
-          dataModel);
+        ItemSimilarity iSimilarity2 = itemCache = itemCache((ItemSimilarity) similarity, 
+            dataModel);
         recommender = new BiasedItemBasedRecommender(dataModel, iSimilarity2);
         break;
       case SlopeOne: // not in Mahout 0.9
@@ -140,24 +346,36 @@ public class DynamicRecommenderBuilder implements RecommenderBuilder
             diffStorage);
         break;
       case SVD_ALS:
-        recommender = new SVDRecommender(dataModel, new ALSWRFactorizer(dataModel, 10, 0.05, 10));
+        recommender = new BatchSVDRecommender(dataModel, factorizer(new ALSWRFactorizer(
+          dataModel, 10, 0.05, 10)));
         break;
       case SVD_FUNK: // not in Mahout 0.9
-        recommender = new SVDRecommender(dataModel, new FunkSVDFactorizer(dataModel, 10, 10));
+        recommender = new BatchSVDRecommender(dataModel, factorizer(new FunkSVDFactorizer(
+          dataModel, 10, 10)));
         break;
       case SVD_ILR: // not in Mahout 0.9
-        recommender = new SVDRecommender(dataModel, new ImplicitLinearRegressionFactorizer(
-          dataModel, 10, 10, 0.1));
+        recommender = new BatchSVDRecommender(dataModel, factorizer(
+          new ImplicitLinearRegressionFactorizer(dataModel, 10, 10, 0.1)));
         break;
       case SVD_PlusPlus: // not in Mahout 0.9
-        recommender = new SVDRecommender(dataModel, new SVDPlusPlusFactorizer(dataModel, 10, 10));
+        recommender = new BatchSVDRecommender(dataModel, factorizer(new SVDPlusPlusFactorizer(
+          dataModel, 10, 10)));
         break;
       case SVD_PSGD: // not in Mahout 0.9
-        recommender = new SVDRecommender(dataModel, new ParallelArraysSGDFactorizer(
-          dataModel, 10, 10));
+        recommender = new BatchSVDRecommender(dataModel, factorizer(new ParallelArraysSGDFactorizer(
+          dataModel, 10, 10)));
         break;
       case SVD_RSGD: // not in Mahout 0.9
-        recommender = new SVDRecommender(dataModel, new RatingSGDFactorizer(dataModel, 10, 10));
+        recommender = new BatchSVDRecommender(dataModel, factorizer(new RatingSGDFactorizer(
+          dataModel, 10, 10)));
+        break;
+      case SVD_Hogwild:
+        recommender = new BatchSVDRecommender(dataModel, factorizer(new ConcurrentSGDFactorizer(
+          dataModel, 10, 10, ConcurrentSGDFactorizer.Schedule.HOGWILD)));
+        break;
+      case SVD_DSGD:
+        recommender = new BatchSVDRecommender(dataModel, factorizer(new ConcurrentSGDFactorizer(
+          dataModel, 10, 10, ConcurrentSGDFactorizer.Schedule.STRATIFIED)));
         break;
       case KnnItemBased: // not in Mahout 0.9
         Optimizer optimizer = new NonNegativeQuadraticOptimizer();
@@ -173,18 +391,108 @@ public class DynamicRecommenderBuilder implements RecommenderBuilder
         recommender = new TreeClusteringRecommender2(dataModel, clusterSimilarity2, 10);
         break;
       case BookCrossing:
-        similarity = new CachingUserSimilarity(similarity, dataModel);
-        UserNeighborhood neighborhood = new NearestNUserNeighborhood(10, 0.2, similarity, dataModel,
-            0.2);
-        recommender = new GenericUserBasedRecommender(dataModel, neighborhood, similarity);
+        similarity = userCache = userCache(similarity, dataModel);
+        UserNeighborhood neighborhood;
+        if (neighborhoodType != NeighborhoodType.Exact)
+          neighborhood = lshNeighborhood(10, 0.2, similarity, dataModel);
+        else
+          neighborhood = new NearestNUserNeighborhood(10, 0.2, similarity, dataModel, 0.2);
+        recommender = new BatchUserBasedRecommender(dataModel, neighborhood, similarity);
         break;
       case KddCupTrack1:
-        recommender = new GenericItemBasedRecommender(dataModel, (ItemSimilarity) similarity);
+        recommender = new BatchItemBasedRecommender(dataModel, (ItemSimilarity) similarity);
+        break;
+      case BooleanUserBased:
+        similarity = userCache = userCache(similarity, dataModel);
+        if (userNeighborhood == null)
+          throw new RuntimeException("UserNeighborhood should be defined when using "
+              + "BooleanUserBased");
+        recommender = new GenericBooleanPrefUserBasedRecommender(dataModel, userNeighborhood, 
+            similarity);
+        break;
+      case BooleanItemBased:
+        itemCache = itemCache((ItemSimilarity) similarity, dataModel);
+        recommender = new GenericBooleanPrefItemBasedRecommender(dataModel, itemCache);
         break;
       default:
         throw new RuntimeException("No recommender measure set.");
     }
+    if (dataModel instanceof DeltaDataModel && (userCache != null || itemCache != null))
+      ((DeltaDataModel) dataModel).addListener(
+          new SimilarityCacheInvalidator(userCache, itemCache));
     return recommender;
   };
 
+  /**
+   * The similarity wrapped in a cache, bounded if similarityCacheBytes is set.
+   */
+  private UserSimilarity userCache(UserSimilarity similarity, DataModel dataModel) 
+      throws TasteException
+  {
+    if (similarityCacheBytes <= 0)
+      return new CachingUserSimilarity(similarity, dataModel);
+    BoundedCachingUserSimilarity cache = new BoundedCachingUserSimilarity(similarity, 
+        similarityCacheBytes);
+    similarityCache = cache.getCache();
+    return cache;
+  }
+
+  /**
+   * The similarity wrapped in a cache, bounded if similarityCacheBytes is set.
+   */
+  private ItemSimilarity itemCache(ItemSimilarity similarity, DataModel dataModel) 
+      throws TasteException
+  {
+    if (similarityCacheBytes <= 0)
+      return new CachingItemSimilarity(similarity, dataModel);
+    BoundedCachingItemSimilarity cache = new BoundedCachingItemSimilarity(similarity, 
+        similarityCacheBytes);
+    similarityCache = cache.getCache();
+    return cache;
+  }
+
+  /**
+   * An LSHUserNeighborhood with the signature and the bands and rows of the neighborhood type.
+   */
+  private UserNeighborhood lshNeighborhood(int n, double minSimilarity, UserSimilarity similarity,
+      DataModel dataModel) throws TasteException
+  {
+    switch (neighborhoodType) {
+      case MinHash:
+        return new LSHUserNeighborhood(n, minSimilarity, similarity, dataModel, 
+            LSHUserNeighborhood.Signature.MIN_HASH, MIN_HASH_BANDS, MIN_HASH_ROWS, 0);
+      case Hyperplane:
+        return new LSHUserNeighborhood(n, minSimilarity, similarity, dataModel, 
+            LSHUserNeighborhood.Signature.HYPERPLANE, HYPERPLANE_BANDS, HYPERPLANE_ROWS, 0);
+      case CenteredHyperplane:
+        return new LSHUserNeighborhood(n, minSimilarity, similarity, dataModel, 
+            LSHUserNeighborhood.Signature.CENTERED_HYPERPLANE, HYPERPLANE_BANDS, HYPERPLANE_ROWS, 
+            0);
+      default:
+        throw new RuntimeException("Not an LSH neighborhood: " + neighborhoodType);
+    }
+  }
+
+  /**
+   * The factorizer, wrapped in a QuantizingFactorizer if quantization is on.
+   */
+  private Factorizer factorizer(Factorizer factorizer)
+  {
+    if (quantization == null)
+      return factorizer;
+    quantizingFactorizer = new QuantizingFactorizer(factorizer, quantization);
+    return quantizingFactorizer;
+  }
+
+  /**
+   * The bitset similarities need a BitSetDataModel; other models are converted, which ignores 
+   * their preference values.
+   */
+  private static BitSetDataModel bitSetDataModel(DataModel dataModel) throws TasteException
+  {
+    if (dataModel instanceof BitSetDataModel)
+      return (BitSetDataModel) dataModel;
+    return new BitSetDataModel(dataModel);
+  }
+
 }
@@ -2,6 +2,7 @@ package performancetests;
 
 import static performancetests.DynamicRecommenderBuilder.RecommenderName.*;
 import static performancetests.DynamicRecommenderBuilder.SimilarityMeasure.*;
+import static performancetests.DynamicRecommenderBuilder.NeighborhoodType.*;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -10,14 +11,17 @@ import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.util.Date;
 
+import javax.management.JMException;
+
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.IRStatistics;
-import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
-import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
+import org.apache.mahout.cf.taste.impl.common.BoundedSimilarityCache;
+import org.apache.mahout.cf.taste.impl.common.LatencyHistogram;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.eval.*;
-import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+import org.apache.mahout.cf.taste.impl.recommender.svd.QuantizedFactorization.Precision;
+import org.apache.mahout.cf.taste.impl.similarity.AllPairsUserSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.joda.time.Period;
@@ -34,7 +38,39 @@ public class EvaluationRunner
 {
   static Logger logger = LoggerFactory.getLogger(EvaluationRunner.class);
   
-  public static void main(String[] args) throws IOException, TasteException
+  /** Seed of the split of the first run; run j uses SPLIT_SEED + j. */
+  static final long SPLIT_SEED = 42;
+  
+  /** 
+   * If positive, evaluation stops once the 95% confidence interval is this narrow ... 
+   * The av abs dif and rank score columns are then estimates over the users in the users column 
+   * instead of over all test users; 0 evaluates all test users.
+   */
+  static final double MAX_INTERVAL_WIDTH = 0;
+  /** ... or after this time, if positive, whichever comes first (for instance 10 * 60 * 1000). */
+  static final long TIME_BUDGET_MILLIS = 0;
+  
+  /** 
+   * If set, for instance to Precision.INT8, every algorithm is trained a second time on quantized
+   * storage, and the av abs dif and the memory of both are compared in four more columns; null 
+   * skips this. Algorithms that copy the data model into their own structures, see 
+   * DynamicRecommenderBuilder.copiesDataModel, are not run again and get empty cells.
+   */
+  static final Precision QUANTIZATION = null;
+
+  /** 
+   * Budget of the bounded cache that similarities are kept in; 0 uses Mahout's caches, which are
+   * bounded by a number of entries only and have no counts.
+   */
+  static final long SIMILARITY_CACHE_BYTES = 64L * 1024 * 1024;
+
+  /** 
+   * The all-pairs similarities are only run on data sets whose similarity matrix fits in this; 
+   * ml-1M takes 70 MB, ml-10M would take 9.8 GB.
+   */
+  static final long MAX_ALL_PAIRS_BYTES = 1024L * 1024 * 1024;
+  
+  public static void main(String[] args) throws IOException, TasteException, JMException
   {
     String dataDirectory = "data";
     String[] dataSets = {"dataset32.csv", "ml-10k.csv", "ml-100k.csv", "ml-1M.csv", "ml-10M.csv"};
@@ -71,12 +107,34 @@ public class EvaluationRunner
         { "UB Spearman th.5", GenericUserBased, Spearman, .5 },
         { "UB Spearman th.7", GenericUserBased, Spearman, .7 },
         { "UB Spearman th.9", GenericUserBased, Spearman, .9 },
+        { "UB AllPairsPearson 4nn", GenericUserBased, AllPairsPearson, 4 }, 
+        { "UB AllPairsPearsonW th.9", GenericUserBased, AllPairsPearsonW, .9 }, 
+        { "UB AllPairsEuclidian 4nn", GenericUserBased, AllPairsEuclidian, 4 }, 
+        { "UB AllPairsEuclidianW th.9", GenericUserBased, AllPairsEuclidianW, .9 }, 
+        { "UB AllPairsSpearman th.7", GenericUserBased, AllPairsSpearman, .7 },
+        { "UB Pearson 4nn LSH", GenericUserBased, Pearson, 4, CenteredHyperplane }, 
+        { "UB Pearson th.9 LSH", GenericUserBased, Pearson, .9, CenteredHyperplane }, 
+        { "UB UncenteredCosine 4nn LSH", GenericUserBased, UncenteredCosine, 4, Hyperplane }, 
+        { "UB Tanimoto 4nn LSH", GenericUserBased, Tanimoto, 4, MinHash }, 
         { "IB Pearson", GenericItemBased, Pearson },
         { "IB PearsonW", GenericItemBased, PearsonW },
         { "IB Euclidian", GenericItemBased, Euclidian },
         { "IB EuclidianW", GenericItemBased, EuclidianW },
         { "IB Tanimoto", GenericItemBased, Tanimoto },
         { "IB LogLikelihood", GenericItemBased, LogLikelihood },
+        { "UB IndexedPearson 4nn", GenericUserBased, IndexedPearson, 4 },
+        { "UB IndexedEuclidian th.9", GenericUserBased, IndexedEuclidian, .9 },
+        { "UB MergePearson 4nn", GenericUserBased, MergePearson, 4 },
+        { "UB MergeEuclidian th.9", GenericUserBased, MergeEuclidian, .9 },
+        { "UB MergeSpearman th.7", GenericUserBased, MergeSpearman, .7 },
+        { "IB IndexedPearson", GenericItemBased, IndexedPearson },
+        { "IB IndexedEuclidian", GenericItemBased, IndexedEuclidian },
+        { "IB MergePearson", GenericItemBased, MergePearson },
+        { "IB MergeEuclidian", GenericItemBased, MergeEuclidian },
+        { "IB Tanimoto bitset", GenericItemBased, BitSetTanimoto },
+        { "IB LogLikelihood bitset", GenericItemBased, BitSetLogLikelihood },
+        { "BoolIB LogLikelihood", BooleanItemBased, BitSetLogLikelihood },
+        { "BoolUB LogLikelihood 10nn", BooleanUserBased, BitSetLogLikelihood, 10 },
         { "BIB Pearson", BiasedItemBased, Pearson },
         { "BIB Euclidian", BiasedItemBased, Euclidian },
         { "SlopeOne", SlopeOne, None }, // not in Mahout 0.9
@@ -87,10 +145,13 @@ public class EvaluationRunner
         { "SVD_PlusPlus", SVD_PlusPlus, None }, // not in Mahout 0.9
         { "SVD_PSGD", SVD_PSGD, None }, // not in Mahout 0.9
         { "SVD_RSGD", SVD_RSGD, None }, // not in Mahout 0.9
+        { "SVD_Hogwild", SVD_Hogwild, None },
+        { "SVD_DSGD", SVD_DSGD, None },
         { "KnnItemBased", KnnItemBased, LogLikelihood }, // not in Mahout 0.9
 //        { "TreeClustering", TreeClustering, LogLikelihood }, // not in Mahout 0.9 // takes very long
         { "TreeClustering2", TreeClustering2, LogLikelihood }, // not in Mahout 0.9
         { "BookCrossing", BookCrossing, Euclidian }, 
+        { "BookCrossing LSH", BookCrossing, Euclidian, -1, CenteredHyperplane }, 
         { "KddCupTrack1", KddCupTrack1, UncenteredCosine }, // not in Mahout 0.9
     };
     
@@ -106,8 +167,12 @@ public class EvaluationRunner
     writer.println();
 
     writer.println("data set,algorithm,run,mem,1st rec (s),mem,2nd rec (s),mem,"
-        + "avg time,ct,"
-        + "av abs dif,dur (s),rank score, dur (s),prec,recall,fallout,F1 msr,nDCG,dur (s)");
+        + "avg time,ct,rec p50 (ms),rec p90,rec p99,rec p99.9,rec max,"
+        + "train (s),av abs dif,ci low,ci high,users,dur (s),est p50 (us),est p90,est p99,est p99.9,"
+        + "est max,estimated,NaN,no user,no item,rank score,ci low,ci high,users,dur (s),prec,recall,fallout,F1 msr,nDCG,dur (s),"
+        + "sim cache hits,misses,evictions,hit rate,"
+        + (QUANTIZATION == null ? "" 
+            : "quant. av abs dif,quant. change,plain (MB),quantized (MB)"));
 
     for (int i=0; i<dataSets.length; i++) 
     {
@@ -116,12 +181,24 @@ public class EvaluationRunner
       System.out.println();
       System.out.println("Using data set: " + dataSet);
       System.out.println();
-      DataModel dataModel = new FileDataModel(new File(dataDirectory + "/" + dataSet));
+      DataModel dataModel = RatingsFile.load(new File(dataDirectory + "/" + dataSet));
+      System.out.println("Preferences off heap: " + dataModel);
 
       for (Object[] configuration : recommenders)
       {
         
         DynamicRecommenderBuilder recommenderBuilder = new DynamicRecommenderBuilder(configuration);
+        recommenderBuilder.setSimilarityCacheBytes(SIMILARITY_CACHE_BYTES);
+        
+        long allPairsBytes = AllPairsUserSimilarity.matrixBytes(dataModel.getNumUsers());
+        if (recommenderBuilder.computesAllPairs() && allPairsBytes > MAX_ALL_PAIRS_BYTES)
+        {
+          System.out.println("Skipping " + recommenderBuilder.name + ": all pairs would take " 
+              + (allPairsBytes >> 20) + " MB");
+          writer.println(dataSet + "," + recommenderBuilder.name + ",skipped: all pairs would take "
+              + (allPairsBytes >> 20) + " MB");
+          continue;
+        }
         
         System.out.println();
         System.out.println("Testing " + recommenderBuilder.name);
@@ -166,44 +243,74 @@ public class EvaluationRunner
           System.out.println("Duration: " + PeriodFormat.getDefault().print(period));
           
           // run load evaluator
-          LoadStatistics loadStats = LoadEvaluator.runLoad(recommender);
-          RunningAverage timing = loadStats.getTiming();
-          System.out.println("LoadEvaluator: av: " + timing.getAverage());
-          System.out.println("LoadEvaluator: ct: " + timing.getCount());
-          writer.printf("%.2f,", timing.getAverage());
-          writer.printf("%d,", timing.getCount());
+          LatencyHistogram recommendLatency = LatencyLoadEvaluator.runLoad(recommender);
+          double averageMillis = recommendLatency.getMeanNanos() / 1000000.0;
+          System.out.println("LoadEvaluator: av: " + averageMillis);
+          System.out.println("LoadEvaluator: ct: " + recommendLatency.getCount());
+          System.out.println("LoadEvaluator: " + recommendLatency);
+          writer.printf("%.2f,", averageMillis);
+          writer.printf("%d,", recommendLatency.getCount());
+          printPercentiles(writer, recommendLatency, 1000000.0);
+
+          // split the data and train the recommender once, for all metrics below; run j of every
+          // algorithm uses the same split, which is kept next to the data set for later runs
+          File dataFile = new File(dataDirectory + "/" + dataSet);
+          TrainingTestSplit trainingTestSplit = SplitFile.loadOrCreate(dataModel, 
+              SplitFile.fileFor(dataFile, 0.9, 1.0, SPLIT_SEED + j), 0.9, 1.0, SPLIT_SEED + j);
+          EvaluationSession session = new EvaluationSession(recommenderBuilder, null, 
+              trainingTestSplit);
+          writer.printf("%.3f,", session.getTrainingTimeMillis()/1000.0);
+          System.out.println("Training: " + PeriodFormat.getDefault().print(
+              new Period(session.getTrainingTimeMillis()).normalizedStandard()));
 
           // evaluate recommender: Av abs diff
-          RecommenderEvaluator evaluator = new AverageAbsoluteDifferenceRecommenderEvaluator();
+          AbstractRankBasedRecommenderEvaluator evaluator = 
+              new AbsoluteDifferenceRecommenderEvaluator();
+          // the outcome counts can be watched with jconsole while the evaluation runs
+          evaluator.getDiagnostics().registerMBean("AbsoluteDifference");
           start = System.nanoTime();
-          double avAbsDif = evaluator.evaluate(recommenderBuilder, null, dataModel, 0.9, 1.0);
+          ProgressiveEvaluation avAbsDif;
+          try
+          {
+            avAbsDif = evaluator.evaluateProgressively(session, MAX_INTERVAL_WIDTH, 
+                TIME_BUDGET_MILLIS);
+          }
+          finally
+          {
+            evaluator.getDiagnostics().unregisterMBean();
+          }
           
           split = System.nanoTime();
           millis = (split - start) / 1000000;
           period = new Period(millis).normalizedStandard();
-          writer.printf("%.2f,", avAbsDif);
+          printProgressive(writer, avAbsDif);
           writer.printf("%f,", millis/1000.0);
+          printPercentiles(writer, evaluator.getEstimateLatency(), 1000.0);
+          printDiagnostics(writer, evaluator.getDiagnostics());
           System.out.println("AvAbsDiff: " + avAbsDif);
+          System.out.println("Estimates: " + evaluator.getEstimateLatency());
           System.out.println("Duration: " + PeriodFormat.getDefault().print(period));
 
           // evaluate recommender: rank-based
-          RecommenderEvaluator rankBasedEvaluator = new RankBasedRecommenderEvaluator();
+          AbstractRankBasedRecommenderEvaluator rankBasedEvaluator = 
+              new RankBasedRecommenderEvaluator();
           start = System.nanoTime();
-          double rankScore = rankBasedEvaluator.evaluate(recommenderBuilder, null, dataModel, 0.9, 1.0);
+          ProgressiveEvaluation rankScore = rankBasedEvaluator.evaluateProgressively(session, 
+              MAX_INTERVAL_WIDTH, TIME_BUDGET_MILLIS);
           
           split = System.nanoTime();
           millis = (split - start) / 1000000;
           period = new Period(millis).normalizedStandard();
-          writer.printf("%.2f,", rankScore);
+          printProgressive(writer, rankScore);
           writer.printf("%f,", millis/1000.0);
           System.out.println("rankScore: " + rankScore);
           System.out.println("Duration: " + PeriodFormat.getDefault().print(period));
           
           // calculate IR statistics
-          RecommenderIRStatsEvaluator statsEvaluator = new GenericRecommenderIRStatsEvaluator();
+          HoldoutIRStatsEvaluator statsEvaluator = new HoldoutIRStatsEvaluator();
           start = System.nanoTime();
-          IRStatistics stats = statsEvaluator.evaluate(recommenderBuilder, null, dataModel, null, 
-              10, GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+          IRStatistics stats = statsEvaluator.evaluate(session, null, 10, 
+              GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD);
           
           split = System.nanoTime();
           millis = (split - start) / 1000000;
@@ -220,6 +327,28 @@ public class EvaluationRunner
           System.out.println("F1 measure: " + stats.getF1Measure());
           System.out.println("nDCG: " + stats.getNormalizedDiscountedCumulativeGain());
           System.out.println("Duration: " + PeriodFormat.getDefault().print(period));
+
+          // similarity cache of the recommender of the session, over all evaluations above
+          printSimilarityCache(writer, recommenderBuilder.getSimilarityCache());
+
+          // train again on quantized storage, on the same split, and compare
+          if (QUANTIZATION != null && recommenderBuilder.copiesDataModel())
+            writer.print(",,,,");
+          else if (QUANTIZATION != null) 
+          {
+            DynamicRecommenderBuilder quantizedBuilder = new DynamicRecommenderBuilder(configuration);
+            quantizedBuilder.setQuantization(QUANTIZATION);
+            quantizedBuilder.setSimilarityCacheBytes(SIMILARITY_CACHE_BYTES);
+            EvaluationSession quantizedSession = new EvaluationSession(quantizedBuilder, null, 
+                trainingTestSplit);
+            ProgressiveEvaluation quantizedAvAbsDif = new AbsoluteDifferenceRecommenderEvaluator()
+                .evaluateProgressively(quantizedSession, MAX_INTERVAL_WIDTH, TIME_BUDGET_MILLIS);
+            writer.printf("%.4f,", quantizedAvAbsDif.getEstimate());
+            writer.printf("%.4f,", quantizedAvAbsDif.getEstimate() - avAbsDif.getEstimate());
+            writer.printf("%.2f,", quantizedBuilder.getPlainBytes() / 1024.0 / 1024.0);
+            writer.printf("%.2f,", quantizedBuilder.getQuantizedBytes() / 1024.0 / 1024.0);
+            System.out.println("Quantized AvAbsDiff: " + quantizedAvAbsDif);
+          }
           
           // Order-based evaluator - this is actually not usefull since it is intended to compare
           // two recommenders
@@ -240,6 +369,58 @@ public class EvaluationRunner
     writer.close();
   }
 
+  /**
+   * Writes the hits, misses, evictions and hit rate of a similarity cache, or empty columns if
+   * there is none.
+   */
+  static void printSimilarityCache(PrintWriter writer, BoundedSimilarityCache cache)
+  {
+    if (cache == null) {
+      writer.printf(",,,,");
+      return;
+    }
+    writer.printf("%d,", cache.getHits());
+    writer.printf("%d,", cache.getMisses());
+    writer.printf("%d,", cache.getEvictions());
+    writer.printf("%.4f,", cache.getHitRate());
+    System.out.println("Similarity cache: " + cache);
+  }
+
+  /**
+   * Writes the estimate, confidence interval and number of evaluated users of an evaluation.
+   */
+  static void printProgressive(PrintWriter writer, ProgressiveEvaluation evaluation)
+  {
+    writer.printf("%.4f,", evaluation.getEstimate());
+    writer.printf("%.4f,", evaluation.getLowerBound());
+    writer.printf("%.4f,", evaluation.getUpperBound());
+    writer.printf("%d,", evaluation.getNumUsersEvaluated());
+  }
+
+  /**
+   * Writes the outcome counts of the estimates of an evaluation.
+   */
+  static void printDiagnostics(PrintWriter writer, EvaluationDiagnostics diagnostics)
+  {
+    // no capped columns: the evaluators get no minimum and maximum preference, so nothing is capped
+    writer.printf("%d,", diagnostics.getCount(EvaluationDiagnostics.Outcome.ESTIMATED));
+    writer.printf("%d,", diagnostics.getCount(EvaluationDiagnostics.Outcome.NAN));
+    writer.printf("%d,", diagnostics.getCount(EvaluationDiagnostics.Outcome.NO_USER));
+    writer.printf("%d,", diagnostics.getCount(EvaluationDiagnostics.Outcome.NO_ITEM));
+  }
+
+  /**
+   * Writes the p50, p90, p99, p99.9 and max columns of a latency histogram.
+   * @param unitNanos nanoseconds per unit of the columns
+   */
+  static void printPercentiles(PrintWriter writer, LatencyHistogram latency, double unitNanos)
+  {
+    for (double percentile : new double[] { 50.0, 90.0, 99.0, 99.9 }) {
+      writer.printf("%.3f,", latency.getValueAtPercentile(percentile) / unitNanos);
+    }
+    writer.printf("%.3f,", latency.getMaxNanos() / unitNanos);
+  }
+
   static int getUsedMemory()
   {
     return (int) ((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024);
@@ -0,0 +1,133 @@
+package performancetests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.eval.TrainingTestSplit;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+import org.apache.mahout.cf.taste.impl.recommender.svd.ConcurrentSGDFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.ConcurrentSGDFactorizer.Schedule;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.RatingSGDFactorizer;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+
+/**
+ * This class compares the training time and the RMSE of Mahout's RatingSGDFactorizer with those 
+ * of ConcurrentSGDFactorizer, with both schedules and 1, 2, 4, ... threads up to the number of 
+ * processors. All factorizers get the same parameters and the same 90% training split; the test 
+ * RMSE is measured on the other 10%. The epoch times and training RMSE per epoch of every 
+ * ConcurrentSGDFactorizer are logged.
+ * <p>
+ * Arguments: [rating file]; the default is data/ml-100k.csv.
+ */
+public class FactorizerBenchmark
+{
+  static final int FEATURES = 10;
+  static final int EPOCHS = 20;
+  static final long SEED = 42;
+
+  public static void main(String[] args) throws IOException, TasteException
+  {
+    String dataSet = args.length > 0 ? args[0] : "data/ml-100k.csv";
+    DataModel model = RatingsFile.load(new File(dataSet));
+    TrainingTestSplit split = new TrainingTestSplit(model, 0.9, 1.0, SEED);
+    DataModel training = split.getTrainingModel();
+    int processors = Runtime.getRuntime().availableProcessors();
+
+    String today = DateFormat.getDateTimeInstance().format(new Date()).replace(':', '_');
+    PrintWriter writer = new PrintWriter(
+      new FileOutputStream("results/factorizer-benchmark-" + today + ".csv"), true);
+    writer.println( "Java version," + System.getProperty("java.version") );
+    writer.println( "Data set," + dataSet );
+    writer.println( "Processors," + processors );
+    writer.println( "Features," + FEATURES );
+    writer.println( "Epochs," + EPOCHS );
+    writer.println();
+    writer.println("factorizer,schedule,threads,ms,ms/epoch,speed-up,training RMSE,test RMSE");
+
+    // warm up the JIT
+    new ConcurrentSGDFactorizer(training, FEATURES, 0.01, 0.1, 0.01, 2, 1.0, processors, 
+        Schedule.HOGWILD, SEED).factorize();
+
+    double stockMillis = run(writer, split, "RatingSGDFactorizer", "", 1, 
+        new RatingSGDFactorizer(training, FEATURES, 0.01, 0.1, 0.01, EPOCHS, 1.0), 0.0);
+    for (Schedule schedule : Schedule.values()) 
+    {
+      for (int threads = 1; threads <= processors; threads = nextThreads(threads, processors)) {
+        ConcurrentSGDFactorizer factorizer = new ConcurrentSGDFactorizer(training, FEATURES, 0.01, 
+            0.1, 0.01, EPOCHS, 1.0, threads, schedule, SEED);
+        run(writer, split, "ConcurrentSGDFactorizer", schedule.toString(), threads, factorizer, 
+            stockMillis);
+      }
+    }
+    writer.println("Done.");
+    writer.close();
+  }
+
+  /** 1, 2, 4, ... and finally the number of processors. */
+  static int nextThreads(int threads, int processors)
+  {
+    if (threads == processors)
+      return processors + 1;
+    return Math.min(2 * threads, processors);
+  }
+
+  /** Trains the factorizer, prints a line, and returns the training time in milliseconds. */
+  static double run(PrintWriter writer, TrainingTestSplit split, String name, String schedule, 
+      int threads, Factorizer factorizer, double stockMillis) throws TasteException
+  {
+    long start = System.nanoTime();
+    Factorization factorization = factorizer.factorize();
+    double millis = (System.nanoTime() - start) / 1000000.0;
+    String trainingRmse = "";
+    if (factorizer instanceof ConcurrentSGDFactorizer) {
+      double[] epochRmse = ((ConcurrentSGDFactorizer) factorizer).getEpochRmse();
+      trainingRmse = String.format("%.4f", epochRmse[epochRmse.length - 1]);
+    }
+    double testRmse = testRmse(factorization, split);
+    double speedUp = stockMillis == 0.0 ? 1.0 : stockMillis / millis;
+    System.out.printf("%-24s %-10s %2d threads %8.0f ms %7.1f ms/epoch %5.2fx  test RMSE %.4f%n", 
+        name, schedule, threads, millis, millis / EPOCHS, speedUp, testRmse);
+    writer.printf("%s,%s,%d,%.0f,%.1f,%.2f,%s,%.4f%n", name, schedule, threads, millis, 
+        millis / EPOCHS, speedUp, trainingRmse, testRmse);
+    return millis;
+  }
+
+  /** RMSE on the test preferences, leaving out items that are not in the training set. */
+  static double testRmse(Factorization factorization, TrainingTestSplit split) 
+      throws TasteException
+  {
+    double sum = 0.0;
+    int count = 0;
+    for (Map.Entry<Long,PreferenceArray> entry : split.getTestPrefs().entrySet()) {
+      double[] userFeatures = factorization.getUserFeatures(entry.getKey());
+      PreferenceArray prefs = entry.getValue();
+      for (int i = 0; i < prefs.length(); i++) {
+        double[] itemFeatures;
+        try {
+          itemFeatures = factorization.getItemFeatures(prefs.getItemID(i));
+        } catch (NoSuchItemException nsie) {
+          continue;
+        }
+        double estimate = 0.0;
+        for (int f = 0; f < userFeatures.length; f++)
+          estimate += userFeatures[f] * itemFeatures[f];
+        double error = prefs.getValue(i) - estimate;
+        sum += error * error;
+        count++;
+      }
+    }
+    return Math.sqrt(sum / count);
+  }
+
+}
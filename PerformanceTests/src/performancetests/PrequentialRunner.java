@@ -0,0 +1,118 @@
+package performancetests;
+
+import static performancetests.DynamicRecommenderBuilder.RecommenderName.*;
+import static performancetests.DynamicRecommenderBuilder.SimilarityMeasure.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.Date;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.eval.PrequentialEvaluation;
+import org.apache.mahout.cf.taste.impl.eval.PrequentialEvaluator;
+import org.apache.mahout.cf.taste.impl.eval.RatingEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * This class replays ratings in timestamp order: every rating is first predicted by the current 
+ * recommender and then added to its data model, the way a live system sees them. It reports the 
+ * throughput, compared to the rate at which the ratings came in, and the av abs dif per window.
+ * <p>
+ * Arguments: [rating files]; they need a timestamp column, like u.data of ml-100k or a CSV 
+ * converted by MovieDataConvert with "timestamps". 
+ */
+public class PrequentialRunner
+{
+  static Logger logger = LoggerFactory.getLogger(PrequentialRunner.class);
+  
+  /** Fraction of the ratings, the earliest, the recommender is built on. */
+  static final double WARM_UP = 0.5;
+  /** Number of ratings per window of the av abs dif. */
+  static final int WINDOW_SIZE = 5000;
+  /** Number of ratings after which the recommender is refreshed, e.g. to retrain SVD. */
+  static final int REFRESH_INTERVAL = 10000;
+  
+  public static void main(String[] args) throws IOException, TasteException
+  {
+    String[] dataSets = args.length > 0 ? args 
+        : new String[] { "../ItemBasedRecommender/data/u.data" };
+    
+    // only recommenders that read the DeltaDataModel they are built on see the new ratings 
+    // before they are refreshed
+    Object[][] recommenders = { 
+        { "ItemAverage", ItemAverage, None }, 
+        { "ItemUserAverage", ItemUserAverage, None }, 
+        { "UB Pearson 4nn", GenericUserBased, Pearson, 4 }, 
+        { "UB Euclidian th.9", GenericUserBased, Euclidian, .9 }, 
+        { "IB Pearson", GenericItemBased, Pearson },
+        { "IB LogLikelihood", GenericItemBased, LogLikelihood },
+        { "BIB Pearson", BiasedItemBased, Pearson },
+        { "SlopeOne", SlopeOne, None }, // not in Mahout 0.9
+        { "SVG_ALS", SVD_ALS, None },
+    };
+    
+    String today = DateFormat.getDateTimeInstance().format(new Date()).replace(':', '_');
+    PrintWriter writer = new PrintWriter(
+      new FileOutputStream("results/prequential-results-" + today + ".csv"), true);
+
+    writer.println( "Java version," + System.getProperty("java.version") );
+    writer.println( "Max heap," + (Runtime.getRuntime().maxMemory()/1024/1024) + " Mb" );
+    writer.println( "Warm-up," + WARM_UP );
+    writer.println( "Window size," + WINDOW_SIZE );
+    writer.println( "Refresh interval," + REFRESH_INTERVAL );
+    writer.println();
+
+    writer.println("data set,algorithm,dur (s),ratings,predicted,coverage,av abs dif,RMSE,"
+        + "ratings/s,events/s,speed-up,est p50 (us),est p90,est p99,est p99.9,est max,"
+        + "upd p50 (us),upd p90,upd p99,upd p99.9,upd max,av abs dif per window");
+
+    PrequentialEvaluator evaluator = new PrequentialEvaluator(WINDOW_SIZE, REFRESH_INTERVAL);
+    for (String dataSet : dataSets) 
+    {
+      RatingEvents events = RatingEvents.load(new File(dataSet));
+      System.out.println();
+      System.out.println("Using data set: " + dataSet + ", " + events);
+      System.out.println();
+
+      for (Object[] configuration : recommenders)
+      {
+        DynamicRecommenderBuilder recommenderBuilder = new DynamicRecommenderBuilder(configuration);
+        System.out.println("Testing " + recommenderBuilder.name);
+        logger.info("Testing " + recommenderBuilder.name);
+        
+        System.gc();
+        long start = System.nanoTime();
+        PrequentialEvaluation evaluation = evaluator.evaluate(recommenderBuilder, events, WARM_UP);
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println(evaluation);
+
+        writer.printf(new File(dataSet).getName() + ",");
+        writer.printf(recommenderBuilder.name + ",");
+        writer.printf("%.3f,", millis/1000.0);
+        writer.printf("%d,", evaluation.getNumRatings());
+        writer.printf("%d,", evaluation.getTotal().getNumPredicted());
+        writer.printf("%.4f,", evaluation.getCoverage());
+        writer.printf("%.4f,", evaluation.getMeanAbsoluteError());
+        writer.printf("%.4f,", evaluation.getRootMeanSquaredError());
+        writer.printf("%.1f,", evaluation.getRatingsPerSecond());
+        writer.printf("%.6f,", evaluation.getEventsPerSecond());
+        writer.printf("%.0f,", evaluation.getSpeedUp());
+        EvaluationRunner.printPercentiles(writer, evaluation.getPredictLatency(), 1000.0);
+        EvaluationRunner.printPercentiles(writer, evaluation.getUpdateLatency(), 1000.0);
+        for (PrequentialEvaluation.Window window : evaluation.getWindows()) {
+          writer.printf("%.4f,", window.getMeanAbsoluteError());
+        }
+        writer.println();
+      }
+      writer.println();
+    }
+    writer.println("Done.");
+    writer.close();
+  }
+
+}
@@ -10,12 +10,15 @@ import java.util.List;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
 import org.apache.mahout.cf.taste.impl.neighborhood.ThresholdUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.AllSimilarItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.file.TopKItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.file.TopKItemSimilarityBuilder;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
@@ -29,6 +32,8 @@ import org.joda.time.format.PeriodFormat;
  */
 public class Runner
 {
+  /** Number of most similar items that are precomputed per item. */
+  static final int TOP_K = 20;
 
   public static void main(String[] args) throws IOException, TasteException
   {
@@ -47,7 +52,7 @@ public class Runner
     writer.newLine();
     writer.newLine();
 
-    writer.write( "(seconds),GenericUserBased,GenericItemBased" ); 
+    writer.write( "(seconds),GenericUserBased,GenericItemBased,top-K build,top-K all items" ); 
     writer.newLine();
     writer.flush();
 
@@ -58,7 +63,7 @@ public class Runner
       System.out.println();
       writer.write(dataSet + ",");
       System.gc();
-      DataModel model = new FileDataModel(new File(dataDirectory + "/" + dataSet));
+      DataModel model = RatingsFile.load(new File(dataDirectory + "/" + dataSet));
 
       {
         System.out.println("Running GenericUserBasedRecommender");
@@ -114,6 +119,45 @@ public class Runner
         writer.write(millis/1000.0 + ",");
         writer.flush();
       }
+
+      {
+        System.out.println("Running GenericItemBasedRecommender on a top-" + TOP_K + " index");
+        long start = System.nanoTime();
+
+        // computed in parallel; a fresh file each run, so that the build is measured
+        File indexFile = File.createTempFile(dataSet, TopKItemSimilarity.EXTENSION);
+        indexFile.deleteOnExit();
+        new TopKItemSimilarityBuilder(model, new TanimotoCoefficientSimilarity(model), TOP_K, 0)
+            .build(indexFile);
+        TopKItemSimilarity sim = TopKItemSimilarity.map(indexFile);
+
+        long finish = System.nanoTime();
+        long millis = (finish - start) / 1000000;
+        System.out.println("Build: " + PeriodFormat.getDefault().print(
+            new Period(millis).normalizedStandard()));
+        writer.write(millis/1000.0 + ",");
+
+        // mostSimilarItems is now a lookup, so all items are done instead of 10
+        AllSimilarItemsCandidateItemsStrategy candidates = 
+            new AllSimilarItemsCandidateItemsStrategy(sim);
+        GenericItemBasedRecommender recommender = 
+            new GenericItemBasedRecommender(model, sim, candidates, candidates);
+        start = System.nanoTime();
+        for (LongPrimitiveIterator items = model.getItemIDs(); items.hasNext();) {
+          long itemId = items.nextLong();
+          List<RecommendedItem> recommendations = recommender.mostSimilarItems(itemId, 5);
+          for (RecommendedItem recommendation : recommendations) {
+            recommendation.getItemID();
+          }
+        }
+
+        finish = System.nanoTime();
+        millis = (finish - start) / 1000000;
+        Period period = new Period(millis).normalizedStandard();
+        System.out.println("Duration: " + PeriodFormat.getDefault().print(period));
+        writer.write(millis/1000.0 + ",");
+        writer.flush();
+      }
       writer.newLine();
     }
     writer.newLine();
@@ -0,0 +1,194 @@
+package performancetests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.IndexedDataModel;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
+import org.apache.mahout.cf.taste.impl.similarity.*;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+
+/**
+ * This class compares the time per similarity of Mahout's correlation-based similarities with 
+ * those of IndexedCorrelationSimilarity and MergeCorrelationSimilarity, on the same random pairs 
+ * of users (or items). Every similarity gets WARM_UP rounds over all pairs for the JIT, and then 
+ * the median of ROUNDS measured rounds is reported, with the largest difference to Mahout's 
+ * result as a check.
+ * <p>
+ * Arguments: [rating file]; the default is data/ml-100k.csv.
+ */
+public class SimilarityBenchmark
+{
+  static final int WARM_UP = 3;
+  static final int ROUNDS = 5;
+  static final int PAIRS = 200000;
+  /** Mahout's Spearman sorts both users for every pair, so it gets fewer pairs. */
+  static final int SPEARMAN_PAIRS = 10000;
+
+  /** Sink for the results, so that the JIT cannot drop the computations. */
+  static double blackhole;
+
+  public static void main(String[] args) throws IOException, TasteException
+  {
+    String dataSet = args.length > 0 ? args[0] : "data/ml-100k.csv";
+    DataModel model = RatingsFile.load(new File(dataSet));
+    IndexedDataModel indexed = new IndexedDataModel(model);
+    long[] userIDs = ids(model.getUserIDs(), model.getNumUsers());
+    long[] itemIDs = ids(model.getItemIDs(), model.getNumItems());
+    
+    String today = DateFormat.getDateTimeInstance().format(new Date()).replace(':', '_');
+    PrintWriter writer = new PrintWriter(
+      new FileOutputStream("results/similarity-benchmark-" + today + ".csv"), true);
+    writer.println( "Java version," + System.getProperty("java.version") );
+    writer.println( "Data set," + dataSet );
+    writer.println();
+    writer.println("similarity,implementation,pairs,ns/pair,speed-up,max abs dif");
+
+    Object[][] userSimilarities = {
+        { "user Pearson", new PearsonCorrelationSimilarity(model), 
+          new IndexedCorrelationSimilarity(indexed, IndexedCorrelationSimilarity.Measure.PEARSON),
+          new MergeCorrelationSimilarity(model, MergeCorrelationSimilarity.Measure.PEARSON) },
+        { "user PearsonW", new PearsonCorrelationSimilarity(model, Weighting.WEIGHTED), 
+          new IndexedCorrelationSimilarity(indexed, IndexedCorrelationSimilarity.Measure.PEARSON, 
+              Weighting.WEIGHTED),
+          new MergeCorrelationSimilarity(model, MergeCorrelationSimilarity.Measure.PEARSON, 
+              Weighting.WEIGHTED) },
+        { "user UncenteredCosine", new UncenteredCosineSimilarity(model), 
+          new IndexedCorrelationSimilarity(indexed, 
+              IndexedCorrelationSimilarity.Measure.UNCENTERED_COSINE),
+          new MergeCorrelationSimilarity(model, 
+              MergeCorrelationSimilarity.Measure.UNCENTERED_COSINE) },
+        { "user Euclidian", new EuclideanDistanceSimilarity(model), 
+          new IndexedCorrelationSimilarity(indexed, IndexedCorrelationSimilarity.Measure.EUCLIDEAN),
+          new MergeCorrelationSimilarity(model, MergeCorrelationSimilarity.Measure.EUCLIDEAN) },
+        { "user Spearman", new SpearmanCorrelationSimilarity(model), null,
+          new MergeCorrelationSimilarity(model, MergeCorrelationSimilarity.Measure.SPEARMAN) },
+    };
+    for (Object[] row : userSimilarities) 
+    {
+      int pairs = row[0].equals("user Spearman") ? SPEARMAN_PAIRS : PAIRS;
+      long[][] pairIDs = randomPairs(userIDs, pairs);
+      UserSimilarity stock = (UserSimilarity) row[1];
+      double[] expected = new double[pairs];
+      double stockNanos = time(stock, true, pairIDs, expected);
+      print(writer, (String) row[0], "Mahout", pairs, stockNanos, stockNanos, 0.0);
+      for (int k = 2; k < row.length; k++) {
+        if (row[k] == null)
+          continue;
+        double[] actual = new double[pairs];
+        double nanos = time(row[k], true, pairIDs, actual);
+        print(writer, (String) row[0], row[k].getClass().getSimpleName(), pairs, nanos, 
+            stockNanos, maxDifference(expected, actual));
+      }
+    }
+
+    Object[][] itemSimilarities = {
+        { "item Pearson", new PearsonCorrelationSimilarity(model), 
+          new IndexedCorrelationSimilarity(indexed, IndexedCorrelationSimilarity.Measure.PEARSON),
+          new MergeCorrelationSimilarity(model, MergeCorrelationSimilarity.Measure.PEARSON) },
+        { "item Euclidian", new EuclideanDistanceSimilarity(model), 
+          new IndexedCorrelationSimilarity(indexed, IndexedCorrelationSimilarity.Measure.EUCLIDEAN),
+          new MergeCorrelationSimilarity(model, MergeCorrelationSimilarity.Measure.EUCLIDEAN) },
+    };
+    for (Object[] row : itemSimilarities) 
+    {
+      long[][] pairIDs = randomPairs(itemIDs, PAIRS);
+      ItemSimilarity stock = (ItemSimilarity) row[1];
+      double[] expected = new double[PAIRS];
+      double stockNanos = time(stock, false, pairIDs, expected);
+      print(writer, (String) row[0], "Mahout", PAIRS, stockNanos, stockNanos, 0.0);
+      for (int k = 2; k < row.length; k++) {
+        double[] actual = new double[PAIRS];
+        double nanos = time(row[k], false, pairIDs, actual);
+        print(writer, (String) row[0], row[k].getClass().getSimpleName(), PAIRS, nanos, 
+            stockNanos, maxDifference(expected, actual));
+      }
+    }
+    writer.println("Done.");
+    writer.close();
+  }
+
+  static long[] ids(LongPrimitiveIterator it, int size)
+  {
+    long[] ids = new long[size];
+    for (int i = 0; i < size && it.hasNext(); i++)
+      ids[i] = it.nextLong();
+    return ids;
+  }
+
+  static long[][] randomPairs(long[] ids, int pairs)
+  {
+    Random random = new Random(42);
+    long[][] pairIDs = new long[2][pairs];
+    for (int n = 0; n < pairs; n++) {
+      pairIDs[0][n] = ids[random.nextInt(ids.length)];
+      pairIDs[1][n] = ids[random.nextInt(ids.length)];
+    }
+    return pairIDs;
+  }
+
+  /** 
+   * Median nanoseconds per pair of the measured rounds; the results go into {@code results}. 
+   * Mahout's similarities are both user and item similarities, hence byUser.
+   */
+  static double time(Object similarity, boolean byUser, long[][] pairIDs, double[] results) 
+      throws TasteException
+  {
+    int pairs = results.length;
+    long[] nanos = new long[ROUNDS];
+    for (int round = -WARM_UP; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      double sum = 0.0;
+      if (byUser)
+        for (int n = 0; n < pairs; n++) {
+          results[n] = ((UserSimilarity) similarity).userSimilarity(pairIDs[0][n], pairIDs[1][n]);
+          sum += results[n];
+        }
+      else
+        for (int n = 0; n < pairs; n++) {
+          results[n] = ((ItemSimilarity) similarity).itemSimilarity(pairIDs[0][n], pairIDs[1][n]);
+          sum += results[n];
+        }
+      long elapsed = System.nanoTime() - start;
+      blackhole += sum;
+      if (round >= 0)
+        nanos[round] = elapsed;
+    }
+    Arrays.sort(nanos);
+    return nanos[ROUNDS / 2] / (double) pairs;
+  }
+
+  static double maxDifference(double[] expected, double[] actual)
+  {
+    double max = 0.0;
+    for (int n = 0; n < expected.length; n++) {
+      if (Double.isNaN(expected[n]) != Double.isNaN(actual[n]))
+        return Double.NaN;
+      if (!Double.isNaN(expected[n]))
+        max = Math.max(max, Math.abs(expected[n] - actual[n]));
+    }
+    return max;
+  }
+
+  static void print(PrintWriter writer, String similarity, String implementation, int pairs, 
+      double nanos, double stockNanos, double difference)
+  {
+    System.out.printf("%-22s %-30s %8.0f ns/pair %6.1fx  max dif %.2g%n", similarity, 
+        implementation, nanos, stockNanos / nanos, difference);
+    writer.printf("%s,%s,%d,%.1f,%.2f,%.3g%n", similarity, implementation, pairs, nanos, 
+        stockNanos / nanos, difference);
+  }
+
+}
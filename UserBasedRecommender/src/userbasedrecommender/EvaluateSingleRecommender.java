@@ -12,7 +12,7 @@ import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
 import org.apache.mahout.cf.taste.impl.eval.AverageAbsoluteDifferenceRecommenderEvaluator;
 import org.apache.mahout.cf.taste.impl.eval.GenericRecommenderIRStatsEvaluator;
 import org.apache.mahout.cf.taste.impl.eval.RankBasedRecommenderEvaluator;
-import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
 import org.apache.mahout.cf.taste.impl.neighborhood.ThresholdUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
 import org.apache.mahout.cf.taste.impl.similarity.CachingUserSimilarity;
@@ -44,7 +44,7 @@ public class EvaluateSingleRecommender
   {
     long start = System.nanoTime();
 
-    DataModel model = new FileDataModel(new File("data/ml-10k.csv"));
+    DataModel model = RatingsFile.load(new File("data/ml-10k.csv"));
     RecommenderEvaluator evaluator = new AverageAbsoluteDifferenceRecommenderEvaluator();
     RecommenderBuilder builder = new MyRecommenderBuilder();
     double result = evaluator.evaluate(builder, null, model, 0.5, 1.0);
@@ -80,6 +80,9 @@ public class EvaluateSingleRecommender
     @Override
     public Recommender buildRecommender(DataModel dataModel) throws TasteException
     {
+      // computes all user pairs up front, on all cores; Spearman then takes seconds on 100k
+//      UserSimilarity similarity = new AllPairsUserSimilarity(dataModel, 
+//          AllPairsUserSimilarity.Measure.SPEARMAN);
       UserSimilarity similarity = new CachingUserSimilarity(
 //          new PearsonCorrelationSimilarity(dataModel, Weighting.UNWEIGHTED), dataModel
           new EuclideanDistanceSimilarity(dataModel, Weighting.UNWEIGHTED), dataModel
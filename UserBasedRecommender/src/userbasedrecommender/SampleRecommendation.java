@@ -5,7 +5,7 @@ import java.io.IOException;
 import java.util.List;
 
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.model.file.RatingsFile;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
@@ -20,7 +20,7 @@ public class SampleRecommendation
 {
   public static void main(String[] args) throws IOException, TasteException
   {
-    DataModel model = new FileDataModel(new File("data/dataset32.csv"));
+    DataModel model = RatingsFile.load(new File("data/dataset32.csv"));
     UserSimilarity similarity = new PearsonCorrelationSimilarity(model);
 //    UserNeighborhood neighborhood = new ThresholdUserNeighborhood(0.1, similarity, model);
     UserNeighborhood neighborhood = new NearestNUserNeighborhood(1, similarity, model);